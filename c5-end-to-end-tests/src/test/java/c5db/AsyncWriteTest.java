@@ -87,6 +87,7 @@ public class AsyncWriteTest extends MiniClusterBase {
     MutateRequest mutateRequest = new MutateRequest(regionSpecifier, mutationProto, new Condition());
 
     ListenableFuture<Response> future = singleNodeTable.bufferMutate(mutateRequest);
+    singleNodeTable.whenWritable().get();
 
     Futures.addCallback(future, new FutureCallback<Response>() {
       @Override
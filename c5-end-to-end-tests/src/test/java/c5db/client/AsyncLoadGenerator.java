@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.C5TestServerConstants;
+import c5db.MiniClusterBase;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.protostuff.ByteString;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Drives a table with puts and then gets through an AsyncC5Table, from a handful of threads each keeping many
+ * requests outstanding, and reports the throughput and the number of requests in flight. A blocking client
+ * would need a thread per outstanding request to do the same.
+ * <p/>
+ * Run main against a running server, with its port, the table name, and optionally the number of threads,
+ * the number of requests each keeps outstanding, and the number of rows.
+ */
+public class AsyncLoadGenerator extends MiniClusterBase {
+  private static final byte[] CF = Bytes.toBytes("cf");
+  private static final byte[] CQ = Bytes.toBytes("cq");
+
+  private final AsyncC5Table asyncTable;
+  private final int threads;
+  private final int outstandingPerThread;
+  private final int rows;
+
+  private final AtomicLong failures = new AtomicLong(0);
+  private final AtomicLong inFlight = new AtomicLong(0);
+  private final AtomicLong maxInFlight = new AtomicLong(0);
+
+  public AsyncLoadGenerator() {
+    this(null, 0, 0, 0);
+  }
+
+  private AsyncLoadGenerator(AsyncC5Table asyncTable, int threads, int outstandingPerThread, int rows) {
+    this.asyncTable = asyncTable;
+    this.threads = threads;
+    this.outstandingPerThread = outstandingPerThread;
+    this.rows = rows;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int port = args.length > 0 ? Integer.parseInt(args[0]) : C5Constants.TEST_PORT;
+    final ByteString tableName = ByteString.copyFromUtf8(args.length > 1 ? args[1] : "testTable");
+    final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    final int outstandingPerThread = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+    final int rows = args.length > 4 ? Integer.parseInt(args[4]) : 1000000;
+
+    try (AsyncC5Table asyncTable = new AsyncC5Table(C5TestServerConstants.LOCALHOST, port, tableName)) {
+      new AsyncLoadGenerator(asyncTable, threads, outstandingPerThread, rows).run();
+    }
+  }
+
+  /**
+   * @return the number of requests which failed
+   */
+  public long run() throws InterruptedException {
+    runPhase("put", row -> asyncTable.put(new Put(Bytes.toBytes(row)).add(CF, CQ, Bytes.toBytes(row))));
+    runPhase("get", row -> asyncTable.get(new Get(Bytes.toBytes(row))));
+    return failures.get();
+  }
+
+  private void runPhase(String name, RequestFactory requests) throws InterruptedException {
+    maxInFlight.set(0);
+    final long failuresBefore = failures.get();
+    final CountDownLatch done = new CountDownLatch(rows);
+    final long start = System.nanoTime();
+
+    for (int thread = 0; thread < threads; thread++) {
+      final int firstRow = thread;
+      new Thread(() -> {
+        final Semaphore outstanding = new Semaphore(outstandingPerThread);
+        try {
+          for (int row = firstRow; row < rows; row += threads) {
+            outstanding.acquire();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Futures.addCallback(requests.request(row), new FutureCallback<Object>() {
+              @Override
+              public void onSuccess(Object result) {
+                finished();
+              }
+
+              @Override
+              public void onFailure(Throwable t) {
+                failures.incrementAndGet();
+                finished();
+              }
+
+              private void finished() {
+                inFlight.decrementAndGet();
+                outstanding.release();
+                done.countDown();
+              }
+            });
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }, "load-" + name + "-" + thread).start();
+    }
+
+    done.await();
+    final long elapsedNanos = System.nanoTime() - start;
+    System.out.format("%s: %,d requests from %d threads in %,d ms: %,.0f requests/sec, up to %,d in flight, "
+            + "%,d failed%n",
+        name, rows, threads, elapsedNanos / 1000000, rows / (elapsedNanos / 1e9), maxInFlight.get(),
+        failures.get() - failuresBefore);
+  }
+
+  private interface RequestFactory {
+    ListenableFuture<?> request(int row);
+  }
+
+  @Test
+  public void aFewThreadsCanKeepManyRequestsInFlight() throws Exception {
+    final ByteString tableName = ByteString.copyFrom(Bytes.toBytes(name.getMethodName()));
+    try (AsyncC5Table asyncTable =
+             new AsyncC5Table(C5TestServerConstants.LOCALHOST, getRegionServerPort(), tableName)) {
+      final AsyncLoadGenerator generator = new AsyncLoadGenerator(asyncTable, 2, 500, 20000);
+      assertThat(generator.run(), is(0L));
+    }
+  }
+}
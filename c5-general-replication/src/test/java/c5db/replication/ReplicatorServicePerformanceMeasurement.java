@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.replication;
+
+import c5db.C5CommonTestUtil;
+import c5db.SimpleC5ModuleServer;
+import c5db.interfaces.DiscoveryModule;
+import c5db.interfaces.discovery.NewNodeVisible;
+import c5db.interfaces.discovery.NodeInfo;
+import c5db.interfaces.discovery.NodeInfoReply;
+import c5db.interfaces.discovery.NodeInfoRequest;
+import c5db.interfaces.replication.Replicator;
+import c5db.log.LogService;
+import c5db.messages.generated.ModuleType;
+import c5db.util.ExceptionHandlingBatchExecutor;
+import c5db.util.FiberSupplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractService;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.jetlang.channels.MemoryChannel;
+import org.jetlang.channels.MemoryRequestChannel;
+import org.jetlang.channels.RequestChannel;
+import org.jetlang.channels.Subscriber;
+import org.jetlang.fibers.Fiber;
+import org.jetlang.fibers.PoolFiberFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static c5db.ReplicatorConstants.REPLICATOR_PORT_MIN;
+
+/**
+ * Provides for measurement of ReplicatorService's throughput and commit latency as a function of the
+ * number of quorums and the number of shards ReplicatorService divides the routing of RPCs among.
+ * <p>
+ * Three ReplicatorServices run within this JVM, each with its own LogService, and exchange messages
+ * with one another over loopback connections; discovery is replaced by a fixed table of their ports.
+ * Every quorum includes all three nodes. Once each quorum has elected a leader, small entries are
+ * replicated to the quorums round robin, through each quorum's leader, with a bounded number of requests
+ * outstanding at once. The time taken to commit the whole workload, and the latency of each request,
+ * from the call to replicate until it is known to be committed, are measured.
+ */
+public class ReplicatorServicePerformanceMeasurement {
+  private static final List<Long> NODE_IDS = Lists.newArrayList(1L, 2L, 3L);
+  private static final int FIRST_PORT = REPLICATOR_PORT_MIN + 2000;
+
+  private static final int ENTRIES_PER_QUORUM = 200;
+  private static final int ENTRY_SIZE_BYTES = 128;
+  private static final int MAXIMUM_OUTSTANDING_REQUESTS = 2000;
+  private static final long LEADER_ELECTION_TIMEOUT_MILLIS = 60000;
+
+  /**
+   * Execute a script of several timed runs.
+   */
+  public static void main(String[] args) throws Exception {
+    System.out.println("quorums\tshards\tentries/s\tmeanLatencyMs\tp99LatencyMs");
+
+    int portOffset = 0;
+    for (int numQuorums : new int[]{10, 100, 500}) {
+      for (int numShards : new int[]{1, 2, 4, 8}) {
+        ReplicatorServicePerformanceMeasurement fixture =
+            new ReplicatorServicePerformanceMeasurement(numQuorums, numShards, FIRST_PORT + portOffset);
+        portOffset += NODE_IDS.size();
+        try {
+          fixture.doTimedRun();
+        } finally {
+          fixture.dispose();
+        }
+      }
+    }
+    System.exit(0);
+  }
+
+  private final int numQuorums;
+  private final int numShards;
+  private final Path testDir = (new C5CommonTestUtil()).getDataTestDir("replicator-benchmark");
+
+  private final ExecutorService executorService = Executors.newCachedThreadPool();
+  private final PoolFiberFactory fiberFactory = new PoolFiberFactory(executorService);
+  private final FiberSupplier fiberSupplier = (throwableHandler) ->
+      fiberFactory.create(new ExceptionHandlingBatchExecutor(throwableHandler));
+  private final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+  private final EventLoopGroup workerGroup = new NioEventLoopGroup();
+  private final Fiber clientFiber = fiberSupplier.getFiber(Throwable::printStackTrace);
+
+  private final Map<Long, Integer> nodePorts = new HashMap<>();
+  private final List<ReplicatorService> replicatorServices = new ArrayList<>();
+  private final Map<String, List<Replicator>> replicatorsByQuorum = new HashMap<>();
+  private final ConcurrentLinkedQueue<Long> latenciesNanos = new ConcurrentLinkedQueue<>();
+
+  public ReplicatorServicePerformanceMeasurement(int numQuorums, int numShards, int firstPort) throws Exception {
+    this.numQuorums = numQuorums;
+    this.numShards = numShards;
+
+    int port = firstPort;
+    for (long nodeId : NODE_IDS) {
+      nodePorts.put(nodeId, port++);
+    }
+
+    clientFiber.start();
+    for (long nodeId : NODE_IDS) {
+      startNode(nodeId);
+    }
+    createQuorums();
+  }
+
+  private void startNode(long nodeId) throws Exception {
+    Fiber serverFiber = fiberSupplier.getFiber(Throwable::printStackTrace);
+    serverFiber.start();
+    SimpleC5ModuleServer moduleServer = new SimpleC5ModuleServer(serverFiber);
+    Path nodeDir = testDir.resolve("node" + nodeId);
+
+    ReplicatorService replicatorService = new ReplicatorService(bossGroup, workerGroup, nodeId,
+        nodePorts.get(nodeId), moduleServer, fiberSupplier, new NioQuorumFileReaderWriter(nodeDir), numShards);
+
+    moduleServer.startModule(new LogService(nodeDir, fiberSupplier)).get();
+    moduleServer.startModule(new FixedDiscoveryModule(nodePorts)).get();
+    moduleServer.startModule(replicatorService).get();
+    replicatorServices.add(replicatorService);
+  }
+
+  private void createQuorums() throws Exception {
+    for (int i = 0; i < numQuorums; i++) {
+      String quorumId = "quorum" + i;
+      List<Replicator> replicators = new ArrayList<>();
+      for (ReplicatorService replicatorService : replicatorServices) {
+        Replicator replicator = replicatorService.createReplicator(quorumId, NODE_IDS).get();
+        replicator.start();
+        replicators.add(replicator);
+      }
+      replicatorsByQuorum.put(quorumId, replicators);
+    }
+  }
+
+  private Map<String, GeneralizedReplicator> waitForLeaders() throws Exception {
+    final long deadline = System.currentTimeMillis() + LEADER_ELECTION_TIMEOUT_MILLIS;
+    final Map<String, GeneralizedReplicator> leaders = new HashMap<>();
+
+    while (leaders.size() < numQuorums) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new TimeoutException("only " + leaders.size() + " of " + numQuorums + " quorums elected leaders");
+      }
+
+      for (Map.Entry<String, List<Replicator>> entry : replicatorsByQuorum.entrySet()) {
+        if (leaders.containsKey(entry.getKey())) {
+          continue;
+        }
+        for (Replicator replicator : entry.getValue()) {
+          if (replicator.isLeader()) {
+            leaders.put(entry.getKey(), new C5GeneralizedReplicator(replicator, clientFiber));
+          }
+        }
+      }
+      Thread.sleep(10);
+    }
+
+    return leaders;
+  }
+
+  private void doTimedRun() throws Exception {
+    final Map<String, GeneralizedReplicator> leaders = waitForLeaders();
+    final Semaphore outstandingRequests = new Semaphore(MAXIMUM_OUTSTANDING_REQUESTS);
+    final List<ListenableFuture<Long>> futures = new ArrayList<>();
+
+    final long startTime = System.nanoTime();
+
+    for (int entry = 0; entry < ENTRIES_PER_QUORUM; entry++) {
+      for (GeneralizedReplicator leader : leaders.values()) {
+        outstandingRequests.acquire();
+        final long replicateCallTime = System.nanoTime();
+        ListenableFuture<Long> future = leader.replicate(someData());
+        future.addListener(() -> {
+          latenciesNanos.add(System.nanoTime() - replicateCallTime);
+          outstandingRequests.release();
+        }, MoreExecutors.sameThreadExecutor());
+        futures.add(future);
+      }
+    }
+
+    Futures.allAsList(futures).get(5, TimeUnit.MINUTES);
+    final long elapsedNanos = System.nanoTime() - startTime;
+
+    outputResults(elapsedNanos);
+  }
+
+  private void outputResults(long elapsedNanos) {
+    final List<Long> latencies = new ArrayList<>(latenciesNanos);
+    Collections.sort(latencies);
+
+    long totalLatencyNanos = 0;
+    for (long latency : latencies) {
+      totalLatencyNanos += latency;
+    }
+
+    final double entriesPerSecond = (double) latencies.size() / elapsedNanos * TimeUnit.SECONDS.toNanos(1);
+    final double meanLatencyMillis = (double) totalLatencyNanos / latencies.size() / TimeUnit.MILLISECONDS.toNanos(1);
+    final double p99LatencyMillis =
+        (double) latencies.get((int) (latencies.size() * 0.99)) / TimeUnit.MILLISECONDS.toNanos(1);
+
+    System.out.println(numQuorums + "\t" + numShards + "\t"
+        + String.format("%.1f\t%.2f\t%.2f", entriesPerSecond, meanLatencyMillis, p99LatencyMillis));
+  }
+
+  private void dispose() {
+    for (ReplicatorService replicatorService : replicatorServices) {
+      replicatorService.stopAndWait();
+    }
+    clientFiber.dispose();
+    fiberFactory.dispose();
+    executorService.shutdownNow();
+    bossGroup.shutdownGracefully();
+    workerGroup.shutdownGracefully();
+  }
+
+  private static List<ByteBuffer> someData() {
+    return Lists.newArrayList(ByteBuffer.allocate(ENTRY_SIZE_BYTES));
+  }
+
+  /**
+   * A DiscoveryModule which knows of a fixed set of nodes, all on the local host, and their replication ports.
+   */
+  private static class FixedDiscoveryModule extends AbstractService implements DiscoveryModule {
+    private final Map<Long, Integer> nodePorts;
+    private final RequestChannel<NodeInfoRequest, NodeInfoReply> nodeInfoRequests = new MemoryRequestChannel<>();
+    private final Fiber fiber = new PoolFiberFactory(Executors.newSingleThreadExecutor()).create();
+
+    private FixedDiscoveryModule(Map<Long, Integer> nodePorts) {
+      this.nodePorts = nodePorts;
+    }
+
+    @Override
+    public RequestChannel<NodeInfoRequest, NodeInfoReply> getNodeInfo() {
+      return nodeInfoRequests;
+    }
+
+    @Override
+    public ListenableFuture<NodeInfoReply> getNodeInfo(long nodeId, ModuleType module) {
+      return Futures.immediateFuture(lookUp(nodeId));
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<Long, NodeInfo>> getState() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Subscriber<NewNodeVisible> getNewNodeNotifications() {
+      return new MemoryChannel<>();
+    }
+
+    @Override
+    public ModuleType getModuleType() {
+      return ModuleType.Discovery;
+    }
+
+    @Override
+    public boolean hasPort() {
+      return false;
+    }
+
+    @Override
+    public int port() {
+      return 0;
+    }
+
+    @Override
+    public String acceptCommand(String commandString) {
+      return null;
+    }
+
+    @Override
+    protected void doStart() {
+      nodeInfoRequests.subscribe(fiber, (request) -> request.reply(lookUp(request.getRequest().nodeId)));
+      fiber.start();
+      notifyStarted();
+    }
+
+    @Override
+    protected void doStop() {
+      fiber.dispose();
+      notifyStopped();
+    }
+
+    private NodeInfoReply lookUp(long nodeId) {
+      if (!nodePorts.containsKey(nodeId)) {
+        return new NodeInfoReply(false, null, 0);
+      }
+      return new NodeInfoReply(true, Lists.newArrayList("127.0.0.1"), nodePorts.get(nodeId));
+    }
+  }
+}
@@ -68,7 +68,7 @@ import static c5db.interfaces.replication.ReplicatorInstanceEvent.EventType.LEAD
 import static c5db.replication.ReplicationMatchers.aReplicatorEvent;
 import static com.google.common.util.concurrent.Futures.allAsList;
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasSize;
 
 public class StandaloneReplicatorTest {
@@ -113,8 +113,8 @@ public class StandaloneReplicatorTest {
              = new SingleQuorumReplicationServer(nodeId, peerIds, this::newExceptionHandlingFiber)) {
 
       serverFixture.eventMonitor.waitFor(aReplicatorEvent(LEADER_ELECTED));
-      serverFixture.replicator.logData(Lists.newArrayList(someData())).get();
-      serverFixture.commitMonitor.waitFor(aCommitNotice().withIndex(equalTo(2L)));
+      long index = serverFixture.replicator.logData(Lists.newArrayList(someData())).get().seqNum;
+      serverFixture.commitMonitor.waitFor(aCommitNotice().withIndex(greaterThanOrEqualTo(index)));
     }
   }
 
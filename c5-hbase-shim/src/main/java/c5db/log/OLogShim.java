@@ -17,18 +17,14 @@
 
 package c5db.log;
 
-import c5db.generated.RegionWalEntry;
 import c5db.interfaces.replication.Replicator;
 import c5db.replication.C5GeneralizedReplicator;
 import c5db.replication.GeneralizedReplicator;
-import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListenableFuture;
-import io.protostuff.LinkBuffer;
-import io.protostuff.LowCopyProtostuffOutput;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.hadoop.fs.Syncable;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
-import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
@@ -58,15 +54,17 @@ public class OLogShim implements Syncable, HLog {
 
   private static final int WAL_SYNC_TIMEOUT_SECONDS = 10;
   private static final int MAX_APPENDS_OUTSTANDING = 1000;
+  private static final long MAX_APPEND_BYTES_OUTSTANDING = 32 * 1024 * 1024;
 
   private final AtomicLong logSeqNum = new AtomicLong(0);
   private final GeneralizedReplicator replicator;
 
   // When logging, place all received futures in this queue. Then, when performing sync, wait
-  // for all those saved futures. To prevent this queue from growing without bound, the client
-  // of this class must sync regularly. That's something the client would need to do anyway in
-  // order to determine whether its writes are succeeding.
+  // for all those saved futures. The client of this class should sync regularly, which it would
+  // need to do anyway in order to determine whether its writes are succeeding; but if it lets
+  // too many appends, or too many bytes, accumulate unreplicated, the next append syncs first.
   private final BlockingQueue<ListenableFuture<Long>> appendFutures = new ArrayBlockingQueue<>(MAX_APPENDS_OUTSTANDING);
+  private final AtomicLong appendBytesOutstanding = new AtomicLong(0);
 
   /**
    * The caller of this constructor must take responsibility for starting and disposing of
@@ -76,10 +74,13 @@ public class OLogShim implements Syncable, HLog {
     this.replicator = new C5GeneralizedReplicator(replicatorInstance, fiber);
   }
 
-  //TODO fix so we don't always insert a huge amount of data
+  /**
+   * The returned sequence id is recorded in the flushed store files; every edit appended before the flush
+   * began has a lower one, so on reopening the region, replay can skip every edit up to it.
+   */
   @Override
   public Long startCacheFlush(byte[] encodedRegionName) {
-    return (long) 0;
+    return obtainSeqNum();
   }
 
   @Override
@@ -219,17 +220,26 @@ public class OLogShim implements Syncable, HLog {
                            WALEdit edit, List<UUID> clusterIds,
                            long now,
                            HTableDescriptor htd) throws IOException {
+    final long seqNum = obtainSeqNum();
     try {
-      List<ByteBuffer> entryBytes = serializeWalEdit(info.getRegionNameAsString(), edit);
+      List<ByteBuffer> entryBytes = WalEditCodec.encode(info.getRegionNameAsString(), seqNum, edit);
+      final long size = entryBytes.stream().mapToLong(ByteBuffer::remaining).sum();
+
+      if (appendFutures.remainingCapacity() == 0
+          || appendBytesOutstanding.get() + size > MAX_APPEND_BYTES_OUTSTANDING) {
+        sync();
+      }
 
       // our replicator knows what quorumId/tabletId we are.
       ListenableFuture<Long> appendFuture = replicator.replicate(entryBytes);
-      appendFutures.add(appendFuture);
+      appendBytesOutstanding.addAndGet(size);
+      appendFuture.addListener(() -> appendBytesOutstanding.addAndGet(-size), MoreExecutors.sameThreadExecutor());
+      appendFutures.put(appendFuture);
 
     } catch (GeneralizedReplicator.InvalidReplicatorStateException | InterruptedException e) {
       throw new IOException(e);
     }
-    return 0;
+    return seqNum;
   }
 
   // TODO XXX passthrough no longer valid, this call does the wrong thing now.
@@ -246,34 +256,4 @@ public class OLogShim implements Syncable, HLog {
     appendNoSync(info, tableName, edits, null, now, htd);
     this.sync();
   }
-
-  private static List<ByteBuffer> serializeWalEdit(String regionInfo, WALEdit edit) throws IOException {
-    final List<ByteBuffer> buffers = new ArrayList<>();
-
-    for (KeyValue keyValue : edit.getKeyValues()) {
-      @SuppressWarnings("deprecation")
-      final RegionWalEntry entry = new RegionWalEntry(
-          regionInfo,
-          ByteBuffer.wrap(keyValue.getRow()),
-          ByteBuffer.wrap(keyValue.getFamily()),
-          ByteBuffer.wrap(keyValue.getQualifier()),
-          ByteBuffer.wrap(keyValue.getValue()),
-          keyValue.getTimestamp());
-      addLengthPrependedEntryBuffersToList(entry, buffers);
-    }
-    return buffers;
-  }
-
-  private static void addLengthPrependedEntryBuffersToList(RegionWalEntry entry, List<ByteBuffer> buffers)
-      throws IOException {
-    LinkBuffer entryBuffer = new LinkBuffer();
-    LowCopyProtostuffOutput lcpo = new LowCopyProtostuffOutput(entryBuffer);
-    RegionWalEntry.getSchema().writeTo(lcpo, entry);
-
-    final int length = Ints.checkedCast(lcpo.buffer.size());
-    final LinkBuffer lengthBuf = new LinkBuffer().writeVarInt32(length);
-
-    buffers.addAll(lengthBuf.finish());
-    buffers.addAll(entryBuffer.finish());
-  }
-}
\ No newline at end of file
+}
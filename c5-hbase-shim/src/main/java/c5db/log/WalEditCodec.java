@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.log;
+
+import c5db.generated.RegionWalCell;
+import c5db.generated.RegionWalEdit;
+import c5db.generated.RegionWalEntry;
+import com.google.common.primitives.Ints;
+import io.protostuff.ByteBufferInput;
+import io.protostuff.LinkBuffer;
+import io.protostuff.LowCopyProtostuffOutput;
+import io.protostuff.Message;
+import io.protostuff.Schema;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the WALEdits logged by {@link OLogShim}, and decodes them again for replay.
+ * <p>
+ * An edit is encoded as a single length-prepended {@link RegionWalEdit}, which stores the region name once,
+ * stores each distinct row, family, and qualifier once, and refers to them from each cell by index. The
+ * cells' bytes are referenced in place rather than copied. Logs written before this format was introduced
+ * (version 1) hold one length-prepended {@link RegionWalEntry} per KeyValue; {@link #decode} reads both.
+ */
+public final class WalEditCodec {
+  public static final int FORMAT_VERSION = 2;
+
+  /**
+   * The first tag of an encoded RegionWalEdit: its formatVersion, field 1, a varint. A RegionWalEntry begins
+   * instead with its regionInfo, field 1, which is length-delimited.
+   */
+  private static final int REGION_WAL_EDIT_FIRST_TAG = (1 << 3);
+
+  private WalEditCodec() {
+  }
+
+  /**
+   * A WALEdit read back from the log, together with the name of the region it was logged for and the
+   * sequence id it was assigned. Edits of format version 1 did not record a sequence id; for those it is zero.
+   */
+  public static final class DecodedWalEdit {
+    public final String regionName;
+    public final long sequenceId;
+    public final WALEdit edit;
+
+    public DecodedWalEdit(String regionName, long sequenceId, WALEdit edit) {
+      this.regionName = regionName;
+      this.sequenceId = sequenceId;
+      this.edit = edit;
+    }
+  }
+
+  public static List<ByteBuffer> encode(String regionName, long sequenceId, WALEdit edit) throws IOException {
+    final Map<ByteBuffer, Integer> rowIndexes = new HashMap<>();
+    final Map<ByteBuffer, Integer> familyIndexes = new HashMap<>();
+    final Map<ByteBuffer, Integer> qualifierIndexes = new HashMap<>();
+    final List<ByteBuffer> rows = new ArrayList<>();
+    final List<ByteBuffer> families = new ArrayList<>();
+    final List<ByteBuffer> qualifiers = new ArrayList<>();
+    final List<RegionWalCell> cells = new ArrayList<>(edit.size());
+
+    for (KeyValue keyValue : edit.getKeyValues()) {
+      final int row = indexOf(
+          ByteBuffer.wrap(keyValue.getRowArray(), keyValue.getRowOffset(), keyValue.getRowLength()),
+          rowIndexes, rows);
+      final int family = indexOf(
+          ByteBuffer.wrap(keyValue.getFamilyArray(), keyValue.getFamilyOffset(), keyValue.getFamilyLength()),
+          familyIndexes, families);
+      final int qualifier = indexOf(
+          ByteBuffer.wrap(keyValue.getQualifierArray(), keyValue.getQualifierOffset(), keyValue.getQualifierLength()),
+          qualifierIndexes, qualifiers);
+
+      cells.add(new RegionWalCell(
+          row,
+          family,
+          qualifier,
+          ByteBuffer.wrap(keyValue.getValueArray(), keyValue.getValueOffset(), keyValue.getValueLength()),
+          keyValue.getTimestamp(),
+          keyValue.getTypeByte()));
+    }
+
+    final RegionWalEdit walEdit =
+        new RegionWalEdit(FORMAT_VERSION, regionName, rows, families, qualifiers, cells, sequenceId);
+    return lengthPrependedBuffers(walEdit, RegionWalEdit.getSchema());
+  }
+
+  /**
+   * Decode the content of one log entry, written in either format version, given as a list of buffers.
+   */
+  public static DecodedWalEdit decode(List<ByteBuffer> content) throws IOException {
+    if (content.size() == 1) {
+      return decode(content.get(0));
+    }
+
+    final ByteBuffer buffer = ByteBuffer.allocate(content.stream().mapToInt(ByteBuffer::remaining).sum());
+    content.forEach((contentBuffer) -> buffer.put(contentBuffer.duplicate()));
+    buffer.flip();
+    return decode(buffer);
+  }
+
+  /**
+   * Decode the content of one log entry, written in either format version.
+   *
+   * @param content Buffer positioned at the start of the content; its position is not changed.
+   * @return The decoded edit.
+   * @throws IOException if the content can't be parsed, or if a version 1 entry mixes regions.
+   */
+  public static DecodedWalEdit decode(ByteBuffer content) throws IOException {
+    final ByteBuffer buffer = content.duplicate();
+    final WALEdit edit = new WALEdit();
+    String regionName = null;
+    long sequenceId = 0;
+
+    while (buffer.hasRemaining()) {
+      final ByteBuffer message = nextLengthPrependedMessage(buffer);
+
+      if (message.hasRemaining() && message.get(message.position()) == REGION_WAL_EDIT_FIRST_TAG) {
+        final RegionWalEdit walEdit = decodeMessage(message, RegionWalEdit.getSchema());
+        if (walEdit.getFormatVersion() != FORMAT_VERSION) {
+          throw new IOException("Unsupported WAL edit format version " + walEdit.getFormatVersion());
+        }
+        regionName = checkSameRegion(regionName, walEdit.getRegionInfo());
+        sequenceId = Math.max(sequenceId, walEdit.getSequenceId());
+        addCells(walEdit, edit);
+      } else {
+        final RegionWalEntry entry = decodeMessage(message, RegionWalEntry.getSchema());
+        regionName = checkSameRegion(regionName, entry.getRegionInfo());
+        edit.add(new KeyValue(
+            bytesOf(entry.getKey()),
+            bytesOf(entry.getFamily()),
+            bytesOf(entry.getColumn()),
+            entry.getTs(),
+            bytesOf(entry.getValue())));
+      }
+    }
+
+    return new DecodedWalEdit(regionName, sequenceId, edit);
+  }
+
+  private static int indexOf(ByteBuffer bytes, Map<ByteBuffer, Integer> indexes, List<ByteBuffer> dictionary) {
+    final Integer index = indexes.get(bytes);
+    if (index != null) {
+      return index;
+    }
+    indexes.put(bytes, dictionary.size());
+    dictionary.add(bytes);
+    return dictionary.size() - 1;
+  }
+
+  private static void addCells(RegionWalEdit walEdit, WALEdit edit) throws IOException {
+    final List<RegionWalCell> cells = walEdit.getCellList();
+    if (cells == null) {
+      return;
+    }
+
+    final List<ByteBuffer> rows = walEdit.getRowList();
+    final List<ByteBuffer> families = walEdit.getFamilyList();
+    final List<ByteBuffer> qualifiers = walEdit.getQualifierList();
+
+    for (RegionWalCell cell : cells) {
+      final ByteBuffer row = entryOf(rows, cell.getRow());
+      final ByteBuffer family = entryOf(families, cell.getFamily());
+      final ByteBuffer qualifier = entryOf(qualifiers, cell.getQualifier());
+      final ByteBuffer value = cell.getValue() == null ? ByteBuffer.allocate(0) : cell.getValue();
+
+      edit.add(new KeyValue(
+          row.array(), row.arrayOffset() + row.position(), row.remaining(),
+          family.array(), family.arrayOffset() + family.position(), family.remaining(),
+          qualifier.array(), qualifier.arrayOffset() + qualifier.position(), qualifier.remaining(),
+          cell.getTs(),
+          KeyValue.Type.codeToType((byte) cell.getType()),
+          value.array(), value.arrayOffset() + value.position(), value.remaining()));
+    }
+  }
+
+  private static ByteBuffer entryOf(List<ByteBuffer> dictionary, int index) throws IOException {
+    if (dictionary == null || index < 0 || index >= dictionary.size()) {
+      throw new IOException("WAL edit cell refers to missing dictionary entry " + index);
+    }
+    return dictionary.get(index);
+  }
+
+  private static String checkSameRegion(String regionName, String entryRegionName) throws IOException {
+    if (regionName != null && !regionName.equals(entryRegionName)) {
+      throw new IOException("WAL edit holds entries of more than one region: " + regionName
+          + ", " + entryRegionName);
+    }
+    return entryRegionName;
+  }
+
+  private static byte[] bytesOf(ByteBuffer buffer) {
+    if (buffer == null) {
+      return new byte[0];
+    }
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  private static ByteBuffer nextLengthPrependedMessage(ByteBuffer buffer) throws IOException {
+    final int length = readVarInt32(buffer);
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IOException("Truncated WAL edit: expected " + length + " bytes, found " + buffer.remaining());
+    }
+    final ByteBuffer message = buffer.slice();
+    message.limit(length);
+    buffer.position(buffer.position() + length);
+    return message;
+  }
+
+  private static int readVarInt32(ByteBuffer buffer) throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (!buffer.hasRemaining()) {
+        throw new IOException("Truncated WAL edit length");
+      }
+      final byte b = buffer.get();
+      result |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed WAL edit length");
+  }
+
+  private static <T extends Message<T>> T decodeMessage(ByteBuffer buffer, Schema<T> schema) throws IOException {
+    final ByteBufferInput input = new ByteBufferInput(buffer, true);
+    final T message = schema.newMessage();
+    schema.mergeFrom(input, message);
+    return message;
+  }
+
+  private static <T> List<ByteBuffer> lengthPrependedBuffers(T message, Schema<T> schema) throws IOException {
+    final LinkBuffer messageBuffer = new LinkBuffer();
+    final LowCopyProtostuffOutput lcpo = new LowCopyProtostuffOutput(messageBuffer);
+    schema.writeTo(lcpo, message);
+
+    final int length = Ints.checkedCast(lcpo.buffer.size());
+    final LinkBuffer lengthBuffer = new LinkBuffer().writeVarInt32(length);
+
+    final List<ByteBuffer> buffers = new ArrayList<>();
+    buffers.addAll(lengthBuffer.finish());
+    buffers.addAll(messageBuffer.finish());
+    return buffers;
+  }
+}
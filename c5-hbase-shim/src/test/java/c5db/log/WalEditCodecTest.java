@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.log;
+
+import c5db.generated.RegionWalEntry;
+import io.protostuff.LinkBuffer;
+import io.protostuff.LowCopyProtostuffOutput;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+public class WalEditCodecTest {
+  private static final String REGION_NAME = "testTable,,1400000000000.0123456789abcdef0123456789abcdef.";
+  private static final long TIMESTAMP = 1400000000000L;
+  private static final long SEQUENCE_ID = 17;
+
+  @Test
+  public void decodesTheEditThatWasEncoded() throws Exception {
+    WALEdit edit = new WALEdit();
+    edit.add(new KeyValue(bytes("row1"), bytes("cf"), bytes("a"), TIMESTAMP, bytes("value1")));
+    edit.add(new KeyValue(bytes("row1"), bytes("cf"), bytes("b"), TIMESTAMP, bytes("value2")));
+    edit.add(new KeyValue(bytes("row1"), bytes("cf2"), bytes("a"), TIMESTAMP, KeyValue.Type.DeleteColumn));
+    edit.add(new KeyValue(bytes("row2"), bytes("cf"), bytes("a"), TIMESTAMP + 1, bytes("value3")));
+
+    WalEditCodec.DecodedWalEdit decoded = WalEditCodec.decode(WalEditCodec.encode(REGION_NAME, SEQUENCE_ID, edit));
+
+    assertThat(decoded.regionName, equalTo(REGION_NAME));
+    assertThat(decoded.sequenceId, equalTo(SEQUENCE_ID));
+    assertThat(decoded.edit.getKeyValues(), equalTo(edit.getKeyValues()));
+    assertThat(decoded.edit.getKeyValues().get(2).getTypeByte(), equalTo(KeyValue.Type.DeleteColumn.getCode()));
+  }
+
+  @Test
+  public void decodesAnEntryOfTheFormatWrittenWithOneMessagePerKeyValue() throws Exception {
+    WALEdit edit = aWideRowEdit(3);
+
+    WalEditCodec.DecodedWalEdit decoded = WalEditCodec.decode(concatenate(encodeWithOneMessagePerKeyValue(edit)));
+
+    assertThat(decoded.regionName, equalTo(REGION_NAME));
+    assertThat(decoded.sequenceId, equalTo(0L));
+    assertThat(decoded.edit.getKeyValues(), equalTo(edit.getKeyValues()));
+  }
+
+  @Test
+  public void encodesAWideRowInSeveralTimesFewerBytesThanOneMessagePerKeyValue() throws Exception {
+    WALEdit edit = aWideRowEdit(50);
+
+    int encodedSize = concatenate(WalEditCodec.encode(REGION_NAME, SEQUENCE_ID, edit)).remaining();
+    int oneMessagePerKeyValueSize = concatenate(encodeWithOneMessagePerKeyValue(edit)).remaining();
+
+    assertThat(encodedSize * 3, lessThan(oneMessagePerKeyValueSize));
+  }
+
+  @Test(expected = IOException.class)
+  public void throwsAnExceptionIfTheContentIsTruncated() throws Exception {
+    ByteBuffer content = concatenate(WalEditCodec.encode(REGION_NAME, SEQUENCE_ID, aWideRowEdit(3)));
+    content.limit(content.limit() - 1);
+
+    WalEditCodec.decode(content);
+  }
+
+  private WALEdit aWideRowEdit(int columns) {
+    WALEdit edit = new WALEdit();
+    for (int i = 0; i < columns; i++) {
+      edit.add(new KeyValue(bytes("a-moderately-long-row-key-0001"), bytes("cf"), bytes("column" + i),
+          TIMESTAMP, bytes("v" + i)));
+    }
+    return edit;
+  }
+
+  @SuppressWarnings("deprecation")
+  private List<ByteBuffer> encodeWithOneMessagePerKeyValue(WALEdit edit) throws IOException {
+    List<ByteBuffer> buffers = new ArrayList<>();
+    for (KeyValue keyValue : edit.getKeyValues()) {
+      RegionWalEntry entry = new RegionWalEntry(
+          REGION_NAME,
+          ByteBuffer.wrap(keyValue.getRow()),
+          ByteBuffer.wrap(keyValue.getFamily()),
+          ByteBuffer.wrap(keyValue.getQualifier()),
+          ByteBuffer.wrap(keyValue.getValue()),
+          keyValue.getTimestamp());
+
+      LinkBuffer entryBuffer = new LinkBuffer();
+      LowCopyProtostuffOutput lcpo = new LowCopyProtostuffOutput(entryBuffer);
+      RegionWalEntry.getSchema().writeTo(lcpo, entry);
+
+      buffers.addAll(new LinkBuffer().writeVarInt32((int) lcpo.buffer.size()).finish());
+      buffers.addAll(entryBuffer.finish());
+    }
+    return buffers;
+  }
+
+  private static ByteBuffer concatenate(List<ByteBuffer> buffers) {
+    ByteBuffer result = ByteBuffer.allocate(buffers.stream().mapToInt(ByteBuffer::remaining).sum());
+    buffers.forEach((buffer) -> result.put(buffer.duplicate()));
+    result.flip();
+    return result;
+  }
+
+  private static byte[] bytes(String s) {
+    return Bytes.toBytes(s);
+  }
+}
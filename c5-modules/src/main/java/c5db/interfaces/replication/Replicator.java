@@ -50,7 +50,9 @@ public interface Replicator {
   ListenableFuture<ReplicatorReceipt> changeQuorum(Collection<Long> newPeers) throws InterruptedException;
 
   /**
-   * Submit data to be replicated.
+   * Submit data to be replicated. This method blocks while the replicator is holding more submitted
+   * data than it has a budget for, until enough of it has been written to the local log; in this way
+   * a producer which outpaces the log is slowed to the log's rate.
    * TODO we may want a variation of this method which does not block
    *
    * @param data Some data to log.
@@ -58,6 +60,17 @@ public interface Replicator {
    */
   ListenableFuture<ReplicatorReceipt> logData(List<ByteBuffer> data) throws InterruptedException;
 
+  /**
+   * Declare that the replicated state up to and including the given index has been captured in a
+   * snapshot (for instance, because the data it describes has been flushed), so that the log entries
+   * up to that index may be discarded. Peers which need discarded entries are sent the snapshot
+   * instead, which the replicator obtains from its ReplicatorSnapshotStore.
+   *
+   * @param snapshotIndex The index of the last entry covered by the snapshot; it must be committed.
+   * @return a future which will return true once the log has been compacted, or else yield an exception.
+   */
+  ListenableFuture<Boolean> compactLog(long snapshotIndex);
+
   /**
    * @return The numerical ID for the server, or node, on which this Replicator resides.
    */
@@ -65,6 +78,36 @@ public interface Replicator {
 
   boolean isLeader();
 
+  /**
+   * @return true if this replicator is the leader and holds a leader lease: it has committed an entry of
+   * its own term, and a majority of the quorum has answered it recently enough that no other leader can
+   * have been elected since. While it holds the lease, the leader may serve reads from its local state
+   * without consulting the quorum.
+   */
+  boolean holdsLeaderLease();
+
+  /**
+   * Confirm that this replicator is still the leader, by waiting for a majority of the quorum to answer
+   * an AppendEntries sent after this call. Concurrent calls share the same round of messages. A newly
+   * elected leader cannot confirm its leadership until it has committed an entry of its own term.
+   *
+   * @return a future which will return the commit index as of the confirmation, or else yield an exception
+   * if this replicator is not the leader, stops being the leader, or does not hear from a majority in time.
+   */
+  ListenableFuture<Long> confirmLeadership();
+
+  /**
+   * @return an upper bound, in milliseconds, on how far this replicator's committed entries may lag behind
+   * the quorum's: zero for a leader holding the leader lease; for a follower, the time since it last heard
+   * from the leader that it had committed everything the leader had; or else Long.MAX_VALUE.
+   */
+  long getCommitStalenessMillis();
+
+  /**
+   * @return The index of the last entry this replicator knows to have been committed.
+   */
+  long getLastCommittedIndex();
+
   void start();
 
   Subscriber<State> getStateChannel();
@@ -110,4 +110,34 @@ public interface ReplicatorLog {
    * @return The greatest index of any configuration entry in the log, or zero if there is none.
    */
   long getLastConfigurationIndex();
+
+  /**
+   * Discard the entries up to and including snapshotIndex, because they have been replaced by a
+   * snapshot of the state they produce. If the log does not contain an entry with snapshotIndex and
+   * snapshotTerm, the snapshot supersedes the entire log, which is then reset to continue immediately
+   * after the snapshot.
+   * <p>
+   * Afterwards, getLogTerm(snapshotIndex) returns snapshotTerm, and getLastIndex() is at least
+   * snapshotIndex; but the discarded entries can no longer be retrieved, nor truncated.
+   *
+   * @param snapshotIndex         the index of the last entry covered by the snapshot
+   * @param snapshotTerm          the term of the last entry covered by the snapshot
+   * @param snapshotConfiguration the configuration in effect as of snapshotIndex
+   * @return A future set to true upon completion, or set with an exception upon failure.
+   */
+  ListenableFuture<Boolean> compactLog(long snapshotIndex, long snapshotTerm, QuorumConfiguration snapshotConfiguration);
+
+  /**
+   * Get the index of the last entry replaced by a snapshot.
+   *
+   * @return the index, or 0 if the log has never been compacted.
+   */
+  long getSnapshotIndex();
+
+  /**
+   * Get the term of the last entry replaced by a snapshot.
+   *
+   * @return the term, or 0 if the log has never been compacted.
+   */
+  long getSnapshotTerm();
 }
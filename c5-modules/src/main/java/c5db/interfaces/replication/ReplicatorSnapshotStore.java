@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.interfaces.replication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source and destination of the snapshots a replicator transfers to peers whose logs lag so far
+ * behind that the entries they need have been compacted away (see {@link Replicator#compactLog}).
+ * A snapshot captures the replicated state up to and including a particular index, and is treated
+ * by the replicator as an opaque sequence of bytes. The leader reads it in chunks, and each
+ * follower writes the chunks it receives, in order, then installs the snapshot once all of them
+ * have arrived.
+ */
+public interface ReplicatorSnapshotStore {
+  /**
+   * Read part of the snapshot covering the given index.
+   *
+   * @param quorumId      Quorum ID
+   * @param snapshotIndex Index of the last entry covered by the snapshot
+   * @param offset        Byte position within the snapshot from which to read
+   * @param maxBytes      Maximum number of bytes to read
+   * @return A future yielding the bytes read; a buffer with fewer than maxBytes remaining
+   * indicates that the end of the snapshot has been reached.
+   */
+  ListenableFuture<ByteBuffer> readSnapshot(String quorumId, long snapshotIndex, long offset, int maxBytes);
+
+  /**
+   * Write part of a snapshot received from the leader. A chunk at offset zero begins a new
+   * snapshot, discarding any partially received one.
+   *
+   * @param quorumId      Quorum ID
+   * @param snapshotIndex Index of the last entry covered by the snapshot
+   * @param offset        Byte position within the snapshot of the first byte of data
+   * @param data          The chunk's data
+   * @return A future set to true once the chunk has been written, or set with an exception.
+   */
+  ListenableFuture<Boolean> writeSnapshotChunk(String quorumId, long snapshotIndex, long offset, ByteBuffer data);
+
+  /**
+   * Replace the local replicated state with the completely received snapshot.
+   *
+   * @param quorumId      Quorum ID
+   * @param snapshotIndex Index of the last entry covered by the snapshot
+   * @param snapshotTerm  Term of the last entry covered by the snapshot
+   * @return A future set to true once the snapshot has been installed, or set with an exception.
+   */
+  ListenableFuture<Boolean> installSnapshot(String quorumId, long snapshotIndex, long snapshotTerm);
+}
@@ -27,7 +27,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
-import java.nio.channels.Channels;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Locale;
@@ -74,21 +73,21 @@ public class CatOLog {
         });
   }
 
-  private static final SequentialEntryCodec<OLogEntryDescription> CODEC = new OLogEntryDescription.Codec();
-
   private static void openFileAndParseEntries(File inputLogFile,
                                               HeaderWithCrcValidity doWithHeader,
                                               EntryWithAddress doForEach) throws IOException {
     try (BytePersistence persistence = new FilePersistence(inputLogFile.toPath());
          PersistenceReader reader = persistence.getReader();
-         InputStream inputStream = Channels.newInputStream(reader)) {
+         InputStream inputStream = reader.asInputStream()) {
 
-      decodeAndUseLogHeader(inputStream, doWithHeader);
+      final OLogHeader header = decodeAndUseLogHeader(inputStream, doWithHeader);
+      final SequentialEntryCodec<OLogEntryDescription> codec =
+          new OLogEntryDescription.Codec(LogChecksums.checksumTypeOf(header));
 
       //noinspection InfiniteLoopStatement
       do {
         long address = reader.position();
-        OLogEntryDescription entry = CODEC.decode(inputStream);
+        OLogEntryDescription entry = codec.decode(inputStream);
         doForEach.accept(address, entry);
       } while (true);
     } catch (EOFException ignore) {
@@ -116,6 +115,8 @@ public class CatOLog {
 
     formatter.format("HEADER [base term: %" + LONG_DIGITS + "d]", header.getBaseTerm());
     formatter.format(" [base seq: %" + LONG_DIGITS + "d]", header.getBaseSeqNum());
+    formatter.format(" [format version: %d]", header.getFormatVersion() == 0 ? 1 : header.getFormatVersion());
+    formatter.format(" [checksum: %s]", LogChecksums.checksumTypeOf(header));
     formatter.format(" [base config: ");
     formatConfiguration(formatter, header.getBaseConfiguration());
     formatter.format("]");
@@ -179,7 +180,7 @@ public class CatOLog {
     formatter.format(joiner.join(peerIdList));
   }
 
-  private static void decodeAndUseLogHeader(InputStream inputStream, HeaderWithCrcValidity doWithHeader)
+  private static OLogHeader decodeAndUseLogHeader(InputStream inputStream, HeaderWithCrcValidity doWithHeader)
       throws IOException {
     OLogHeader header;
     boolean validCrc = true;
@@ -191,5 +192,6 @@ public class CatOLog {
     }
 
     doWithHeader.accept(header, validCrc);
+    return header;
   }
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.client.generated.Action;
+import c5db.client.generated.ByteArrayComparable;
+import c5db.client.generated.CompareType;
+import c5db.client.generated.Condition;
+import c5db.client.generated.GetRequest;
+import c5db.client.generated.MultiRequest;
+import c5db.client.generated.MutateRequest;
+import c5db.client.generated.MutationProto;
+import c5db.client.generated.ReadConsistency;
+import c5db.client.generated.RegionSpecifier;
+import c5db.client.generated.Response;
+import c5db.client.generated.ScanRequest;
+import c5db.client.scanner.AsyncClientScanner;
+import c5db.client.scanner.ClientScannerManager;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.protostuff.ByteString;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A client for one table whose operations never block: each returns a future, completed on a netty thread
+ * when the server responds, so that a few threads can keep many requests outstanding. Callbacks on the futures
+ * run on the netty thread unless an executor is given for them, and must not block if they run there.
+ * <p/>
+ * Each operation fails with a TimeoutException if the server has not responded within the table's timeout;
+ * {@link #withTimeout} gives a view of the table with another timeout, for the calls made through it.
+ */
+public class AsyncC5Table implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncC5Table.class);
+
+  private final ClientScannerManager clientScannerManager = ClientScannerManager.INSTANCE;
+  private final TableInterface c5AsyncDatabase;
+  private final ScheduledExecutorService timeoutScheduler;
+  private final boolean ownsConnection;
+  private final byte[] regionName;
+  private final RegionSpecifier regionSpecifier;
+  private final long timeoutMillis;
+  private volatile ReadConsistency readConsistency = ReadConsistency.LEADER;
+  private volatile long maxStalenessMillis = 0;
+
+  public AsyncC5Table(String hostname, int port, ByteString tableName)
+      throws InterruptedException, TimeoutException, ExecutionException {
+    this(new SingleNodeTableInterface(hostname, port), tableName);
+  }
+
+  /**
+   * @param leader    The node which leads the table's region.
+   * @param replicas  The nodes which may serve reads not requiring LEADER consistency.
+   * @param tableName The name of the table to connect to.
+   */
+  public AsyncC5Table(HostAndPort leader, List<HostAndPort> replicas, ByteString tableName)
+      throws InterruptedException, TimeoutException, ExecutionException {
+    this(new ReplicaRoutingTableInterface(leader, replicas), tableName);
+  }
+
+  AsyncC5Table(TableInterface c5AsyncDatabase, ByteString tableName) {
+    this(c5AsyncDatabase, createTimeoutScheduler(), true,
+        tableName.toByteArray(),
+        C5Constants.TIMEOUT);
+  }
+
+  private AsyncC5Table(TableInterface c5AsyncDatabase,
+                       ScheduledExecutorService timeoutScheduler,
+                       boolean ownsConnection,
+                       byte[] regionName,
+                       long timeoutMillis) {
+    this.c5AsyncDatabase = c5AsyncDatabase;
+    this.timeoutScheduler = timeoutScheduler;
+    this.ownsConnection = ownsConnection;
+    this.regionName = regionName;
+    this.regionSpecifier = RequestConverter.buildRegionSpecifier(regionName);
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  private static ScheduledExecutorService createTimeoutScheduler() {
+    final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      final Thread thread = new Thread(runnable, "async-c5-table-timeouts");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Most calls complete well within their timeouts; don't keep their timeouts queued until they expire
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
+  /**
+   * A view of this table whose calls time out after the given time instead. It shares this table's
+   * connection and read consistency at the time of the call; closing it does nothing.
+   */
+  public AsyncC5Table withTimeout(long timeout, TimeUnit unit) {
+    final AsyncC5Table view = new AsyncC5Table(c5AsyncDatabase, timeoutScheduler, false, regionName,
+        unit.toMillis(timeout));
+    view.setReadConsistency(readConsistency, maxStalenessMillis);
+    return view;
+  }
+
+  /**
+   * Set the consistency required of subsequent gets, exists checks, and scans.
+   *
+   * @param readConsistency    LEADER (the default), BOUNDED_STALENESS, or ANY.
+   * @param maxStalenessMillis For BOUNDED_STALENESS, how far behind the leader a serving replica may be.
+   */
+  public void setReadConsistency(ReadConsistency readConsistency, long maxStalenessMillis) {
+    this.readConsistency = readConsistency;
+    this.maxStalenessMillis = maxStalenessMillis;
+  }
+
+  public ListenableFuture<Result> get(final Get get) {
+    return withTimeout(transform(
+        () -> c5AsyncDatabase.get(buildGetRequest(get, false)),
+        response -> {
+          if (response.getGet() == null) {
+            throw new IOException("Not processed");
+          }
+          return ProtobufUtil.toResult(response.getGet().getResult());
+        }));
+  }
+
+  public ListenableFuture<Boolean> exists(final Get get) {
+    return withTimeout(transform(
+        () -> c5AsyncDatabase.get(buildGetRequest(get, true)),
+        response -> {
+          if (response.getGet() == null || response.getGet().getResult() == null) {
+            throw new IOException("Not processed");
+          }
+          return response.getGet().getResult().getExists();
+        }));
+  }
+
+  public ListenableFuture<Void> put(final Put put) {
+    return mutate(MutationProto.MutationType.PUT, put);
+  }
+
+  public ListenableFuture<Void> delete(final Delete delete) {
+    return mutate(MutationProto.MutationType.DELETE, delete);
+  }
+
+  /**
+   * @return a future of whether the put was made, which it is only if the cell held the expected value
+   */
+  public ListenableFuture<Boolean> checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put) {
+    return checkAndMutate(MutationProto.MutationType.PUT, row, family, qualifier, value, put);
+  }
+
+  /**
+   * @return a future of whether the delete was made, which it is only if the cell held the expected value
+   */
+  public ListenableFuture<Boolean> checkAndDelete(byte[] row,
+                                                  byte[] family,
+                                                  byte[] qualifier,
+                                                  byte[] value,
+                                                  Delete delete) {
+    return checkAndMutate(MutationProto.MutationType.DELETE, row, family, qualifier, value, delete);
+  }
+
+  /**
+   * Get many rows at once, in as few round trips as possible.
+   *
+   * @return a future of the results, in the order of the gets
+   */
+  public ListenableFuture<Result[]> get(final List<Get> gets) {
+    return withTimeout(transform(
+        () -> {
+          final List<Action> actions = new ArrayList<>(gets.size());
+          for (Get get : gets) {
+            actions.add(RequestConverter.buildGetAction(actions.size(), get, false));
+          }
+          return multi(actions);
+        },
+        protoResults -> {
+          final Result[] results = new Result[protoResults.length];
+          for (int i = 0; i < protoResults.length; i++) {
+            results[i] = ProtobufUtil.toResult(protoResults[i]);
+          }
+          return results;
+        }));
+  }
+
+  /**
+   * Apply a batch of puts and deletes, in as few round trips as possible. The batch is not atomic: the future
+   * fails if any mutation fails, but the others may still have been applied.
+   */
+  public ListenableFuture<Void> batch(final List<? extends Mutation> mutations) {
+    return withTimeout(transform(
+        () -> {
+          final List<Action> actions = new ArrayList<>(mutations.size());
+          for (Mutation mutation : mutations) {
+            actions.add(RequestConverter.buildMutationAction(actions.size(), mutation));
+          }
+          return multi(actions);
+        },
+        protoResults -> null));
+  }
+
+  /**
+   * Open a scanner, whose results may then be taken without blocking. Each of its calls to next is subject to
+   * this table's timeout.
+   */
+  public ListenableFuture<AsyncClientScanner> getScanner(final Scan scan) {
+    if (scan.getStartRow() != null && scan.getStartRow().length > 0
+        && scan.getStopRow() != null && scan.getStopRow().length > 0
+        && Bytes.compareTo(scan.getStartRow(), scan.getStopRow()) > 0) {
+      return Futures.immediateFailedFuture(new IOException("StopRow needs to be greater than StartRow"));
+    }
+
+    final ListenableFuture<AsyncClientScanner> scanner = transform(
+        () -> {
+          final ScanRequest scanRequest = new ScanRequest(regionSpecifier,
+              ProtobufUtil.toScan(scan),
+              0L,
+              C5Constants.DEFAULT_INIT_SCAN,
+              false,
+              0L,
+              readConsistency,
+              maxStalenessMillis);
+          return Futures.transform(c5AsyncDatabase.scan(scanRequest),
+              (AsyncFunction<Long, c5db.client.scanner.ClientScanner>) scannerId -> {
+                final ListenableFuture<c5db.client.scanner.ClientScanner> clientScanner =
+                    clientScannerManager.get(scannerId);
+                if (clientScanner == null) {
+                  throw new IOException("Unable to find scanner");
+                }
+                return clientScanner;
+              });
+        },
+        clientScanner -> new AsyncClientScanner(clientScanner, timeoutScheduler, timeoutMillis));
+    return withTimeout(scanner);
+  }
+
+  @Override
+  public void close() {
+    if (!ownsConnection) {
+      return;
+    }
+    timeoutScheduler.shutdownNow();
+    try {
+      c5AsyncDatabase.close();
+    } catch (Exception e) {
+      LOG.error("Error closing:" + e);
+    }
+  }
+
+  private ListenableFuture<Boolean> checkAndMutate(MutationProto.MutationType type,
+                                                   byte[] row,
+                                                   byte[] family,
+                                                   byte[] qualifier,
+                                                   byte[] value,
+                                                   Mutation mutation) {
+    final Condition condition = new Condition(ByteBuffer.wrap(row),
+        ByteBuffer.wrap(family),
+        ByteBuffer.wrap(qualifier),
+        CompareType.EQUAL,
+        FakeHTable.toComparator(new ByteArrayComparable(ByteBuffer.wrap(value))));
+    return withTimeout(transform(
+        () -> c5AsyncDatabase.mutate(RequestConverter.buildMutateRequest(regionName, type, mutation, condition)),
+        response -> response.getMutate() != null && response.getMutate().getProcessed()));
+  }
+
+  private ListenableFuture<Void> mutate(MutationProto.MutationType type, Mutation mutation) {
+    final MutateRequest mutateRequest = RequestConverter.buildMutateRequest(regionName, type, mutation);
+    return withTimeout(transform(
+        () -> c5AsyncDatabase.mutate(mutateRequest),
+        response -> {
+          if (response.getMutate() == null || !response.getMutate().getProcessed()) {
+            throw new IOException("Not processed");
+          }
+          return null;
+        }));
+  }
+
+  private GetRequest buildGetRequest(Get get, boolean existenceOnly) throws IOException {
+    return RequestConverter.buildGetRequest(regionName, get, existenceOnly, readConsistency, maxStalenessMillis);
+  }
+
+  private ListenableFuture<c5db.client.generated.Result[]> multi(List<Action> actions) {
+    final List<ListenableFuture<Response>> responseFutures = new ArrayList<>();
+    for (MultiRequest multiRequest :
+        RequestConverter.buildMultiRequests(regionName, actions, C5Constants.MAX_ACTIONS_PER_MULTI)) {
+      responseFutures.add(c5AsyncDatabase.multiRequest(multiRequest));
+    }
+    return Futures.transform(Futures.allAsList(responseFutures),
+        (AsyncFunction<List<Response>, c5db.client.generated.Result[]>) responses ->
+            Futures.immediateFuture(FakeHTable.resultsOf(responses, actions.size())));
+  }
+
+  /**
+   * Send a request, and convert its response once it arrives. A failure to build the request, or to convert
+   * the response, fails the returned future instead of being thrown.
+   */
+  private static <R, T> ListenableFuture<T> transform(RequestSender<R> request, ResponseConverter<R, T> converter) {
+    final ListenableFuture<R> response;
+    try {
+      response = request.send();
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    return Futures.transform(response,
+        (AsyncFunction<R, T>) r -> Futures.immediateFuture(converter.convert(r)));
+  }
+
+  /**
+   * Fail the returned future with a TimeoutException if the given one has not completed within this table's
+   * timeout; the given one is then cancelled, so that a late response is dropped.
+   */
+  private <T> ListenableFuture<T> withTimeout(final ListenableFuture<T> future) {
+    final SettableFuture<T> timed = SettableFuture.create();
+    final ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+      if (timed.setException(new TimeoutException("No response within " + timeoutMillis + "ms"))) {
+        future.cancel(false);
+      }
+    }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+    Futures.addCallback(future, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(T result) {
+        timeout.cancel(false);
+        timed.set(result);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        timeout.cancel(false);
+        timed.setException(t);
+      }
+    });
+    return timed;
+  }
+
+  private interface RequestSender<R> {
+    ListenableFuture<R> send() throws IOException;
+  }
+
+  private interface ResponseConverter<R, T> {
+    T convert(R response) throws IOException;
+  }
+}
@@ -16,6 +16,7 @@
  */
 package c5db.client;
 
+import c5db.client.generated.Action;
 import c5db.client.generated.ByteArrayComparable;
 import c5db.client.generated.Comparator;
 import c5db.client.generated.CompareType;
@@ -24,11 +25,18 @@ import c5db.client.generated.GetRequest;
 import c5db.client.generated.MultiRequest;
 import c5db.client.generated.MutateRequest;
 import c5db.client.generated.MutationProto;
+import c5db.client.generated.NameBytesPair;
+import c5db.client.generated.ReadConsistency;
 import c5db.client.generated.RegionAction;
+import c5db.client.generated.RegionActionResult;
 import c5db.client.generated.RegionSpecifier;
+import c5db.client.generated.Response;
+import c5db.client.generated.ResultOrException;
 import c5db.client.generated.ScanRequest;
 import c5db.client.scanner.ClientScanner;
 import c5db.client.scanner.ClientScannerManager;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import io.protostuff.ByteString;
 import org.apache.hadoop.hbase.client.Delete;
@@ -61,6 +69,8 @@ public class FakeHTable implements AutoCloseable {
   private byte[] regionName;
   private RegionSpecifier regionSpecifier;
   private TableInterface c5AsyncDatabase;
+  private ReadConsistency readConsistency = ReadConsistency.LEADER;
+  private long maxStalenessMillis = 0;
   public byte[] tableName;
 
   /**
@@ -76,6 +86,18 @@ public class FakeHTable implements AutoCloseable {
     regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME, ByteBuffer.wrap(regionName));
   }
 
+  /**
+   * A mock HTable Client for a table replicated across several nodes; see setReadConsistency.
+   *
+   * @param leader    The node which leads the table's region.
+   * @param replicas  The nodes which may serve reads not requiring LEADER consistency.
+   * @param tableName The name of the table to connect to.
+   */
+  public FakeHTable(HostAndPort leader, List<HostAndPort> replicas, ByteString tableName)
+      throws InterruptedException, TimeoutException, ExecutionException {
+    this(new ReplicaRoutingTableInterface(leader, replicas), tableName);
+  }
+
   FakeHTable(TableInterface c5AsyncDatabase, ByteString tableName) {
     this.c5AsyncDatabase = c5AsyncDatabase;
     this.tableName = tableName.toByteArray();
@@ -87,8 +109,20 @@ public class FakeHTable implements AutoCloseable {
     return new Comparator(comparator.getClass().getName(), comparator.getValue());
   }
 
+  /**
+   * Set the consistency required of subsequent gets, exists checks, and scans.
+   *
+   * @param readConsistency    LEADER (the default), BOUNDED_STALENESS, or ANY.
+   * @param maxStalenessMillis For BOUNDED_STALENESS, how far behind the leader a serving replica may be.
+   */
+  public void setReadConsistency(ReadConsistency readConsistency, long maxStalenessMillis) {
+    this.readConsistency = readConsistency;
+    this.maxStalenessMillis = maxStalenessMillis;
+  }
+
   public Result get(final Get get) throws IOException {
-    GetRequest getRequest = RequestConverter.buildGetRequest(regionName, get, false);
+    GetRequest getRequest = RequestConverter.buildGetRequest(regionName, get, false,
+        readConsistency, maxStalenessMillis);
     try {
       return ProtobufUtil.toResult(c5AsyncDatabase.get(getRequest).get().getGet().getResult());
     } catch (Exception e) {
@@ -97,16 +131,21 @@ public class FakeHTable implements AutoCloseable {
   }
 
   public Result[] get(List<Get> gets) throws IOException {
-    //TODO Batch get
-    final List<Result> results = new ArrayList<>();
+    final List<Action> actions = new ArrayList<>(gets.size());
     for (Get get : gets) {
-      results.add(this.get(get));
+      actions.add(RequestConverter.buildGetAction(actions.size(), get, false));
+    }
+    final c5db.client.generated.Result[] protoResults = multi(actions);
+    final Result[] results = new Result[protoResults.length];
+    for (int i = 0; i < protoResults.length; i++) {
+      results[i] = ProtobufUtil.toResult(protoResults[i]);
     }
-    return results.toArray(new Result[results.size()]);
+    return results;
   }
 
   public boolean exists(final Get get) throws IOException {
-    GetRequest getRequest = RequestConverter.buildGetRequest(regionName, get, true);
+    GetRequest getRequest = RequestConverter.buildGetRequest(regionName, get, true,
+        readConsistency, maxStalenessMillis);
     try {
       return c5AsyncDatabase.get(getRequest).get().getGet().getResult().getExists();
     } catch (InterruptedException | ExecutionException e) {
@@ -126,7 +165,9 @@ public class FakeHTable implements AutoCloseable {
         0L,
         C5Constants.DEFAULT_INIT_SCAN,
         false,
-        0L);
+        0L,
+        readConsistency,
+        maxStalenessMillis);
     ListenableFuture<ClientScanner> scanner;
     try {
       Long scanResult = c5AsyncDatabase.scan(scanRequest).get();
@@ -153,12 +194,16 @@ public class FakeHTable implements AutoCloseable {
   }
 
   public Boolean[] exists(List<Get> gets) throws IOException {
-    //TODO Batch get
-    final List<Boolean> results = new ArrayList<>();
+    final List<Action> actions = new ArrayList<>(gets.size());
     for (Get get : gets) {
-      results.add(this.exists(get));
+      actions.add(RequestConverter.buildGetAction(actions.size(), get, true));
     }
-    return results.toArray(new Boolean[results.size()]);
+    final c5db.client.generated.Result[] protoResults = multi(actions);
+    final Boolean[] results = new Boolean[protoResults.length];
+    for (int i = 0; i < protoResults.length; i++) {
+      results[i] = protoResults[i].getExists();
+    }
+    return results;
   }
 
   public void put(Put put) throws IOException {
@@ -173,9 +218,11 @@ public class FakeHTable implements AutoCloseable {
   }
 
   public void put(List<Put> puts) throws IOException {
+    final List<Action> actions = new ArrayList<>(puts.size());
     for (Put put : puts) {
-      this.put(put);
+      actions.add(RequestConverter.buildMutationAction(actions.size(), put));
     }
+    multi(actions);
   }
 
   public void delete(Delete delete) throws IOException {
@@ -192,9 +239,80 @@ public class FakeHTable implements AutoCloseable {
   }
 
   public void delete(List<Delete> deletes) throws IOException {
+    final List<Action> actions = new ArrayList<>(deletes.size());
     for (Delete delete : deletes) {
-      this.delete(delete);
+      actions.add(RequestConverter.buildMutationAction(actions.size(), delete));
+    }
+    multi(actions);
+  }
+
+  /**
+   * Perform a batch of actions in as few round trips as possible. The actions are split into MultiRequests of
+   * at most MAX_ACTIONS_PER_MULTI actions, all of which are sent before any response is awaited, and each
+   * result is matched to its action by the action's index, which is its position in the batch.
+   *
+   * @return the result of each action, in the order of the actions
+   * @throws IOException if any action failed, or no result came back for it
+   */
+  private c5db.client.generated.Result[] multi(List<Action> actions) throws IOException {
+    final List<ListenableFuture<Response>> responseFutures = new ArrayList<>();
+    for (MultiRequest multiRequest :
+        RequestConverter.buildMultiRequests(regionName, actions, C5Constants.MAX_ACTIONS_PER_MULTI)) {
+      responseFutures.add(c5AsyncDatabase.multiRequest(multiRequest));
+    }
+
+    try {
+      return resultsOf(Futures.allAsList(responseFutures).get(), actions.size());
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Match the results in the responses to a batch's MultiRequests to the batch's actions, by index.
+   *
+   * @return the result of each action, in the order of the actions
+   * @throws IOException if any action failed, or no result came back for it
+   */
+  static c5db.client.generated.Result[] resultsOf(List<Response> responses, int actionCount) throws IOException {
+    final c5db.client.generated.Result[] results = new c5db.client.generated.Result[actionCount];
+    for (Response response : responses) {
+      if (response.getMulti() == null || response.getMulti().getRegionActionResultList() == null) {
+        throw new IOException("Not processed");
+      }
+      for (RegionActionResult regionActionResult : response.getMulti().getRegionActionResultList()) {
+        if (regionActionResult.getException() != null) {
+          throw new IOException(describe(regionActionResult.getException()));
+        }
+        if (regionActionResult.getResultOrExceptionList() == null) {
+          continue;
+        }
+        for (ResultOrException resultOrException : regionActionResult.getResultOrExceptionList()) {
+          final Integer index = resultOrException.getIndex();
+          if (index == null || index < 0 || index >= results.length) {
+            throw new IOException("Result for an unknown action: " + index);
+          }
+          if (resultOrException.getException() != null) {
+            throw new IOException("Action " + index + " failed: " + describe(resultOrException.getException()));
+          }
+          results[index] = resultOrException.getResult();
+        }
+      }
+    }
+
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] == null) {
+        throw new IOException("Action " + i + " not processed");
+      }
+    }
+    return results;
+  }
+
+  private static String describe(NameBytesPair exception) {
+    if (exception.getValue() == null) {
+      return exception.getName();
     }
+    return exception.getName() + ": " + Bytes.toString(Bytes.getBytes(exception.getValue()));
   }
 
   public void mutateRow(RowMutations rm) throws IOException {
@@ -20,34 +20,46 @@ import c5db.client.generated.Call;
 import c5db.client.generated.Response;
 import c5db.client.scanner.ClientScanner;
 import c5db.client.scanner.ClientScannerManager;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A simple handler to handle inbound responses from the C5 server.
+ * <p/>
+ * Buffered calls are written without flushing. Once the channel's outbound buffer has passed its high water mark
+ * (for instance because the server has stopped reading while it works through earlier writes), the buffer is
+ * flushed, and further buffered calls are held back, in order, until it drains below its low water mark; they
+ * are then written and flushed. No call blocks; a caller which wants to hold off making calls while the buffer
+ * drains can wait on {@link #whenWritable}.
  */
 public class FutureBasedMessageHandler extends SimpleChannelInboundHandler<Response> implements MessageHandler {
   private static final ClientScannerManager CLIENT_SCANNER_MANAGER = ClientScannerManager.INSTANCE;
   private final ConcurrentHashMap<Long, SettableFuture<Response>> futures = new ConcurrentHashMap<>();
   private final ConcurrentHashMap<Long, SettableFuture<Long>> scannerFutures = new ConcurrentHashMap<>();
-  private final AtomicLong inFlightCalls = new AtomicLong(0);
+  private final ConcurrentLinkedQueue<SettableFuture<Void>> writabilityFutures = new ConcurrentLinkedQueue<>();
+
+  // Buffered calls waiting for the channel to become writable, in the order they were made; guarded by itself.
+  private final Queue<Call> heldCalls = new ArrayDeque<>();
 
   @Override
   protected void channelRead0(ChannelHandlerContext ctx, Response msg) throws Exception {
     switch (msg.getCommand()) {
       case MULTI:
-        futures.get(msg.getCommandId()).set(msg);
+        complete(msg);
         break;
       case MUTATE:
-        futures.get(msg.getCommandId()).set(msg);
+        complete(msg);
         break;
       case SCAN:
         final long scannerId = msg.getScan().getScannerId();
@@ -57,7 +69,10 @@ public class FutureBasedMessageHandler extends SimpleChannelInboundHandler<Respo
           clientScanner = CLIENT_SCANNER_MANAGER.get(scannerId).get();
         } else {
           clientScanner = CLIENT_SCANNER_MANAGER.createAndGet(ctx.channel(), scannerId, msg.getCommandId());
-          scannerFutures.get(msg.getCommandId()).set(scannerId);
+          final SettableFuture<Long> scannerFuture = scannerFutures.remove(msg.getCommandId());
+          if (scannerFuture != null) {
+            scannerFuture.set(scannerId);
+          }
         }
 
         clientScanner.add(msg.getScan());
@@ -67,11 +82,22 @@ public class FutureBasedMessageHandler extends SimpleChannelInboundHandler<Respo
         }
         break;
       default:
-        futures.get(msg.getCommandId()).set(msg);
+        complete(msg);
         break;
     }
   }
 
+  /**
+   * Complete the call awaiting the response, unless it has already been abandoned, for instance because it
+   * timed out.
+   */
+  private void complete(Response response) {
+    final SettableFuture<Response> future = futures.remove(response.getCommandId());
+    if (future != null) {
+      future.set(response);
+    }
+  }
+
   @Override
   public ListenableFuture<Response> call(final Call request, final Channel channel) {
     SettableFuture<Response> settableFuture = SettableFuture.create();
@@ -84,23 +110,108 @@ public class FutureBasedMessageHandler extends SimpleChannelInboundHandler<Respo
   public ListenableFuture<Response> buffer(final Call request, final Channel channel) {
     SettableFuture<Response> settableFuture = SettableFuture.create();
     futures.put(request.getCommandId(), settableFuture);
-    // Keep track of how many outstanding requests we have and limit it.
-    ChannelFuture future = channel.write(request);
-    future.addListener(objectFuture -> inFlightCalls.decrementAndGet());
-
-    if (inFlightCalls.incrementAndGet() > C5Constants.IN_FLIGHT_CALLS) {
-      System.out.println("Backing off:" + C5Constants.IN_FLIGHT_CALLS);
-      try {
-        future.get();
-      } catch (InterruptedException | ExecutionException e) {
-        e.printStackTrace();
-        System.exit(1);
+
+    synchronized (heldCalls) {
+      if (heldCalls.isEmpty() && channel.isWritable()) {
+        channel.write(request);
+      } else {
+        heldCalls.add(request);
+        if (heldCalls.size() == 1) {
+          channel.flush();
+          writeHeldCallsWhenWritable(channel);
+        }
       }
     }
 
     return settableFuture;
   }
 
+  private void writeHeldCallsWhenWritable(final Channel channel) {
+    Futures.addCallback(whenWritable(channel), new FutureCallback<Void>() {
+      @Override
+      public void onSuccess(Void result) {
+        writeHeldCalls(channel);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        synchronized (heldCalls) {
+          heldCalls.forEach(call -> failIfOutstanding(futures.remove(call.getCommandId()), t));
+          heldCalls.clear();
+        }
+      }
+    });
+  }
+
+  /**
+   * Write as many of the held calls as the channel will take before it passes its high water mark again, and
+   * flush them; if any remain, wait for the channel to drain once more.
+   */
+  private void writeHeldCalls(final Channel channel) {
+    synchronized (heldCalls) {
+      while (!heldCalls.isEmpty() && channel.isWritable()) {
+        channel.write(heldCalls.poll());
+      }
+      channel.flush();
+
+      if (!heldCalls.isEmpty()) {
+        writeHeldCallsWhenWritable(channel);
+      }
+    }
+  }
+
+  @Override
+  public ListenableFuture<Void> whenWritable(final Channel channel) {
+    final SettableFuture<Void> writableFuture = SettableFuture.create();
+    writabilityFutures.add(writableFuture);
+
+    // Checked after adding, so that a change in writability can't slip in between unnoticed
+    if (channel.isWritable()) {
+      completeWritabilityFutures(null);
+    } else if (!channel.isActive()) {
+      completeWritabilityFutures(new IOException("Connection closed while waiting for it to drain"));
+    }
+    return writableFuture;
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    if (ctx.channel().isWritable()) {
+      completeWritabilityFutures(null);
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    final IOException closed = new IOException("Connection closed before a response was received");
+    futures.keySet().forEach(commandId -> failIfOutstanding(futures.remove(commandId), closed));
+    scannerFutures.keySet().forEach(commandId -> failIfOutstanding(scannerFutures.remove(commandId), closed));
+    completeWritabilityFutures(new IOException("Connection closed while waiting for it to drain"));
+    super.channelInactive(ctx);
+  }
+
+  /**
+   * Complete every future awaiting writability, or fail them if the cause is not null.
+   */
+  private void completeWritabilityFutures(Throwable cause) {
+    for (SettableFuture<Void> writableFuture = writabilityFutures.poll();
+         writableFuture != null;
+         writableFuture = writabilityFutures.poll()) {
+      if (cause == null) {
+        writableFuture.set(null);
+      } else {
+        writableFuture.setException(cause);
+      }
+    }
+  }
+
+  private static void failIfOutstanding(SettableFuture<?> future, Throwable cause) {
+    if (future != null) {
+      future.setException(cause);
+    }
+  }
+
   @Override
   public ListenableFuture<Long> callScan(final Call request, final Channel channel) {
     SettableFuture<Long> settableFuture = SettableFuture.create();
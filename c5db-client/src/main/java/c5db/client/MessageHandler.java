@@ -29,5 +29,11 @@ public interface MessageHandler extends ChannelHandler, ChannelInboundHandler {
 
   ListenableFuture<Response> buffer(Call request, Channel channel);
 
+  /**
+   * @return a future which completes once the channel's outbound buffer has drained enough to accept more
+   * writes, or else yields an exception if the channel closes first.
+   */
+  ListenableFuture<Void> whenWritable(Channel channel);
+
   ListenableFuture<Long> callScan(Call request, Channel channel);
 }
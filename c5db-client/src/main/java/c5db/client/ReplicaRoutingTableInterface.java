@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.client.generated.Call;
+import c5db.client.generated.GetRequest;
+import c5db.client.generated.MultiRequest;
+import c5db.client.generated.MutateRequest;
+import c5db.client.generated.ReadConsistency;
+import c5db.client.generated.Response;
+import c5db.client.generated.ScanRequest;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static c5db.client.generated.Call.Command.GET;
+import static c5db.client.generated.Call.Command.MULTI;
+import static c5db.client.generated.Call.Command.MUTATE;
+import static c5db.client.generated.Call.Command.SCAN;
+
+/**
+ * A TableInterface for a table whose region is replicated across several nodes. Mutations, and reads which
+ * require LEADER consistency, are sent to the leader; reads which permit BOUNDED_STALENESS or ANY consistency
+ * are spread round-robin across the replicas, each of which decides for itself whether it is current enough
+ * to serve them. The follow-up requests for a scan go to whichever node created the scanner.
+ */
+public class ReplicaRoutingTableInterface implements TableInterface {
+  private static final Logger LOG = LoggerFactory.getLogger(ReplicaRoutingTableInterface.class);
+  private final AtomicLong commandId = new AtomicLong(0);
+  private final AtomicInteger nextReplica = new AtomicInteger(0);
+  private final C5ConnectionManager c5ConnectionManager;
+  private final Channel leaderChannel;
+  private final List<Channel> replicaChannels = new ArrayList<>();
+
+  public ReplicaRoutingTableInterface(HostAndPort leader, List<HostAndPort> replicas)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    this(leader, replicas, new C5NettyConnectionManager());
+  }
+
+  public ReplicaRoutingTableInterface(HostAndPort leader,
+                                      List<HostAndPort> replicas,
+                                      C5ConnectionManager c5ConnectionManager)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    this.c5ConnectionManager = c5ConnectionManager;
+    this.leaderChannel = c5ConnectionManager.getOrCreateChannel(leader.getHostText(), leader.getPort());
+    for (HostAndPort replica : replicas) {
+      replicaChannels.add(c5ConnectionManager.getOrCreateChannel(replica.getHostText(), replica.getPort()));
+    }
+    if (replicaChannels.isEmpty()) {
+      replicaChannels.add(leaderChannel);
+    }
+  }
+
+  @Override
+  public ListenableFuture<Response> get(final GetRequest get) {
+    final Channel channel = channelFor(get.getReadConsistency());
+    return handlerFor(channel).call(new Call(GET, commandId.incrementAndGet(), get, null, null, null), channel);
+  }
+
+  @Override
+  public ListenableFuture<Long> scan(ScanRequest scanRequest) {
+    final Channel channel = channelFor(scanRequest.getReadConsistency());
+    return handlerFor(channel).callScan(
+        new Call(SCAN, commandId.incrementAndGet(), null, null, scanRequest, null), channel);
+  }
+
+  @Override
+  public ListenableFuture<Response> mutate(MutateRequest mutateRequest) {
+    return handlerFor(leaderChannel).call(
+        new Call(MUTATE, commandId.incrementAndGet(), null, mutateRequest, null, null), leaderChannel);
+  }
+
+  @Override
+  public ListenableFuture<Response> multiRequest(MultiRequest multiRequest) {
+    return handlerFor(leaderChannel).call(
+        new Call(MULTI, commandId.incrementAndGet(), null, null, null, multiRequest), leaderChannel);
+  }
+
+  @Override
+  public void close() {
+    try {
+      c5ConnectionManager.close();
+    } catch (InterruptedException e) {
+      LOG.error("Unable to close, interrupted");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Channel channelFor(ReadConsistency readConsistency) {
+    if (readConsistency == null || readConsistency == ReadConsistency.LEADER) {
+      return leaderChannel;
+    }
+    final int replica = Math.abs(nextReplica.getAndIncrement() % replicaChannels.size());
+    return replicaChannels.get(replica);
+  }
+
+  private static MessageHandler handlerFor(Channel channel) {
+    return channel.pipeline().get(FutureBasedMessageHandler.class);
+  }
+}
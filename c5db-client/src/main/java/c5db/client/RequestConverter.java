@@ -39,8 +39,10 @@ package c5db.client;
 import c5db.client.generated.Action;
 import c5db.client.generated.Condition;
 import c5db.client.generated.GetRequest;
+import c5db.client.generated.MultiRequest;
 import c5db.client.generated.MutateRequest;
 import c5db.client.generated.MutationProto;
+import c5db.client.generated.ReadConsistency;
 import c5db.client.generated.RegionAction;
 import c5db.client.generated.RegionSpecifier;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
@@ -53,6 +55,7 @@ import org.apache.hadoop.hbase.client.RowMutations;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -75,8 +78,26 @@ public final class RequestConverter {
   public static GetRequest buildGetRequest(final byte[] regionName,
                                            final Get get,
                                            final boolean existenceOnly) throws IOException {
+    return buildGetRequest(regionName, get, existenceOnly, ReadConsistency.LEADER, 0);
+  }
+
+  /**
+   * Create a protocol buffer GetRequest for a client Get, to be served at the given consistency.
+   *
+   * @param regionName         the name of the region to get
+   * @param get                the client Get
+   * @param existenceOnly      indicate if check row existence only
+   * @param readConsistency    which replicas may serve the get
+   * @param maxStalenessMillis for BOUNDED_STALENESS, how far behind the leader the serving replica may be
+   * @return a protocol buffer GetRequest
+   */
+  public static GetRequest buildGetRequest(final byte[] regionName,
+                                           final Get get,
+                                           final boolean existenceOnly,
+                                           final ReadConsistency readConsistency,
+                                           final long maxStalenessMillis) throws IOException {
     final RegionSpecifier region = buildRegionSpecifier(regionName);
-    return new GetRequest(region, ProtobufUtil.toGet(get, existenceOnly));
+    return new GetRequest(region, ProtobufUtil.toGet(get, existenceOnly), readConsistency, maxStalenessMillis);
   }
 
   /**
@@ -154,4 +175,60 @@ public final class RequestConverter {
     }
     return new RegionAction(region, true, actions);
   }
+
+  /**
+   * Create a protocol buffer Action for one get of a batch.
+   *
+   * @param index         The position of the get in the batch, by which its result is matched to it
+   * @param get           The client Get
+   * @param existenceOnly indicate if check row existence only
+   * @return an Action carrying the get
+   */
+  public static Action buildGetAction(final int index,
+                                      final Get get,
+                                      final boolean existenceOnly) throws IOException {
+    return new Action(index, null, ProtobufUtil.toGet(get, existenceOnly));
+  }
+
+  /**
+   * Create a protocol buffer Action for one put or delete of a batch.
+   *
+   * @param index    The position of the mutation in the batch, by which its result is matched to it
+   * @param mutation The client Put or Delete
+   * @return an Action carrying the mutation
+   */
+  public static Action buildMutationAction(final int index,
+                                           final Mutation mutation) throws IOException {
+    final MutationProto.MutationType mutateType;
+    if (mutation instanceof Put) {
+      mutateType = MutationProto.MutationType.PUT;
+    } else if (mutation instanceof Delete) {
+      mutateType = MutationProto.MutationType.DELETE;
+    } else {
+      throw new DoNotRetryIOException("Batches support only put and delete, not " + mutation.getClass().getName());
+    }
+    return new Action(index, ProtobufUtil.toMutation(mutateType, mutation), null);
+  }
+
+  /**
+   * Create protocol buffer MultiRequests for a batch of actions, each holding a single non-atomic RegionAction
+   * of at most maxActionsPerRequest actions. The server itself sends each action to the region serving its row.
+   *
+   * @param regionName           The name of the table the actions apply to
+   * @param actions              The actions, in order
+   * @param maxActionsPerRequest The most actions to put in any one request
+   * @return the requests, in order
+   */
+  public static List<MultiRequest> buildMultiRequests(final byte[] regionName,
+                                                      final List<Action> actions,
+                                                      final int maxActionsPerRequest) {
+    final RegionSpecifier region = buildRegionSpecifier(regionName);
+    final List<MultiRequest> multiRequests = new ArrayList<>();
+    for (int start = 0; start < actions.size(); start += maxActionsPerRequest) {
+      final List<Action> requestActions =
+          new ArrayList<>(actions.subList(start, Math.min(start + maxActionsPerRequest, actions.size())));
+      multiRequests.add(new MultiRequest(Arrays.asList(new RegionAction(region, false, requestActions))));
+    }
+    return multiRequests;
+  }
 }
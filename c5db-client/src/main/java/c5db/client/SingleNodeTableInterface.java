@@ -102,4 +102,11 @@ public class SingleNodeTableInterface implements TableInterface {
   public void flushHandler() {
     channel.flush();
   }
+
+  /**
+   * @return a future which completes once the connection can accept more buffered mutations.
+   */
+  public ListenableFuture<Void> whenWritable() {
+    return handler.whenWritable(channel);
+  }
 }
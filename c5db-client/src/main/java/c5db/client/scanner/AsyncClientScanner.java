@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client.scanner;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.hadoop.hbase.client.Result;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Iterates a ClientScanner without blocking: each call to next returns a future of the next results, completed
+ * as soon as any are available. Only one call may be outstanding at a time.
+ */
+public class AsyncClientScanner implements AutoCloseable {
+  private static final Result[] END_OF_SCAN = new Result[0];
+
+  private final ClientScanner scanner;
+  private final ScheduledExecutorService timeoutScheduler;
+  private final long timeoutMillis;
+
+  // Guarded by this
+  private SettableFuture<Result[]> pending = null;
+  private int pendingMaxRows = 0;
+  private ScheduledFuture<?> pendingTimeout = null;
+
+  public AsyncClientScanner(ClientScanner scanner, ScheduledExecutorService timeoutScheduler, long timeoutMillis) {
+    this.scanner = scanner;
+    this.timeoutScheduler = timeoutScheduler;
+    this.timeoutMillis = timeoutMillis;
+    scanner.setResultsListener(this::onResults);
+  }
+
+  /**
+   * Get between one and maxRows more results.
+   *
+   * @return a future of the results; an empty array once the scan is over. It fails with a TimeoutException if
+   * no result arrives within the timeout, after which next may be called again.
+   */
+  public synchronized ListenableFuture<Result[]> next(int maxRows) {
+    if (pending != null) {
+      throw new IllegalStateException("The previous call to next has not yet completed");
+    }
+
+    final SettableFuture<Result[]> future = SettableFuture.create();
+    final Result[] results = scanner.poll(maxRows);
+    if (results == null) {
+      future.set(END_OF_SCAN);
+    } else if (results.length > 0) {
+      future.set(results);
+    } else {
+      pending = future;
+      pendingMaxRows = maxRows;
+      pendingTimeout = timeoutScheduler.schedule(() -> timeOut(future), timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    return future;
+  }
+
+  @Override
+  public void close() {
+    scanner.close();
+  }
+
+  private synchronized void onResults() {
+    if (pending == null) {
+      return;
+    }
+
+    final Result[] results = scanner.poll(pendingMaxRows);
+    if (results == null) {
+      complete(END_OF_SCAN);
+    } else if (results.length > 0) {
+      complete(results);
+    }
+  }
+
+  private synchronized void timeOut(SettableFuture<Result[]> future) {
+    if (pending == future) {
+      pending = null;
+      future.setException(new TimeoutException("No scan results within " + timeoutMillis + "ms"));
+    }
+  }
+
+  private void complete(Result[] results) {
+    final SettableFuture<Result[]> future = pending;
+    pending = null;
+    pendingTimeout.cancel(false);
+    future.set(results);
+  }
+}
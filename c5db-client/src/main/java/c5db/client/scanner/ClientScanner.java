@@ -39,6 +39,7 @@ package c5db.client.scanner;
 import c5db.client.C5Constants;
 import c5db.client.ProtobufUtil;
 import c5db.client.RequestConverter;
+import c5db.client.generated.ReadConsistency;
 import c5db.client.generated.RegionSpecifier;
 import c5db.client.generated.ScanRequest;
 import c5db.client.generated.ScanResponse;
@@ -49,16 +50,33 @@ import org.apache.hadoop.hbase.client.Result;
 
 import java.io.IOException;
 import java.util.ArrayList;
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A scanner whose results the server streams to it as credit allows. The scanner returns a row's worth of
+ * credit as each row is consumed, in grants of at least half its window; and doubles the window, up to
+ * MAX_REQUEST_SIZE rows, whenever it finds itself waiting for rows. While waiting, the consuming thread
+ * parks until the netty thread delivers more results. Alternatively, a consumer may poll for results without
+ * blocking, and set a listener to learn when more arrive.
+ */
 public class ClientScanner extends AbstractClientScanner {
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
   private final Channel ch;
   private final long scannerId;
   private final WickedQueue<c5db.client.generated.Result> scanResults = new WickedQueue<>();
   private final long commandId;
-  private boolean isClosed = false;
+  private volatile boolean isClosed = false;
+  private volatile Thread waitingConsumer = null;
+  private volatile Runnable resultsListener = null;
 
-  private int requestSize = C5Constants.DEFAULT_INIT_SCAN;
-  private int outStandingRequests = C5Constants.DEFAULT_INIT_SCAN;
+  // The number of rows the server may send ahead of consumption
+  private int window = C5Constants.DEFAULT_INIT_SCAN;
+  // Rows consumed whose credit has not yet been returned to the server
+  private int ungrantedCredit = 0;
+  // Whether the window has been widened since the last response arrived
+  private volatile boolean widenedSinceLastResponse = false;
 
   /**
    * Create a new ClientScanner for the specified table
@@ -72,45 +90,99 @@ public class ClientScanner extends AbstractClientScanner {
 
   @Override
   public Result next() throws IOException {
+    c5db.client.generated.Result result = scanResults.poll();
+
+    while (result == null) {
+      if (this.isClosed) {
+        // Results added before the scanner was closed are still to be returned
+        result = scanResults.poll();
+        if (result == null) {
+          return null;
+        }
+        break;
+      }
 
-    if (this.isClosed && this.scanResults.isEmpty()) {
-      return null;
+      widenWindowIfStarved();
+      awaitResults();
+      result = scanResults.poll();
     }
 
+    ungrantedCredit++;
+    grantCreditIfDue();
+    return ProtobufUtil.toResult(result);
+  }
+
+  /**
+   * Take up to maxRows of the results already received, without waiting for more. Callers must not poll
+   * concurrently, with each other or with next.
+   *
+   * @return the results taken, which may be none; or null, if the scan is over and every result taken
+   */
+  public Result[] poll(final int maxRows) {
+    final ArrayList<Result> resultSets = new ArrayList<>(Math.min(maxRows, window));
     c5db.client.generated.Result result;
-    do {
-      result = scanResults.poll();
+    while (resultSets.size() < maxRows && (result = scanResults.poll()) != null) {
+      resultSets.add(ProtobufUtil.toResult(result));
+      ungrantedCredit++;
+    }
 
-      if (!this.isClosed) {
-        // If we don't have enough pending outstanding increase our rate
-        if (this.outStandingRequests < .5 * requestSize && requestSize < C5Constants.MAX_REQUEST_SIZE) {
-          requestSize = requestSize * 2;
-        }
-        final int queueSpace = C5Constants.MAX_CACHE_SZ - this.scanResults.size();
+    if (resultSets.isEmpty()) {
+      if (this.isClosed && scanResults.isEmpty()) {
+        return null;
+      }
+      widenWindowIfStarved();
+    }
+    grantCreditIfDue();
+    return resultSets.toArray(new Result[resultSets.size()]);
+  }
 
-        // If we have plenty of room for another request
-        if (queueSpace * 1.5 > (requestSize + this.outStandingRequests)
-            // And we have less than two requests worth in the queue
-            && 2 * this.outStandingRequests < requestSize) {
-          getMoreRows();
-        }
+  /**
+   * Set a listener to run, on the netty thread, whenever results arrive or the scanner closes; for instance
+   * to poll without blocking. It must not block.
+   */
+  public void setResultsListener(Runnable resultsListener) {
+    this.resultsListener = resultsListener;
+  }
+
+  private void widenWindowIfStarved() {
+    if (!widenedSinceLastResponse && window < C5Constants.MAX_REQUEST_SIZE) {
+      widenedSinceLastResponse = true;
+      ungrantedCredit += window;
+      window *= 2;
+      grantCreditIfDue();
+    }
+  }
+
+  private void awaitResults() {
+    waitingConsumer = Thread.currentThread();
+    try {
+      while (scanResults.isEmpty() && !this.isClosed) {
+        // Bounded, in case an unpark is missed between the check and the park
+        LockSupport.parkNanos(this, MAX_PARK_NANOS);
       }
-    } while (result == null && !this.isClosed);
+    } finally {
+      waitingConsumer = null;
+    }
+  }
 
-    if (result == null) {
-      return null;
+  private void grantCreditIfDue() {
+    if (!this.isClosed && ungrantedCredit >= window / 2) {
+      getMoreRows(ungrantedCredit);
+      ungrantedCredit = 0;
     }
+  }
 
-    return ProtobufUtil.toResult(result);
+  private void getMoreRows(int numberOfRows) {
+    sendScanRequest(numberOfRows, false);
   }
 
-  private void getMoreRows() {
+  private void sendScanRequest(int numberOfRows, boolean closeScanner) {
     //TODO getRegion shouldn't be needed and currently is hardcoded
     final RegionSpecifier regionSpecifier = RequestConverter.buildRegionSpecifier(new byte[]{});
 
-    final ScanRequest scanRequest = new ScanRequest(regionSpecifier, null, scannerId, requestSize, false, 0);
-    this.outStandingRequests += requestSize;
-    ch.write(ProtobufUtil.getScanCall(commandId, scanRequest));
+    final ScanRequest scanRequest = new ScanRequest(regionSpecifier, null, scannerId, numberOfRows, closeScanner, 0,
+        ReadConsistency.LEADER, 0);
+    ch.writeAndFlush(ProtobufUtil.getScanCall(commandId, scanRequest));
   }
 
   @Override
@@ -127,19 +199,38 @@ public class ClientScanner extends AbstractClientScanner {
     return resultSets.toArray(new Result[resultSets.size()]);
   }
 
+  /**
+   * Stop scanning; if the server may still have rows to send, ask it to close its scanner.
+   */
   @Override
   public void close() {
-    this.isClosed = true;
+    if (!this.isClosed) {
+      this.isClosed = true;
+      sendScanRequest(0, true);
+    }
+    wakeConsumer();
   }
 
   public void add(ScanResponse response) {
     for (c5db.client.generated.Result result : response.getResultsList()) {
       scanResults.add(result);
-      this.outStandingRequests--;
     }
-    if (!this.isClosed && !response.getMoreResults()) {
-      this.close();
+    widenedSinceLastResponse = false;
+    if (!response.getMoreResults()) {
+      // The server has closed its scanner
+      this.isClosed = true;
     }
+    wakeConsumer();
+  }
 
+  private void wakeConsumer() {
+    final Thread consumer = waitingConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+    final Runnable listener = resultsListener;
+    if (listener != null) {
+      listener.run();
+    }
   }
 }
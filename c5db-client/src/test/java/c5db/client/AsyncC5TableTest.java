@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.client;
+
+import c5db.client.generated.Call;
+import c5db.client.generated.Cell;
+import c5db.client.generated.CellType;
+import c5db.client.generated.GetResponse;
+import c5db.client.generated.MultiResponse;
+import c5db.client.generated.MutateResponse;
+import c5db.client.generated.RegionActionResult;
+import c5db.client.generated.Response;
+import c5db.client.generated.ResultOrException;
+import c5db.client.generated.ScanResponse;
+import c5db.client.scanner.AsyncClientScanner;
+import c5db.client.scanner.ClientScannerManager;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPipeline;
+import io.protostuff.ByteString;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class AsyncC5TableTest {
+
+  @Rule
+  public JUnitRuleMockery context = new JUnitRuleMockery() {{
+    setThreadingPolicy(new Synchroniser());
+  }};
+
+  private final MessageHandler messageHandler = context.mock(MessageHandler.class);
+  private final ChannelPipeline channelPipeline = context.mock(ChannelPipeline.class);
+  private final C5ConnectionManager c5ConnectionManager = context.mock(C5ConnectionManager.class);
+  private final Channel channel = context.mock(Channel.class);
+  private final byte[] row = Bytes.toBytes("row");
+  private final SettableFuture<Response> callFuture = SettableFuture.create();
+  private AsyncC5Table table;
+
+  @Before
+  public void before() throws InterruptedException, ExecutionException, TimeoutException {
+    context.checking(new Expectations() {
+      {
+        oneOf(c5ConnectionManager).getOrCreateChannel(with(any(String.class)), with(any(int.class)));
+        will(returnValue(channel));
+
+        oneOf(channel).pipeline();
+        will(returnValue(channelPipeline));
+
+        oneOf(channelPipeline).get(with(any(Class.class)));
+        will(returnValue(messageHandler));
+      }
+    });
+
+    table = new AsyncC5Table(new SingleNodeTableInterface("fake", 0, c5ConnectionManager),
+        ByteString.copyFromUtf8("Doesntexist"));
+  }
+
+  @After
+  public void after() throws InterruptedException {
+    context.checking(new Expectations() {
+      {
+        oneOf(c5ConnectionManager).close();
+      }
+    });
+
+    table.close();
+  }
+
+  @Test
+  public void getDoesNotBlockAndCompletesWhenTheResponseArrives() throws Exception {
+    context.checking(new Expectations() {
+      {
+        oneOf(messageHandler).call(with(any(Call.class)), with(any(Channel.class)));
+        will(returnValue(callFuture));
+      }
+    });
+
+    ListenableFuture<Result> result = table.get(new Get(row));
+    assertThat(result.isDone(), is(false));
+
+    callFuture.set(new Response(Response.Command.GET, 1l, new GetResponse(resultForRow("row")), null, null, null));
+    assertThat(Bytes.toString(result.get().getRow()), is("row"));
+  }
+
+  @Test
+  public void putFailsIfTheMutationWasNotProcessed() throws Exception {
+    context.checking(new Expectations() {
+      {
+        oneOf(messageHandler).call(with(any(Call.class)), with(any(Channel.class)));
+        will(returnValue(callFuture));
+      }
+    });
+
+    ListenableFuture<Void> put = table.put(new Put(row));
+    callFuture.set(new Response(Response.Command.MUTATE, 1l, null, new MutateResponse(null, false), null, null));
+
+    assertThat(failureOf(put), instanceOf(java.io.IOException.class));
+  }
+
+  @Test
+  public void callsTimeOutAndDropTheirLateResponses() throws Exception {
+    context.checking(new Expectations() {
+      {
+        oneOf(messageHandler).call(with(any(Call.class)), with(any(Channel.class)));
+        will(returnValue(callFuture));
+      }
+    });
+
+    ListenableFuture<Result> result = table.withTimeout(10, TimeUnit.MILLISECONDS).get(new Get(row));
+
+    assertThat(failureOf(result), instanceOf(TimeoutException.class));
+    assertThat(callFuture.isCancelled(), is(true));
+  }
+
+  @Test
+  public void batchedGetsAreReturnedInOrder() throws Exception {
+    context.checking(new Expectations() {
+      {
+        oneOf(messageHandler).call(with(any(Call.class)), with(any(Channel.class)));
+        will(returnValue(callFuture));
+      }
+    });
+
+    ListenableFuture<Result[]> results = table.get(Arrays.asList(
+        new Get(Bytes.toBytes("row0")), new Get(Bytes.toBytes("row1"))));
+    RegionActionResult regionActionResult = new RegionActionResult(Arrays.asList(
+        new ResultOrException(1, resultForRow("row1"), null),
+        new ResultOrException(0, resultForRow("row0"), null)), null);
+    callFuture.set(new Response(Response.Command.MULTI, 1l, null, null, null,
+        new MultiResponse(Arrays.asList(regionActionResult))));
+
+    assertThat(Bytes.toString(results.get()[0].getRow()), is("row0"));
+    assertThat(Bytes.toString(results.get()[1].getRow()), is("row1"));
+  }
+
+  @Test
+  public void scannerNextCompletesWhenResultsArrive() throws Exception {
+    SettableFuture<Long> scanFuture = SettableFuture.create();
+    context.checking(new Expectations() {
+      {
+        oneOf(messageHandler).callScan(with(any(Call.class)), with(any(Channel.class)));
+        will(returnValue(scanFuture));
+
+        allowing(channel).writeAndFlush(with(any(Object.class)));
+      }
+    });
+
+    long scannerId = 20l;
+    ClientScannerManager.INSTANCE.createAndGet(channel, scannerId, 1);
+    scanFuture.set(scannerId);
+    AsyncClientScanner scanner = table.getScanner(new Scan()).get();
+
+    ListenableFuture<Result[]> next = scanner.next(10);
+    assertThat(next.isDone(), is(false));
+
+    ClientScannerManager.INSTANCE.get(scannerId).get().add(
+        new ScanResponse(Arrays.asList(1), scannerId, false, 0, Arrays.asList(resultForRow("row"))));
+    assertThat(next.get().length, is(1));
+    assertThat(scanner.next(10).get().length, is(0));
+  }
+
+  private static Throwable failureOf(ListenableFuture<?> future) throws InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+    return null;
+  }
+
+  private static c5db.client.generated.Result resultForRow(String row) {
+    Cell cell = new Cell(
+        ByteBuffer.wrap(Bytes.toBytes(row)),
+        ByteBuffer.wrap(Bytes.toBytes("cf")),
+        ByteBuffer.wrap(Bytes.toBytes("cq")),
+        0l,
+        CellType.PUT,
+        ByteBuffer.wrap(Bytes.toBytes("value")));
+    return new c5db.client.generated.Result(Arrays.asList(cell), 1, false);
+  }
+}
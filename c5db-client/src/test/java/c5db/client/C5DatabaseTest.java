@@ -28,6 +28,7 @@ import c5db.client.generated.MultiResponse;
 import c5db.client.generated.MutateRequest;
 import c5db.client.generated.MutateResponse;
 import c5db.client.generated.MutationProto;
+import c5db.client.generated.ReadConsistency;
 import c5db.client.generated.RegionAction;
 import c5db.client.generated.RegionActionResult;
 import c5db.client.generated.RegionSpecifier;
@@ -146,7 +147,7 @@ public class C5DatabaseTest {
         ByteBuffer.wrap(new byte[]{0x00}));
 
     Get get = new Get();
-    GetRequest getRequest = new GetRequest(regionSpecifier, get);
+    GetRequest getRequest = new GetRequest(regionSpecifier, get, ReadConsistency.LEADER, 0);
     singleNodeTableInterface.get(getRequest);
     Response response = new Response(Response.Command.GET, 1l, new GetResponse(null), null, null, null);
     callFuture.set(response);
@@ -171,7 +172,7 @@ public class C5DatabaseTest {
     boolean closeScanner = false;
     long nextCallSeq = 101;
 
-    ScanRequest scanRequest = new ScanRequest(regionSpecifier, scan, scannerId, numberOfRows, closeScanner, nextCallSeq);
+    ScanRequest scanRequest = new ScanRequest(regionSpecifier, scan, scannerId, numberOfRows, closeScanner, nextCallSeq, ReadConsistency.LEADER, 0);
     singleNodeTableInterface.scan(scanRequest);
 
     List<Integer> cellsPerResult = new ArrayList<>();
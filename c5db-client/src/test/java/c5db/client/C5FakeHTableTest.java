@@ -21,10 +21,15 @@ package c5db.client;
 import c5db.client.generated.Call;
 import c5db.client.generated.Cell;
 import c5db.client.generated.CellType;
+import c5db.client.generated.MultiResponse;
 import c5db.client.generated.MutateResponse;
+import c5db.client.generated.NameBytesPair;
+import c5db.client.generated.RegionActionResult;
 import c5db.client.generated.Response;
+import c5db.client.generated.ResultOrException;
 import c5db.client.generated.ScanResponse;
 import c5db.client.scanner.ClientScannerManager;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
@@ -38,7 +43,10 @@ import org.apache.hadoop.hbase.client.RowMutations;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.action.CustomAction;
 import org.jmock.lib.concurrent.Synchroniser;
 import org.junit.After;
 import org.junit.Before;
@@ -158,8 +166,7 @@ public class C5FakeHTableTest {
         will(returnValue(callFuture));
       }
     });
-    Response response = new Response(Response.Command.MUTATE, 1l, null, new MutateResponse(null, true), null, null);
-    callFuture.set(response);
+    callFuture.set(multiResponse(new ResultOrException(0, new c5db.client.generated.Result(), null)));
     hTable.put(Arrays.asList(new Put(row)));
   }
 
@@ -186,8 +193,7 @@ public class C5FakeHTableTest {
         will(returnValue(callFuture));
       }
     });
-    Response response = new Response(Response.Command.MUTATE, 1l, null, new MutateResponse(null, true), null, null);
-    callFuture.set(response);
+    callFuture.set(multiResponse(new ResultOrException(0, new c5db.client.generated.Result(), null)));
     hTable.delete(Arrays.asList(new Delete(row)));
   }
 
@@ -292,5 +298,88 @@ public class C5FakeHTableTest {
     hTable.checkAndDelete(row, cf, cq, value, new Delete(row));
   }
 
+  @Test
+  public void getsAreSentAsOneMultiAndTheirResultsReturnedInOrder() throws IOException {
+    context.checking(new Expectations() {
+      {
+        oneOf(messageHandler).call(with(any(Call.class)), with(any((Channel.class))));
+        will(returnValue(callFuture));
+      }
+    });
+    callFuture.set(multiResponse(
+        new ResultOrException(2, resultForRow("row2"), null),
+        new ResultOrException(0, resultForRow("row0"), null),
+        new ResultOrException(1, resultForRow("row1"), null)));
+
+    Result[] results = hTable.get(Arrays.asList(
+        new Get(Bytes.toBytes("row0")), new Get(Bytes.toBytes("row1")), new Get(Bytes.toBytes("row2"))));
+
+    assertThat(results.length, is(3));
+    for (int i = 0; i < results.length; i++) {
+      assertThat(Bytes.toString(results[i].getRow()), is("row" + i));
+    }
+  }
+
+  @Test
+  public void largeBatchesAreSplitAcrossSeveralMultis() throws IOException {
+    context.checking(new Expectations() {
+      {
+        exactly(2).of(messageHandler).call(with(any(Call.class)), with(any((Channel.class))));
+        will(respondWithAResultForEachAction());
+      }
+    });
+
+    List<Put> puts = new ArrayList<>();
+    for (int i = 0; i <= C5Constants.MAX_ACTIONS_PER_MULTI; i++) {
+      puts.add(new Put(Bytes.toBytes(i)).add(cf, cq, value));
+    }
+    hTable.put(puts);
+  }
+
+  @Test(expected = IOException.class)
+  public void batchShouldErrorIfAnyActionFailed() throws IOException {
+    context.checking(new Expectations() {
+      {
+        oneOf(messageHandler).call(with(any(Call.class)), with(any((Channel.class))));
+        will(returnValue(callFuture));
+      }
+    });
+    callFuture.set(multiResponse(
+        new ResultOrException(0, new c5db.client.generated.Result(), null),
+        new ResultOrException(1, null, new NameBytesPair("java.io.IOException", null))));
+
+    hTable.delete(Arrays.asList(new Delete(row), new Delete(Bytes.toBytes("otherRow"))));
+  }
+
+  private static Response multiResponse(ResultOrException... resultOrExceptions) {
+    RegionActionResult regionActionResult = new RegionActionResult(Arrays.asList(resultOrExceptions), null);
+    return new Response(Response.Command.MULTI, 1l, null, null, null,
+        new MultiResponse(Arrays.asList(regionActionResult)));
+  }
 
+  private static c5db.client.generated.Result resultForRow(String row) {
+    Cell cell = new Cell(
+        ByteBuffer.wrap(Bytes.toBytes(row)),
+        ByteBuffer.wrap(Bytes.toBytes("cf")),
+        ByteBuffer.wrap(Bytes.toBytes("cq")),
+        0l,
+        CellType.PUT,
+        ByteBuffer.wrap(Bytes.toBytes("value")));
+    return new c5db.client.generated.Result(Arrays.asList(cell), 1, false);
+  }
+
+  private static Action respondWithAResultForEachAction() {
+    return new CustomAction("respond with a result for each action") {
+      @Override
+      public Object invoke(Invocation invocation) throws Throwable {
+        Call call = (Call) invocation.getParameter(0);
+        List<ResultOrException> resultOrExceptions = new ArrayList<>();
+        for (c5db.client.generated.Action action : call.getMulti().getRegionActionList().get(0).getActionList()) {
+          resultOrExceptions.add(new ResultOrException(action.getIndex(), new c5db.client.generated.Result(), null));
+        }
+        return Futures.immediateFuture(
+            multiResponse(resultOrExceptions.toArray(new ResultOrException[resultOrExceptions.size()])));
+      }
+    };
+  }
 }
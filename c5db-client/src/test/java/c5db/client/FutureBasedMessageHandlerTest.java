@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.client;
+
+import c5db.client.generated.Call;
+import c5db.client.generated.MutateRequest;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class FutureBasedMessageHandlerTest {
+  private final FutureBasedMessageHandler handler = new FutureBasedMessageHandler();
+  private final EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+  @Test
+  public void completesAWaitForWritabilityAtOnceIfTheChannelIsWritable() throws Exception {
+    final ListenableFuture<Void> writable = handler.whenWritable(channel);
+
+    assertThat(writable.isDone(), is(true));
+    writable.get(0, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void holdsBackBufferedCallsWhileTheChannelIsNotWritableAndWritesThemInOrderOnceItDrains()
+      throws Exception {
+    channel.config().setWriteBufferLowWaterMark(0);
+    channel.config().setWriteBufferHighWaterMark(1);
+    final Call first = aMutateCall(1);
+    final Call second = aMutateCall(2);
+
+    handler.buffer(first, channel);
+    assertThat(channel.isWritable(), is(false));
+
+    handler.buffer(second, channel);
+    channel.runPendingTasks();
+
+    assertThat(channel.readOutbound(), is((Object) first));
+    assertThat(channel.readOutbound(), is((Object) second));
+  }
+
+  @Test
+  public void failsAWaitForWritabilityIfTheChannelIsClosed() throws Exception {
+    channel.close();
+
+    try {
+      handler.whenWritable(channel).get(0, TimeUnit.SECONDS);
+      fail("expected the wait to fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), is(instanceOf(IOException.class)));
+    }
+  }
+
+  private static Call aMutateCall(long commandId) {
+    return new Call(Call.Command.MUTATE, commandId, null, new MutateRequest(), null, null);
+  }
+}
@@ -17,10 +17,22 @@
 
 package c5db;
 
+import c5db.generated.OLogChecksumType;
+
 public class LogConstants {
   public static final String LOG_ROOT_DIRECTORY_NAME = "logs";
   public static final String LOG_FILE_SUBDIRECTORY_NAME = "files";
+  public static final String LOG_INDEX_FILE_SUFFIX = ".index";
+  public static final String SHARED_LOG_DIRECTORY_NAME = "shared-log";
+  public static final long SHARED_LOG_DEFAULT_SEGMENT_SIZE_BYTES = 64 * 1024 * 1024;
   public static final int LOG_THREAD_POOL_SIZE = 1;
   public static final int LOG_CLOSE_TIMEOUT_SECONDS = 15;
   public static final int LOG_NAVIGATOR_DEFAULT_MAX_ENTRY_SEEK = 256;
+  public static final int LOG_FORMAT_VERSION = 2;
+  public static final OLogChecksumType LOG_CHECKSUM_TYPE = OLogChecksumType.CRC32C;
+  public static final boolean LOG_USE_MEMORY_MAPPED_READS = true;
+  public static final int LOG_MAX_MEMORY_MAPPED_FILES = 256;
+  public static final long LOG_MAPPED_REGION_GROWTH_BYTES = 64 * 1024 * 1024;
+  public static final long LOG_GROUP_COMMIT_WINDOW_MICROS = 1000;
+  public static final long LOG_GROUP_COMMIT_WINDOW_BYTES = 1024 * 1024;
 }
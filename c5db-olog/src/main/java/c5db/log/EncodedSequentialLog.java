@@ -22,6 +22,7 @@ import c5db.interfaces.log.SequentialEntry;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -44,12 +45,23 @@ public class EncodedSequentialLog<E extends SequentialEntry> implements Sequenti
     this.persistenceNavigator = persistenceNavigator;
   }
 
+  /**
+   * Encode all the entries, then append them to the persistence together, with a single call.
+   */
   @Override
   public void append(List<E> entries) throws IOException {
+    final List<ByteBuffer> buffers = new ArrayList<>(entries.size() * 4);
+    long address = persistence.size();
+
     for (E entry : entries) {
-      persistenceNavigator.notifyLogging(entry.getSeqNum(), persistence.size());
-      persistence.append(codec.encode(entry));
+      persistenceNavigator.notifyLogging(entry.getSeqNum(), address);
+      for (ByteBuffer buffer : codec.encode(entry)) {
+        address += buffer.remaining();
+        buffers.add(buffer);
+      }
     }
+
+    persistence.append(buffers.toArray(new ByteBuffer[buffers.size()]));
   }
 
   @Override
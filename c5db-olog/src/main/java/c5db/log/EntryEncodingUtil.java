@@ -17,8 +17,8 @@
 
 package c5db.log;
 
+import c5db.generated.OLogChecksumType;
 import c5db.util.CrcInputStream;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
 import io.protostuff.LinkBuffer;
@@ -30,9 +30,11 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.zip.Adler32;
+import java.util.zip.Checksum;
 
 import static com.google.common.math.IntMath.checkedAdd;
 
@@ -40,6 +42,7 @@ import static com.google.common.math.IntMath.checkedAdd;
  * Contains methods used for encoding and decoding log entries
  */
 public class EntryEncodingUtil {
+  private static final int CRC_BYTES = 4;
 
   /**
    * Exception indicating that a CRC has been read which does not match up with
@@ -60,24 +63,55 @@ public class EntryEncodingUtil {
    * @return A list of ByteBuffers containing a varInt length, followed by the message, followed by a 4-byte CRC.
    */
   public static <T> List<ByteBuffer> encodeWithLengthAndCrc(Schema<T> schema, T message) {
+    return Lists.newArrayList(encodeToBufferWithLengthAndCrc(schema, message, OLogChecksumType.ADLER32));
+  }
+
+  /**
+   * Serialize a protostuff message object into a single buffer, as
+   * {@link #encodeToBufferWithLengthAndCrc(Schema, Object, OLogChecksumType)}, using an Adler32 CRC.
+   */
+  public static <T> ByteBuffer encodeToBufferWithLengthAndCrc(Schema<T> schema, T message) {
+    return encodeToBufferWithLengthAndCrc(schema, message, OLogChecksumType.ADLER32);
+  }
+
+  /**
+   * Serialize a protostuff message object, prefixed with message length, and suffixed with a 4-byte CRC,
+   * into a single buffer. The length, message, and CRC are written directly into the buffer, and the CRC
+   * is computed over the buffer's backing array, so no intermediate buffers or lists are needed.
+   *
+   * @param schema       Protostuff message schema
+   * @param message      Object to serialize
+   * @param checksumType Algorithm used to compute the CRC
+   * @param <T>          Message type
+   * @return A ByteBuffer containing a varInt length, followed by the message, followed by a 4-byte CRC.
+   */
+  public static <T> ByteBuffer encodeToBufferWithLengthAndCrc(Schema<T> schema, T message,
+                                                              OLogChecksumType checksumType) {
     final LinkBuffer messageBuf = new LinkBuffer();
     final LowCopyProtobufOutput lcpo = new LowCopyProtobufOutput(messageBuf);
 
     try {
       schema.writeTo(lcpo, message);
-
-      final int length = Ints.checkedCast(lcpo.buffer.size());
-      final LinkBuffer lengthBuf = new LinkBuffer().writeVarInt32(length);
-
-      return appendCrcToBufferList(
-          Lists.newArrayList(
-              Iterables.concat(lengthBuf.finish(), messageBuf.finish()))
-      );
     } catch (IOException e) {
       // This method performs no IO, so it should not actually be possible for an IOException to be thrown.
       // But just in case...
       throw new RuntimeException(e);
     }
+
+    final int length = Ints.checkedCast(lcpo.buffer.size());
+    final ByteBuffer buffer = ByteBuffer.allocate(varInt32Size(length) + length + CRC_BYTES);
+
+    putVarInt32(buffer, length);
+    for (ByteBuffer messagePart : messageBuf.finish()) {
+      buffer.put(messagePart);
+    }
+
+    final Checksum crc = LogChecksums.create(checksumType);
+    crc.update(buffer.array(), buffer.arrayOffset(), buffer.position());
+    putCrc(buffer, crc.getValue());
+
+    buffer.flip();
+    return buffer;
   }
 
   /**
@@ -91,9 +125,18 @@ public class EntryEncodingUtil {
    */
   public static <T> T decodeAndCheckCrc(InputStream inputStream, Schema<T> schema)
       throws IOException, CrcError {
+    return decodeAndCheckCrc(inputStream, schema, OLogChecksumType.ADLER32);
+  }
+
+  /**
+   * Decode a message from the passed input stream, and compute and verify its CRC using the given
+   * checksum algorithm.
+   */
+  public static <T> T decodeAndCheckCrc(InputStream inputStream, Schema<T> schema, OLogChecksumType checksumType)
+      throws IOException, CrcError {
     // TODO this should check the length first and compare it with a passed-in maximum length
     final T message = schema.newMessage();
-    final CrcInputStream crcStream = new CrcInputStream(inputStream, new Adler32());
+    final CrcInputStream crcStream = new CrcInputStream(inputStream, LogChecksums.create(checksumType));
     ProtobufIOUtil.mergeDelimitedFrom(crcStream, message, schema);
 
     final long computedCrc = crcStream.getValue();
@@ -118,10 +161,25 @@ public class EntryEncodingUtil {
 
     final Adler32 crc = new Adler32();
     content.forEach((ByteBuffer buffer) -> crc.update(buffer.duplicate()));
-    final LinkBuffer crcBuf = new LinkBuffer(8);
-    putCrc(crcBuf, crc.getValue());
 
-    return Lists.newArrayList(Iterables.concat(content, crcBuf.finish()));
+    final List<ByteBuffer> buffers = new ArrayList<>(content.size() + 1);
+    buffers.addAll(content);
+    buffers.add(crcBuffer(crc.getValue()));
+    return buffers;
+  }
+
+  /**
+   * Create a buffer containing the passed CRC, as written by {@link #appendCrcToBufferList}.
+   *
+   * @param crc CRC to write; caller guarantees that the code is within the range:
+   *            0 <= CRC < 2^32
+   * @return A new buffer containing exactly 4 bytes, ready to be read.
+   */
+  public static ByteBuffer crcBuffer(long crc) {
+    final ByteBuffer buffer = ByteBuffer.allocate(CRC_BYTES);
+    putCrc(buffer, crc);
+    buffer.flip();
+    return buffer;
   }
 
   /**
@@ -132,10 +190,27 @@ public class EntryEncodingUtil {
    * @param crc     CRC to write; caller guarantees that the code is within the range:
    *                0 <= CRC < 2^32
    */
-  private static void putCrc(final LinkBuffer writeTo, final long crc) throws IOException {
+  private static void putCrc(final ByteBuffer writeTo, final long crc) {
     // To store the CRC in an int, we need to subtract to convert it from unsigned to signed.
     final long shiftedCrc = crc + Integer.MIN_VALUE;
-    writeTo.writeInt32(Ints.checkedCast(shiftedCrc));
+    writeTo.putInt(Ints.checkedCast(shiftedCrc));
+  }
+
+  private static int varInt32Size(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static void putVarInt32(ByteBuffer writeTo, int value) {
+    while ((value & ~0x7F) != 0) {
+      writeTo.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    writeTo.put((byte) value);
   }
 
   private static long readCrc(InputStream inputStream) throws IOException {
@@ -154,8 +229,18 @@ public class EntryEncodingUtil {
    */
   public static ByteBuffer getAndCheckContent(InputStream inputStream, int contentLength)
       throws IOException, CrcError {
+    return getAndCheckContent(inputStream, contentLength, OLogChecksumType.ADLER32);
+  }
+
+  /**
+   * Read content and check its CRC, as getAndCheckContent(InputStream, int), using the given checksum
+   * algorithm.
+   */
+  public static ByteBuffer getAndCheckContent(InputStream inputStream, int contentLength,
+                                              OLogChecksumType checksumType)
+      throws IOException, CrcError {
     // TODO probably not the correct way to do this... should use IOUtils?
-    final CrcInputStream crcStream = new CrcInputStream(inputStream, new Adler32());
+    final CrcInputStream crcStream = new CrcInputStream(inputStream, LogChecksums.create(checksumType));
     final byte[] content = new byte[contentLength];
     final int len = crcStream.read(content);
 
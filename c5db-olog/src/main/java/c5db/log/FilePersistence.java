@@ -17,7 +17,11 @@
 
 package c5db.log;
 
+import c5db.LogConstants;
+import org.jetbrains.annotations.Nullable;
+
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
@@ -28,15 +32,30 @@ import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
 
 /**
- * A BytePersistence using a File, accessed by FileChannels.
+ * A BytePersistence using a File, accessed by FileChannels. Optionally, reads may instead be served
+ * from memory-mapped regions of the file, provided by a MappedRegionCache, together with a FileChannel
+ * for any part of the file beyond the mapped region; in that case, a reader sees the data present in
+ * the file at the time the reader was created.
  */
 public class FilePersistence implements BytePersistence {
   private final FileChannel appendChannel;
   final Path path;
+  @Nullable
+  private final MappedRegionCache mappedRegionCache;
   private long filePosition;
 
   public FilePersistence(Path path) throws IOException {
+    this(path, null);
+  }
+
+  /**
+   * @param path              Path of the file
+   * @param mappedRegionCache If not null, readers will read from memory-mapped regions obtained
+   *                          from this cache, rather than from FileChannels.
+   */
+  public FilePersistence(Path path, @Nullable MappedRegionCache mappedRegionCache) throws IOException {
     this.path = path;
+    this.mappedRegionCache = mappedRegionCache;
     appendChannel = FileChannel.open(path, CREATE, APPEND);
     filePosition = appendChannel.position();
   }
@@ -51,15 +70,31 @@ public class FilePersistence implements BytePersistence {
     return filePosition;
   }
 
+  /**
+   * Append the buffers with gathering writes, repeating the write until every buffer has been written;
+   * a single gathering write may write only some of the buffers, e.g. if there are more of them than
+   * the operating system accepts in one call.
+   */
   @Override
   public void append(ByteBuffer[] buffers) throws IOException {
-    appendChannel.write(buffers);
-    filePosition += totalBytesToBeWritten(buffers);
+    final long bytesToWrite = totalBytesToBeWritten(buffers);
+    long bytesWritten = 0;
+
+    while (bytesWritten < bytesToWrite) {
+      bytesWritten += appendChannel.write(buffers);
+    }
+    filePosition += bytesWritten;
   }
 
   @Override
   public LogPersistenceService.PersistenceReader getReader() throws IOException {
-    return new NioReader(FileChannel.open(path, READ));
+    if (mappedRegionCache == null || filePosition > Integer.MAX_VALUE) {
+      return new NioReader(FileChannel.open(path, READ));
+    } else {
+      final ByteBuffer region = mappedRegionCache.getRegion(path, filePosition);
+      final FileChannel tailChannel = region.limit() < filePosition ? FileChannel.open(path, READ) : null;
+      return new MappedReader(region, tailChannel, filePosition);
+    }
   }
 
   @Override
@@ -69,6 +104,15 @@ public class FilePersistence implements BytePersistence {
     }
     appendChannel.truncate(size);
     filePosition = size;
+
+    if (mappedRegionCache != null) {
+      mappedRegionCache.invalidate(path);
+    }
+  }
+
+  @Override
+  public FilePersistence openIndexPersistence() throws IOException {
+    return new FilePersistence(path.resolveSibling(path.getFileName() + LogConstants.LOG_INDEX_FILE_SUFFIX));
   }
 
   @Override
@@ -81,11 +125,10 @@ public class FilePersistence implements BytePersistence {
     appendChannel.close();
   }
 
-  // TODO This should be done once, in one central place
-  private long totalBytesToBeWritten(ByteBuffer[] buffers) {
+  private static long totalBytesToBeWritten(ByteBuffer[] buffers) {
     long sum = 0;
     for (ByteBuffer b : buffers) {
-      sum += b.position();
+      sum += b.remaining();
     }
     return sum;
   }
@@ -121,4 +164,133 @@ public class FilePersistence implements BytePersistence {
       fileChannel.close();
     }
   }
+
+  /**
+   * Reader of a memory-mapped region, followed by a tail, if any, which is read from the file through
+   * a FileChannel. Its input stream reads directly from the region, sharing its position with the
+   * reader, and skips without reading.
+   */
+  private static class MappedReader implements LogPersistenceService.PersistenceReader {
+    private final ByteBuffer region;
+    @Nullable
+    private final FileChannel tailChannel;
+    private final long size;
+    // Bytes read of the tail; always zero unless the whole region has been read.
+    private long tailPosition = 0;
+    private boolean open = true;
+
+    public MappedReader(ByteBuffer region, @Nullable FileChannel tailChannel, long size) {
+      this.region = region;
+      this.tailChannel = tailChannel;
+      this.size = size;
+    }
+
+    @Override
+    public long position() throws IOException {
+      return region.position() + tailPosition;
+    }
+
+    @Override
+    public void position(long newPos) throws IOException {
+      if (newPos > size) {
+        throw new IOException("MappedReader#position: position beyond the end of the readable data");
+      }
+      region.position((int) Math.min(newPos, region.limit()));
+      tailPosition = newPos - region.position();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      if (region.hasRemaining()) {
+        final int length = Math.min(dst.remaining(), region.remaining());
+        final ByteBuffer source = region.duplicate();
+        source.limit(source.position() + length);
+        dst.put(source);
+        region.position(region.position() + length);
+        return length;
+      }
+
+      return readTail(dst);
+    }
+
+    private int readTail(ByteBuffer dst) throws IOException {
+      final long position = position();
+      if (tailChannel == null || position >= size) {
+        return -1;
+      }
+
+      final int limit = dst.limit();
+      dst.limit(dst.position() + (int) Math.min(dst.remaining(), size - position));
+      try {
+        final int length = tailChannel.read(dst, position);
+        if (length > 0) {
+          tailPosition += length;
+        }
+        return length;
+      } finally {
+        dst.limit(limit);
+      }
+    }
+
+    @Override
+    public InputStream asInputStream() {
+      return new InputStream() {
+        private final ByteBuffer singleByte = ByteBuffer.allocate(1);
+
+        @Override
+        public int read() throws IOException {
+          if (region.hasRemaining()) {
+            return region.get() & 0xFF;
+          }
+
+          singleByte.clear();
+          return readTail(singleByte) > 0 ? singleByte.get(0) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          if (len == 0) {
+            return 0;
+          } else if (!region.hasRemaining()) {
+            return readTail(ByteBuffer.wrap(b, off, len));
+          }
+
+          final int length = Math.min(len, region.remaining());
+          region.get(b, off, length);
+          return length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+          final long position = position();
+          final long skipped = Math.min(Math.max(n, 0), size - position);
+          position(position + skipped);
+          return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+          return region.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+          MappedReader.this.close();
+        }
+      };
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+      open = false;
+      if (tailChannel != null) {
+        tailChannel.close();
+      }
+    }
+  }
 }
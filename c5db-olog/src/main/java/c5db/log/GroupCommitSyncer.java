@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performs "group commit" on behalf of an OLog: it collects requests to make appended data
+ * durable, from any number of logs (and so from any number of quorums), and satisfies them
+ * together. Requests are gathered for up to a fixed time window, measured from the arrival of
+ * the first request in the window, or until a byte threshold is reached, whichever comes first.
+ * Then each distinct log with a pending request is synced exactly once, and only after that are
+ * the requests' futures completed.
+ * <p>
+ * Syncing takes place on a dedicated thread owned by this object. Requests for a given log are
+ * completed in the order they were made. A log which is to be closed while requests for it may be
+ * pending must first be retired; see {@link #retire}.
+ */
+public class GroupCommitSyncer implements AutoCloseable {
+  private final long windowNanos;
+  private final long windowBytes;
+  private final Thread syncThread;
+  private final AtomicLong syncCount = new AtomicLong(0);
+
+  /**
+   * Held while syncing, by the sync thread and by retire, so that a log is never synced once retire
+   * has returned.
+   */
+  private final Object syncLock = new Object();
+
+  /**
+   * These fields may only be accessed while holding lock.
+   */
+  private final Object lock = new Object();
+  private List<SyncRequest> pendingRequests = new ArrayList<>();
+  private long pendingBytes = 0;
+  private long windowStartNanos = 0;
+  private boolean closed = false;
+
+  /**
+   * @param window      Maximum length of time to gather requests before syncing.
+   * @param unit        Time unit of window.
+   * @param windowBytes Number of appended bytes which, once pending, will cause a sync to be
+   *                    performed without waiting for the window to elapse.
+   */
+  public GroupCommitSyncer(long window, TimeUnit unit, long windowBytes) {
+    this.windowNanos = unit.toNanos(window);
+    this.windowBytes = windowBytes;
+
+    syncThread = new Thread(this::runSyncLoop, "GroupCommitSyncer");
+    syncThread.setDaemon(true);
+    syncThread.start();
+  }
+
+  /**
+   * Request that data previously appended to the given log be made durable. The data must already
+   * have been appended when this method is called.
+   *
+   * @param log            Log to sync.
+   * @param bytes          Number of bytes appended since the previous request for this log.
+   * @param durableFuture  Future which will be set to true once the data is durable, or set with an
+   *                       exception if the sync fails.
+   */
+  public void requestSync(SequentialLog<?> log, long bytes, SettableFuture<Boolean> durableFuture) {
+    synchronized (lock) {
+      if (closed) {
+        durableFuture.setException(new IOException("GroupCommitSyncer#requestSync: syncer is closed"));
+        return;
+      }
+
+      if (pendingRequests.isEmpty()) {
+        windowStartNanos = System.nanoTime();
+      }
+      pendingRequests.add(new SyncRequest(log, durableFuture));
+      pendingBytes += bytes;
+
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Satisfy any pending requests for the given log, syncing it on the calling thread if necessary,
+   * and wait for any sync of it already under way to finish. Once this method returns, this object
+   * will not touch the log again (unless further requests are made for it), so it may be closed.
+   *
+   * @param log Log to retire.
+   */
+  public void retire(SequentialLog<?> log) {
+    final List<SyncRequest> retiredRequests = new ArrayList<>();
+
+    synchronized (syncLock) {
+      synchronized (lock) {
+        final List<SyncRequest> remainingRequests = new ArrayList<>();
+        for (SyncRequest request : pendingRequests) {
+          if (request.log == log) {
+            retiredRequests.add(request);
+          } else {
+            remainingRequests.add(request);
+          }
+        }
+        pendingRequests = remainingRequests;
+        if (pendingRequests.isEmpty()) {
+          pendingBytes = 0;
+        }
+      }
+
+      if (!retiredRequests.isEmpty()) {
+        syncAndComplete(retiredRequests);
+      }
+    }
+  }
+
+  /**
+   * Return the total number of syncs performed so far; useful for gauging how effectively
+   * requests are being grouped.
+   */
+  public long getSyncCount() {
+    return syncCount.get();
+  }
+
+  /**
+   * Satisfy any pending requests, then stop the sync thread. Requests made after this call
+   * will fail.
+   */
+  @Override
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+
+    try {
+      syncThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runSyncLoop() {
+    while (true) {
+      final List<SyncRequest> batch;
+
+      synchronized (lock) {
+        try {
+          while (pendingRequests.isEmpty() && !closed) {
+            lock.wait();
+          }
+
+          long remainingNanos;
+          while (!closed
+              && pendingBytes < windowBytes
+              && (remainingNanos = windowStartNanos + windowNanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(lock, remainingNanos);
+          }
+        } catch (InterruptedException e) {
+          closed = true;
+        }
+
+        if (pendingRequests.isEmpty()) {
+          if (closed) {
+            return;
+          }
+          // Every request was retired while the window was open.
+          continue;
+        }
+
+        batch = pendingRequests;
+        pendingRequests = new ArrayList<>();
+        pendingBytes = 0;
+      }
+
+      synchronized (syncLock) {
+        syncAndComplete(batch);
+      }
+    }
+  }
+
+  private void syncAndComplete(List<SyncRequest> batch) {
+    final Map<SequentialLog<?>, Throwable> syncFailures = new IdentityHashMap<>();
+
+    for (SyncRequest request : batch) {
+      if (syncFailures.containsKey(request.log)) {
+        continue;
+      }
+
+      try {
+        request.log.sync();
+        syncCount.incrementAndGet();
+        syncFailures.put(request.log, null);
+      } catch (IOException | RuntimeException e) {
+        syncFailures.put(request.log, e);
+      }
+    }
+
+    for (SyncRequest request : batch) {
+      Throwable failure = syncFailures.get(request.log);
+      if (failure == null) {
+        request.durableFuture.set(true);
+      } else {
+        request.durableFuture.setException(failure);
+      }
+    }
+  }
+
+  private static class SyncRequest {
+    public final SequentialLog<?> log;
+    public final SettableFuture<Boolean> durableFuture;
+
+    private SyncRequest(SequentialLog<?> log, SettableFuture<Boolean> durableFuture) {
+      this.log = log;
+      this.durableFuture = durableFuture;
+    }
+  }
+}
@@ -23,9 +23,6 @@ import c5db.interfaces.log.SequentialEntry;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.channels.Channels;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 
 import static c5db.log.LogPersistenceService.BytePersistence;
 import static c5db.log.LogPersistenceService.PersistenceNavigator;
@@ -34,8 +31,8 @@ import static c5db.log.SequentialLog.LogEntryNotFound;
 
 /**
  * PersistenceNavigator using only in-memory structures, not itself persisting any data it
- * has been issued by notifyLogging(). This class keeps an internal Navigable map from entry sequence
- * number to byte position. The strategy used is: when notifyLogging is called, if the entry
+ * has been issued by notifyLogging(). This class keeps an internal sorted map from entry sequence
+ * number to byte position, backed by primitive arrays (SortedLongArrayMap). The strategy used is: when notifyLogging is called, if the entry
  * sequence number is at least k greater than the greatest entry sequence number already stored,
  * then store it. k is a configurable parameter, maxEntrySeek. Also, if requested to get the
  * address of a specific entry, and that address is not already stored, store it once it is
@@ -46,7 +43,7 @@ public class InMemoryPersistenceNavigator<E extends SequentialEntry> implements
   private final BytePersistence persistence;
   private final SequentialEntryCodec<E> codec;
 
-  private final NavigableMap<Long, Long> index = new TreeMap<>();
+  private final SortedLongArrayMap index = new SortedLongArrayMap();
   private final long fileOffset;
   private int maxEntrySeek = LogConstants.LOG_NAVIGATOR_DEFAULT_MAX_ENTRY_SEEK;
 
@@ -59,7 +56,7 @@ public class InMemoryPersistenceNavigator<E extends SequentialEntry> implements
     this.codec = codec;
     this.fileOffset = offset;
 
-    // Logic is simplified if the index NavigableMap is guaranteed to have at least one entry.
+    // Logic is simplified if the index map is guaranteed to have at least one entry.
     index.put(0L, 0L);
   }
 
@@ -91,7 +88,7 @@ public class InMemoryPersistenceNavigator<E extends SequentialEntry> implements
   @Override
   public long getAddressOfEntry(long seqNum) throws IOException, LogEntryNotFound {
     if (index.containsKey(seqNum)) {
-      return index.get(seqNum);
+      return index.get(seqNum, 0);
     } else {
       try (PersistenceReader reader = getReaderAtSeqNum(seqNum)) {
         return reader.position();
@@ -101,24 +98,24 @@ public class InMemoryPersistenceNavigator<E extends SequentialEntry> implements
 
   @Override
   public InputStream getStreamAtSeqNum(long seqNum) throws IOException, LogEntryNotFound {
-    return Channels.newInputStream(getReaderAtSeqNum(seqNum));
+    return getReaderAtSeqNum(seqNum).asInputStream();
   }
 
   @Override
   public InputStream getStreamAtFirstEntry() throws IOException {
     PersistenceReader reader = persistence.getReader();
     reader.position(fileOffset);
-    return Channels.newInputStream(reader);
+    return reader.asInputStream();
   }
 
   @Override
   public InputStream getStreamAtLastEntry() throws IOException {
     long lastEntrySeqNum = lastIndexedSeqNum();
-    long lastEntryAddress = index.get(lastEntrySeqNum);
+    long lastEntryAddress = index.lastValue();
 
     PersistenceReader reader = persistence.getReader();
     reader.position(lastEntryAddress);
-    InputStream inputStream = Channels.newInputStream(reader);
+    InputStream inputStream = reader.asInputStream();
 
     try {
       //noinspection InfiniteLoopStatement
@@ -138,12 +135,12 @@ public class InMemoryPersistenceNavigator<E extends SequentialEntry> implements
   private PersistenceReader getReaderAtSeqNum(long seqNum) throws IOException, LogEntryNotFound {
     PersistenceReader reader = persistence.getReader();
     if (index.containsKey(seqNum)) {
-      reader.position(index.get(seqNum));
+      reader.position(index.get(seqNum, 0));
       return reader;
     }
 
     reader.position(nearestAddressTo(seqNum));
-    InputStream inputStream = Channels.newInputStream(reader);
+    InputStream inputStream = reader.asInputStream();
 
     try {
       while (true) {
@@ -174,10 +171,10 @@ public class InMemoryPersistenceNavigator<E extends SequentialEntry> implements
   }
 
   private long nearestAddressTo(long seqNum) {
-    return index.floorEntry(seqNum).getValue();
+    return index.floorValue(seqNum, 0);
   }
 
   private void truncateIndex(long seqNum) {
-    index.tailMap(seqNum, true).clear();
+    index.removeFrom(seqNum);
   }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import c5db.generated.OLogChecksumType;
+import c5db.generated.OLogHeader;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Adler32;
+import java.util.zip.Checksum;
+
+/**
+ * Creates and updates the checksums used in logs, according to the OLogChecksumType recorded in each
+ * log's header. CRC32C is computed with java.util.zip.CRC32C when the JVM provides it (Java 9 and
+ * later, where it is intrinsified to use the processor's CRC32 instructions), and otherwise with
+ * PureJavaCrc32C.
+ */
+public final class LogChecksums {
+  private static final MethodHandle JDK_CRC32C_CONSTRUCTOR = findJdkCrc32CConstructor();
+  private static final MethodHandle CHECKSUM_UPDATE_BYTE_BUFFER = findChecksumUpdateByteBuffer();
+
+  private LogChecksums() {
+  }
+
+  /**
+   * Return the checksum type used by the entries of the log with the given header. Logs written
+   * before the checksum type was recorded in the header use ADLER32.
+   */
+  public static OLogChecksumType checksumTypeOf(OLogHeader header) {
+    final OLogChecksumType checksumType = header.getChecksumType();
+    return checksumType == null ? OLogChecksumType.ADLER32 : checksumType;
+  }
+
+  public static Checksum create(OLogChecksumType checksumType) {
+    switch (checksumType) {
+      case ADLER32:
+        return new Adler32();
+      case CRC32C:
+        return createCrc32C();
+    }
+
+    throw new IllegalArgumentException("LogChecksums#create: unhandled checksum type " + checksumType);
+  }
+
+  /**
+   * Update the checksum with the remaining bytes of the buffer, leaving the buffer's position at its
+   * limit. Direct buffers are checksummed without being copied to the heap whenever the checksum
+   * implementation supports it.
+   */
+  public static void update(Checksum checksum, ByteBuffer buffer) {
+    if (checksum instanceof Adler32) {
+      ((Adler32) checksum).update(buffer);
+    } else if (checksum instanceof PureJavaCrc32C) {
+      ((PureJavaCrc32C) checksum).update(buffer);
+    } else if (CHECKSUM_UPDATE_BYTE_BUFFER != null) {
+      invokeUpdate(checksum, buffer);
+    } else if (buffer.hasArray()) {
+      checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      buffer.position(buffer.limit());
+    } else {
+      final byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+      while (buffer.hasRemaining()) {
+        final int length = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, length);
+        checksum.update(chunk, 0, length);
+      }
+    }
+  }
+
+  private static Checksum createCrc32C() {
+    if (JDK_CRC32C_CONSTRUCTOR == null) {
+      return new PureJavaCrc32C();
+    }
+
+    try {
+      return (Checksum) JDK_CRC32C_CONSTRUCTOR.invoke();
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  private static void invokeUpdate(Checksum checksum, ByteBuffer buffer) {
+    try {
+      CHECKSUM_UPDATE_BYTE_BUFFER.invoke(checksum, buffer);
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  private static MethodHandle findJdkCrc32CConstructor() {
+    try {
+      return MethodHandles.publicLookup().findConstructor(
+          Class.forName("java.util.zip.CRC32C"), MethodType.methodType(void.class));
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Checksum.update(ByteBuffer) was added in Java 9.
+   */
+  private static MethodHandle findChecksumUpdateByteBuffer() {
+    try {
+      return MethodHandles.publicLookup().findVirtual(
+          Checksum.class, "update", MethodType.methodType(void.class, ByteBuffer.class));
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
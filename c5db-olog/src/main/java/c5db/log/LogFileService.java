@@ -35,13 +35,24 @@ import java.util.NavigableMap;
 import java.util.TreeMap;
 
 /**
- * LogPersistenceService using FilePersistence objects (Files and FileChannels).
+ * LogPersistenceService using FilePersistence objects (Files and FileChannels). Optionally, the
+ * FilePersistence objects it provides will serve reads from memory-mapped regions of the files,
+ * shared among all of them.
  */
 public class LogFileService implements LogPersistenceService<FilePersistence> {
   private final Path logRootDir;
+  @Nullable
+  private final MappedRegionCache mappedRegionCache;
 
   public LogFileService(Path basePath) throws IOException {
+    this(basePath, false);
+  }
+
+  public LogFileService(Path basePath, boolean useMemoryMappedReads) throws IOException {
     this.logRootDir = basePath.resolve(LogConstants.LOG_ROOT_DIRECTORY_NAME);
+    this.mappedRegionCache = useMemoryMappedReads ?
+        new MappedRegionCache(LogConstants.LOG_MAX_MEMORY_MAPPED_FILES) :
+        null;
 
     createDirectoryStructure();
   }
@@ -53,14 +64,14 @@ public class LogFileService implements LogPersistenceService<FilePersistence> {
     if (currentLink == null) {
       return null;
     } else {
-      return new FilePersistence(Files.readSymbolicLink(currentLink));
+      return new FilePersistence(Files.readSymbolicLink(currentLink), mappedRegionCache);
     }
   }
 
   @NotNull
   @Override
   public FilePersistence create(String quorumId) throws IOException {
-    return new FilePersistence(getNewLogFilePath(quorumId));
+    return new FilePersistence(getNewLogFilePath(quorumId), mappedRegionCache);
   }
 
   @Override
@@ -72,6 +83,10 @@ public class LogFileService implements LogPersistenceService<FilePersistence> {
       linkId = 1;
     } else {
       linkId = linkIdOfFile(currentLink.toFile()) + 1;
+      if (mappedRegionCache != null) {
+        // The file which was current until now will not be appended to again.
+        mappedRegionCache.markImmutable(Files.readSymbolicLink(currentLink));
+      }
     }
 
     Files.createSymbolicLink(pathForLinkId(linkId, quorumId), persistence.path);
@@ -80,6 +95,30 @@ public class LogFileService implements LogPersistenceService<FilePersistence> {
   @Override
   public void truncate(String quorumId) throws IOException {
     Files.delete(getCurrentLink(quorumId));
+
+    // The file which is current again may be appended to again.
+    final Path currentLink = getCurrentLink(quorumId);
+    if (mappedRegionCache != null && currentLink != null) {
+      mappedRegionCache.invalidate(Files.readSymbolicLink(currentLink));
+    }
+  }
+
+  @Override
+  public void deleteOldest(String quorumId) throws IOException {
+    Map.Entry<Long, Path> firstEntry = getLinkPathMap(quorumId).firstEntry();
+    if (firstEntry == null) {
+      return;
+    }
+
+    final Path link = firstEntry.getValue();
+    final Path logFile = Files.readSymbolicLink(link);
+    Files.delete(link);
+
+    if (mappedRegionCache != null) {
+      mappedRegionCache.invalidate(logFile);
+    }
+    Files.deleteIfExists(logFile);
+    Files.deleteIfExists(logFile.resolveSibling(logFile.getFileName() + LogConstants.LOG_INDEX_FILE_SUFFIX));
   }
 
   @Override
@@ -88,9 +127,14 @@ public class LogFileService implements LogPersistenceService<FilePersistence> {
     ImmutableList.Builder<CheckedSupplier<FilePersistence, IOException>> persistenceSupplierBuilder =
         ImmutableList.builder();
 
+    boolean current = true;
     for (Path path : getLinkPathMap(quorumId).descendingMap().values()) {
+      if (mappedRegionCache != null && !current) {
+        mappedRegionCache.markImmutable(Files.readSymbolicLink(path));
+      }
+      current = false;
       persistenceSupplierBuilder.add(
-          () -> new FilePersistence(Files.readSymbolicLink(path)));
+          () -> new FilePersistence(Files.readSymbolicLink(path), mappedRegionCache));
     }
 
     return persistenceSupplierBuilder.build();
@@ -102,6 +146,10 @@ public class LogFileService implements LogPersistenceService<FilePersistence> {
    * @throws IOException
    */
   public void clearAllLogs() throws IOException {
+    if (mappedRegionCache != null) {
+      mappedRegionCache.invalidateAll();
+    }
+
     Files.walkFileTree(logRootDir, new SimpleFileVisitor<Path>() {
       @Override
       public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
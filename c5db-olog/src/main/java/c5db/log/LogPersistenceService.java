@@ -25,6 +25,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 
 import static c5db.log.SequentialLog.LogEntryNotFound;
@@ -82,6 +83,17 @@ public interface LogPersistenceService<P extends LogPersistenceService.BytePersi
    */
   void truncate(String quorumId) throws IOException;
 
+  /**
+   * Remove and delete the data store underlying the least recent persistence for the
+   * given quorum, rendering any instances referring to this data store invalid. This is
+   * the administrative counterpart of truncate, used to discard log records which are no
+   * longer needed; it has no effect if there are no data stores for the quorum.
+   *
+   * @param quorumId Quorum ID.
+   * @throws IOException
+   */
+  void deleteOldest(String quorumId) throws IOException;
+
   /**
    * Return an list of the data stores for this quorum, in order from most recent
    * to least recent. This method may perform IO, to determine which stores are
@@ -152,6 +164,19 @@ public interface LogPersistenceService<P extends LogPersistenceService.BytePersi
      */
     void sync() throws IOException;
 
+    /**
+     * Open a companion persistence, stored alongside this one, in which an index of this
+     * persistence's data may be kept. Each call opens a new object, and the caller takes
+     * responsibility for closing it.
+     *
+     * @return The companion persistence, or null if this kind of persistence does not provide one.
+     * @throws IOException
+     */
+    @Nullable
+    default BytePersistence openIndexPersistence() throws IOException {
+      return null;
+    }
+
     /**
      * Release held resources.
      *
@@ -168,6 +193,17 @@ public interface LogPersistenceService<P extends LogPersistenceService.BytePersi
     long position() throws IOException;
 
     void position(long newPos) throws IOException;
+
+    /**
+     * Return an input stream that reads from this reader, starting at its current position. Reading
+     * from or skipping within the stream advances the position of the reader. Closing the stream
+     * closes the reader.
+     *
+     * @return A new input stream.
+     */
+    default InputStream asInputStream() {
+      return Channels.newInputStream(this);
+    }
   }
 
   /**
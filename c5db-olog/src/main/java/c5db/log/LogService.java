@@ -34,6 +34,7 @@ import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Log module.
@@ -58,14 +59,17 @@ public class LogService extends AbstractService implements LogModule<OLogEntry>
   protected void doStart() {
     try {
       this.fiber = fiberSupplier.getFiber(this::failModule);
-      this.logFileService = new LogFileService(basePath);
+      this.logFileService = new LogFileService(basePath, LogConstants.LOG_USE_MEMORY_MAPPED_READS);
       KeySerializingExecutor executor = new WrappingKeySerializingExecutor(
           Executors.newFixedThreadPool(LogConstants.LOG_THREAD_POOL_SIZE));
       this.oLog = new QuorumDelegatingLog(
           logFileService,
           executor,
           NavigableMapOLogEntryOracle::new,
-          InMemoryPersistenceNavigator::new);
+          InMemoryPersistenceNavigator::new,
+          new GroupCommitSyncer(
+              LogConstants.LOG_GROUP_COMMIT_WINDOW_MICROS, TimeUnit.MICROSECONDS,
+              LogConstants.LOG_GROUP_COMMIT_WINDOW_BYTES));
 
       // TODO start the flush threads as necessary
       // TODO log maintenance threads can go here too.
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import c5db.LogConstants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Read-only, memory-mapped regions of log files, shared by every FilePersistence (and so every
+ * reader) referring to the same file. Each file is mapped from its beginning. A file still being
+ * appended to is mapped only in whole multiples of a growth step, and remapped when it has grown
+ * by another step, rather than on every read which follows an append; readers read whatever lies
+ * beyond the mapped region from the file itself. Rolled log files never grow, so once a file has
+ * been marked immutable it is mapped only once, at its exact size. A bounded number of mappings is
+ * retained, the least recently used being dropped first; a dropped mapping is unmapped once no
+ * reader refers to it any longer.
+ * <p>
+ * Truncating a file invalidates its mapping; readers obtained before the truncation must not be
+ * used afterwards.
+ */
+public class MappedRegionCache {
+  private static final ByteBuffer EMPTY_REGION = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+  private final long growthStepBytes;
+  private final Map<Path, MappedByteBuffer> regions;
+  private final Set<Path> immutableFiles = new HashSet<>();
+
+  public MappedRegionCache(int maxMappedFiles) {
+    this(maxMappedFiles, LogConstants.LOG_MAPPED_REGION_GROWTH_BYTES);
+  }
+
+  /**
+   * @param maxMappedFiles  The greatest number of files to keep mapped at once.
+   * @param growthStepBytes The size, or multiple thereof, at which to map files not known to be immutable.
+   */
+  public MappedRegionCache(int maxMappedFiles, long growthStepBytes) {
+    this.growthStepBytes = growthStepBytes;
+    regions = new LinkedHashMap<Path, MappedByteBuffer>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Path, MappedByteBuffer> eldest) {
+        return size() > maxMappedFiles;
+      }
+    };
+  }
+
+  /**
+   * Get a read-only view of the mapped region at the beginning of the given file, mapping or
+   * remapping it if necessary. For a file marked immutable, the view covers the first size bytes;
+   * otherwise it may cover fewer, down to none, and the caller must read the rest of the first size
+   * bytes from the file. The returned buffer is independent of any other returned buffer, and it is
+   * positioned at the beginning of the file.
+   *
+   * @param path Path of the file.
+   * @param size Number of bytes needed; must not exceed the size of the file.
+   * @return A new view of the mapped region, with limit no greater than size.
+   * @throws IOException
+   */
+  public synchronized ByteBuffer getRegion(Path path, long size) throws IOException {
+    MappedByteBuffer region = regions.get(path);
+    final long sizeToMap = immutableFiles.contains(path) ? size : size - size % growthStepBytes;
+
+    if (sizeToMap > 0 && (region == null || region.capacity() < sizeToMap)) {
+      try (FileChannel channel = FileChannel.open(path, READ)) {
+        region = channel.map(FileChannel.MapMode.READ_ONLY, 0, sizeToMap);
+      }
+      regions.put(path, region);
+    }
+
+    if (region == null) {
+      return EMPTY_REGION.duplicate();
+    }
+
+    ByteBuffer view = region.duplicate();
+    view.limit((int) Math.min(size, region.capacity()));
+    return view;
+  }
+
+  /**
+   * Note that the given file will no longer be appended to, so that it may be mapped in its entirety.
+   */
+  public synchronized void markImmutable(Path path) {
+    immutableFiles.add(path);
+  }
+
+  public synchronized void invalidate(Path path) {
+    regions.remove(path);
+    immutableFiles.remove(path);
+  }
+
+  public synchronized void invalidateAll() {
+    regions.clear();
+    immutableFiles.clear();
+  }
+}
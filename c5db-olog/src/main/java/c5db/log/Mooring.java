@@ -135,6 +135,29 @@ public class Mooring implements ReplicatorLog {
     return lastQuorumConfigIndex;
   }
 
+  @Override
+  public ListenableFuture<Boolean> compactLog(long snapshotIndex,
+                                              long snapshotTerm,
+                                              QuorumConfiguration snapshotConfiguration) {
+    ListenableFuture<Void> compactFuture =
+        log.compact(snapshotIndex, snapshotTerm, snapshotConfiguration, quorumId);
+
+    currentTerm = log.getLastTerm(quorumId);
+    lastIndex = log.getNextSeqNum(quorumId) - 1;
+    setQuorumConfigFromLog();
+    return Futures.transform(compactFuture, (Void result) -> true);
+  }
+
+  @Override
+  public long getSnapshotIndex() {
+    return log.getSnapshotSeqNum(quorumId);
+  }
+
+  @Override
+  public long getSnapshotTerm() {
+    return log.getSnapshotTerm(quorumId);
+  }
+
   private void setQuorumConfigFromLog() {
     final QuorumConfigurationWithSeqNum configFromLog = log.getLastQuorumConfig(quorumId);
     lastQuorumConfig = configFromLog.quorumConfiguration;
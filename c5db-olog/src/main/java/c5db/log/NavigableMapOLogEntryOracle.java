@@ -27,12 +27,15 @@ import java.util.NavigableMap;
 import java.util.TreeMap;
 
 /**
- * OLogEntryOracle using a NavigableMap, and not persisting any of its data.
+ * OLogEntryOracle using a NavigableMap, and not persisting any of its data. Terms are kept in a
+ * SortedLongArrayMap rather than the NavigableMap, so that logging an entry (other than one containing a
+ * quorum configuration) and looking up a term require no allocation. Quorum configurations, which are
+ * rare, are kept in the NavigableMap.
  */
 public class NavigableMapOLogEntryOracle implements OLogEntryOracle {
   private static final Logger LOG = LoggerFactory.getLogger(NavigableMapOLogEntryOracle.class);
 
-  private final NavigableMap<Long, Long> termMap = new TreeMap<>();
+  private final SortedLongArrayMap termMap = new SortedLongArrayMap();
   private final NavigableMap<Long, QuorumConfiguration> configMap = new TreeMap<>();
 
   private long greatestSeqNum = 0;
@@ -59,7 +62,7 @@ public class NavigableMapOLogEntryOracle implements OLogEntryOracle {
 
   @Override
   public void notifyTruncation(long seqNum) {
-    termMap.tailMap(seqNum, true).clear();
+    termMap.removeFrom(seqNum);
     configMap.tailMap(seqNum, true).clear();
     greatestSeqNum = seqNum - 1;
   }
@@ -74,14 +77,13 @@ public class NavigableMapOLogEntryOracle implements OLogEntryOracle {
     if (termMap.isEmpty()) {
       return 0;
     } else {
-      return termMap.lastEntry().getValue();
+      return termMap.lastValue();
     }
   }
 
   @Override
   public long getTermAtSeqNum(long seqNum) {
-    final Map.Entry<Long, Long> entry = termMap.floorEntry(seqNum);
-    return entry == null ? 0 : entry.getValue();
+    return termMap.floorValue(seqNum, 0);
   }
 
   @Override
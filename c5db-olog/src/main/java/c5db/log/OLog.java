@@ -17,6 +17,7 @@
 
 package c5db.log;
 
+import c5db.interfaces.replication.QuorumConfiguration;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.IOException;
@@ -131,6 +132,46 @@ public interface OLog extends AutoCloseable {
    */
   ListenableFuture<Void> roll(String quorumId) throws IOException;
 
+  /**
+   * Discard the prefix of a quorum's log which has been replaced by a snapshot, recording the
+   * snapshot's position so that it survives the discarded entries. Afterwards, the log behaves
+   * as though every entry up to and including snapshotSeqNum had been logged, but those
+   * entries may no longer be retrieved, and the log may not be truncated back into them.
+   * <p>
+   * If the log does not contain an entry with the given seqNum and term, the snapshot has
+   * superseded the log's contents entirely (as when the snapshot is received from another
+   * node), and the log is reset so as to continue immediately after the snapshot.
+   * <p>
+   * This method is subject to the same serialization requirements as logEntries.
+   *
+   * @param snapshotSeqNum        SeqNum of the last entry covered by the snapshot
+   * @param snapshotTerm          Term of the last entry covered by the snapshot
+   * @param snapshotConfiguration Quorum configuration in effect as of snapshotSeqNum
+   * @param quorumId              Quorum id
+   * @return A future which will return when the operation is complete, or else yield an
+   * exception.
+   */
+  ListenableFuture<Void> compact(long snapshotSeqNum,
+                                 long snapshotTerm,
+                                 QuorumConfiguration snapshotConfiguration,
+                                 String quorumId);
+
+  /**
+   * Gets the seqNum of the last entry replaced by a snapshot, as passed to compact.
+   *
+   * @param quorumId Quorum id
+   * @return The snapshot's seqNum, or zero if the log has never been compacted.
+   */
+  long getSnapshotSeqNum(String quorumId);
+
+  /**
+   * Gets the term of the last entry replaced by a snapshot, as passed to compact.
+   *
+   * @param quorumId Quorum id
+   * @return The snapshot's term, or zero if the log has never been compacted.
+   */
+  long getSnapshotTerm(String quorumId);
+
   /**
    * Dispose of held resources after completing any pending operations.
    *
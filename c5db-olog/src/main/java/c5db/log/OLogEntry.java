@@ -17,11 +17,11 @@
 
 package c5db.log;
 
+import c5db.generated.OLogChecksumType;
 import c5db.generated.OLogEntryHeader;
 import c5db.interfaces.log.SequentialEntry;
 import c5db.replication.generated.LogEntry;
 import c5db.replication.generated.QuorumConfigurationMessage;
-import com.google.common.collect.Iterables;
 import com.google.common.math.IntMath;
 import io.protostuff.Schema;
 
@@ -30,14 +30,14 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.Checksum;
 
 import static c5db.log.EntryEncodingUtil.CrcError;
-import static c5db.log.EntryEncodingUtil.appendCrcToBufferList;
+import static c5db.log.EntryEncodingUtil.crcBuffer;
 import static c5db.log.EntryEncodingUtil.decodeAndCheckCrc;
-import static c5db.log.EntryEncodingUtil.encodeWithLengthAndCrc;
+import static c5db.log.EntryEncodingUtil.encodeToBufferWithLengthAndCrc;
 import static c5db.log.EntryEncodingUtil.getAndCheckContent;
 import static c5db.log.EntryEncodingUtil.skip;
-import static c5db.log.EntryEncodingUtil.sumRemaining;
 
 /**
  * A SequentialEntry that can convert itself to and from Protostuff LogEntry objects.
@@ -85,7 +85,9 @@ public final class OLogEntry extends SequentialEntry {
     if (entry.getQuorumConfiguration() != null) {
       content = new OLogProtostuffContent<>(entry.getQuorumConfiguration());
     } else {
-      content = new OLogRawDataContent(entry.getDataList());
+      // An empty list of data does not survive serialization; it arrives as null
+      final List<ByteBuffer> data = entry.getDataList();
+      content = new OLogRawDataContent(data == null ? new ArrayList<>() : data);
     }
 
     return new OLogEntry(entry.getIndex(), entry.getTerm(), content);
@@ -122,26 +124,50 @@ public final class OLogEntry extends SequentialEntry {
     // TODO capability of having multiple 4-byte CRCs for large content
     private static final int CRC_BYTES = 4;
 
-    @Override
-    public ByteBuffer[] encode(OLogEntry entry) {
-      try {
-        final List<ByteBuffer> contentBufs = entry.getContent().serialize();
-        final int contentLength = sumRemaining(contentBufs);
-        final OLogEntryHeader header = createHeader(entry, contentLength);
+    private final OLogChecksumType checksumType;
+
+    /**
+     * Create a codec using Adler32 checksums, as written by logs which predate the checksum type
+     * recorded in the log header.
+     */
+    public Codec() {
+      this(OLogChecksumType.ADLER32);
+    }
 
-        final List<ByteBuffer> entryBufs = encodeWithLengthAndCrc(SCHEMA, header);
-        entryBufs.addAll(appendCrcToBufferList(contentBufs));
+    public Codec(OLogChecksumType checksumType) {
+      this.checksumType = checksumType;
+    }
 
-        return Iterables.toArray(entryBufs, ByteBuffer.class);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+    /**
+     * Encode the entry as: its header (with length prefix and CRC) in a single buffer, followed by
+     * the content buffers themselves, followed by the content's CRC. The content is not copied; it
+     * is traversed once, to compute its length and CRC.
+     */
+    @Override
+    public ByteBuffer[] encode(OLogEntry entry) {
+      final List<ByteBuffer> contentBufs = entry.getContent().serialize();
+      final ByteBuffer[] entryBufs = new ByteBuffer[contentBufs.size() + 2];
+      final Checksum contentCrc = LogChecksums.create(checksumType);
+      int contentLength = 0;
+      int i = 1;
+
+      for (ByteBuffer contentBuf : contentBufs) {
+        final int position = contentBuf.position();
+        contentLength = IntMath.checkedAdd(contentLength, contentBuf.remaining());
+        LogChecksums.update(contentCrc, contentBuf);
+        contentBuf.position(position);
+        entryBufs[i++] = contentBuf;
       }
+
+      entryBufs[0] = encodeToBufferWithLengthAndCrc(SCHEMA, createHeader(entry, contentLength), checksumType);
+      entryBufs[i] = crcBuffer(contentCrc.getValue());
+      return entryBufs;
     }
 
     @Override
     public OLogEntry decode(InputStream inputStream) throws IOException, CrcError {
-      final OLogEntryHeader header = decodeAndCheckCrc(inputStream, SCHEMA);
-      final ByteBuffer contentBuf = getAndCheckContent(inputStream, header.getContentLength());
+      final OLogEntryHeader header = decodeAndCheckCrc(inputStream, SCHEMA, checksumType);
+      final ByteBuffer contentBuf = getAndCheckContent(inputStream, header.getContentLength(), checksumType);
 
       return new OLogEntry(
           header.getSeqNum(),
@@ -151,7 +177,7 @@ public final class OLogEntry extends SequentialEntry {
 
     @Override
     public long skipEntryAndReturnSeqNum(InputStream inputStream) throws IOException {
-      final OLogEntryHeader header = decodeAndCheckCrc(inputStream, SCHEMA);
+      final OLogEntryHeader header = decodeAndCheckCrc(inputStream, SCHEMA, checksumType);
       skipContent(inputStream, header.getContentLength());
       return header.getSeqNum();
     }
@@ -17,6 +17,7 @@
 
 package c5db.log;
 
+import c5db.generated.OLogChecksumType;
 import c5db.generated.OLogContentType;
 import c5db.generated.OLogEntryHeader;
 import c5db.interfaces.log.SequentialEntry;
@@ -134,6 +135,16 @@ public final class OLogEntryDescription extends SequentialEntry {
     private static final Schema<OLogEntryHeader> SCHEMA = OLogEntryHeader.getSchema();
     private static final int CRC_BYTES = 4;
 
+    private final OLogChecksumType checksumType;
+
+    public Codec() {
+      this(OLogChecksumType.ADLER32);
+    }
+
+    public Codec(OLogChecksumType checksumType) {
+      this.checksumType = checksumType;
+    }
+
     @Override
     public ByteBuffer[] encode(OLogEntryDescription entry) {
       // TODO since this is essentially a read-only codec, it doesn't need to encode. Does this mean the Codec
@@ -144,14 +155,14 @@ public final class OLogEntryDescription extends SequentialEntry {
     @Override
     public OLogEntryDescription decode(InputStream inputStream) throws IOException, CrcError {
       // TODO (possibly) handle even a corrupted header
-      final OLogEntryHeader header = decodeAndCheckCrc(inputStream, SCHEMA);
+      final OLogEntryHeader header = decodeAndCheckCrc(inputStream, SCHEMA, checksumType);
 
       boolean contentCrcIsValid = true;
       ByteBuffer contentBuffer = null;
       QuorumConfiguration quorumConfiguration = null;
 
       try {
-        contentBuffer = getAndCheckContent(inputStream, header.getContentLength());
+        contentBuffer = getAndCheckContent(inputStream, header.getContentLength(), checksumType);
       } catch (CrcError e) {
         contentCrcIsValid = false;
       }
@@ -172,7 +183,7 @@ public final class OLogEntryDescription extends SequentialEntry {
 
     @Override
     public long skipEntryAndReturnSeqNum(InputStream inputStream) throws IOException {
-      final OLogEntryHeader header = decodeAndCheckCrc(inputStream, SCHEMA);
+      final OLogEntryHeader header = decodeAndCheckCrc(inputStream, SCHEMA, checksumType);
       skipContent(inputStream, header.getContentLength());
       return header.getSeqNum();
     }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import c5db.generated.OLogContentType;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static c5db.log.LogPersistenceService.BytePersistence;
+import static c5db.log.LogPersistenceService.PersistenceReader;
+
+/**
+ * Dense index of the entries of a single OLog persistence (one log file): for every entry, it records
+ * the entry's byte address, its election term, and whether the entry begins a new term and whether it
+ * contains a quorum configuration. With the index in hand, the last entry of the log can be located,
+ * and an OLogEntryOracle can be prepared, without decoding the entries of the log.
+ * <p>
+ * The index can be written to, and read from, a companion BytePersistence (the "sidecar"). The sidecar
+ * consists of a fixed-size header, followed by one fixed-width record per entry, followed by a CRC
+ * of everything preceding it. The sidecar is only a checkpoint: entries appended after it was last
+ * written are not in it; so it is always a prefix of the log, provided that it is rewritten before
+ * the log is truncated.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class OLogIndex {
+  private static final int MAGIC = 0x4F4C4958;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8;
+  private static final int RECORD_BYTES = 8 + 8 + 8 + 1;
+  private static final int CRC_BYTES = 4;
+  private static final int INITIAL_CAPACITY = 64;
+
+  static final byte FLAG_TERM_CHANGE = 1;
+  static final byte FLAG_CONFIGURATION = 2;
+
+  private final long baseSeqNum;
+  private final long baseTerm;
+
+  private long[] addresses;
+  private long[] terms;
+  private byte[] flags;
+  private int count = 0;
+  private boolean dirty = false;
+
+  /**
+   * @param baseSeqNum The seqNum preceding the first entry of the log; the index's first entry must
+   *                   have sequence number baseSeqNum + 1.
+   * @param baseTerm   The term in effect at baseSeqNum, used to identify a term change at the first entry.
+   */
+  OLogIndex(long baseSeqNum, long baseTerm) {
+    this(baseSeqNum, baseTerm, INITIAL_CAPACITY);
+  }
+
+  private OLogIndex(long baseSeqNum, long baseTerm, int capacity) {
+    this.baseSeqNum = baseSeqNum;
+    this.baseTerm = baseTerm;
+    this.addresses = new long[capacity];
+    this.terms = new long[capacity];
+    this.flags = new byte[capacity];
+  }
+
+  /**
+   * Record an entry. Entries must be added in order, with no gaps in their sequence numbers.
+   *
+   * @param entry   Entry being logged.
+   * @param address Byte address at which the entry begins.
+   */
+  void add(OLogEntry entry, long address) {
+    final long seqNum = entry.getSeqNum();
+    if (seqNum != nextSeqNum()) {
+      throw new IllegalArgumentException("OLogIndex#add: expected seqNum " + nextSeqNum() + ", but got " + seqNum);
+    }
+
+    ensureCapacity(count + 1);
+
+    final long term = entry.getElectionTerm();
+    byte entryFlags = 0;
+    if (term != termBefore(count)) {
+      entryFlags |= FLAG_TERM_CHANGE;
+    }
+    if (entry.getContent().getType() == OLogContentType.QUORUM_CONFIGURATION) {
+      entryFlags |= FLAG_CONFIGURATION;
+    }
+
+    addresses[count] = address;
+    terms[count] = term;
+    flags[count] = entryFlags;
+    count++;
+    dirty = true;
+  }
+
+  /**
+   * Remove the entry with the given seqNum, and all following entries, if they are present.
+   */
+  void truncate(long seqNum) {
+    final long newCount = Math.max(seqNum - baseSeqNum - 1, 0);
+    if (newCount < count) {
+      count = (int) newCount;
+      dirty = true;
+    }
+  }
+
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * @return The seqNum of the last entry indexed, or the base seqNum if none has been.
+   */
+  long getLastSeqNum() {
+    return baseSeqNum + count;
+  }
+
+  boolean contains(long seqNum) {
+    return seqNum > baseSeqNum && seqNum <= getLastSeqNum();
+  }
+
+  long getAddress(long seqNum) {
+    return addresses[indexOf(seqNum)];
+  }
+
+  long getTerm(long seqNum) {
+    return terms[indexOf(seqNum)];
+  }
+
+  boolean hasFlag(long seqNum, byte flag) {
+    return (flags[indexOf(seqNum)] & flag) != 0;
+  }
+
+  /**
+   * @return True if entries have been added or truncated since the index was last read or written.
+   */
+  boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * Overwrite the contents of the given persistence with this index, and sync it.
+   */
+  void writeTo(BytePersistence sidecar) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * RECORD_BYTES + CRC_BYTES);
+    buffer.putInt(MAGIC)
+        .putInt(VERSION)
+        .putLong(baseSeqNum)
+        .putLong(baseTerm)
+        .putLong(count);
+
+    for (int i = 0; i < count; i++) {
+      buffer.putLong(baseSeqNum + 1 + i)
+          .putLong(addresses[i])
+          .putLong(terms[i])
+          .put(flags[i]);
+    }
+
+    buffer.putInt(crcOf(buffer.array(), buffer.position()));
+    buffer.flip();
+
+    sidecar.truncate(0);
+    sidecar.append(new ByteBuffer[]{buffer});
+    sidecar.sync();
+    dirty = false;
+  }
+
+  /**
+   * Read an index previously written with writeTo.
+   *
+   * @return The index, or null if the persistence does not contain a complete, valid index for a log
+   * with the given base seqNum and term.
+   */
+  @Nullable
+  static OLogIndex readFrom(BytePersistence sidecar, long baseSeqNum, long baseTerm) throws IOException {
+    final long size = sidecar.size();
+    if (size < HEADER_BYTES + CRC_BYTES
+        || size > Integer.MAX_VALUE
+        || (size - HEADER_BYTES - CRC_BYTES) % RECORD_BYTES != 0) {
+      return null;
+    }
+
+    final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    try (PersistenceReader reader = sidecar.getReader()) {
+      while (buffer.hasRemaining()) {
+        if (reader.read(buffer) < 0) {
+          return null;
+        }
+      }
+    }
+    buffer.flip();
+
+    final int crcPosition = buffer.limit() - CRC_BYTES;
+    if (buffer.getInt(crcPosition) != crcOf(buffer.array(), crcPosition)
+        || buffer.getInt() != MAGIC
+        || buffer.getInt() != VERSION
+        || buffer.getLong() != baseSeqNum
+        || buffer.getLong() != baseTerm) {
+      return null;
+    }
+
+    final long recordCount = buffer.getLong();
+    if (recordCount != (crcPosition - HEADER_BYTES) / RECORD_BYTES) {
+      return null;
+    }
+
+    final OLogIndex index = new OLogIndex(baseSeqNum, baseTerm, (int) Math.max(recordCount, INITIAL_CAPACITY));
+    for (int i = 0; i < recordCount; i++) {
+      if (buffer.getLong() != baseSeqNum + 1 + i) {
+        return null;
+      }
+      index.addresses[i] = buffer.getLong();
+      index.terms[i] = buffer.getLong();
+      index.flags[i] = buffer.get();
+    }
+    index.count = (int) recordCount;
+
+    return index;
+  }
+
+  private long nextSeqNum() {
+    return baseSeqNum + count + 1;
+  }
+
+  private long termBefore(int position) {
+    return position == 0 ? baseTerm : terms[position - 1];
+  }
+
+  private int indexOf(long seqNum) {
+    if (!contains(seqNum)) {
+      throw new IllegalArgumentException("OLogIndex: seqNum " + seqNum + " is not in the index");
+    }
+    return (int) (seqNum - baseSeqNum - 1);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > addresses.length) {
+      final int newCapacity = Math.max(capacity, addresses.length * 2);
+      addresses = Arrays.copyOf(addresses, newCapacity);
+      terms = Arrays.copyOf(terms, newCapacity);
+      flags = Arrays.copyOf(flags, newCapacity);
+    }
+  }
+
+  private static int crcOf(byte[] bytes, int length) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, 0, length);
+    return (int) crc.getValue();
+  }
+}
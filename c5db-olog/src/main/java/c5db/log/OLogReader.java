@@ -25,7 +25,6 @@ import java.io.IOException;
 
 import static c5db.interfaces.log.SequentialEntryIterable.SequentialEntryIterator;
 import static c5db.log.LogPersistenceService.BytePersistence;
-import static c5db.log.LogPersistenceService.PersistenceNavigator;
 import static c5db.log.LogPersistenceService.PersistenceNavigatorFactory;
 
 /**
@@ -33,7 +32,6 @@ import static c5db.log.LogPersistenceService.PersistenceNavigatorFactory;
  */
 public class OLogReader implements Reader<OLogEntry> {
 
-  private static final SequentialEntryCodec<OLogEntry> ENTRY_CODEC = new OLogEntry.Codec();
   private final PersistenceNavigatorFactory navigatorFactory = InMemoryPersistenceNavigator::new;
   private final LogPersistenceService<?> logPersistenceService;
   private final String quorumId;
@@ -54,12 +52,7 @@ public class OLogReader implements Reader<OLogEntry> {
         logPersistenceService.getList(quorumId)) {
 
       logSupplierBuilder.add(
-          () -> {
-            BytePersistence persistence = persistenceSupplier.get();
-            PersistenceNavigator navigator =
-                SequentialLogWithHeader.createNavigatorFromPersistence(persistence, navigatorFactory);
-            return new EncodedSequentialEntryIterator<>(navigator, ENTRY_CODEC);
-          });
+          () -> SequentialLogWithHeader.createIteratorFromPersistence(persistenceSupplier.get(), navigatorFactory));
     }
 
     return logSupplierBuilder.build();
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum computed in Java, using the "slicing-by-8" table method. It is used
+ * when the JVM does not provide java.util.zip.CRC32C (available from Java 9, and intrinsified), and
+ * produces the same values.
+ */
+final class PureJavaCrc32C implements Checksum {
+  private static final int POLYNOMIAL = 0x82F63B78;
+  private static final int[][] TABLES = createTables();
+
+  private int crc = 0xFFFFFFFF;
+
+  @Override
+  public void update(int b) {
+    crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+  }
+
+  @Override
+  public void update(byte[] bytes, int offset, int length) {
+    int localCrc = crc;
+    int position = offset;
+    final int end = offset + length;
+
+    while (end - position >= 8) {
+      final int low = localCrc
+          ^ ((bytes[position] & 0xFF)
+          | (bytes[position + 1] & 0xFF) << 8
+          | (bytes[position + 2] & 0xFF) << 16
+          | (bytes[position + 3] & 0xFF) << 24);
+
+      localCrc = TABLES[7][low & 0xFF]
+          ^ TABLES[6][(low >>> 8) & 0xFF]
+          ^ TABLES[5][(low >>> 16) & 0xFF]
+          ^ TABLES[4][low >>> 24]
+          ^ TABLES[3][bytes[position + 4] & 0xFF]
+          ^ TABLES[2][bytes[position + 5] & 0xFF]
+          ^ TABLES[1][bytes[position + 6] & 0xFF]
+          ^ TABLES[0][bytes[position + 7] & 0xFF];
+      position += 8;
+    }
+
+    while (position < end) {
+      localCrc = (localCrc >>> 8) ^ TABLES[0][(localCrc ^ bytes[position]) & 0xFF];
+      position++;
+    }
+
+    crc = localCrc;
+  }
+
+  /**
+   * Update the checksum with the remaining bytes of the buffer, which may be direct, leaving the buffer's
+   * position at its limit.
+   */
+  public void update(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    } else {
+      int localCrc = crc;
+      for (int i = buffer.position(); i < buffer.limit(); i++) {
+        localCrc = (localCrc >>> 8) ^ TABLES[0][(localCrc ^ buffer.get(i)) & 0xFF];
+      }
+      crc = localCrc;
+    }
+    buffer.position(buffer.limit());
+  }
+
+  @Override
+  public long getValue() {
+    return (~crc) & 0xFFFFFFFFL;
+  }
+
+  @Override
+  public void reset() {
+    crc = 0xFFFFFFFF;
+  }
+
+  private static int[][] createTables() {
+    final int[][] tables = new int[8][256];
+
+    for (int i = 0; i < 256; i++) {
+      int value = i;
+      for (int bit = 0; bit < 8; bit++) {
+        value = (value & 1) != 0 ? (value >>> 1) ^ POLYNOMIAL : value >>> 1;
+      }
+      tables[0][i] = value;
+    }
+
+    for (int i = 0; i < 256; i++) {
+      for (int table = 1; table < 8; table++) {
+        tables[table][i] = (tables[table - 1][i] >>> 8) ^ tables[0][tables[table - 1][i] & 0xFF];
+      }
+    }
+
+    return tables;
+  }
+}
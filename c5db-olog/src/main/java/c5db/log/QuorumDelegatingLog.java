@@ -27,9 +27,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -58,6 +61,18 @@ import static c5db.log.SequentialLog.LogEntryNotInSequence;
  * <p>
  * Each quorum's log record is a sequence of SequentialLogs, each based on its own persistence (e.g.,
  * a file) served from the LogPersistenceService injected on creation.
+ * <p>
+ * If a GroupCommitSyncer is provided, the futures returned by logEntries will not complete until
+ * the logged entries have been synced to the underlying medium; syncs are shared among all appends,
+ * from all quorums, within the syncer's window. Otherwise, those futures complete as soon as the
+ * entries have been written, without any sync.
+ * <p>
+ * Each quorum's current log is kept together with a dense index of its entries (see OLogIndex), which is
+ * checkpointed alongside the log's persistence on roll and on close, when the persistence supports it.
+ * Opening a quorum then only requires reading the index, rather than decoding the whole current log.
+ * <p>
+ * Compacting a quorum's log rolls it to a new log whose header records the snapshot's position,
+ * then deletes those older logs which only contain entries covered by the snapshot.
  */
 public class QuorumDelegatingLog implements OLog, AutoCloseable {
   private final LogPersistenceService<?> persistenceService;
@@ -66,16 +81,28 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
 
   private final OLogEntryOracleFactory OLogEntryOracleFactory;
   private final PersistenceNavigatorFactory persistenceNavigatorFactory;
+  @Nullable
+  private final GroupCommitSyncer groupCommitSyncer;
 
   public QuorumDelegatingLog(LogPersistenceService<?> persistenceService,
                              KeySerializingExecutor taskExecutor,
                              OLogEntryOracleFactory OLogEntryOracleFactory,
                              PersistenceNavigatorFactory persistenceNavigatorFactory
+  ) {
+    this(persistenceService, taskExecutor, OLogEntryOracleFactory, persistenceNavigatorFactory, null);
+  }
+
+  public QuorumDelegatingLog(LogPersistenceService<?> persistenceService,
+                             KeySerializingExecutor taskExecutor,
+                             OLogEntryOracleFactory OLogEntryOracleFactory,
+                             PersistenceNavigatorFactory persistenceNavigatorFactory,
+                             @Nullable GroupCommitSyncer groupCommitSyncer
   ) {
     this.persistenceService = persistenceService;
     this.taskExecutor = taskExecutor;
     this.OLogEntryOracleFactory = OLogEntryOracleFactory;
     this.persistenceNavigatorFactory = persistenceNavigatorFactory;
+    this.groupCommitSyncer = groupCommitSyncer;
   }
 
   @Override
@@ -94,12 +121,34 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
     getQuorumStructure(quorumId).ensureEntriesAreConsecutive(entries);
     updateOracleWithNewEntries(entries, quorumId);
 
-    // TODO group commit / sync
+    if (groupCommitSyncer == null) {
+      return submitQuorumTask(quorumId, () -> {
+        getQuorumStructure(quorumId).currentLogWithHeader().append(entries);
+        return true;
+      });
+    }
+
+    final SettableFuture<Boolean> durableFuture = SettableFuture.create();
 
-    return submitQuorumTask(quorumId, () -> {
-      currentLog(quorumId).append(entries);
+    ListenableFuture<Boolean> appendFuture = submitQuorumTask(quorumId, () -> {
+      SequentialLogWithHeader logWithHeader = getQuorumStructure(quorumId).currentLogWithHeader();
+      final long appendedBytes = logWithHeader.append(entries);
+      groupCommitSyncer.requestSync(logWithHeader.log, appendedBytes, durableFuture);
       return true;
     });
+
+    Futures.addCallback(appendFuture, new FutureCallback<Boolean>() {
+      @Override
+      public void onSuccess(Boolean result) {
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        durableFuture.setException(t);
+      }
+    });
+
+    return durableFuture;
   }
 
   @Override
@@ -121,6 +170,11 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
 
   @Override
   public ListenableFuture<Boolean> truncateLog(long seqNum, String quorumId) {
+    if (seqNum <= getSnapshotSeqNum(quorumId)) {
+      throw new IllegalArgumentException("QuorumDelegatingLog#truncateLog: attempting to truncate entries "
+          + "which have been replaced by a snapshot");
+    }
+
     getQuorumStructure(quorumId).setExpectedNextSequenceNumber(seqNum);
     oLogEntryOracle(quorumId).notifyTruncation(seqNum);
 
@@ -129,7 +183,7 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
         getQuorumStructure(quorumId).deleteCurrentLog();
       }
 
-      currentLog(quorumId).truncate(seqNum);
+      getQuorumStructure(quorumId).currentLogWithHeader().truncate(seqNum);
       return true;
     });
   }
@@ -164,6 +218,51 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
     });
   }
 
+  @Override
+  public ListenableFuture<Void> compact(long snapshotSeqNum,
+                                        long snapshotTerm,
+                                        QuorumConfiguration snapshotConfiguration,
+                                        String quorumId) {
+    final PerQuorum quorumStructure = getQuorumStructure(quorumId);
+    if (snapshotSeqNum <= quorumStructure.snapshotSeqNum) {
+      return Futures.immediateFuture(null);
+    }
+
+    final OLogHeader newLogHeader;
+
+    if (snapshotSeqNum < getNextSeqNum(quorumId)
+        && getLogTerm(snapshotSeqNum, quorumId) == snapshotTerm) {
+      quorumStructure.setSnapshot(snapshotSeqNum, snapshotTerm);
+      newLogHeader = buildRollHeader(quorumId);
+    } else {
+      // The snapshot supersedes the entire log; continue from the snapshot
+      final OLogEntryOracle oLogEntryOracle = quorumStructure.oLogEntryOracle;
+      oLogEntryOracle.notifyTruncation(0);
+      oLogEntryOracle.notifyLogging(new OLogEntry(snapshotSeqNum, snapshotTerm,
+          new OLogProtostuffContent<>(snapshotConfiguration.toProtostuff())));
+      quorumStructure.setExpectedNextSequenceNumber(snapshotSeqNum + 1);
+      quorumStructure.setSnapshot(snapshotSeqNum, snapshotTerm);
+      newLogHeader = new OLogHeader(snapshotTerm, snapshotSeqNum, snapshotConfiguration.toProtostuff(),
+          LogConstants.LOG_FORMAT_VERSION, LogConstants.LOG_CHECKSUM_TYPE, snapshotSeqNum, snapshotTerm);
+    }
+
+    return submitQuorumTask(quorumId, () -> {
+      getQuorumStructure(quorumId).roll(newLogHeader);
+      getQuorumStructure(quorumId).deleteLogsBefore(snapshotSeqNum + 1);
+      return null;
+    });
+  }
+
+  @Override
+  public long getSnapshotSeqNum(String quorumId) {
+    return getQuorumStructure(quorumId).snapshotSeqNum;
+  }
+
+  @Override
+  public long getSnapshotTerm(String quorumId) {
+    return getQuorumStructure(quorumId).snapshotTerm;
+  }
+
   @Override
   public void close() throws IOException {
     try {
@@ -172,6 +271,10 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
       throw new RuntimeException(e);
     }
 
+    if (groupCommitSyncer != null) {
+      groupCommitSyncer.close();
+    }
+
     for (PerQuorum quorumStructure : quorumMap.values()) {
       quorumStructure.close();
     }
@@ -197,6 +300,8 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
      * public methods; in other words, they may not be accessed from an executing task.
      */
     private volatile long expectedNextSequenceNumber = 1;
+    private volatile long snapshotSeqNum = 0;
+    private volatile long snapshotTerm = 0;
     public final OLogEntryOracle oLogEntryOracle = OLogEntryOracleFactory.create();
 
     public PerQuorum(String quorumId) {
@@ -226,6 +331,11 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
       return expectedNextSequenceNumber;
     }
 
+    public void setSnapshot(long seqNum, long term) {
+      snapshotSeqNum = seqNum;
+      snapshotTerm = term;
+    }
+
     @NotNull
     public SequentialLogWithHeader currentLogWithHeader() throws IOException {
       if (logDeque.isEmpty()) {
@@ -235,6 +345,10 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
     }
 
     public void roll(OLogHeader newLogHeader) throws IOException {
+      if (!logDeque.isEmpty()) {
+        logDeque.peek().checkpointIndex();
+      }
+
       SequentialLogWithHeader newLog = SequentialLogWithHeader.writeNewLog(persistenceService,
           persistenceNavigatorFactory, newLogHeader, quorumId);
       logDeque.push(newLog);
@@ -245,6 +359,31 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
       logDeque.pop();
     }
 
+    /**
+     * Delete the oldest logs for as long as the next-newer log contains every entry from seqNum
+     * onward. The current log is never deleted.
+     */
+    public void deleteLogsBefore(long seqNum) throws IOException {
+      final List<CheckedSupplier<? extends BytePersistence, IOException>> persistenceList =
+          new ArrayList<>(persistenceService.getList(quorumId));
+
+      for (int oldest = persistenceList.size() - 1; oldest > 0; oldest--) {
+        if (headerOfLogAt(oldest - 1, persistenceList).getBaseSeqNum() >= seqNum) {
+          break;
+        }
+
+        if (logDeque.size() > oldest) {
+          final SequentialLogWithHeader oldestLog = logDeque.removeLast();
+          if (groupCommitSyncer != null) {
+            // Syncs may still be pending for the log, if it was the current log until recently.
+            groupCommitSyncer.retire(oldestLog.log);
+          }
+          oldestLog.close();
+        }
+        persistenceService.deleteOldest(quorumId);
+      }
+    }
+
     public Iterator<SequentialLogWithHeader> getLogIterator() throws IOException {
       final Iterator<SequentialLogWithHeader> dequeIterator = logDeque.iterator();
       final int dequeSize = logDeque.size();
@@ -266,7 +405,7 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
     public void close() throws IOException {
       // TODO if one log fails to close, it won't attempt to close any after that one.
       for (SequentialLogWithHeader logWithHeader : logDeque) {
-        logWithHeader.log.close();
+        logWithHeader.close();
       }
     }
 
@@ -279,22 +418,33 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
             newQuorumHeader(), quorumId);
       } else {
         logWithHeader = SequentialLogWithHeader.readLogFromPersistence(persistence, persistenceNavigatorFactory);
+        logWithHeader.loadIndex();
       }
 
       logDeque.push(logWithHeader);
+      setSnapshot(logWithHeader.header.getSnapshotSeqNum(), logWithHeader.header.getSnapshotTerm());
       prepareLogOracle(logWithHeader);
       increaseExpectedNextSeqNumTo(oLogEntryOracle.getGreatestSeqNum() + 1);
     }
 
     private void prepareLogOracle(SequentialLogWithHeader logWithHeader) throws IOException {
-      SequentialLog<OLogEntry> log = logWithHeader.log;
-      final OLogHeader header = logWithHeader.header;
-
-      oLogEntryOracle.notifyLogging(new OLogEntry(header.getBaseSeqNum(), header.getBaseTerm(),
-          new OLogProtostuffContent<>(header.getBaseConfiguration())));
-      // TODO it isn't necessary to read the content of every entry; only those which refer to configurations.
-      // TODO Also should the navigator be updated on the last entry?
-      log.forEach(oLogEntryOracle::notifyLogging);
+      logWithHeader.notifyOracle(oLogEntryOracle);
+    }
+
+    /**
+     * Get the header of the log at the given position in the list of persistences (most recent
+     * first), preferring a log already in memory to reading the persistence.
+     */
+    private OLogHeader headerOfLogAt(int position,
+                                     List<CheckedSupplier<? extends BytePersistence, IOException>> persistenceList)
+        throws IOException {
+      if (position < logDeque.size()) {
+        return Iterables.get(logDeque, position).header;
+      }
+
+      try (BytePersistence persistence = persistenceList.get(position).get()) {
+        return SequentialLogWithHeader.readHeader(persistence);
+      }
     }
 
     private void increaseExpectedNextSeqNumTo(long seqNum) {
@@ -373,11 +523,14 @@ public class QuorumDelegatingLog implements OLog, AutoCloseable {
     final long baseSeqNum = getNextSeqNum(quorumId) - 1;
     final QuorumConfiguration baseConfiguration = getLastQuorumConfig(quorumId).quorumConfiguration;
 
-    return new OLogHeader(baseTerm, baseSeqNum, baseConfiguration.toProtostuff());
+    return new OLogHeader(baseTerm, baseSeqNum, baseConfiguration.toProtostuff(),
+        LogConstants.LOG_FORMAT_VERSION, LogConstants.LOG_CHECKSUM_TYPE,
+        getSnapshotSeqNum(quorumId), getSnapshotTerm(quorumId));
   }
 
   private OLogHeader newQuorumHeader() {
-    return new OLogHeader(0, 0, QuorumConfiguration.EMPTY.toProtostuff());
+    return new OLogHeader(0, 0, QuorumConfiguration.EMPTY.toProtostuff(),
+        LogConstants.LOG_FORMAT_VERSION, LogConstants.LOG_CHECKSUM_TYPE, 0, 0);
   }
 
   private boolean seqNumPrecedesLog(long seqNum, @NotNull SequentialLogWithHeader logWithHeader) {
@@ -17,16 +17,21 @@
 
 package c5db.log;
 
+import c5db.LogConstants;
 import c5db.generated.OLogHeader;
 import com.google.common.collect.Iterables;
 import com.google.common.io.CountingInputStream;
 import io.protostuff.Schema;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.List;
 
+import static c5db.interfaces.log.SequentialEntryIterable.SequentialEntryIterator;
 import static c5db.log.EntryEncodingUtil.decodeAndCheckCrc;
 import static c5db.log.EntryEncodingUtil.encodeWithLengthAndCrc;
 import static c5db.log.LogPersistenceService.BytePersistence;
@@ -38,20 +43,40 @@ import static c5db.log.LogPersistenceService.PersistenceReader;
  * A SequentialLog of OLogEntry, together with an OLogHeader message. Together, these two
  * objects represent the byte contents present on a single BytePersistence encoded by a
  * QuorumDelegatingLog.
+ * <p>
+ * The log may additionally be given an OLogIndex, by creating it with writeNewLog, or by calling
+ * loadIndex. In that case appends and truncations must be made through this object, rather than
+ * through the log directly, so that the index stays up to date; and the index will be checkpointed
+ * to the persistence's index persistence, if it has one, by checkpointIndex and by close.
  */
 class SequentialLogWithHeader {
   private static final Schema<OLogHeader> HEADER_SCHEMA = OLogHeader.getSchema();
-  private static final SequentialEntryCodec<OLogEntry> CODEC = new OLogEntry.Codec();
 
   public final SequentialLog<OLogEntry> log;
   public final OLogHeader header;
 
+  private final BytePersistence persistence;
+  private final SequentialEntryCodec<OLogEntry> codec;
+  private final AddressCapturingNavigator navigator;
+  private final long headerSize;
+
+  @Nullable
+  private OLogIndex index;
+  @Nullable
+  private BytePersistence indexPersistence;
+
   /**
    * Private constructor; use one of the public static factory methods below.
    */
-  private SequentialLogWithHeader(SequentialLog<OLogEntry> log, OLogHeader header) {
+  private SequentialLogWithHeader(SequentialLog<OLogEntry> log, OLogHeader header, BytePersistence persistence,
+                                  SequentialEntryCodec<OLogEntry> codec, AddressCapturingNavigator navigator,
+                                  long headerSize) {
     this.log = log;
     this.header = header;
+    this.persistence = persistence;
+    this.codec = codec;
+    this.navigator = navigator;
+    this.headerSize = headerSize;
   }
 
   /**
@@ -92,34 +117,175 @@ class SequentialLogWithHeader {
     HeaderWithSize headerWithSize = writeHeaderToPersistence(persistence, header);
     persistenceService.append(quorumId, persistence);
 
-    return create(persistence, navigatorFactory, headerWithSize);
+    final SequentialLogWithHeader logWithHeader = create(persistence, navigatorFactory, headerWithSize);
+    logWithHeader.index = new OLogIndex(header.getBaseSeqNum(), header.getBaseTerm());
+    logWithHeader.indexPersistence = persistence.openIndexPersistence();
+    return logWithHeader;
   }
 
   /**
-   * Create a PersistenceNavigator for data resident on an existing persistence.
+   * Create an iterator over the entries resident on an existing persistence, decoding them with
+   * the checksum type recorded in the persistence's header.
    *
    * @param persistence      A BytePersistence representing an existing log (at least an
    *                         OLogHeader and zero or more OLogEntry)
-   * @param navigatorFactory Factory to create the PersistenceNavigator with
-   * @return A new PersistenceNavigator, ready to use with the log
+   * @param navigatorFactory Factory to create the PersistenceNavigator used by the iterator
+   * @return A new iterator, positioned before the first entry
    * @throws IOException
    */
-  public static PersistenceNavigator createNavigatorFromPersistence(BytePersistence persistence,
-                                                                    PersistenceNavigatorFactory navigatorFactory)
-      throws IOException {
+  public static SequentialEntryIterator<OLogEntry> createIteratorFromPersistence(
+      BytePersistence persistence, PersistenceNavigatorFactory navigatorFactory) throws IOException {
 
     HeaderWithSize headerWithSize = readHeaderFromPersistence(persistence);
+    PersistenceNavigator navigator = createNavigatorForHeader(persistence, navigatorFactory, headerWithSize);
 
-    return createNavigatorForHeader(persistence, navigatorFactory, headerWithSize);
+    return new EncodedSequentialEntryIterator<>(navigator, entryCodecFor(headerWithSize.header));
+  }
+
+  /**
+   * Read only the header of an existing log, without preparing to access its entries.
+   *
+   * @param persistence A BytePersistence representing an existing log
+   * @return The log's header
+   * @throws IOException
+   */
+  static OLogHeader readHeader(BytePersistence persistence) throws IOException {
+    return readHeaderFromPersistence(persistence).header;
   }
 
+  /**
+   * Create a codec for the entries of a log with the given header, using the checksum type the
+   * header records (Adler32 for logs written before the checksum type was recorded).
+   */
+  public static SequentialEntryCodec<OLogEntry> entryCodecFor(OLogHeader header) {
+    return new OLogEntry.Codec(LogChecksums.checksumTypeOf(header));
+  }
+
+  /**
+   * Load this log's index from its index persistence, if there is one and it is valid, and bring
+   * it up to date by decoding any entries logged after the index was last checkpointed. If there
+   * is no valid index, build one by decoding every entry in the log.
+   *
+   * @throws IOException
+   */
+  public void loadIndex() throws IOException {
+    indexPersistence = persistence.openIndexPersistence();
+
+    OLogIndex loadedIndex = null;
+    if (indexPersistence != null) {
+      loadedIndex = OLogIndex.readFrom(indexPersistence, header.getBaseSeqNum(), header.getBaseTerm());
+    }
+
+    long scanAddress = headerSize;
+    if (loadedIndex != null && !loadedIndex.isEmpty()) {
+      scanAddress = addressFollowingLastEntry(loadedIndex);
+      if (scanAddress < 0) {
+        loadedIndex = null;
+        scanAddress = headerSize;
+      }
+    }
+
+    index = loadedIndex != null ? loadedIndex : new OLogIndex(header.getBaseSeqNum(), header.getBaseTerm());
+    indexEntriesFrom(scanAddress);
+    seedNavigator();
+  }
+
+  /**
+   * Append entries to the log, updating the index if there is one.
+   *
+   * @return The number of bytes the entries occupy in the persistence.
+   */
+  public long append(List<OLogEntry> entries) throws IOException {
+    final long sizeBefore = persistence.size();
+    if (index == null) {
+      log.append(entries);
+      return persistence.size() - sizeBefore;
+    }
+
+    navigator.startCapturing();
+    try {
+      log.append(entries);
+      for (OLogEntry entry : entries) {
+        index.add(entry, navigator.capturedAddress(entry.getSeqNum()));
+      }
+    } finally {
+      navigator.stopCapturing();
+    }
+    return persistence.size() - sizeBefore;
+  }
+
+  /**
+   * Truncate the log, updating the index if there is one. The index is checkpointed before the
+   * log itself is truncated, so that the checkpoint never describes entries absent from the log.
+   */
+  public void truncate(long seqNum) throws IOException, SequentialLog.LogEntryNotFound {
+    if (index != null) {
+      if (index.contains(seqNum)) {
+        navigator.addToIndex(seqNum, index.getAddress(seqNum));
+      }
+      index.truncate(seqNum);
+      checkpointIndex();
+    }
+
+    log.truncate(seqNum);
+  }
+
+  /**
+   * Notify the oracle of the entries in this log, as required to prepare it for use: the header's
+   * configuration, each entry that begins a new term or contains a quorum configuration, and the
+   * last entry. When there is an index, only the configuration entries need to be read from the
+   * log; otherwise every entry is read.
+   */
+  public void notifyOracle(OLogEntryOracle oracle) throws IOException {
+    oracle.notifyLogging(new OLogEntry(header.getBaseSeqNum(), header.getBaseTerm(),
+        new OLogProtostuffContent<>(header.getBaseConfiguration())));
+
+    if (index == null) {
+      log.forEach(oracle::notifyLogging);
+      return;
+    }
+
+    final long lastSeqNum = index.getLastSeqNum();
+    for (long seqNum = header.getBaseSeqNum() + 1; seqNum <= lastSeqNum; seqNum++) {
+      if (index.hasFlag(seqNum, OLogIndex.FLAG_CONFIGURATION)) {
+        oracle.notifyLogging(readEntryAt(index.getAddress(seqNum)));
+      } else if (seqNum == lastSeqNum || index.hasFlag(seqNum, OLogIndex.FLAG_TERM_CHANGE)) {
+        oracle.notifyLogging(new OLogEntry(seqNum, index.getTerm(seqNum), new OLogRawDataContent(new ArrayList<>())));
+      }
+    }
+  }
+
+  /**
+   * Write the index to the index persistence, if there is an index persistence and the index has
+   * changed since it was last written.
+   */
+  public void checkpointIndex() throws IOException {
+    if (index != null && indexPersistence != null && index.isDirty()) {
+      index.writeTo(indexPersistence);
+    }
+  }
+
+  /**
+   * Checkpoint the index, then release held resources.
+   */
+  public void close() throws IOException {
+    try {
+      checkpointIndex();
+    } finally {
+      log.close();
+      if (indexPersistence != null) {
+        indexPersistence.close();
+      }
+    }
+  }
 
   private static PersistenceNavigator createNavigatorForHeader(BytePersistence persistence,
                                                                PersistenceNavigatorFactory navigatorFactory,
                                                                HeaderWithSize headerWithSize)
       throws IOException {
 
-    final PersistenceNavigator navigator = navigatorFactory.create(persistence, CODEC, headerWithSize.size);
+    final PersistenceNavigator navigator =
+        navigatorFactory.create(persistence, entryCodecFor(headerWithSize.header), headerWithSize.size);
     navigator.addToIndex(headerWithSize.header.getBaseSeqNum() + 1, headerWithSize.size);
 
     return navigator;
@@ -130,10 +296,76 @@ class SequentialLogWithHeader {
                                                 HeaderWithSize headerWithSize)
       throws IOException {
 
-    final PersistenceNavigator navigator = createNavigatorForHeader(persistence, navigatorFactory, headerWithSize);
-    final SequentialLog<OLogEntry> log = new EncodedSequentialLog<>(persistence, CODEC, navigator);
+    final AddressCapturingNavigator navigator = new AddressCapturingNavigator(
+        createNavigatorForHeader(persistence, navigatorFactory, headerWithSize));
+    final SequentialEntryCodec<OLogEntry> codec = entryCodecFor(headerWithSize.header);
+    final SequentialLog<OLogEntry> log = new EncodedSequentialLog<>(persistence, codec, navigator);
+
+    return new SequentialLogWithHeader(log, headerWithSize.header, persistence, codec, navigator,
+        headerWithSize.size);
+  }
+
+  /**
+   * Check that the last entry recorded in the given index is present in the log at the recorded
+   * address, and find the address following it.
+   *
+   * @return The address following the last entry, or -1 if the index does not agree with the log.
+   */
+  private long addressFollowingLastEntry(OLogIndex loadedIndex) throws IOException {
+    final long lastSeqNum = loadedIndex.getLastSeqNum();
+    final long lastAddress = loadedIndex.getAddress(lastSeqNum);
+    if (lastAddress >= persistence.size()) {
+      return -1;
+    }
+
+    try (PersistenceReader reader = persistence.getReader()) {
+      reader.position(lastAddress);
+      if (codec.skipEntryAndReturnSeqNum(reader.asInputStream()) != lastSeqNum) {
+        return -1;
+      }
+      return reader.position();
+    } catch (EOFException | EntryEncodingUtil.CrcError e) {
+      return -1;
+    }
+  }
+
+  private void indexEntriesFrom(long address) throws IOException {
+    assert index != null;
+
+    try (PersistenceReader reader = persistence.getReader()) {
+      reader.position(address);
+      final InputStream inputStream = reader.asInputStream();
 
-    return new SequentialLogWithHeader(log, headerWithSize.header);
+      //noinspection InfiniteLoopStatement
+      while (true) {
+        final long entryAddress = reader.position();
+        index.add(codec.decode(inputStream), entryAddress);
+      }
+    } catch (EOFException ignore) {
+    }
+  }
+
+  /**
+   * Give the navigator the addresses of a sparse selection of entries, including the last.
+   */
+  private void seedNavigator() throws IOException {
+    assert index != null;
+
+    final long lastSeqNum = index.getLastSeqNum();
+    final long firstSeqNum = header.getBaseSeqNum() + 1;
+    for (long seqNum = firstSeqNum; seqNum <= lastSeqNum; seqNum += LogConstants.LOG_NAVIGATOR_DEFAULT_MAX_ENTRY_SEEK) {
+      navigator.addToIndex(seqNum, index.getAddress(seqNum));
+    }
+    if (lastSeqNum >= firstSeqNum) {
+      navigator.addToIndex(lastSeqNum, index.getAddress(lastSeqNum));
+    }
+  }
+
+  private OLogEntry readEntryAt(long address) throws IOException {
+    try (PersistenceReader reader = persistence.getReader()) {
+      reader.position(address);
+      return codec.decode(reader.asInputStream());
+    }
   }
 
   private static HeaderWithSize readHeaderFromPersistence(BytePersistence persistence) throws IOException {
@@ -156,7 +388,75 @@ class SequentialLogWithHeader {
   }
 
   private static CountingInputStream getCountingInputStream(PersistenceReader reader) {
-    return new CountingInputStream(Channels.newInputStream(reader));
+    return new CountingInputStream(reader.asInputStream());
+  }
+
+  /**
+   * PersistenceNavigator which delegates to another, and which can also record the addresses it is
+   * notified of while appending, so that they can be added to the index after the entries are appended.
+   */
+  private static class AddressCapturingNavigator implements PersistenceNavigator {
+    private final PersistenceNavigator delegate;
+    private final SortedLongArrayMap capturedAddresses = new SortedLongArrayMap();
+    private boolean capturing = false;
+
+    private AddressCapturingNavigator(PersistenceNavigator delegate) {
+      this.delegate = delegate;
+    }
+
+    public void startCapturing() {
+      capturedAddresses.clear();
+      capturing = true;
+    }
+
+    public void stopCapturing() {
+      capturing = false;
+    }
+
+    public long capturedAddress(long seqNum) {
+      if (!capturedAddresses.containsKey(seqNum)) {
+        throw new IllegalStateException("AddressCapturingNavigator: no address captured for seqNum " + seqNum);
+      }
+      return capturedAddresses.get(seqNum, 0);
+    }
+
+    @Override
+    public void notifyLogging(long seqNum, long byteAddress) throws IOException {
+      if (capturing) {
+        capturedAddresses.put(seqNum, byteAddress);
+      }
+      delegate.notifyLogging(seqNum, byteAddress);
+    }
+
+    @Override
+    public void addToIndex(long seqNum, long byteAddress) throws IOException {
+      delegate.addToIndex(seqNum, byteAddress);
+    }
+
+    @Override
+    public void notifyTruncation(long seqNum) throws IOException {
+      delegate.notifyTruncation(seqNum);
+    }
+
+    @Override
+    public long getAddressOfEntry(long seqNum) throws IOException, SequentialLog.LogEntryNotFound {
+      return delegate.getAddressOfEntry(seqNum);
+    }
+
+    @Override
+    public InputStream getStreamAtSeqNum(long fromSeqNum) throws IOException, SequentialLog.LogEntryNotFound {
+      return delegate.getStreamAtSeqNum(fromSeqNum);
+    }
+
+    @Override
+    public InputStream getStreamAtFirstEntry() throws IOException {
+      return delegate.getStreamAtFirstEntry();
+    }
+
+    @Override
+    public InputStream getStreamAtLastEntry() throws IOException {
+      return delegate.getStreamAtLastEntry();
+    }
   }
 
   private static class HeaderWithSize {
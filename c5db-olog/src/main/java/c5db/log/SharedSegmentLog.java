@@ -0,0 +1,720 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import c5db.LogConstants;
+import c5db.generated.SharedLogQuorumState;
+import c5db.generated.SharedLogRecordHeader;
+import c5db.generated.SharedLogRecordType;
+import c5db.interfaces.replication.QuorumConfiguration;
+import c5db.util.CheckedSupplier;
+import c5db.util.KeySerializingExecutor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.protostuff.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static c5db.log.EntryEncodingUtil.decodeAndCheckCrc;
+import static c5db.log.EntryEncodingUtil.encodeWithLengthAndCrc;
+import static c5db.log.EntryEncodingUtil.sumRemaining;
+import static c5db.log.LogPersistenceService.PersistenceReader;
+import static c5db.log.OLogEntryOracle.OLogEntryOracleFactory;
+import static c5db.log.OLogEntryOracle.QuorumConfigurationWithSeqNum;
+import static c5db.log.SequentialLog.LogEntryNotFound;
+
+/**
+ * OLog that interleaves the entries of all quorums into a single append-only stream of records,
+ * so that logging on behalf of many quorums results in sequential, rather than scattered, writes.
+ * The stream is divided into segments, each persisted to its own file; when the current segment
+ * grows beyond a size limit, or when roll is called, a new segment is begun.
+ * <p>
+ * Besides entries, the stream contains records of truncations, of "releases" (see
+ * {@link #releaseEntriesBefore}), and of quorum state. Quorums are identified within the stream by
+ * integer tags; each segment begins with a state record for every quorum known at the time, which
+ * maps the quorum's tag to its ID and summarizes its term, configuration, and release point. That
+ * way a segment can be deleted once no quorum still needs any of the entries it contains, without
+ * losing any information about the quorums.
+ * <p>
+ * An index from sequence number to location in the stream is kept in memory for each quorum. It is
+ * rebuilt when the log is first opened, by scanning every segment still present. If the last segment
+ * ends with an incomplete record, as could happen after a crash, that record is discarded.
+ * <p>
+ * All operations, for all quorums, are executed serially, by submitting them to a KeySerializingExecutor
+ * using a single key. As with {@link QuorumDelegatingLog}, each quorum's sequence numbers must be ascending
+ * with no gaps within that quorum.
+ */
+public class SharedSegmentLog implements OLog, AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(SharedSegmentLog.class);
+
+  private static final String TASK_KEY = "SharedSegmentLog";
+  private static final Schema<SharedLogRecordHeader> RECORD_HEADER_SCHEMA = SharedLogRecordHeader.getSchema();
+  private static final Schema<SharedLogQuorumState> QUORUM_STATE_SCHEMA = SharedLogQuorumState.getSchema();
+  private static final SequentialEntryCodec<OLogEntry> CODEC = new OLogEntry.Codec();
+
+  private final Path segmentDirectory;
+  private final KeySerializingExecutor taskExecutor;
+  private final OLogEntryOracleFactory oLogEntryOracleFactory;
+  private final long maxSegmentSize;
+  private final Map<String, PerQuorum> quorumMap = new ConcurrentHashMap<>();
+
+  /**
+   * These fields may only be accessed from tasks running on the taskExecutor.
+   */
+  private final NavigableMap<Long, FilePersistence> segments = new TreeMap<>();
+  private final Map<Integer, PerQuorum> quorumsByTag = new HashMap<>();
+  private boolean recovered = false;
+  private int nextQuorumTag = 1;
+
+  public SharedSegmentLog(Path basePath,
+                          KeySerializingExecutor taskExecutor,
+                          OLogEntryOracleFactory oLogEntryOracleFactory) throws IOException {
+    this(basePath, taskExecutor, oLogEntryOracleFactory, LogConstants.SHARED_LOG_DEFAULT_SEGMENT_SIZE_BYTES);
+  }
+
+  public SharedSegmentLog(Path basePath,
+                          KeySerializingExecutor taskExecutor,
+                          OLogEntryOracleFactory oLogEntryOracleFactory,
+                          long maxSegmentSize) throws IOException {
+    this.segmentDirectory = basePath.resolve(LogConstants.SHARED_LOG_DIRECTORY_NAME);
+    this.taskExecutor = taskExecutor;
+    this.oLogEntryOracleFactory = oLogEntryOracleFactory;
+    this.maxSegmentSize = maxSegmentSize;
+
+    Files.createDirectories(segmentDirectory);
+  }
+
+  @Override
+  public ListenableFuture<Void> openAsync(String quorumId) {
+    quorumMap.computeIfAbsent(quorumId, PerQuorum::new).isOpen = true;
+
+    return submitTask(() -> {
+      recoverIfNecessary();
+      getQuorumStructure(quorumId).open();
+      return null;
+    });
+  }
+
+  @Override
+  public ListenableFuture<Boolean> logEntries(List<OLogEntry> passedInEntries, String quorumId) {
+    final List<OLogEntry> entries = validateAndMakeDefensiveCopy(passedInEntries);
+    final PerQuorum quorum = getQuorumStructure(quorumId);
+
+    quorum.ensureEntriesAreConsecutive(entries);
+    entries.forEach(quorum.oLogEntryOracle::notifyLogging);
+
+    return submitTask(() -> {
+      appendEntries(quorum, entries);
+      return true;
+    });
+  }
+
+  @Override
+  public ListenableFuture<List<OLogEntry>> getLogEntries(long start, long end, String quorumId) {
+    if (end < start) {
+      throw new IllegalArgumentException("getLogEntries: end < start");
+    } else if (end == start) {
+      return Futures.immediateFuture(new ArrayList<>());
+    }
+
+    final PerQuorum quorum = getQuorumStructure(quorumId);
+    return submitTask(() -> readEntries(quorum, start, end));
+  }
+
+  @Override
+  public ListenableFuture<Boolean> truncateLog(long seqNum, String quorumId) {
+    final PerQuorum quorum = getQuorumStructure(quorumId);
+
+    quorum.setExpectedNextSequenceNumber(seqNum);
+    quorum.oLogEntryOracle.notifyTruncation(seqNum);
+
+    return submitTask(() -> {
+      if (!quorum.index.containsKey(seqNum)) {
+        throw new LogEntryNotFound("SharedSegmentLog#truncateLog: no retained entry with seqNum " + seqNum);
+      }
+
+      final List<ByteBuffer> buffers = new ArrayList<>();
+      segmentForWriting();
+      addQuorumStateIfNecessary(quorum, buffers);
+
+      quorum.index.tailMap(seqNum, true).clear();
+      quorum.writtenOracle.notifyTruncation(seqNum);
+
+      buffers.addAll(encodeRecordHeader(SharedLogRecordType.TRUNCATION, quorum.tag, seqNum));
+      // Record the state following the truncation, in case the prefix of the log is ever deleted.
+      buffers.addAll(encodeQuorumState(quorum));
+      writeToCurrentSegment(buffers);
+      return true;
+    });
+  }
+
+  /**
+   * Declare that the entries of a quorum with sequence numbers less than the given sequence number
+   * will no longer be requested. Once no quorum needs any of the entries within a segment, that
+   * segment is deleted. Released entries can no longer be retrieved with getLogEntries, nor
+   * truncated; but releasing them does not affect the quorum's terms, configuration, or next
+   * sequence number.
+   *
+   * @param seqNum   Entries with sequence numbers strictly less than this are released.
+   * @param quorumId Quorum ID.
+   * @return Future indicating completion.
+   */
+  public ListenableFuture<Void> releaseEntriesBefore(long seqNum, String quorumId) {
+    final PerQuorum quorum = getQuorumStructure(quorumId);
+
+    return submitTask(() -> {
+      if (seqNum <= quorum.releasedBefore) {
+        return null;
+      }
+
+      final List<ByteBuffer> buffers = new ArrayList<>();
+      segmentForWriting();
+      addQuorumStateIfNecessary(quorum, buffers);
+      buffers.addAll(encodeRecordHeader(SharedLogRecordType.RELEASE, quorum.tag, seqNum));
+      writeToCurrentSegment(buffers);
+
+      quorum.release(seqNum);
+      deleteUnneededSegments();
+      return null;
+    });
+  }
+
+  /**
+   * If the log contains the last entry covered by the snapshot, compaction is carried out by releasing
+   * the entries the snapshot covers. Otherwise the snapshot supersedes the quorum's entire log, which is
+   * reset to continue from the snapshot: a truncation of every entry is recorded, followed by a state
+   * record giving the snapshot's term, configuration, and sequence number, and the quorum's entries are
+   * released. The segments are shared with other quorums, so nothing is deleted but what no quorum needs.
+   */
+  @Override
+  public ListenableFuture<Void> compact(long snapshotSeqNum,
+                                        long snapshotTerm,
+                                        QuorumConfiguration snapshotConfiguration,
+                                        String quorumId) {
+    final PerQuorum quorum = getQuorumStructure(quorumId);
+    if (snapshotSeqNum <= quorum.snapshotSeqNum) {
+      return Futures.immediateFuture(null);
+    }
+
+    if (snapshotSeqNum < getNextSeqNum(quorumId)
+        && getLogTerm(snapshotSeqNum, quorumId) == snapshotTerm) {
+      return releaseEntriesBefore(snapshotSeqNum + 1, quorumId);
+    }
+
+    final OLogEntry snapshotEntry = new OLogEntry(snapshotSeqNum, snapshotTerm,
+        new OLogProtostuffContent<>(snapshotConfiguration.toProtostuff()));
+    quorum.oLogEntryOracle.notifyTruncation(0);
+    quorum.oLogEntryOracle.notifyLogging(snapshotEntry);
+    quorum.setExpectedNextSequenceNumber(snapshotSeqNum + 1);
+
+    return submitTask(() -> {
+      final List<ByteBuffer> buffers = new ArrayList<>();
+      segmentForWriting();
+      addQuorumStateIfNecessary(quorum, buffers);
+
+      quorum.index.clear();
+      quorum.writtenOracle.notifyTruncation(0);
+      quorum.writtenOracle.notifyLogging(snapshotEntry);
+      quorum.release(snapshotSeqNum + 1);
+
+      buffers.addAll(encodeRecordHeader(SharedLogRecordType.TRUNCATION, quorum.tag, 0));
+      buffers.addAll(encodeQuorumState(quorum));
+      writeToCurrentSegment(buffers);
+
+      deleteUnneededSegments();
+      return null;
+    });
+  }
+
+  @Override
+  public long getSnapshotSeqNum(String quorumId) {
+    return getQuorumStructure(quorumId).snapshotSeqNum;
+  }
+
+  @Override
+  public long getSnapshotTerm(String quorumId) {
+    final long snapshotSeqNum = getSnapshotSeqNum(quorumId);
+    return snapshotSeqNum == 0 ? 0 : getLogTerm(snapshotSeqNum, quorumId);
+  }
+
+  @Override
+  public long getNextSeqNum(String quorumId) {
+    return getQuorumStructure(quorumId).getExpectedNextSequenceNumber();
+  }
+
+  @Override
+  public long getLastTerm(String quorumId) {
+    return getQuorumStructure(quorumId).oLogEntryOracle.getLastTerm();
+  }
+
+  @Override
+  public long getLogTerm(long seqNum, String quorumId) {
+    return getQuorumStructure(quorumId).oLogEntryOracle.getTermAtSeqNum(seqNum);
+  }
+
+  @Override
+  public QuorumConfigurationWithSeqNum getLastQuorumConfig(String quorumId) {
+    return getQuorumStructure(quorumId).oLogEntryOracle.getLastQuorumConfig();
+  }
+
+  /**
+   * Because all quorums share the same segments, rolling on behalf of any one quorum begins
+   * a new segment for all of them.
+   */
+  @Override
+  public ListenableFuture<Void> roll(String quorumId) throws IOException {
+    getQuorumStructure(quorumId);
+
+    return submitTask(() -> {
+      rollSegment();
+      return null;
+    });
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      taskExecutor.shutdownAndAwaitTermination(LogConstants.LOG_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException | TimeoutException e) {
+      throw new RuntimeException(e);
+    }
+
+    // TODO if one segment fails to close, it won't attempt to close any after that one.
+    for (FilePersistence segment : segments.values()) {
+      segment.close();
+    }
+  }
+
+  /**
+   * Location of a record within the stream: the ID of the segment containing it, and its byte
+   * address within that segment.
+   */
+  private static class RecordLocation {
+    public final long segmentId;
+    public final long address;
+
+    private RecordLocation(long segmentId, long address) {
+      this.segmentId = segmentId;
+      this.address = address;
+    }
+  }
+
+  /**
+   * Everything known about a single quorum.
+   */
+  private class PerQuorum {
+    private final String quorumId;
+
+    /**
+     * These fields may only be accessed synchronously with the caller of the SharedSegmentLog
+     * public methods, except while the log is being recovered.
+     */
+    private volatile long expectedNextSequenceNumber = 1;
+    private volatile boolean isOpen = false;
+    public final OLogEntryOracle oLogEntryOracle = oLogEntryOracleFactory.create();
+
+    /**
+     * These fields may only be accessed from tasks running on the taskExecutor. The writtenOracle
+     * differs from the oLogEntryOracle in that it only reflects what has actually been written
+     * to the stream, so it may be used to produce the quorum's state records.
+     */
+    public final NavigableMap<Long, RecordLocation> index = new TreeMap<>();
+    public final OLogEntryOracle writtenOracle = oLogEntryOracleFactory.create();
+    public int tag = 0;
+    public long stateWrittenInSegment = 0;
+    public long releasedBefore = 0;
+
+    /**
+     * Written only from tasks running on the taskExecutor, but may be read by any thread.
+     */
+    private volatile long snapshotSeqNum = 0;
+
+    public PerQuorum(String quorumId) {
+      this.quorumId = quorumId;
+    }
+
+    public void open() {
+      final long greatestSeqNum = oLogEntryOracle.getGreatestSeqNum();
+      if (greatestSeqNum + 1 > expectedNextSequenceNumber) {
+        setExpectedNextSequenceNumber(greatestSeqNum + 1);
+      }
+    }
+
+    public void ensureEntriesAreConsecutive(List<OLogEntry> entries) {
+      for (OLogEntry e : entries) {
+        if (e.getSeqNum() != expectedNextSequenceNumber) {
+          throw new IllegalArgumentException("Unexpected sequence number in entries requested to be logged");
+        }
+        expectedNextSequenceNumber++;
+      }
+    }
+
+    public void setExpectedNextSequenceNumber(long seqNum) {
+      expectedNextSequenceNumber = seqNum;
+    }
+
+    public long getExpectedNextSequenceNumber() {
+      return expectedNextSequenceNumber;
+    }
+
+    public void release(long seqNum) {
+      releasedBefore = Math.max(releasedBefore, seqNum);
+      index.headMap(releasedBefore, false).clear();
+      if (releasedBefore > 0) {
+        snapshotSeqNum = releasedBefore - 1;
+      }
+    }
+
+    /**
+     * During recovery, apply a logged entry to both oracles.
+     */
+    public void recoverLogging(OLogEntry entry) {
+      oLogEntryOracle.notifyLogging(entry);
+      writtenOracle.notifyLogging(entry);
+    }
+
+    /**
+     * During recovery, apply a logged truncation to both oracles.
+     */
+    public void recoverTruncation(long seqNum) {
+      oLogEntryOracle.notifyTruncation(seqNum);
+      writtenOracle.notifyTruncation(seqNum);
+    }
+
+    /**
+     * During recovery, bring the oracles up to date with a state record. If the oracles already
+     * reflect the recorded state, which is the case unless older segments have been deleted, this
+     * has no effect.
+     */
+    public void recoverState(SharedLogQuorumState state) {
+      final QuorumConfigurationWithSeqNum lastConfig = oLogEntryOracle.getLastQuorumConfig();
+
+      if (state.getConfigurationSeqNum() > lastConfig.seqNum) {
+        recoverLogging(new OLogEntry(state.getConfigurationSeqNum(), oLogEntryOracle.getLastTerm(),
+            new OLogProtostuffContent<>(state.getConfiguration())));
+      }
+
+      if (state.getLastTerm() > oLogEntryOracle.getTermAtSeqNum(state.getLastSeqNum())) {
+        recoverLogging(new OLogEntry(state.getLastSeqNum(), state.getLastTerm(),
+            new OLogRawDataContent(new ArrayList<>())));
+      }
+
+      release(state.getReleasedBefore());
+    }
+  }
+
+  /**
+   * Methods below this point, apart from those used solely for argument validation, may only
+   * be called from tasks running on the taskExecutor.
+   */
+
+  private void appendEntries(PerQuorum quorum, List<OLogEntry> entries) throws IOException {
+    final FilePersistence segment = segmentForWriting();
+    final long segmentId = segments.lastKey();
+
+    final List<ByteBuffer> buffers = new ArrayList<>();
+    addQuorumStateIfNecessary(quorum, buffers);
+
+    long address = segment.size() + sumRemaining(buffers);
+
+    for (OLogEntry entry : entries) {
+      final List<ByteBuffer> recordBuffers = encodeRecordHeader(SharedLogRecordType.ENTRY, quorum.tag, 0);
+      recordBuffers.addAll(Arrays.asList(CODEC.encode(entry)));
+
+      quorum.index.put(entry.getSeqNum(), new RecordLocation(segmentId, address));
+      quorum.writtenOracle.notifyLogging(entry);
+
+      address += sumRemaining(recordBuffers);
+      buffers.addAll(recordBuffers);
+    }
+
+    writeToCurrentSegment(buffers);
+  }
+
+  private List<OLogEntry> readEntries(PerQuorum quorum, long start, long end)
+      throws IOException, LogEntryNotFound {
+    final List<OLogEntry> readEntries = new ArrayList<>();
+    final Map<Long, PersistenceReader> readers = new HashMap<>();
+
+    try {
+      for (long seqNum = start; seqNum < end; seqNum++) {
+        final RecordLocation location = quorum.index.get(seqNum);
+        if (location == null) {
+          throw new LogEntryNotFound("SharedSegmentLog: unable to locate entry with seqNum " + seqNum
+              + " for quorum " + quorum.quorumId);
+        }
+
+        PersistenceReader reader = readers.get(location.segmentId);
+        if (reader == null) {
+          reader = segments.get(location.segmentId).getReader();
+          readers.put(location.segmentId, reader);
+        }
+
+        reader.position(location.address);
+        final InputStream inputStream = reader.asInputStream();
+        final SharedLogRecordHeader header = decodeAndCheckCrc(inputStream, RECORD_HEADER_SCHEMA);
+        final OLogEntry entry = CODEC.decode(inputStream);
+
+        if (header.getType() != SharedLogRecordType.ENTRY
+            || header.getQuorumTag() != quorum.tag
+            || entry.getSeqNum() != seqNum) {
+          throw new IOException("SharedSegmentLog: index refers to an unexpected record, when looking for seqNum "
+              + seqNum + " for quorum " + quorum.quorumId);
+        }
+        readEntries.add(entry);
+      }
+    } finally {
+      for (PersistenceReader reader : readers.values()) {
+        reader.close();
+      }
+    }
+
+    return readEntries;
+  }
+
+  /**
+   * Append to the current segment; the caller must already have called segmentForWriting
+   * within the same task.
+   */
+  private void writeToCurrentSegment(List<ByteBuffer> buffers) throws IOException {
+    if (!buffers.isEmpty()) {
+      segments.lastEntry().getValue().append(Iterables.toArray(buffers, ByteBuffer.class));
+    }
+  }
+
+  /**
+   * Return the segment that writes should go to, first beginning a new one if there is none,
+   * or if the current segment has reached its maximum size.
+   */
+  private FilePersistence segmentForWriting() throws IOException {
+    if (segments.isEmpty() || segments.lastEntry().getValue().size() >= maxSegmentSize) {
+      rollSegment();
+    }
+    return segments.lastEntry().getValue();
+  }
+
+  private void rollSegment() throws IOException {
+    final long newSegmentId = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+    segments.put(newSegmentId, new FilePersistence(segmentPath(newSegmentId)));
+
+    final List<ByteBuffer> buffers = new ArrayList<>();
+    for (PerQuorum quorum : quorumsByTag.values()) {
+      addQuorumStateIfNecessary(quorum, buffers);
+    }
+    writeToCurrentSegment(buffers);
+
+    deleteUnneededSegments();
+  }
+
+  /**
+   * If the quorum has no tag yet, assign it one. Then, if the current segment doesn't contain a
+   * state record for the quorum, add one to the passed list of buffers to be written.
+   */
+  private void addQuorumStateIfNecessary(PerQuorum quorum, List<ByteBuffer> buffers) {
+    if (quorum.tag == 0) {
+      quorum.tag = nextQuorumTag++;
+      quorumsByTag.put(quorum.tag, quorum);
+    }
+
+    final long currentSegmentId = segments.lastKey();
+    if (quorum.stateWrittenInSegment != currentSegmentId) {
+      buffers.addAll(encodeQuorumState(quorum));
+      quorum.stateWrittenInSegment = currentSegmentId;
+    }
+  }
+
+  /**
+   * Delete, in order, every segment that is not the current segment and that precedes the
+   * segment containing the earliest retained entry of every quorum.
+   */
+  private void deleteUnneededSegments() throws IOException {
+    long firstNeededSegmentId = segments.lastKey();
+    for (PerQuorum quorum : quorumsByTag.values()) {
+      if (!quorum.index.isEmpty()) {
+        firstNeededSegmentId = Math.min(firstNeededSegmentId, quorum.index.firstEntry().getValue().segmentId);
+      }
+    }
+
+    while (segments.firstKey() < firstNeededSegmentId) {
+      final Map.Entry<Long, FilePersistence> segment = segments.pollFirstEntry();
+      segment.getValue().close();
+      Files.delete(segmentPath(segment.getKey()));
+      LOG.debug("Deleted unneeded log segment {}", segment.getKey());
+    }
+  }
+
+  private void recoverIfNecessary() throws IOException {
+    if (recovered) {
+      return;
+    }
+
+    final NavigableMap<Long, Path> segmentPaths = findSegmentPaths();
+    for (Map.Entry<Long, Path> segmentPath : segmentPaths.entrySet()) {
+      final long segmentId = segmentPath.getKey();
+      final FilePersistence segment = new FilePersistence(segmentPath.getValue());
+      segments.put(segmentId, segment);
+      scanSegment(segmentId, segment, segmentId == segmentPaths.lastKey());
+    }
+
+    recovered = true;
+  }
+
+  private void scanSegment(long segmentId, FilePersistence segment, boolean isLastSegment) throws IOException {
+    long recordAddress = 0;
+
+    try (PersistenceReader reader = segment.getReader();
+         CountingInputStream inputStream =
+             new CountingInputStream(new BufferedInputStream(reader.asInputStream()))) {
+      while (recordAddress < segment.size()) {
+        recoverRecord(segmentId, recordAddress, inputStream);
+        recordAddress = inputStream.getCount();
+      }
+    } catch (IOException | RuntimeException e) {
+      if (!isLastSegment) {
+        throw e;
+      }
+      LOG.warn("Discarding incomplete or corrupt record at the end of log segment {}, at address {}",
+          segmentId, recordAddress, e);
+      segment.truncate(recordAddress);
+    }
+  }
+
+  private void recoverRecord(long segmentId, long recordAddress, InputStream inputStream) throws IOException {
+    final SharedLogRecordHeader header = decodeAndCheckCrc(inputStream, RECORD_HEADER_SCHEMA);
+
+    if (header.getType() == SharedLogRecordType.QUORUM_STATE) {
+      final SharedLogQuorumState state = decodeAndCheckCrc(inputStream, QUORUM_STATE_SCHEMA);
+      final PerQuorum quorum = quorumMap.computeIfAbsent(state.getQuorumId(), PerQuorum::new);
+
+      quorum.tag = state.getQuorumTag();
+      quorum.stateWrittenInSegment = segmentId;
+      quorumsByTag.put(quorum.tag, quorum);
+      nextQuorumTag = Math.max(nextQuorumTag, quorum.tag + 1);
+      quorum.recoverState(state);
+      return;
+    }
+
+    final PerQuorum quorum = quorumsByTag.get(header.getQuorumTag());
+    if (quorum == null) {
+      throw new IOException("SharedSegmentLog: encountered a record for unknown quorum tag " + header.getQuorumTag());
+    }
+
+    switch (header.getType()) {
+      case ENTRY:
+        final OLogEntry entry = CODEC.decode(inputStream);
+        if (entry.getSeqNum() >= quorum.releasedBefore) {
+          quorum.index.put(entry.getSeqNum(), new RecordLocation(segmentId, recordAddress));
+        }
+        quorum.recoverLogging(entry);
+        break;
+      case TRUNCATION:
+        quorum.index.tailMap(header.getSeqNum(), true).clear();
+        quorum.recoverTruncation(header.getSeqNum());
+        break;
+      case RELEASE:
+        quorum.release(header.getSeqNum());
+        break;
+      default:
+        throw new IOException("SharedSegmentLog: unrecognized record type " + header.getType());
+    }
+  }
+
+  private NavigableMap<Long, Path> findSegmentPaths() {
+    final NavigableMap<Long, Path> segmentPaths = new TreeMap<>();
+    final File[] files = segmentDirectory.toFile().listFiles();
+
+    if (files != null) {
+      for (File file : files) {
+        segmentPaths.put(Long.parseLong(file.getName()), file.toPath());
+      }
+    }
+    return segmentPaths;
+  }
+
+  private Path segmentPath(long segmentId) {
+    return segmentDirectory.resolve(String.valueOf(segmentId));
+  }
+
+  private static List<ByteBuffer> encodeRecordHeader(SharedLogRecordType type, int quorumTag, long seqNum) {
+    return encodeWithLengthAndCrc(RECORD_HEADER_SCHEMA, new SharedLogRecordHeader(type, quorumTag, seqNum));
+  }
+
+  private static List<ByteBuffer> encodeQuorumState(PerQuorum quorum) {
+    final OLogEntryOracle oracle = quorum.writtenOracle;
+    final long lastSeqNum = oracle.getGreatestSeqNum();
+    final QuorumConfigurationWithSeqNum lastConfig = oracle.getLastQuorumConfig();
+
+    final SharedLogQuorumState state = new SharedLogQuorumState(
+        quorum.tag,
+        quorum.quorumId,
+        lastSeqNum,
+        oracle.getTermAtSeqNum(lastSeqNum),
+        lastConfig.seqNum,
+        lastConfig.quorumConfiguration.toProtostuff(),
+        quorum.releasedBefore);
+
+    final List<ByteBuffer> buffers = encodeRecordHeader(SharedLogRecordType.QUORUM_STATE, quorum.tag, 0);
+    buffers.addAll(encodeWithLengthAndCrc(QUORUM_STATE_SCHEMA, state));
+    return buffers;
+  }
+
+  /**
+   * Other private methods
+   */
+
+  private List<OLogEntry> validateAndMakeDefensiveCopy(List<OLogEntry> entries) {
+    if (entries.isEmpty()) {
+      throw new IllegalArgumentException("Attempting to log an empty entry list");
+    }
+
+    return ImmutableList.copyOf(entries);
+  }
+
+  private PerQuorum getQuorumStructure(String quorumId) {
+    final PerQuorum perQuorum = quorumMap.get(quorumId);
+    if (perQuorum == null || !perQuorum.isOpen) {
+      throw new QuorumNotOpen("SharedSegmentLog#getQuorumStructure: quorum " + quorumId + " not open");
+    }
+    return perQuorum;
+  }
+
+  private <T> ListenableFuture<T> submitTask(CheckedSupplier<T, Exception> task) {
+    return taskExecutor.submit(TASK_KEY, task);
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import java.util.Arrays;
+
+/**
+ * Map from long keys to long values, kept as a pair of parallel sorted arrays, without boxing or
+ * per-entry allocation. It is intended for the indexes kept by logs, whose keys (sequence numbers)
+ * almost always arrive in ascending order, and which are only ever truncated from the end:
+ * <p>
+ * - put with a key greater than every key in the map is amortized O(1); put with any other key
+ * is O(n), as it must shift the greater entries.
+ * <p>
+ * - get, floor lookups, and truncation of a tail of the map are O(log n).
+ * <p>
+ * This class is not thread-safe.
+ */
+final class SortedLongArrayMap {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] keys;
+  private long[] values;
+  private int size = 0;
+
+  SortedLongArrayMap() {
+    this(INITIAL_CAPACITY);
+  }
+
+  SortedLongArrayMap(int initialCapacity) {
+    keys = new long[Math.max(initialCapacity, 1)];
+    values = new long[keys.length];
+  }
+
+  void put(long key, long value) {
+    if (size == 0 || key > keys[size - 1]) {
+      ensureCapacity(size + 1);
+      keys[size] = key;
+      values[size] = value;
+      size++;
+      return;
+    }
+
+    final int position = Arrays.binarySearch(keys, 0, size, key);
+    if (position >= 0) {
+      values[position] = value;
+      return;
+    }
+
+    final int insertionPoint = -(position + 1);
+    ensureCapacity(size + 1);
+    System.arraycopy(keys, insertionPoint, keys, insertionPoint + 1, size - insertionPoint);
+    System.arraycopy(values, insertionPoint, values, insertionPoint + 1, size - insertionPoint);
+    keys[insertionPoint] = key;
+    values[insertionPoint] = value;
+    size++;
+  }
+
+  boolean containsKey(long key) {
+    return Arrays.binarySearch(keys, 0, size, key) >= 0;
+  }
+
+  /**
+   * @return The value associated with key, or defaultValue if the key is not present.
+   */
+  long get(long key, long defaultValue) {
+    final int position = Arrays.binarySearch(keys, 0, size, key);
+    return position >= 0 ? values[position] : defaultValue;
+  }
+
+  /**
+   * @return The value associated with the greatest key less than or equal to the given key, or
+   * defaultValue if there is no such key.
+   */
+  long floorValue(long key, long defaultValue) {
+    final int position = floorPosition(key);
+    return position >= 0 ? values[position] : defaultValue;
+  }
+
+  /**
+   * @return The greatest key less than or equal to the given key, or defaultKey if there is no such key.
+   */
+  long floorKey(long key, long defaultKey) {
+    final int position = floorPosition(key);
+    return position >= 0 ? keys[position] : defaultKey;
+  }
+
+  /**
+   * Remove every entry whose key is greater than or equal to the given key.
+   */
+  void removeFrom(long key) {
+    if (key == Long.MIN_VALUE) {
+      size = 0;
+    } else {
+      size = floorPosition(key - 1) + 1;
+    }
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * The following methods may only be called if the map is not empty.
+   */
+  long lastKey() {
+    return keys[size - 1];
+  }
+
+  long lastValue() {
+    return values[size - 1];
+  }
+
+  /**
+   * @return The position of the greatest key less than or equal to the given key, or -1 if there is none.
+   */
+  private int floorPosition(long key) {
+    if (size == 0 || key >= keys[size - 1]) {
+      return size - 1;
+    }
+
+    final int position = Arrays.binarySearch(keys, 0, size, key);
+    return position >= 0 ? position : -(position + 1) - 1;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > keys.length) {
+      final int newCapacity = Math.max(capacity, keys.length * 2);
+      keys = Arrays.copyOf(keys, newCapacity);
+      values = Arrays.copyOf(values, newCapacity);
+    }
+  }
+}
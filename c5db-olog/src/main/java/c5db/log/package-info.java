@@ -31,10 +31,10 @@
  * the log that an individual Replicator sees and uses; in other words, ReplicatorLog
  * describes the logging capabilities needed by the Raft algorithm.
  * <p>
- * At present, the c5db.log package provides one implementation of the Raft log,
- * accessed through interface {@link c5db.log.OLog}; external agents essentially
- * interact with OLog through adapters. The provided implementation is
- * {@link c5db.log.QuorumDelegatingLog}.
+ * The Raft log is accessed through interface {@link c5db.log.OLog}; external agents
+ * essentially interact with OLog through adapters. The c5db.log package provides two
+ * implementations: {@link c5db.log.QuorumDelegatingLog}, and
+ * {@link c5db.log.SharedSegmentLog}.
  * <p>
  * An important concept is that of "quorums." A quorum is essentially what the Raft
  * algorithm describes as a "cluster." It is the set of independent entities (what
@@ -64,9 +64,10 @@
  * which writes the log(s) to local file system files. QuorumDelegatingLog is
  * so named because it gives each quorum its own local log file, and distributes
  * log actions (appends, truncations, rolls) to each as necessary. This simplifies
- * the implementation at the cost of locality of writes. A different implementation
- * of OLog and of LogPersistenceService could choose to put different quorums'
- * entries in the same physical file.
+ * the implementation at the cost of locality of writes. SharedSegmentLog, on the
+ * other hand, interleaves all quorums' entries in the same sequence of physical
+ * files ("segments"), keeping an index for each quorum in memory, so that writes
+ * on behalf of many quorums remain sequential.
  * <p>
  * The file-like abstraction used internally is
  * {@link c5db.log.LogPersistenceService.BytePersistence}. Operations with the
@@ -79,6 +79,24 @@ public class EncodedSequentialLogTest {
     log.append(nConsecutiveEntries(5));
   }
 
+  @Test
+  public void appendsABatchOfEntriesWithOneCallToThePersistenceAndNotifiesTheNavigatorOfEachAddress()
+      throws Exception {
+    context.checking(new Expectations() {{
+      allowing(codec).encode(with(any(OLogEntry.class)));
+      will(returnValue(new ByteBuffer[]{ByteBuffer.allocate(4), ByteBuffer.allocate(6)}));
+      allowing(persistence).size();
+      will(returnValue(100L));
+
+      oneOf(navigator).notifyLogging(1L, 100L);
+      oneOf(navigator).notifyLogging(2L, 110L);
+      oneOf(navigator).notifyLogging(3L, 120L);
+      oneOf(persistence).append(with(any(ByteBuffer[].class)));
+    }});
+
+    log.append(nConsecutiveEntries(3));
+  }
+
   @Test
   public void notifiesTheNavigatorWhenTruncating() throws Exception {
     long truncationSeqNum = 33;
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import c5db.C5CommonTestUtil;
+import c5db.generated.OLogChecksumType;
+import com.google.common.collect.Lists;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static c5db.log.LogPersistenceService.BytePersistence;
+
+/**
+ * Measures the CPU time and heap allocation per entry of encoding OLogEntry batches with OLogEntry.Codec,
+ * using each checksum type, and of appending them, through an EncodedSequentialLog, to a FilePersistence. Allocation is measured
+ * with the HotSpot-specific com.sun.management.ThreadMXBean, so this class must be run on a HotSpot JVM.
+ * <p>
+ * Each configuration is repeated several times, and the first repetitions are discarded as warm-up.
+ */
+public class EntryEncodingPerformanceMeasurement {
+  private static final int[] CONTENT_SIZES = {64, 1024, 16384};
+  private static final int BATCH_SIZE = 64;
+  private static final int BATCHES = 2000;
+
+  private static final int WARM_UP_RUNS = 3;
+  private static final int MEASURED_RUNS = 5;
+
+  private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) throws Exception {
+    final Path directory = new C5CommonTestUtil().getDataTestDir("entry-encoding-measurement");
+    Files.createDirectories(directory);
+
+    for (OLogChecksumType checksumType : OLogChecksumType.values()) {
+      for (int contentSize : CONTENT_SIZES) {
+        measureCodec(directory, checksumType, contentSize);
+      }
+    }
+  }
+
+  private static void measureCodec(Path directory, OLogChecksumType checksumType, int contentSize)
+      throws Exception {
+    final List<List<OLogEntry>> batches = makeBatches(contentSize);
+    final SequentialEntryCodec<OLogEntry> codec = new OLogEntry.Codec(checksumType);
+
+    measure("encode", checksumType, contentSize, () -> {
+      for (List<OLogEntry> batch : batches) {
+        for (OLogEntry entry : batch) {
+          codec.encode(entry);
+        }
+      }
+    });
+
+    final Path logPath = directory.resolve("log-" + contentSize);
+    measure("encode and append", checksumType, contentSize, () -> {
+      Files.deleteIfExists(logPath);
+      try (BytePersistence persistence = new FilePersistence(logPath)) {
+        final SequentialLog<OLogEntry> log = new EncodedSequentialLog<>(persistence, codec,
+            new InMemoryPersistenceNavigator<>(persistence, codec));
+        for (List<OLogEntry> batch : batches) {
+          log.append(batch);
+        }
+      }
+    });
+    Files.deleteIfExists(logPath);
+  }
+
+  private static void measure(String name, OLogChecksumType checksumType, int contentSize, Workload workload)
+      throws Exception {
+    final long entries = (long) BATCH_SIZE * BATCHES;
+    final long threadId = Thread.currentThread().getId();
+    long totalNanos = 0;
+    long totalBytes = 0;
+
+    for (int run = 0; run < WARM_UP_RUNS + MEASURED_RUNS; run++) {
+      final long bytesBefore = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+      final long start = System.nanoTime();
+
+      workload.run();
+
+      final long nanos = System.nanoTime() - start;
+      final long bytes = THREAD_BEAN.getThreadAllocatedBytes(threadId) - bytesBefore;
+      if (run >= WARM_UP_RUNS) {
+        totalNanos += nanos;
+        totalBytes += bytes;
+      }
+    }
+
+    System.out.format("%-18s %-7s content %6d bytes: %8.1f ns/entry, %8.1f bytes allocated/entry%n",
+        name,
+        checksumType,
+        contentSize,
+        (double) totalNanos / MEASURED_RUNS / entries,
+        (double) totalBytes / MEASURED_RUNS / entries);
+  }
+
+  private static List<List<OLogEntry>> makeBatches(int contentSize) {
+    final List<List<OLogEntry>> batches = new ArrayList<>(BATCHES);
+    final ByteBuffer content = ByteBuffer.allocate(contentSize);
+    long seqNum = 1;
+
+    for (int i = 0; i < BATCHES; i++) {
+      final List<OLogEntry> batch = new ArrayList<>(BATCH_SIZE);
+      for (int j = 0; j < BATCH_SIZE; j++) {
+        batch.add(new OLogEntry(seqNum, 1 + seqNum / 1000, new OLogRawDataContent(Lists.newArrayList(content))));
+        seqNum++;
+      }
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  private interface Workload {
+    void run() throws Exception;
+  }
+}
@@ -19,6 +19,8 @@ package c5db.log;
 
 import c5db.generated.OLogContentType;
 import c5db.generated.OLogEntryHeader;
+import c5db.generated.OLogHeader;
+import c5db.interfaces.replication.QuorumConfiguration;
 import io.protostuff.Schema;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
@@ -32,6 +34,7 @@ import java.io.PipedOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.List;
 
 import static c5db.log.EntryEncodingUtil.decodeAndCheckCrc;
@@ -59,6 +62,27 @@ public class EntryEncodingUtilTest {
     assertThat(decodedMessage, is(theSameMessageAs(TEST_ENTRY)));
   }
 
+  @Test
+  public void decodesMessagesWhoseLengthRequiresAMultiByteLengthPrefix() throws IOException {
+    final InputStream readFromMe = new PipedInputStream(pipedOutputStream, 4096);
+    final WritableByteChannel writeToMe = Channels.newChannel(pipedOutputStream);
+    final OLogHeader header = new OLogHeader(1, 1, QuorumConfiguration.of(manyPeerIds()).toProtostuff(), 0, null, 0, 0);
+
+    writeAllToChannel(encodeWithLengthAndCrc(OLogHeader.getSchema(), header), writeToMe);
+
+    final OLogHeader decodedHeader = decodeAndCheckCrc(readFromMe, OLogHeader.getSchema());
+    assertThat(QuorumConfiguration.fromProtostuff(decodedHeader.getBaseConfiguration()),
+        is(QuorumConfiguration.of(manyPeerIds())));
+  }
+
+  private static List<Long> manyPeerIds() {
+    final List<Long> peerIds = new ArrayList<>();
+    for (long peerId = 1; peerId <= 100; peerId++) {
+      peerIds.add(peerId * 1_000_000_007L);
+    }
+    return peerIds;
+  }
+
   private static Matcher<OLogEntryHeader> theSameMessageAs(OLogEntryHeader message) {
     return new TypeSafeMatcher<OLogEntryHeader>() {
       @Override
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static c5db.FutureMatchers.resultsIn;
+import static c5db.FutureMatchers.resultsInException;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@SuppressWarnings("unchecked")
+public class GroupCommitSyncerTest {
+  @Rule
+  public JUnitRuleMockery context = new JUnitRuleMockery() {{
+    setThreadingPolicy(new Synchroniser());
+  }};
+
+  private final SequentialLog<OLogEntry> logA = context.mock(SequentialLog.class, "logA");
+  private final SequentialLog<OLogEntry> logB = context.mock(SequentialLog.class, "logB");
+
+  private final GroupCommitSyncer syncer = new GroupCommitSyncer(50, TimeUnit.MILLISECONDS, Long.MAX_VALUE);
+
+  @After
+  public void closeSyncer() {
+    syncer.close();
+  }
+
+  @Test(timeout = 3000)
+  public void syncsEachLogOnceForAllRequestsWithinTheWindowAndThenCompletesTheirFutures() throws Exception {
+    context.checking(new Expectations() {{
+      oneOf(logA).sync();
+      oneOf(logB).sync();
+    }});
+
+    SettableFuture<Boolean> firstA = SettableFuture.create();
+    SettableFuture<Boolean> secondA = SettableFuture.create();
+    SettableFuture<Boolean> firstB = SettableFuture.create();
+
+    syncer.requestSync(logA, 0, firstA);
+    syncer.requestSync(logB, 0, firstB);
+    syncer.requestSync(logA, 0, secondA);
+
+    assertThat(firstA, resultsIn(equalTo(true)));
+    assertThat(secondA, resultsIn(equalTo(true)));
+    assertThat(firstB, resultsIn(equalTo(true)));
+    assertThat(syncer.getSyncCount(), equalTo(2L));
+  }
+
+  @Test(timeout = 3000)
+  public void syncsWithoutWaitingForTheWindowOnceTheByteThresholdIsReached() throws Exception {
+    GroupCommitSyncer byteLimitedSyncer = new GroupCommitSyncer(1, TimeUnit.HOURS, 100);
+
+    context.checking(new Expectations() {{
+      oneOf(logA).sync();
+    }});
+
+    try {
+      SettableFuture<Boolean> durableFuture = SettableFuture.create();
+      byteLimitedSyncer.requestSync(logA, 100, durableFuture);
+      assertThat(durableFuture, resultsIn(equalTo(true)));
+    } finally {
+      byteLimitedSyncer.close();
+    }
+  }
+
+  @Test(timeout = 3000)
+  public void failsTheFuturesOfRequestsWhoseLogFailsToSync() throws Exception {
+    context.checking(new Expectations() {{
+      oneOf(logA).sync();
+      will(throwException(new IOException("sync failed")));
+
+      oneOf(logB).sync();
+    }});
+
+    SettableFuture<Boolean> futureA = SettableFuture.create();
+    SettableFuture<Boolean> futureB = SettableFuture.create();
+
+    syncer.requestSync(logA, 0, futureA);
+    syncer.requestSync(logB, 0, futureB);
+
+    assertThat(futureA, resultsInException(IOException.class));
+    assertThat(futureB, resultsIn(equalTo(true)));
+  }
+
+  @Test(timeout = 3000)
+  public void satisfiesPendingRequestsWhenClosed() throws Exception {
+    GroupCommitSyncer slowSyncer = new GroupCommitSyncer(1, TimeUnit.HOURS, Long.MAX_VALUE);
+
+    context.checking(new Expectations() {{
+      oneOf(logA).sync();
+    }});
+
+    SettableFuture<Boolean> durableFuture = SettableFuture.create();
+    slowSyncer.requestSync(logA, 0, durableFuture);
+    slowSyncer.close();
+
+    assertThat(durableFuture, resultsIn(equalTo(true)));
+  }
+
+  @Test(timeout = 3000)
+  public void satisfiesTheRequestsForARetiredLogAtOnceAndLeavesTheRestPending() throws Exception {
+    GroupCommitSyncer slowSyncer = new GroupCommitSyncer(1, TimeUnit.HOURS, Long.MAX_VALUE);
+
+    context.checking(new Expectations() {{
+      oneOf(logA).sync();
+      oneOf(logB).sync();
+    }});
+
+    SettableFuture<Boolean> futureA = SettableFuture.create();
+    SettableFuture<Boolean> futureB = SettableFuture.create();
+
+    try {
+      slowSyncer.requestSync(logA, 0, futureA);
+      slowSyncer.requestSync(logB, 0, futureB);
+      slowSyncer.retire(logA);
+
+      assertThat(futureA.isDone(), is(true));
+      assertThat(futureA, resultsIn(equalTo(true)));
+      assertThat(futureB.isDone(), is(false));
+    } finally {
+      slowSyncer.close();
+    }
+
+    assertThat(futureB, resultsIn(equalTo(true)));
+  }
+}
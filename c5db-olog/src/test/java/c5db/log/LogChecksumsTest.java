@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import c5db.generated.OLogChecksumType;
+import c5db.generated.OLogHeader;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.Checksum;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+public class LogChecksumsTest {
+  private static final byte[] CHECK_INPUT = "123456789".getBytes(StandardCharsets.US_ASCII);
+  private static final long CRC32C_CHECK_VALUE = 0xE3069283L;
+
+  private final byte[] randomBytes = new byte[10000];
+
+  {
+    new Random(4).nextBytes(randomBytes);
+  }
+
+  @Test
+  public void computesTheStandardCrc32cCheckValue() {
+    Checksum crc = LogChecksums.create(OLogChecksumType.CRC32C);
+    crc.update(CHECK_INPUT, 0, CHECK_INPUT.length);
+
+    assertThat(crc.getValue(), is(equalTo(CRC32C_CHECK_VALUE)));
+  }
+
+  @Test
+  public void pureJavaCrc32cComputesTheStandardCheckValue() {
+    Checksum crc = new PureJavaCrc32C();
+    crc.update(CHECK_INPUT, 0, CHECK_INPUT.length);
+
+    assertThat(crc.getValue(), is(equalTo(CRC32C_CHECK_VALUE)));
+  }
+
+  @Test
+  public void pureJavaCrc32cAgreesWithTheCrc32cInUseForEveryLengthAndAlignment() {
+    for (int offset = 0; offset < 8; offset++) {
+      for (int length = 0; length < 40; length++) {
+        assertThat(crcOf(new PureJavaCrc32C(), offset, length),
+            is(equalTo(crcOf(LogChecksums.create(OLogChecksumType.CRC32C), offset, length))));
+      }
+    }
+  }
+
+  @Test
+  public void computesTheSameChecksumOfDirectAndHeapBuffers() {
+    for (OLogChecksumType type : OLogChecksumType.values()) {
+      ByteBuffer heapBuffer = ByteBuffer.wrap(randomBytes);
+      ByteBuffer directBuffer = ByteBuffer.allocateDirect(randomBytes.length);
+      directBuffer.put(randomBytes).flip();
+
+      assertThat(checksumOf(type, directBuffer), is(equalTo(checksumOf(type, heapBuffer))));
+      assertThat(directBuffer.remaining(), is(equalTo(0)));
+    }
+  }
+
+  @Test
+  public void updatesOnlyWithTheRemainingBytesOfABuffer() {
+    ByteBuffer buffer = ByteBuffer.wrap(randomBytes, 100, 500);
+
+    Checksum crc = LogChecksums.create(OLogChecksumType.CRC32C);
+    crc.update(randomBytes, 100, 500);
+
+    assertThat(checksumOf(OLogChecksumType.CRC32C, buffer), is(equalTo(crc.getValue())));
+  }
+
+  @Test
+  public void usesAdler32ForLogHeadersWhichDoNotSpecifyAChecksumType() {
+    OLogHeader header = new OLogHeader(0, 0, null, 0, null, 0, 0);
+
+    assertThat(LogChecksums.checksumTypeOf(header), is(equalTo(OLogChecksumType.ADLER32)));
+    assertThat(LogChecksums.create(LogChecksums.checksumTypeOf(header)) instanceof Adler32, is(true));
+  }
+
+  private long crcOf(Checksum crc, int offset, int length) {
+    crc.update(randomBytes, offset, length);
+    return crc.getValue();
+  }
+
+  private static long checksumOf(OLogChecksumType type, ByteBuffer buffer) {
+    Checksum crc = LogChecksums.create(type);
+    LogChecksums.update(crc, buffer);
+    return crc.getValue();
+  }
+}
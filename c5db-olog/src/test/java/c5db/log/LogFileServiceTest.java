@@ -152,7 +152,7 @@ public class LogFileServiceTest {
   }
 
   private static OLogHeader anOLogHeaderWithSeqNum(long seqNum) {
-    return new OLogHeader(term(1), seqNum, configurationOf(1, 2, 3));
+    return new OLogHeader(term(1), seqNum, configurationOf(1, 2, 3), 0, null, 0, 0);
   }
 
   private ByteBuffer[] serializedHeader(OLogHeader header) {
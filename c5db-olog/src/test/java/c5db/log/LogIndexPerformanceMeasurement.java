@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import com.google.common.collect.Lists;
+
+import java.nio.ByteBuffer;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Compares a NavigableMap of seqNum to address, as formerly used by InMemoryPersistenceNavigator and
+ * NavigableMapOLogEntryOracle, with SortedLongArrayMap; and measures NavigableMapOLogEntryOracle itself.
+ * <p>
+ * For each structure and each size, this class measures the time to add that many entries, the time
+ * to perform that many floor lookups at random sequence numbers, the time to repeatedly truncate and
+ * re-append a tail of entries, and the heap occupied by the filled structure. Each measurement is
+ * repeated several times, and the first repetitions are discarded as warm-up.
+ */
+public class LogIndexPerformanceMeasurement {
+
+  /**
+   * Numbers of entries to index.
+   */
+  private static final int[] SIZES = {1_000_000, 4_000_000};
+
+  /**
+   * Number of entries in each term; oracles only record an entry when its term differs from the
+   * previous entry's, so this determines the density of the oracles' term maps.
+   */
+  private static final int ENTRIES_PER_TERM = 1;
+
+  /**
+   * Number of entries removed and re-added by each truncation in the truncation measurement, and
+   * the number of such truncations.
+   */
+  private static final int TRUNCATION_LENGTH = 100;
+  private static final int TRUNCATIONS = 10_000;
+
+  private static final int WARM_UP_RUNS = 2;
+  private static final int MEASURED_RUNS = 3;
+
+  private static final OLogContent CONTENT = new OLogRawDataContent(Lists.newArrayList(ByteBuffer.allocate(1)));
+
+  public static void main(String[] args) throws Exception {
+    for (int size : SIZES) {
+      System.out.println("Entries: " + size);
+
+      measureOracle("NavigableMapOLogEntryOracle", NavigableMapOLogEntryOracle::new, size);
+
+      measureIndex("TreeMap<Long, Long>", TreeMapIndex::new, size);
+      measureIndex("SortedLongArrayMap", ArrayMapIndex::new, size);
+
+      System.out.println();
+    }
+  }
+
+  private static void measureOracle(String name, Supplier<OLogEntryOracle> oracleSupplier, int size) {
+    final OLogEntry[] entries = new OLogEntry[size];
+    for (int i = 0; i < size; i++) {
+      final long seqNum = i + 1;
+      entries[i] = new OLogEntry(seqNum, termOf(seqNum), CONTENT);
+    }
+    final long[] lookups = randomSeqNums(size);
+
+    Result result = new Result();
+    for (int run = 0; run < WARM_UP_RUNS + MEASURED_RUNS; run++) {
+      final long heapBefore = usedHeap();
+      final OLogEntryOracle oracle = oracleSupplier.get();
+
+      long start = System.nanoTime();
+      for (OLogEntry entry : entries) {
+        oracle.notifyLogging(entry);
+      }
+      final long fillNanos = System.nanoTime() - start;
+      final long heapBytes = usedHeap() - heapBefore;
+
+      long checksum = 0;
+      start = System.nanoTime();
+      for (long seqNum : lookups) {
+        checksum += oracle.getTermAtSeqNum(seqNum);
+      }
+      final long lookupNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < TRUNCATIONS; i++) {
+        oracle.notifyTruncation(size - TRUNCATION_LENGTH + 1);
+        for (int j = size - TRUNCATION_LENGTH; j < size; j++) {
+          oracle.notifyLogging(entries[j]);
+        }
+      }
+      final long truncationNanos = System.nanoTime() - start;
+
+      if (run >= WARM_UP_RUNS) {
+        result.add(fillNanos, lookupNanos, truncationNanos, heapBytes);
+      }
+      result.checksum += checksum;
+    }
+
+    result.print(name, size);
+  }
+
+  private static void measureIndex(String name, Supplier<AddressIndex> indexSupplier, int size) {
+    final long[] lookups = randomSeqNums(size);
+
+    Result result = new Result();
+    for (int run = 0; run < WARM_UP_RUNS + MEASURED_RUNS; run++) {
+      final long heapBefore = usedHeap();
+      final AddressIndex index = indexSupplier.get();
+
+      long start = System.nanoTime();
+      for (long seqNum = 1; seqNum <= size; seqNum++) {
+        index.put(seqNum, addressOf(seqNum));
+      }
+      final long fillNanos = System.nanoTime() - start;
+      final long heapBytes = usedHeap() - heapBefore;
+
+      long checksum = 0;
+      start = System.nanoTime();
+      for (long seqNum : lookups) {
+        checksum += index.floorAddress(seqNum);
+      }
+      final long lookupNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < TRUNCATIONS; i++) {
+        index.removeFrom(size - TRUNCATION_LENGTH + 1);
+        for (long seqNum = size - TRUNCATION_LENGTH + 1; seqNum <= size; seqNum++) {
+          index.put(seqNum, addressOf(seqNum));
+        }
+      }
+      final long truncationNanos = System.nanoTime() - start;
+
+      if (run >= WARM_UP_RUNS) {
+        result.add(fillNanos, lookupNanos, truncationNanos, heapBytes);
+      }
+      result.checksum += checksum;
+    }
+
+    result.print(name, size);
+  }
+
+  private static long termOf(long seqNum) {
+    return 1 + seqNum / ENTRIES_PER_TERM;
+  }
+
+  private static long addressOf(long seqNum) {
+    return seqNum * 64;
+  }
+
+  private static long[] randomSeqNums(int size) {
+    final Random random = new Random(31);
+    final long[] seqNums = new long[size];
+    for (int i = 0; i < size; i++) {
+      seqNums[i] = 1 + random.nextInt(size);
+    }
+    return seqNums;
+  }
+
+  private static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * The operations a PersistenceNavigator performs on its index of seqNum to address.
+   */
+  private interface AddressIndex {
+    void put(long seqNum, long address);
+
+    long floorAddress(long seqNum);
+
+    void removeFrom(long seqNum);
+  }
+
+  private static class TreeMapIndex implements AddressIndex {
+    private final NavigableMap<Long, Long> map = new TreeMap<>();
+
+    @Override
+    public void put(long seqNum, long address) {
+      map.put(seqNum, address);
+    }
+
+    @Override
+    public long floorAddress(long seqNum) {
+      return map.floorEntry(seqNum).getValue();
+    }
+
+    @Override
+    public void removeFrom(long seqNum) {
+      map.tailMap(seqNum, true).clear();
+    }
+  }
+
+  private static class ArrayMapIndex implements AddressIndex {
+    private final SortedLongArrayMap map = new SortedLongArrayMap();
+
+    @Override
+    public void put(long seqNum, long address) {
+      map.put(seqNum, address);
+    }
+
+    @Override
+    public long floorAddress(long seqNum) {
+      return map.floorValue(seqNum, 0);
+    }
+
+    @Override
+    public void removeFrom(long seqNum) {
+      map.removeFrom(seqNum);
+    }
+  }
+
+  private static class Result {
+    private long fillNanos;
+    private long lookupNanos;
+    private long truncationNanos;
+    private long heapBytes;
+    private int runs;
+    public long checksum;
+
+    public void add(long fillNanos, long lookupNanos, long truncationNanos, long heapBytes) {
+      this.fillNanos += fillNanos;
+      this.lookupNanos += lookupNanos;
+      this.truncationNanos += truncationNanos;
+      this.heapBytes += heapBytes;
+      runs++;
+    }
+
+    public void print(String name, int size) {
+      System.out.format("  %-28s fill %7.1f ns/entry   floor lookup %7.1f ns   truncate+refill %9.1f us   heap %6.1f MiB   (%d)%n",
+          name,
+          (double) fillNanos / runs / size,
+          (double) lookupNanos / runs / size,
+          (double) truncationNanos / runs / TRUNCATIONS / 1000,
+          (double) heapBytes / runs / (1024 * 1024),
+          checksum % 10);
+    }
+  }
+}
@@ -18,6 +18,7 @@
 package c5db.log;
 
 import c5db.C5CommonTestUtil;
+import c5db.LogConstants;
 import c5db.interfaces.replication.QuorumConfiguration;
 import c5db.interfaces.replication.ReplicatorLog;
 import c5db.util.CheckedConsumer;
@@ -26,8 +27,10 @@ import com.google.common.collect.Lists;
 import org.hamcrest.core.Is;
 import org.junit.Test;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
 import static c5db.FutureMatchers.resultsIn;
 import static c5db.log.LogMatchers.aListOfEntriesWithConsecutiveSeqNums;
@@ -114,6 +117,29 @@ public class LogIntegratedPersistenceTest {
     });
   }
 
+  @Test
+  public void termAndConfigurationInformationIsRecoveredFromTheLogIfItsIndexIsCorrupt() throws Exception {
+    final QuorumConfiguration configuration = QuorumConfiguration.of(Lists.newArrayList(1L, 2L, 3L));
+
+    withReplicatorLog((log) -> {
+      log.logEntries(
+          entries()
+              .term(17).indexes(1, 2)
+              .term(18).configurationAndIndex(configuration, 3)
+              .term(19).indexes(4, 5).build());
+    });
+
+    corruptIndexFiles();
+
+    withReplicatorLog((log) -> {
+      assertThat(log.getLastIndex(), is(equalTo(5L)));
+      assertThat(log.getLogTerm(2), is(equalTo(17L)));
+      assertThat(log.getLastTerm(), is(equalTo(19L)));
+      assertThat(log.getLastConfiguration(), is(equalTo(configuration)));
+      assertThat(log.getLastConfigurationIndex(), is(equalTo(3L)));
+    });
+  }
+
   @Test(expected = RuntimeException.class)
   public void informationAboutWhatSequenceNumberComesNextIsPersistedSoThatAnIncorrectSeqNumCanBeCaught()
       throws Exception {
@@ -180,6 +206,18 @@ public class LogIntegratedPersistenceTest {
         assertThat(oLog.getLogEntries(1, 6, QUORUM_ID), resultsIn(aListOfEntriesWithConsecutiveSeqNums(1, 6))));
   }
 
+  private void corruptIndexFiles() throws Exception {
+    try (Stream<Path> paths = Files.walk(testDirectory)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        if (path.toString().endsWith(LogConstants.LOG_INDEX_FILE_SUFFIX)) {
+          byte[] bytes = Files.readAllBytes(path);
+          bytes[bytes.length / 2] ^= 0xFF;
+          Files.write(path, bytes);
+        }
+      }
+    }
+  }
+
   private void withReplicatorLog(CheckedConsumer<ReplicatorLog, Exception> useLog) throws Exception {
     try (OLog oLog = getOLog()) {
       useLog.accept(new Mooring(oLog, QUORUM_ID));
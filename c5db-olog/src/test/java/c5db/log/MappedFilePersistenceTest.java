@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import c5db.C5CommonTestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static c5db.log.LogPersistenceService.PersistenceReader;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class MappedFilePersistenceTest {
+  private final Path testDirectory = (new C5CommonTestUtil()).getDataTestDir("mapped-file-persistence-test");
+  private static final long GROWTH_STEP_BYTES = 4;
+
+  private final MappedRegionCache mappedRegionCache = new MappedRegionCache(2, GROWTH_STEP_BYTES);
+
+  private Path path;
+  private FilePersistence persistence;
+
+  @Before
+  public void createPersistence() throws Exception {
+    Files.createDirectories(testDirectory);
+    path = testDirectory.resolve("log");
+    Files.deleteIfExists(path);
+    persistence = new FilePersistence(path, mappedRegionCache);
+  }
+
+  @After
+  public void closePersistence() throws Exception {
+    persistence.close();
+    Files.deleteIfExists(path);
+  }
+
+  @Test
+  public void readsAppendedDataFromTheMappedRegion() throws Exception {
+    persistence.append(buffersOf(1, 2, 3, 4));
+
+    try (PersistenceReader reader = persistence.getReader()) {
+      ByteBuffer readBuffer = ByteBuffer.allocate(4);
+      assertThat(reader.read(readBuffer), is(equalTo(4)));
+      assertThat(readBuffer.array(), is(equalTo(new byte[]{1, 2, 3, 4})));
+      assertThat(reader.read(ByteBuffer.allocate(1)), is(equalTo(-1)));
+    }
+  }
+
+  @Test
+  public void remapsToIncludeDataAppendedAfterThePreviousReaderWasCreated() throws Exception {
+    persistence.append(buffersOf(1, 2));
+    persistence.getReader().close();
+    persistence.append(buffersOf(3, 4));
+
+    try (PersistenceReader reader = persistence.getReader()) {
+      reader.position(2);
+      assertThat(reader.asInputStream().read(), is(equalTo(3)));
+      assertThat(reader.position(), is(equalTo(3L)));
+    }
+  }
+
+  @Test
+  public void sharesItsPositionBetweenTheReaderAndItsInputStream() throws Exception {
+    persistence.append(buffersOf(1, 2, 3, 4, 5));
+
+    try (PersistenceReader reader = persistence.getReader();
+         InputStream inputStream = reader.asInputStream()) {
+      assertThat(inputStream.skip(3), is(equalTo(3L)));
+      assertThat(reader.position(), is(equalTo(3L)));
+
+      reader.position(1);
+      assertThat(inputStream.read(), is(equalTo(2)));
+    }
+  }
+
+  @Test
+  public void readsTheTruncatedContentAfterTruncationAndFurtherAppends() throws Exception {
+    persistence.append(buffersOf(1, 2, 3, 4));
+    persistence.getReader().close();
+    persistence.truncate(2);
+    persistence.append(buffersOf(7, 8));
+
+    try (PersistenceReader reader = persistence.getReader()) {
+      ByteBuffer readBuffer = ByteBuffer.allocate(4);
+      reader.read(readBuffer);
+      assertThat(readBuffer.array(), is(equalTo(new byte[]{1, 2, 7, 8})));
+    }
+  }
+
+  @Test
+  public void sharesOneMappingAmongPersistenceObjectsReferringToTheSameFile() throws Exception {
+    persistence.append(buffersOf(1, 2, 3));
+
+    try (FilePersistence anotherPersistence = new FilePersistence(path, mappedRegionCache);
+         PersistenceReader reader = anotherPersistence.getReader()) {
+      assertThat(reader.asInputStream().read(), is(equalTo(1)));
+    }
+  }
+
+  @Test
+  public void readsTheDataBeyondTheMappedRegionOfAGrowingFileFromTheFile() throws Exception {
+    persistence.append(buffersOf(1, 2, 3, 4, 5, 6));
+
+    try (PersistenceReader reader = persistence.getReader()) {
+      byte[] bytes = new byte[6];
+      new DataInputStream(reader.asInputStream()).readFully(bytes);
+
+      assertThat(bytes, is(equalTo(new byte[]{1, 2, 3, 4, 5, 6})));
+      assertThat(reader.position(), is(equalTo(6L)));
+      assertThat(reader.read(ByteBuffer.allocate(1)), is(equalTo(-1)));
+    }
+  }
+
+  @Test
+  public void seeksAndSkipsIntoTheDataBeyondTheMappedRegion() throws Exception {
+    persistence.append(buffersOf(1, 2, 3, 4, 5, 6));
+
+    try (PersistenceReader reader = persistence.getReader();
+         InputStream inputStream = reader.asInputStream()) {
+      reader.position(5);
+      assertThat(inputStream.read(), is(equalTo(6)));
+
+      reader.position(2);
+      assertThat(inputStream.skip(3), is(equalTo(3L)));
+      assertThat(reader.position(), is(equalTo(5L)));
+    }
+  }
+
+  @Test
+  public void mapsAGrowingFileInWholeGrowthStepsAndAnImmutableFileAtItsExactSize() throws Exception {
+    persistence.append(buffersOf(1, 2, 3, 4, 5, 6));
+
+    assertThat(mappedRegionCache.getRegion(path, 6).limit(), is(equalTo(4)));
+
+    mappedRegionCache.markImmutable(path);
+    assertThat(mappedRegionCache.getRegion(path, 6).limit(), is(equalTo(6)));
+  }
+
+  @Test
+  public void appendsEveryBufferWhenGivenMoreBuffersThanOneGatheringWriteMayAccept() throws Exception {
+    final int bufferCount = 5000;
+    final ByteBuffer[] buffers = new ByteBuffer[bufferCount];
+    for (int i = 0; i < bufferCount; i++) {
+      buffers[i] = buffersOf(i % 128)[0];
+    }
+
+    persistence.append(buffers);
+    assertThat(persistence.size(), is(equalTo((long) bufferCount)));
+
+    try (PersistenceReader reader = persistence.getReader()) {
+      reader.position(bufferCount - 1);
+      assertThat(reader.asInputStream().read(), is(equalTo((bufferCount - 1) % 128)));
+    }
+  }
+
+  private static ByteBuffer[] buffersOf(int... bytes) {
+    ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+    for (int b : bytes) {
+      buffer.put((byte) b);
+    }
+    buffer.flip();
+    return new ByteBuffer[]{buffer};
+  }
+}
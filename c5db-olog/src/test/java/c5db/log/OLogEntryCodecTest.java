@@ -17,6 +17,7 @@
 
 package c5db.log;
 
+import c5db.generated.OLogChecksumType;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -79,6 +80,25 @@ public class OLogEntryCodecTest {
     assertThat(reconstructedEntry, is(equalTo(configurationEntry)));
   }
 
+  @Test
+  public void decodesEntriesItEncodesWithCrc32cChecksums() throws Exception {
+    final SequentialEntryCodec<OLogEntry> crc32cCodec = new OLogEntry.Codec(OLogChecksumType.CRC32C);
+    final OLogEntry entryToEncode = anOLogEntry();
+
+    writeBuffersToPipe(crc32cCodec.encode(entryToEncode), writeToMe);
+
+    OLogEntry reconstructedEntry = crc32cCodec.decode(readFromMe);
+    assertThat(reconstructedEntry, is(equalTo(entryToEncode)));
+  }
+
+  @Test(expected = EntryEncodingUtil.CrcError.class)
+  public void rejectsEntriesEncodedWithADifferentChecksumType() throws Exception {
+    final SequentialEntryCodec<OLogEntry> crc32cCodec = new OLogEntry.Codec(OLogChecksumType.CRC32C);
+
+    writeBuffersToPipe(crc32cCodec.encode(anOLogEntry()), writeToMe);
+
+    codec.decode(readFromMe);
+  }
 
   private static void writeBuffersToPipe(ByteBuffer[] buffers, WritableByteChannel byteChannel) throws Exception {
     for (ByteBuffer b : buffers) {
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import org.junit.Test;
+
+import static c5db.log.LogTestUtil.someConsecutiveEntries;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class OLogIndexTest {
+  private static final long BASE_SEQ_NUM = 10;
+  private static final long BASE_TERM = 5;
+
+  private final ByteArrayPersistence sidecar = new ByteArrayPersistence();
+
+  @Test
+  public void recordsTheAddressAndTermOfEachEntryAndMarksTermChanges() throws Exception {
+    OLogIndex index = indexWithEntries(11, 15);
+
+    assertThat(index.getLastSeqNum(), is(equalTo(14L)));
+    assertThat(index.getAddress(12), is(equalTo(addressOf(12))));
+    assertThat(index.getTerm(13), is(equalTo(7L)));
+
+    assertThat(index.hasFlag(11, OLogIndex.FLAG_TERM_CHANGE), is(true));
+    assertThat(index.hasFlag(12, OLogIndex.FLAG_TERM_CHANGE), is(true));
+    assertThat(index.hasFlag(13, OLogIndex.FLAG_TERM_CHANGE), is(false));
+    assertThat(index.hasFlag(13, OLogIndex.FLAG_CONFIGURATION), is(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void throwsAnExceptionIfEntriesAreAddedOutOfSequence() throws Exception {
+    OLogIndex index = indexWithEntries(11, 13);
+    index.add(someConsecutiveEntries(14, 15).get(0), addressOf(14));
+  }
+
+  @Test
+  public void canBeWrittenAndReadBackFromItsPersistence() throws Exception {
+    indexWithEntries(11, 21).writeTo(sidecar);
+
+    OLogIndex readIndex = OLogIndex.readFrom(sidecar, BASE_SEQ_NUM, BASE_TERM);
+
+    assertThat(readIndex, is(notNullValue()));
+    assertThat(readIndex.getLastSeqNum(), is(equalTo(20L)));
+    assertThat(readIndex.getAddress(17), is(equalTo(addressOf(17))));
+    assertThat(readIndex.getTerm(20), is(equalTo(11L)));
+    assertThat(readIndex.isDirty(), is(false));
+  }
+
+  @Test
+  public void isNotReadBackIfItsPersistenceHasBeenCorrupted() throws Exception {
+    indexWithEntries(11, 21).writeTo(sidecar);
+    sidecar.overwrite((int) sidecar.size() / 2, 0xFF);
+
+    assertThat(OLogIndex.readFrom(sidecar, BASE_SEQ_NUM, BASE_TERM), is(nullValue()));
+  }
+
+  @Test
+  public void isNotReadBackForALogWithADifferentBaseSeqNum() throws Exception {
+    indexWithEntries(11, 21).writeTo(sidecar);
+
+    assertThat(OLogIndex.readFrom(sidecar, BASE_SEQ_NUM + 1, BASE_TERM), is(nullValue()));
+  }
+
+  @Test
+  public void isNotReadBackIfItsPersistenceIsIncomplete() throws Exception {
+    indexWithEntries(11, 21).writeTo(sidecar);
+    sidecar.truncate(sidecar.size() - 1);
+
+    assertThat(OLogIndex.readFrom(sidecar, BASE_SEQ_NUM, BASE_TERM), is(nullValue()));
+  }
+
+  @Test
+  public void acceptsNewEntriesAfterTruncation() throws Exception {
+    OLogIndex index = indexWithEntries(11, 21);
+
+    index.truncate(15);
+    assertThat(index.getLastSeqNum(), is(equalTo(14L)));
+    assertThat(index.contains(15), is(false));
+
+    index.add(someConsecutiveEntries(15, 16).get(0), addressOf(15));
+    assertThat(index.getLastSeqNum(), is(equalTo(15L)));
+  }
+
+  private static OLogIndex indexWithEntries(long start, long end) {
+    OLogIndex index = new OLogIndex(BASE_SEQ_NUM, BASE_TERM);
+    for (OLogEntry entry : someConsecutiveEntries(start, end)) {
+      index.add(entry, addressOf(entry.getSeqNum()));
+    }
+    return index;
+  }
+
+  private static long addressOf(long seqNum) {
+    return seqNum * 100;
+  }
+}
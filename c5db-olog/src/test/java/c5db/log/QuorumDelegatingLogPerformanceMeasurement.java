@@ -22,6 +22,7 @@ import c5db.util.KeySerializingExecutor;
 import c5db.util.WrappingKeySerializingExecutor;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -31,7 +32,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static c5db.log.ReplicatorLogGenericTestUtil.term;
 import static com.google.common.math.IntMath.pow;
@@ -44,6 +47,10 @@ import static java.util.concurrent.Executors.newFixedThreadPool;
  * This class logs several messages of various sizes and measures the total time it takes to complete
  * the log workload. Each quorum uses the same "script" of log entries, and entries are logged
  * one-at-a-time, cycling round robin through the different quorums.
+ * <p>
+ * Each configuration is run twice: once without syncing, and once with a {@link GroupCommitSyncer},
+ * so that the cost of durability, and the latency added by the group commit window, can be compared.
+ * The latency of an append is measured from the call to logEntries until its future completes.
  */
 public class QuorumDelegatingLogPerformanceMeasurement {
 
@@ -76,19 +83,29 @@ public class QuorumDelegatingLogPerformanceMeasurement {
    */
   private static final boolean DYNAMIC_THROTTLING_DURING_TIMED_RUN = true;
 
+  /**
+   * Group commit window parameters used for the runs with a GroupCommitSyncer.
+   */
+  private static final long GROUP_COMMIT_WINDOW_MICROS = 1000;
+  private static final long GROUP_COMMIT_WINDOW_BYTES = 1024 * 1024;
+
   /**
    * Execute a script of several timed runs, each with its own warmup.
    */
   public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
     List<Integer> logSequence = constructLogSequence(SMALLEST_MESSAGE_SIZE_LOG_2, LARGEST_MESSAGE_SIZE_LOG_2);
 
+    System.out.println("quorums\tthreads\tgroupCommit\tMiB/s\tmeanLatencyMs\tp99LatencyMs\tsyncs");
+
     for (int numQuorums = 50; numQuorums >= 5; numQuorums -= 5) {
-      QuorumDelegatingLogPerformanceMeasurement fixture =
-          new QuorumDelegatingLogPerformanceMeasurement(numQuorums, THREAD_POOL_SIZE, logSequence);
-      fixture.outputTotalSizeThatWillBeWritten();
-      fixture.outputMessageSequenceStatistics();
-      fixture.doWarmUp();
-      fixture.doTimedRun();
+      for (boolean groupCommit : new boolean[]{false, true}) {
+        QuorumDelegatingLogPerformanceMeasurement fixture =
+            new QuorumDelegatingLogPerformanceMeasurement(numQuorums, THREAD_POOL_SIZE, logSequence, groupCommit);
+        fixture.outputTotalSizeThatWillBeWritten();
+        fixture.outputMessageSequenceStatistics();
+        fixture.doWarmUp();
+        fixture.doTimedRun();
+      }
     }
   }
 
@@ -97,15 +114,21 @@ public class QuorumDelegatingLogPerformanceMeasurement {
   private final long numberOfLogCallsBetweenSleeps;
   private final int numThreads;
   private final int numQuorums;
+  private final boolean groupCommit;
   private final List<String> quorumList;
   private final Path testDir = (new C5CommonTestUtil()).getDataTestDir("benchmark");
 
+  private final ConcurrentLinkedQueue<Long> appendLatenciesNanos = new ConcurrentLinkedQueue<>();
+
   private long dynamicSleepIntervalMillis = 50;
+  private GroupCommitSyncer groupCommitSyncer;
 
-  public QuorumDelegatingLogPerformanceMeasurement(int numQuorums, int numThreads, List<Integer> logSequence) {
+  public QuorumDelegatingLogPerformanceMeasurement(int numQuorums, int numThreads, List<Integer> logSequence,
+                                                   boolean groupCommit) {
     this.numQuorums = numQuorums;
     this.numThreads = numThreads;
     this.logSequence = logSequence;
+    this.groupCommit = groupCommit;
     quorumList = getQuorumIds(numQuorums);
     totalMessageSizeB = computeTotalMessageSizeInBytes();
     numberOfLogCallsBetweenSleeps = calculateNumberOfLogCallsBetweenSleeps();
@@ -127,6 +150,7 @@ public class QuorumDelegatingLogPerformanceMeasurement {
   private void doTimedRun()
       throws IOException, InterruptedException, ExecutionException {
     detailPrintln("Beginning timed run");
+    appendLatenciesNanos.clear();
     long elapsedNanoseconds = doLogRun(DYNAMIC_THROTTLING_DURING_TIMED_RUN);
     detailPrintln("Finished timed run");
     detailPrintln("---");
@@ -154,7 +178,10 @@ public class QuorumDelegatingLogPerformanceMeasurement {
       for (int messageSizeLog2 : logSequence) {
         for (String quorumId : quorumList) {
           List<OLogEntry> entryList = Lists.newArrayList(constructLogEntry(messageSizeLog2, quorumId));
+          final long logCallTime = System.nanoTime();
           ListenableFuture<Boolean> lastFuture = log.logEntries(entryList, quorumId);
+          lastFuture.addListener(() -> appendLatenciesNanos.add(System.nanoTime() - logCallTime),
+              MoreExecutors.sameThreadExecutor());
 
           sleepCountdown--;
 
@@ -217,11 +244,41 @@ public class QuorumDelegatingLogPerformanceMeasurement {
 
     detailPrintln("Elapsed time (seconds): " + formatDouble(elapsedSeconds));
     detailPrintln("Throughput (MiB per second): " + formatDouble(throughputMiBps));
+    detailPrintln("Group commit: " + groupCommit);
+    detailPrintln("Mean append latency (ms): " + formatDouble(computeMeanLatencyInMillis()));
+    detailPrintln("99th percentile append latency (ms): " + formatDouble(computeLatencyPercentileInMillis(99)));
+    detailPrintln("Number of syncs: " + syncCount());
     detailPrintln("--------------------------\n");
   }
 
   private void outputSummaryData(long elapsedNanoseconds) {
-    System.out.println(numQuorums + "\t" + numThreads + "\t" + computeThroughputInMiBps(elapsedNanoseconds));
+    System.out.println(numQuorums + "\t" + numThreads + "\t" + groupCommit
+        + "\t" + formatDouble(computeThroughputInMiBps(elapsedNanoseconds))
+        + "\t" + formatDouble(computeMeanLatencyInMillis())
+        + "\t" + formatDouble(computeLatencyPercentileInMillis(99))
+        + "\t" + syncCount());
+  }
+
+  private double computeMeanLatencyInMillis() {
+    return appendLatenciesNanos.stream()
+        .mapToLong((l) -> l)
+        .average().orElse(0) / 1000000.;
+  }
+
+  private double computeLatencyPercentileInMillis(int percentile) {
+    long[] sortedLatencies = appendLatenciesNanos.stream()
+        .mapToLong((l) -> l)
+        .sorted()
+        .toArray();
+    if (sortedLatencies.length == 0) {
+      return 0;
+    }
+    int index = Math.min(sortedLatencies.length - 1, sortedLatencies.length * percentile / 100);
+    return sortedLatencies[index] / 1000000.;
+  }
+
+  private long syncCount() {
+    return groupCommitSyncer == null ? 0 : groupCommitSyncer.getSyncCount();
   }
 
   private void detailPrintln(String string) {
@@ -264,10 +321,14 @@ public class QuorumDelegatingLogPerformanceMeasurement {
 
   private OLog getLog(LogFileService logFileService) {
     KeySerializingExecutor executor = new WrappingKeySerializingExecutor(newFixedThreadPool(numThreads));
+    groupCommitSyncer = groupCommit ?
+        new GroupCommitSyncer(GROUP_COMMIT_WINDOW_MICROS, TimeUnit.MICROSECONDS, GROUP_COMMIT_WINDOW_BYTES) :
+        null;
     return new QuorumDelegatingLog(logFileService,
         executor,
         NavigableMapOLogEntryOracle::new,
-        InMemoryPersistenceNavigator::new);
+        InMemoryPersistenceNavigator::new,
+        groupCommitSyncer);
   }
 
   /**
@@ -254,6 +254,63 @@ public class QuorumDelegatingLogTest {
     assertThat(log.getLogEntries(3, 15, quorumId), resultsIn(aListOfEntriesWithConsecutiveSeqNums(3, 15)));
   }
 
+  @Test
+  public void discardsLogFilesWhoseEntriesHaveAllBeenReplacedByASnapshot() throws Exception {
+    log.logEntries(someConsecutiveEntries(1, 6), quorumId);
+    log.roll(quorumId);
+    log.logEntries(someConsecutiveEntries(6, 11), quorumId);
+    log.roll(quorumId);
+    log.logEntries(someConsecutiveEntries(11, 16), quorumId);
+
+    log.compact(seqNum(12), log.getLogTerm(seqNum(12), quorumId), QuorumConfiguration.EMPTY, quorumId).get();
+
+    assertThat(logFileService.getList(quorumId).size(), is(equalTo(2)));
+    assertThat(log.getLogEntries(13, 16, quorumId), resultsIn(aListOfEntriesWithConsecutiveSeqNums(13, 16)));
+    assertThat(log.getLogEntries(3, 16, quorumId), resultsInException(LogEntryNotFound.class));
+  }
+
+  @Test
+  public void continuesFromTheSnapshotIfTheSnapshotSupersedesTheLog() throws Exception {
+    log.logEntries(someConsecutiveEntries(1, 6), quorumId);
+
+    log.compact(seqNum(20), term(30), QuorumConfiguration.EMPTY, quorumId).get();
+
+    assertThat(log.getNextSeqNum(quorumId), is(equalTo(seqNum(21))));
+    assertThat(log.getLastTerm(quorumId), is(equalTo(term(30))));
+    assertThat(log.getLogTerm(seqNum(20), quorumId), is(equalTo(term(30))));
+
+    log.logEntries(makeSingleEntryList(seqNum(21), term(30), someData()), quorumId);
+    assertThat(log.getLogEntries(21, 22, quorumId), resultsIn(aListOfEntriesWithConsecutiveSeqNums(21, 22)));
+    assertThat(logFileService.getList(quorumId).size(), is(equalTo(1)));
+  }
+
+  @Test
+  public void recoversTheSnapshotPositionWhenReopened() throws Exception {
+    log.logEntries(someConsecutiveEntries(1, 11), quorumId);
+    final long snapshotTerm = log.getLogTerm(seqNum(8), quorumId);
+    log.compact(seqNum(8), snapshotTerm, QuorumConfiguration.EMPTY, quorumId).get();
+    log.close();
+
+    log = new QuorumDelegatingLog(
+        logFileService,
+        new WrappingKeySerializingExecutor(MoreExecutors.sameThreadExecutor()),
+        NavigableMapOLogEntryOracle::new,
+        InMemoryPersistenceNavigator::new);
+    log.openAsync(quorumId).get();
+
+    assertThat(log.getSnapshotSeqNum(quorumId), is(equalTo(seqNum(8))));
+    assertThat(log.getSnapshotTerm(quorumId), is(equalTo(snapshotTerm)));
+    assertThat(log.getNextSeqNum(quorumId), is(equalTo(seqNum(11))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void throwsAnExceptionIfAskedToTruncateEntriesReplacedByASnapshot() throws Exception {
+    log.logEntries(someConsecutiveEntries(1, 11), quorumId);
+    log.compact(seqNum(8), log.getLogTerm(seqNum(8), quorumId), QuorumConfiguration.EMPTY, quorumId).get();
+
+    log.truncateLog(seqNum(5), quorumId);
+  }
+
   /**
    * Private methods
    */
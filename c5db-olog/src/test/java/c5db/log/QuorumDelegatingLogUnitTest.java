@@ -252,6 +252,11 @@ public class QuorumDelegatingLogUnitTest {
       quorumMap.get(quorumId).pop();
     }
 
+    @Override
+    public void deleteOldest(String quorumId) throws IOException {
+      quorumMap.get(quorumId).pollLast();
+    }
+
     @Override
     public ImmutableList<CheckedSupplier<ByteArrayPersistence, IOException>> getList(String quorumId)
         throws IOException {
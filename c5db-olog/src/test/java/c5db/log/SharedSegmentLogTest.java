@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import c5db.C5CommonTestUtil;
+import c5db.LogConstants;
+import c5db.interfaces.replication.QuorumConfiguration;
+import c5db.util.WrappingKeySerializingExecutor;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import static c5db.FutureMatchers.resultsIn;
+import static c5db.FutureMatchers.resultsInException;
+import static c5db.log.LogMatchers.aListOfEntriesWithConsecutiveSeqNums;
+import static c5db.log.LogTestUtil.makeSingleEntryList;
+import static c5db.log.LogTestUtil.someConsecutiveEntries;
+import static c5db.log.OLogEntryOracle.QuorumConfigurationWithSeqNum;
+import static c5db.log.ReplicatorLogGenericTestUtil.seqNum;
+import static c5db.log.ReplicatorLogGenericTestUtil.term;
+import static c5db.log.SequentialLog.LogEntryNotFound;
+import static c5db.replication.ReplicatorTestUtil.makeConfigurationEntry;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class SharedSegmentLogTest {
+  private static final long SMALL_SEGMENT_SIZE = 1024;
+
+  private final Path testDirectory = (new C5CommonTestUtil()).getDataTestDir("shared-olog");
+  private final String quorumA = "quorumA";
+  private final String quorumB = "quorumB";
+  private SharedSegmentLog log;
+
+  @Before
+  public final void setUp() throws Exception {
+    deleteSegmentFiles();
+    log = openLog();
+  }
+
+  @After
+  public final void tearDown() throws Exception {
+    log.close();
+    deleteSegmentFiles();
+  }
+
+  @Test
+  public void logsAndRetrievesInterleavedEntriesOfDifferentQuorums() throws Exception {
+    List<OLogEntry> entriesA = someConsecutiveEntries(1, 5);
+    List<OLogEntry> entriesB = someConsecutiveEntries(1, 8);
+
+    log.logEntries(entriesA.subList(0, 2), quorumA);
+    log.logEntries(entriesB, quorumB);
+    log.logEntries(entriesA.subList(2, 4), quorumA);
+
+    assertThat(log.getLogEntries(1, 5, quorumA), resultsIn(equalTo(entriesA)));
+    assertThat(log.getLogEntries(1, 8, quorumB), resultsIn(equalTo(entriesB)));
+  }
+
+  @Test(timeout = 3000)
+  public void throwsExceptionFromGetLogEntriesWhenTheEntriesAreNotInTheLog() throws Exception {
+    log.logEntries(someConsecutiveEntries(1, 5), quorumA);
+
+    assertThat(log.getLogEntries(3, 7, quorumA), resultsInException(LogEntryNotFound.class));
+    assertThat(log.getLogEntries(1, 2, quorumB), resultsInException(LogEntryNotFound.class));
+  }
+
+  @Test
+  public void truncatesOneQuorumWithoutAffectingAnother() throws Exception {
+    log.logEntries(someConsecutiveEntries(1, 10), quorumA);
+    log.logEntries(someConsecutiveEntries(1, 10), quorumB);
+
+    log.truncateLog(seqNum(5), quorumA);
+    List<OLogEntry> replacementEntries = someConsecutiveEntries(5, 12);
+    log.logEntries(replacementEntries, quorumA);
+
+    assertThat(log.getLogEntries(5, 12, quorumA), resultsIn(equalTo(replacementEntries)));
+    assertThat(log.getLogEntries(1, 10, quorumB), resultsIn(aListOfEntriesWithConsecutiveSeqNums(1, 10)));
+    assertThat(log.getNextSeqNum(quorumA), is(equalTo(seqNum(12))));
+  }
+
+  @Test
+  public void fulfillsGetRequestsThatSpanMultipleSegments() throws Exception {
+    log.logEntries(someConsecutiveEntries(1, 6), quorumA);
+    log.roll(quorumA);
+    log.logEntries(someConsecutiveEntries(6, 11), quorumA);
+    log.roll(quorumB);
+    log.logEntries(someConsecutiveEntries(11, 16), quorumA);
+
+    assertThat(log.getLogEntries(3, 15, quorumA), resultsIn(aListOfEntriesWithConsecutiveSeqNums(3, 15)));
+  }
+
+  @Test
+  public void rebuildsItsIndexAndQuorumInformationWhenReopened() throws Exception {
+    QuorumConfiguration config = QuorumConfiguration.of(Sets.newHashSet(1L, 2L, 3L));
+
+    log.logEntries(singleConfigurationEntryList(config, seqNum(1)), quorumA);
+    log.logEntries(someConsecutiveEntries(2, 30), quorumA);
+    log.logEntries(someConsecutiveEntries(1, 30), quorumB);
+    log.truncateLog(seqNum(20), quorumB);
+
+    reopenLog();
+
+    assertThat(log.getNextSeqNum(quorumA), is(equalTo(seqNum(30))));
+    assertThat(log.getNextSeqNum(quorumB), is(equalTo(seqNum(20))));
+    assertThat(log.getLastTerm(quorumA), is(equalTo(term(15))));
+    assertThat(log.getLastQuorumConfig(quorumA), is(equalTo(new QuorumConfigurationWithSeqNum(config, seqNum(1)))));
+    assertThat(log.getLogEntries(2, 30, quorumA), resultsIn(aListOfEntriesWithConsecutiveSeqNums(2, 30)));
+    assertThat(log.getLogEntries(1, 20, quorumB), resultsIn(aListOfEntriesWithConsecutiveSeqNums(1, 20)));
+  }
+
+  @Test
+  public void deletesSegmentsOnceNoQuorumNeedsThemAndRetainsQuorumInformation() throws Exception {
+    QuorumConfiguration config = QuorumConfiguration.of(Sets.newHashSet(1L, 2L, 3L));
+
+    log.logEntries(singleConfigurationEntryList(config, seqNum(1)), quorumA);
+    log.logEntries(someConsecutiveEntries(2, 100), quorumA);
+    log.logEntries(someConsecutiveEntries(1, 100), quorumB);
+    int segmentsBeforeRelease = numberOfSegmentFiles();
+
+    log.releaseEntriesBefore(seqNum(90), quorumA);
+    assertThat(numberOfSegmentFiles(), is(equalTo(segmentsBeforeRelease)));
+
+    log.releaseEntriesBefore(seqNum(90), quorumB).get();
+    assertThat(numberOfSegmentFiles(), is(lessThan(segmentsBeforeRelease)));
+
+    reopenLog();
+
+    assertThat(log.getNextSeqNum(quorumA), is(equalTo(seqNum(100))));
+    assertThat(log.getLastTerm(quorumA), is(equalTo(term(50))));
+    assertThat(log.getLastQuorumConfig(quorumA), is(equalTo(new QuorumConfigurationWithSeqNum(config, seqNum(1)))));
+    assertThat(log.getLogEntries(90, 100, quorumA), resultsIn(aListOfEntriesWithConsecutiveSeqNums(90, 100)));
+    assertThat(log.getLogEntries(80, 90, quorumB), resultsInException(LogEntryNotFound.class));
+  }
+
+  @Test
+  public void continuesFromASnapshotItDoesNotContainAndRemembersItWhenReopened() throws Exception {
+    QuorumConfiguration config = QuorumConfiguration.of(Sets.newHashSet(1L, 2L, 3L));
+
+    log.logEntries(someConsecutiveEntries(1, 10), quorumA);
+    log.logEntries(someConsecutiveEntries(1, 10), quorumB);
+
+    log.compact(seqNum(50), term(30), config, quorumA).get();
+
+    assertThat(log.getNextSeqNum(quorumA), is(equalTo(seqNum(51))));
+    assertThat(log.getSnapshotSeqNum(quorumA), is(equalTo(seqNum(50))));
+    assertThat(log.getLogTerm(seqNum(50), quorumA), is(equalTo(term(30))));
+    assertThat(log.getLastQuorumConfig(quorumA), is(equalTo(new QuorumConfigurationWithSeqNum(config, seqNum(50)))));
+
+    log.logEntries(makeSingleEntryList(seqNum(51), term(30), "after snapshot"), quorumA).get();
+
+    reopenLog();
+
+    assertThat(log.getNextSeqNum(quorumA), is(equalTo(seqNum(52))));
+    assertThat(log.getLogTerm(seqNum(50), quorumA), is(equalTo(term(30))));
+    assertThat(log.getLastQuorumConfig(quorumA), is(equalTo(new QuorumConfigurationWithSeqNum(config, seqNum(50)))));
+    assertThat(log.getLogEntries(51, 52, quorumA), resultsIn(aListOfEntriesWithConsecutiveSeqNums(51, 52)));
+    assertThat(log.getLogEntries(1, 10, quorumB), resultsIn(aListOfEntriesWithConsecutiveSeqNums(1, 10)));
+  }
+
+  private SharedSegmentLog openLog() throws Exception {
+    SharedSegmentLog sharedLog = new SharedSegmentLog(
+        testDirectory,
+        new WrappingKeySerializingExecutor(MoreExecutors.sameThreadExecutor()),
+        NavigableMapOLogEntryOracle::new,
+        SMALL_SEGMENT_SIZE);
+
+    sharedLog.openAsync(quorumA).get();
+    sharedLog.openAsync(quorumB).get();
+    return sharedLog;
+  }
+
+  private void reopenLog() throws Exception {
+    log.close();
+    log = openLog();
+  }
+
+  private int numberOfSegmentFiles() {
+    File[] files = segmentDirectory().listFiles();
+    return files == null ? 0 : files.length;
+  }
+
+  private void deleteSegmentFiles() {
+    File[] files = segmentDirectory().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+    }
+  }
+
+  private File segmentDirectory() {
+    return testDirectory.resolve(LogConstants.SHARED_LOG_DIRECTORY_NAME).toFile();
+  }
+
+  private static List<OLogEntry> singleConfigurationEntryList(QuorumConfiguration config, long seqNum) {
+    return Lists.newArrayList(
+        OLogEntry.fromProtostuff(
+            makeConfigurationEntry(seqNum, term(1), config)));
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.log;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class SortedLongArrayMapTest {
+  private static final long NONE = -1;
+
+  private final SortedLongArrayMap map = new SortedLongArrayMap(2);
+
+  @Test
+  public void returnsTheValueOfTheGreatestKeyNotExceedingTheRequestedKey() throws Exception {
+    map.put(10, 100);
+    map.put(20, 200);
+    map.put(30, 300);
+
+    assertThat(map.floorValue(9, NONE), is(equalTo(NONE)));
+    assertThat(map.floorValue(10, NONE), is(equalTo(100L)));
+    assertThat(map.floorValue(29, NONE), is(equalTo(200L)));
+    assertThat(map.floorValue(1000, NONE), is(equalTo(300L)));
+    assertThat(map.floorKey(25, NONE), is(equalTo(20L)));
+  }
+
+  @Test
+  public void acceptsKeysOutOfOrderAndReplacesTheValuesOfExistingKeys() throws Exception {
+    map.put(30, 300);
+    map.put(10, 100);
+    map.put(20, 200);
+    map.put(10, 101);
+
+    assertThat(map.size(), is(equalTo(3)));
+    assertThat(map.get(10, NONE), is(equalTo(101L)));
+    assertThat(map.get(20, NONE), is(equalTo(200L)));
+    assertThat(map.get(15, NONE), is(equalTo(NONE)));
+    assertThat(map.lastKey(), is(equalTo(30L)));
+    assertThat(map.lastValue(), is(equalTo(300L)));
+  }
+
+  @Test
+  public void removesEveryEntryWithAKeyAtLeastAsGreatAsTheRequestedKey() throws Exception {
+    for (long key = 1; key <= 100; key++) {
+      map.put(key, key * 10);
+    }
+
+    map.removeFrom(51);
+    assertThat(map.size(), is(equalTo(50)));
+    assertThat(map.lastKey(), is(equalTo(50L)));
+    assertThat(map.containsKey(51), is(false));
+
+    map.removeFrom(1000);
+    assertThat(map.size(), is(equalTo(50)));
+
+    map.removeFrom(1);
+    assertThat(map.isEmpty(), is(true));
+  }
+
+  @Test
+  public void canBeAppendedToAfterARemoval() throws Exception {
+    map.put(1, 10);
+    map.put(2, 20);
+    map.put(3, 30);
+    map.removeFrom(2);
+    map.put(2, 21);
+
+    assertThat(map.floorValue(3, NONE), is(equalTo(21L)));
+  }
+}
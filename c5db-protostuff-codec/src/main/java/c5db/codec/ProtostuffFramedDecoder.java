@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.protostuff.ByteBufferInput;
+import io.protostuff.Message;
+import io.protostuff.Schema;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Splits the inbound stream into frames, each preceded by its length as a varint32, and deserializes each
+ * frame as a protostuff object in 'protobuf' format. It takes the place of a ProtobufVarint32FrameDecoder
+ * followed by a ProtostuffDecoder.
+ * <p>
+ * Each frame is copied, once, out of the channel's (possibly pooled) buffers into a byte array belonging to
+ * the decoded message; 'bytes' fields of the message, such as the data of log entries, are then decoded as
+ * views of that array rather than further copies. Because the array is owned by the garbage collector rather
+ * than the channel's allocator, such fields may be kept for as long as necessary -- for instance, until they
+ * have been written to a log -- with no reference counting, and the channel is free to use a pooled allocator.
+ * <p>
+ * The counterpart of this class is {@link c5db.codec.ProtostuffFramedEncoder}.
+ */
+public class ProtostuffFramedDecoder<T extends Message<T>> extends ByteToMessageDecoder {
+  private static final int INCOMPLETE = -1;
+
+  private final Schema<T> schema;
+  private final int maxFrameBytes;
+
+  /**
+   * @param schema        Schema of the messages to decode
+   * @param maxFrameBytes Greatest frame length to accept; a longer frame is treated as corruption
+   */
+  public ProtostuffFramedDecoder(Schema<T> schema, int maxFrameBytes) {
+    this.schema = schema;
+    this.maxFrameBytes = maxFrameBytes;
+  }
+
+  public ProtostuffFramedDecoder(Schema<T> schema) {
+    this(schema, Integer.MAX_VALUE);
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+    in.markReaderIndex();
+
+    final int length = readRawVarint32(in);
+    if (length == INCOMPLETE) {
+      in.resetReaderIndex();
+      return;
+    }
+
+    // Check the length before waiting for the frame, so an oversized frame is never accumulated.
+    if (length > maxFrameBytes) {
+      throw new CorruptedFrameException("frame length " + length + " exceeds maximum of " + maxFrameBytes);
+    }
+
+    if (in.readableBytes() < length) {
+      in.resetReaderIndex();
+      return;
+    }
+
+    final byte[] frame = new byte[length];
+    in.readBytes(frame);
+
+    ByteBufferInput input = new ByteBufferInput(ByteBuffer.wrap(frame), false);
+    T newMsg = schema.newMessage();
+
+    schema.mergeFrom(input, newMsg);
+    out.add(newMsg);
+  }
+
+  /**
+   * Read a varint32 length from the buffer, returning INCOMPLETE if the buffer does not yet contain all of it.
+   */
+  private static int readRawVarint32(ByteBuf in) {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (!in.isReadable()) {
+        return INCOMPLETE;
+      }
+
+      final byte b = in.readByte();
+      result |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        if (result < 0) {
+          throw new CorruptedFrameException("negative frame length: " + result);
+        }
+        return result;
+      }
+    }
+
+    throw new CorruptedFrameException("frame length varint32 is longer than 5 bytes");
+  }
+}
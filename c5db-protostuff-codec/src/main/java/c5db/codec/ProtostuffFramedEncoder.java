@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.protostuff.LowCopyProtobufOutput;
+import io.protostuff.Message;
+import io.protostuff.Schema;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Serializes a protostuff object using 'protobuf' format, preceded by its length as a varint32, into a single
+ * buffer obtained from the channel's allocator -- a pooled, direct buffer, if the channel is configured with a
+ * PooledByteBufAllocator. It takes the place of a ProtostuffEncoder followed by a
+ * ProtobufVarint32LengthFieldPrepender, which produce a wrapper around several heap buffers and a separate
+ * buffer for the length, to be copied into a direct buffer when written to the socket.
+ * <p>
+ * The message is not serialized straight into the channel's buffer: the 'protobuf' format prefixes each
+ * nested message with its length, which protostuff can only know once the nested message has been written,
+ * so serialization still goes through LowCopyProtobufOutput's heap buffers. Large 'bytes' fields, such as the
+ * data of log entries, are referenced by those buffers rather than copied into them. Everything is then
+ * copied once, together with the length prefix, into the allocated buffer.
+ * <p>
+ * The counterpart of this class is {@link c5db.codec.ProtostuffFramedDecoder}.
+ */
+public class ProtostuffFramedEncoder<T extends Message<T>> extends MessageToByteEncoder<Message<T>> {
+  @Override
+  protected void encode(ChannelHandlerContext ctx, Message<T> msg, ByteBuf out) throws Exception {
+    Schema<T> schema = msg.cachedSchema();
+
+    LowCopyProtobufOutput lcpo = new LowCopyProtobufOutput();
+    schema.writeTo(lcpo, (T) msg);
+
+    List<ByteBuffer> buffers = lcpo.buffer.finish();
+
+    long size = lcpo.buffer.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new EncoderException("Serialized form was too large, actual size: " + size);
+    }
+
+    out.ensureWritable(computeRawVarint32Size((int) size) + (int) size);
+    writeRawVarint32(out, (int) size);
+    for (ByteBuffer buffer : buffers) {
+      out.writeBytes(buffer);
+    }
+  }
+
+  static int computeRawVarint32Size(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  static void writeRawVarint32(ByteBuf out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+}
@@ -23,9 +23,26 @@ public class ReplicatorConstants {
   public static final String REPLICATOR_QUORUM_FILE_ROOT_DIRECTORY_NAME = "repl";
   public static final String REPLICATOR_PERSISTER_FILE_NAME = "replication-data";
   public static final int REPLICATOR_MAXIMUM_SIMULTANEOUS_LOG_REQUESTS = 10000;
+  public static final int REPLICATOR_MAXIMUM_PENDING_LOG_BYTES = 64 * 1024 * 1024;
+  public static final int REPLICATOR_LOG_REQUEST_LEADERSHIP_RECHECK_MILLISECONDS = 100;
   public static final int REPLICATOR_DEFAULT_BASE_ELECTION_TIMEOUT_MILLISECONDS = 1000;
   public static final int REPLICATOR_DEFAULT_ELECTION_CHECK_INTERVAL_MILLISECONDS = 100;
   public static final int REPLICATOR_DEFAULT_LEADER_LOG_INTERVAL_MILLISECONDS = 100;
+  public static final int REPLICATOR_DEFAULT_LEADER_LEASE_MILLISECONDS =
+      REPLICATOR_DEFAULT_BASE_ELECTION_TIMEOUT_MILLISECONDS * 9 / 10;
   public static final int REPLICATOR_VOTE_RPC_TIMEOUT_MILLISECONDS = 1000;
   public static final int REPLICATOR_APPEND_RPC_TIMEOUT_MILLISECONDS = 5000;
+  public static final long REPLICATOR_CATCH_UP_BUFFER_BYTES_PER_PEER = 4 * 1024 * 1024;
+  public static final int REPLICATOR_CATCH_UP_ENTRIES_PER_READ = 512;
+  public static final int REPLICATOR_CATCH_UP_MAXIMUM_ENTRIES_PER_MESSAGE = 512;
+  public static final long REPLICATOR_CATCH_UP_MAXIMUM_MESSAGE_BYTES = 1024 * 1024;
+  public static final int REPLICATOR_SNAPSHOT_CHUNK_BYTES = 1024 * 1024;
+  public static final int REPLICATOR_APPEND_WINDOW_MAXIMUM_BATCHES = 16;
+  public static final long REPLICATOR_APPEND_WINDOW_MAXIMUM_BYTES = 8 * 1024 * 1024;
+  public static final int REPLICATOR_OUTGOING_FLUSH_INTERVAL_MILLISECONDS = 5;
+  public static final int REPLICATOR_MAXIMUM_WIRE_FRAME_BYTES = 4 * REPLICATOR_MAXIMUM_PENDING_LOG_BYTES;
+  public static final int REPLICATOR_SERVICE_ROUTING_SHARDS =
+      Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+  public static final long REPLICATOR_RPC_EXPIRY_MILLISECONDS = 2 * REPLICATOR_APPEND_RPC_TIMEOUT_MILLISECONDS;
+  public static final long REPLICATOR_RPC_EXPIRY_CHECK_INTERVAL_MILLISECONDS = 1000;
 }
@@ -37,6 +37,11 @@ public class InRamLog implements ReplicatorLog {
 
   private final List<LogEntry> log = new ArrayList<>();
 
+  private long snapshotIndex = 0;
+  private long snapshotTerm = 0;
+  private QuorumConfiguration snapshotConfiguration = QuorumConfiguration.EMPTY;
+  private long snapshotConfigurationIndex = 0;
+
   public InRamLog() {
   }
 
@@ -72,6 +77,8 @@ public class InRamLog implements ReplicatorLog {
 
     if (requestedEntry.isPresent()) {
       return requestedEntry.get().getTerm();
+    } else if (index == snapshotIndex) {
+      return snapshotTerm;
     } else {
       return 0;
     }
@@ -80,7 +87,7 @@ public class InRamLog implements ReplicatorLog {
   @Override
   public synchronized long getLastTerm() {
     if (log.isEmpty()) {
-      return 0;
+      return snapshotTerm;
     }
     return log.get(log.size() - 1).getTerm();
   }
@@ -88,7 +95,7 @@ public class InRamLog implements ReplicatorLog {
   @Override
   public synchronized long getLastIndex() {
     if (log.isEmpty()) {
-      return 0;
+      return snapshotIndex;
     }
     return log.get(log.size() - 1).getIndex();
   }
@@ -110,7 +117,7 @@ public class InRamLog implements ReplicatorLog {
       }
     }
 
-    return QuorumConfiguration.EMPTY;
+    return snapshotConfiguration;
   }
 
   @Override
@@ -121,7 +128,48 @@ public class InRamLog implements ReplicatorLog {
       }
     }
 
-    return 0;
+    return snapshotConfigurationIndex;
+  }
+
+  @Override
+  public synchronized ListenableFuture<Boolean> compactLog(long snapshotIndex,
+                                                           long snapshotTerm,
+                                                           QuorumConfiguration snapshotConfiguration) {
+    if (snapshotIndex <= this.snapshotIndex) {
+      return blockingFuture(true);
+    }
+
+    if (getLogTerm(snapshotIndex) == snapshotTerm) {
+      List<LogEntry> compactedEntries = log.stream()
+          .filter((entry) -> entry.getIndex() <= snapshotIndex)
+          .collect(Collectors.toList());
+      for (LogEntry entry : Lists.reverse(compactedEntries)) {
+        if (entry.getQuorumConfiguration() != null) {
+          this.snapshotConfiguration = QuorumConfiguration.fromProtostuff(entry.getQuorumConfiguration());
+          this.snapshotConfigurationIndex = entry.getIndex();
+          break;
+        }
+      }
+      log.removeAll(compactedEntries);
+    } else {
+      log.clear();
+      this.snapshotConfiguration = snapshotConfiguration;
+      this.snapshotConfigurationIndex = snapshotIndex;
+    }
+
+    this.snapshotIndex = snapshotIndex;
+    this.snapshotTerm = snapshotTerm;
+    return blockingFuture(true);
+  }
+
+  @Override
+  public synchronized long getSnapshotIndex() {
+    return snapshotIndex;
+  }
+
+  @Override
+  public synchronized long getSnapshotTerm() {
+    return snapshotTerm;
   }
 
   private void validateEntries(List<LogEntry> entries) {
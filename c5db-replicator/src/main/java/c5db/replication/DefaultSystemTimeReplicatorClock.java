@@ -49,4 +49,9 @@ class DefaultSystemTimeReplicatorClock implements ReplicatorClock {
   public long leaderLogRequestsProcessingInterval() {
     return ReplicatorConstants.REPLICATOR_DEFAULT_LEADER_LOG_INTERVAL_MILLISECONDS;
   }
+
+  @Override
+  public long leaderLeaseDuration() {
+    return ReplicatorConstants.REPLICATOR_DEFAULT_LEADER_LEASE_MILLISECONDS;
+  }
 }
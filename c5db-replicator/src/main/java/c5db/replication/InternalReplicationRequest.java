@@ -33,11 +33,16 @@ class InternalReplicationRequest {
   public final List<ByteBuffer> data;
   public final QuorumConfiguration config;
   public final SettableFuture<ReplicatorReceipt> logReceiptFuture;
+  public final long dataBytes;
 
   public static InternalReplicationRequest toLogData(List<ByteBuffer> data) {
     return new InternalReplicationRequest(data, null);
   }
 
+  public static InternalReplicationRequest toNoOp() {
+    return new InternalReplicationRequest(new ArrayList<>(), null);
+  }
+
   public static InternalReplicationRequest toChangeConfig(QuorumConfiguration config) {
     return new InternalReplicationRequest(new ArrayList<>(), config);
   }
@@ -50,5 +55,6 @@ class InternalReplicationRequest {
     this.data = data;
     this.config = config;
     this.logReceiptFuture = SettableFuture.create();
+    this.dataBytes = data.stream().mapToLong(ByteBuffer::remaining).sum();
   }
 }
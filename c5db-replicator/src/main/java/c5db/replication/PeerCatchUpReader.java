@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.replication;
+
+import c5db.interfaces.replication.ReplicatorLog;
+import c5db.replication.generated.LogEntry;
+import c5db.util.C5Futures;
+import org.jetlang.fibers.Fiber;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Reads ahead, sequentially, through a leader's log on behalf of a single peer which has fallen
+ * behind, so that entries are ready to send the next time the leader is able to send to that peer.
+ * Rather than making one request to the log for every AppendEntries message, and requesting every
+ * entry the peer lacks at once, the reader requests a bounded range of entries at a time, and
+ * holds the entries it has read in a buffer until they are taken. It stops reading ahead whenever
+ * the buffer holds at least a given number of bytes, so the memory used for each lagging peer is
+ * capped (approximately -- by the cap plus one read's worth of entries).
+ * <p>
+ * Entries are buffered as the LogEntry messages returned by the log, so they can be sent as they
+ * are, without being converted again. Those messages are not the log's encoded frames: the log
+ * decodes each entry, checking its checksums, and the entry's data is then serialized once more into
+ * the AppendEntries message. The two encodings differ (the log's frames carry a header and checksums
+ * of their own, which a follower's log recomputes as it writes), so the frames could be passed through
+ * only if AppendEntries carried them, and followers decoded them, in place of LogEntry messages.
+ * <p>
+ * All methods must be called from the fiber passed to the constructor, which is also the fiber on
+ * which the read callbacks are run.
+ */
+class PeerCatchUpReader {
+  /**
+   * Approximate per-entry overhead, in bytes, in addition to the size of an entry's data.
+   */
+  private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+  private final ReplicatorLog log;
+  private final Fiber fiber;
+  private final long maxBufferedBytes;
+  private final int maxEntriesPerRead;
+  private final AtomicLong totalBufferedBytes;
+  private final Runnable onEntriesRead;
+  private final Consumer<Throwable> onReadFailure;
+
+  private final Deque<LogEntry> buffer = new ArrayDeque<>();
+  private long bufferedBytes = 0;
+  private long nextIndexToTake;
+  private long nextIndexToRead;
+  private boolean readInProgress = false;
+  private boolean closed = false;
+
+  /**
+   * @param log                Log to read from
+   * @param fiber              Fiber on which this reader is used, and on which read callbacks will run
+   * @param startIndex         Index of the first entry to read
+   * @param maxBufferedBytes   The reader will not begin a read while it holds at least this many bytes
+   * @param maxEntriesPerRead  Greatest number of entries to request from the log at once
+   * @param totalBufferedBytes Counter, possibly shared with other readers, kept up to date with the
+   *                           number of bytes held by this reader
+   * @param onEntriesRead      Called after entries have been read and are available to take
+   * @param onReadFailure      Called if the log fails to return requested entries
+   */
+  PeerCatchUpReader(ReplicatorLog log,
+                    Fiber fiber,
+                    long startIndex,
+                    long maxBufferedBytes,
+                    int maxEntriesPerRead,
+                    AtomicLong totalBufferedBytes,
+                    Runnable onEntriesRead,
+                    Consumer<Throwable> onReadFailure) {
+    this.log = log;
+    this.fiber = fiber;
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.maxEntriesPerRead = maxEntriesPerRead;
+    this.totalBufferedBytes = totalBufferedBytes;
+    this.onEntriesRead = onEntriesRead;
+    this.onReadFailure = onReadFailure;
+    this.nextIndexToTake = startIndex;
+    this.nextIndexToRead = startIndex;
+  }
+
+  /**
+   * Return the index of the entry which the next call to take will return first.
+   */
+  @FiberOnly
+  public long nextIndex() {
+    return nextIndexToTake;
+  }
+
+  @FiberOnly
+  public long bufferedBytes() {
+    return bufferedBytes;
+  }
+
+  @FiberOnly
+  public int bufferedEntries() {
+    return buffer.size();
+  }
+
+  /**
+   * Remove and return buffered entries, in order, beginning with the entry at nextIndex(). At most
+   * maxEntries are returned, and no more entries are returned once their combined size reaches
+   * maxBytes; but if any entry is buffered, at least one is returned.
+   *
+   * @return A new, mutable list, which is empty if no entries are buffered.
+   */
+  @FiberOnly
+  public List<LogEntry> take(int maxEntries, long maxBytes) {
+    final List<LogEntry> entries = new ArrayList<>(Math.min(maxEntries, buffer.size()));
+    long bytes = 0;
+
+    while (!buffer.isEmpty() && entries.size() < maxEntries && (entries.isEmpty() || bytes < maxBytes)) {
+      final LogEntry entry = buffer.removeFirst();
+      final long entryBytes = sizeOf(entry);
+      entries.add(entry);
+      bytes += entryBytes;
+      release(entryBytes);
+    }
+
+    nextIndexToTake += entries.size();
+    return entries;
+  }
+
+  /**
+   * Begin reading the next range of entries from the log, unless a read is already in progress, the
+   * buffer is full, or every entry currently in the log has already been read.
+   */
+  @FiberOnly
+  public void readAhead() {
+    if (closed || readInProgress || bufferedBytes >= maxBufferedBytes) {
+      return;
+    }
+
+    final long start = nextIndexToRead;
+    final long end = Math.min(log.getLastIndex() + 1, start + maxEntriesPerRead);
+    if (end <= start) {
+      return;
+    }
+
+    readInProgress = true;
+    C5Futures.addCallback(log.getLogEntries(start, end),
+        (entries) -> {
+          readInProgress = false;
+          if (closed) {
+            return;
+          }
+
+          for (LogEntry entry : entries) {
+            buffer.addLast(entry);
+            retain(sizeOf(entry));
+          }
+          nextIndexToRead = end;
+          onEntriesRead.run();
+        },
+        (Throwable t) -> {
+          readInProgress = false;
+          if (!closed) {
+            onReadFailure.accept(t);
+          }
+        }, fiber);
+  }
+
+  /**
+   * Discard any buffered entries and the result of any read in progress.
+   */
+  @FiberOnly
+  public void close() {
+    closed = true;
+    buffer.clear();
+    release(bufferedBytes);
+  }
+
+  private void retain(long bytes) {
+    bufferedBytes += bytes;
+    totalBufferedBytes.addAndGet(bytes);
+  }
+
+  private void release(long bytes) {
+    bufferedBytes -= bytes;
+    totalBufferedBytes.addAndGet(-bytes);
+  }
+
+  static long sizeOf(LogEntry entry) {
+    long size = ENTRY_OVERHEAD_BYTES;
+    final List<ByteBuffer> data = entry.getDataList();
+    if (data != null) {
+      for (ByteBuffer buffer : data) {
+        size += buffer.remaining();
+      }
+    }
+    return size;
+  }
+}
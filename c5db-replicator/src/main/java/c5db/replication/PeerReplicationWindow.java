@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.replication;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Keeps track of the AppendEntries batches a leader has sent to a single peer which the peer has not
+ * yet acknowledged, so that the leader can keep several batches in flight at once (rather than waiting
+ * for each to be acknowledged, or sending without limit to a peer which cannot keep up). The leader
+ * sends no further entries once the batches in flight reach either a given number or a given total
+ * size; acknowledgements make room again.
+ * <p>
+ * Messages to a peer are assumed to be delivered in order, if at all, so an acknowledgement of a
+ * given index acknowledges every batch up to and including that index. A rejection or a timeout of
+ * a batch in flight means that batch, and therefore all the ones sent after it, must be sent again;
+ * the leader clears the window and starts over from the index the peer needs. Each clear begins a new
+ * epoch, so that replies to batches sent before the clear can be recognized and ignored.
+ * <p>
+ * This class is not thread-safe; it is used only from the replicator's fiber.
+ */
+class PeerReplicationWindow {
+  private final int maxBatches;
+  private final long maxBytes;
+
+  private final Deque<Batch> inFlight = new ArrayDeque<>();
+  private long bytesInFlight = 0;
+  private long nextSequenceNumber = 1;
+  private long epoch = 0;
+
+  /**
+   * A batch of entries sent to the peer in a single AppendEntries.
+   */
+  static class Batch {
+    public final long sequenceNumber;
+    public final long epoch;
+    public final long firstIndex;
+    public final long lastIndex;
+    public final long bytes;
+
+    private Batch(long sequenceNumber, long epoch, long firstIndex, long lastIndex, long bytes) {
+      this.sequenceNumber = sequenceNumber;
+      this.epoch = epoch;
+      this.firstIndex = firstIndex;
+      this.lastIndex = lastIndex;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String toString() {
+      return "Batch{" +
+          "sequenceNumber=" + sequenceNumber +
+          ", epoch=" + epoch +
+          ", firstIndex=" + firstIndex +
+          ", lastIndex=" + lastIndex +
+          ", bytes=" + bytes +
+          '}';
+    }
+  }
+
+  /**
+   * @param maxBatches Greatest number of batches which may be in flight at once
+   * @param maxBytes   No batch may be sent while at least this many bytes are in flight
+   */
+  PeerReplicationWindow(int maxBatches, long maxBytes) {
+    this.maxBatches = maxBatches;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Return true if another batch may be sent.
+   */
+  public boolean hasRoom() {
+    return inFlight.size() < maxBatches && bytesInFlight < maxBytes;
+  }
+
+  public boolean isEmpty() {
+    return inFlight.isEmpty();
+  }
+
+  public int batchesInFlight() {
+    return inFlight.size();
+  }
+
+  public long bytesInFlight() {
+    return bytesInFlight;
+  }
+
+  public long epoch() {
+    return epoch;
+  }
+
+  /**
+   * Record that a batch spanning the given indexes has been sent.
+   *
+   * @return The batch, which identifies the send when its reply (or timeout) is handled.
+   */
+  public Batch sent(long firstIndex, long lastIndex, long bytes) {
+    assert inFlight.isEmpty() || inFlight.peekLast().lastIndex < firstIndex;
+
+    final Batch batch = new Batch(nextSequenceNumber++, epoch, firstIndex, lastIndex, bytes);
+    inFlight.addLast(batch);
+    bytesInFlight += bytes;
+    return batch;
+  }
+
+  /**
+   * Record that the peer has acknowledged every entry up to and including the given index, releasing
+   * every batch which ends at or before it.
+   */
+  public void acknowledge(long index) {
+    while (!inFlight.isEmpty() && inFlight.peekFirst().lastIndex <= index) {
+      bytesInFlight -= inFlight.removeFirst().bytes;
+    }
+  }
+
+  /**
+   * Return true if the batch was sent in the current epoch and has not yet been acknowledged.
+   */
+  public boolean isInFlight(Batch batch) {
+    return batch.epoch == epoch && inFlight.contains(batch);
+  }
+
+  /**
+   * Forget every batch in flight, and begin a new epoch.
+   */
+  public void clear() {
+    inFlight.clear();
+    bytesInFlight = 0;
+    epoch++;
+  }
+}
@@ -41,9 +41,21 @@ public interface ReplicatorClock {
   public long electionTimeout();
 
   /**
-   * How frequently we should check the append queue, and send RPCs to the clients.
+   * How frequently the leader should send heartbeats to its peers. New log requests are sent as soon as
+   * they arrive (or, under load, as soon as the leader's previous write completes); the leader also checks
+   * the append queue at this interval, in case any request was left behind.
    *
    * @return
    */
   public long leaderLogRequestsProcessingInterval();
+
+  /**
+   * How long a leader may go on serving reads locally after a majority of its peers have answered it,
+   * without confirming that it is still the leader. Once a follower has heard from the leader, it will not
+   * help elect another leader for this long; so this must be no longer than the shortest election timeout
+   * in the quorum, less an allowance for the drift between the peers' clocks. Zero disables leader leases.
+   *
+   * @return
+   */
+  public long leaderLeaseDuration();
 }
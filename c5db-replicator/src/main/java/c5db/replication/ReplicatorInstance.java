@@ -24,8 +24,11 @@ import c5db.interfaces.replication.Replicator;
 import c5db.interfaces.replication.ReplicatorInstanceEvent;
 import c5db.interfaces.replication.ReplicatorLog;
 import c5db.interfaces.replication.ReplicatorReceipt;
+import c5db.interfaces.replication.ReplicatorSnapshotStore;
 import c5db.replication.generated.AppendEntries;
 import c5db.replication.generated.AppendEntriesReply;
+import c5db.replication.generated.InstallSnapshot;
+import c5db.replication.generated.InstallSnapshotReply;
 import c5db.replication.generated.LogEntry;
 import c5db.replication.generated.PreElectionPoll;
 import c5db.replication.generated.PreElectionReply;
@@ -61,14 +64,21 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static c5db.ReplicatorConstants.REPLICATOR_APPEND_RPC_TIMEOUT_MILLISECONDS;
+import static c5db.ReplicatorConstants.REPLICATOR_LOG_REQUEST_LEADERSHIP_RECHECK_MILLISECONDS;
+import static c5db.ReplicatorConstants.REPLICATOR_MAXIMUM_PENDING_LOG_BYTES;
 import static c5db.ReplicatorConstants.REPLICATOR_VOTE_RPC_TIMEOUT_MILLISECONDS;
 
 
@@ -103,14 +113,46 @@ public class ReplicatorInstance implements Replicator {
   private final BlockingQueue<InternalReplicationRequest> logRequests =
       new ArrayBlockingQueue<>(ReplicatorConstants.REPLICATOR_MAXIMUM_SIMULTANEOUS_LOG_REQUESTS);
 
+  // Bytes of submitted data which have not yet been written to the leader's own log, whether they are still
+  // in logRequests or in a log write in flight. logData blocks while this budget is exhausted, for as long as
+  // this node remains the leader.
+  private final Semaphore pendingLogBytes = new Semaphore(REPLICATOR_MAXIMUM_PENDING_LOG_BYTES);
+
   // this is the next index from our log we need to send to each peer, kept track of on a per-peer basis.
   private final Map<Long, Long> peersNextIndex = new HashMap<>();
 
   // The last successfully acked message from our peers.  I also keep track of my own acked log messages in here.
   private final Map<Long, Long> peersLastAckedIndex = new HashMap<>();
 
+  // Readers for the peers which have fallen behind, which read ahead through the log to catch them up.
+  private final Map<Long, PeerCatchUpReader> catchUpReaders = new HashMap<>();
+  private final AtomicLong catchUpBufferedBytes = new AtomicLong(0);
+
+  // Transfers of the snapshot to peers which need entries that have been compacted out of the log.
+  private final Map<Long, SnapshotTransfer> snapshotTransfers = new HashMap<>();
+
+  // The AppendEntries batches sent to each peer which the peer has not yet acknowledged.
+  private final Map<Long, PeerReplicationWindow> replicationWindows = new HashMap<>();
+
+  // For each peer, the sequence number and the sending time of the latest AppendEntries it has answered
+  // in the current term. Whatever a majority has answered is known to have reached them while this
+  // replicator was still the leader.
+  private final Map<Long, Long> peersLastAnsweredSequence = new HashMap<>();
+  private final Map<Long, Long> peersLastAnsweredSendTime = new HashMap<>();
+  private long appendSequence = 0;
+
+  // The leader lease runs until this time; see holdsLeaderLease.
+  private volatile long leaderLeaseExpiryMillis = 0;
+  // Whether this leader has committed an entry of its own term. Until it has, its commit index may be
+  // behind the quorum's, so it can neither hold the lease nor confirm its leadership.
+  private volatile boolean committedInCurrentTerm = false;
+
+  // Requests to confirm leadership awaiting a majority's answer to an AppendEntries sent after them.
+  private final List<LeadershipConfirmation> pendingLeadershipConfirmations = new ArrayList<>();
+  private boolean leadershipConfirmationRoundScheduled = false;
+
   private long myFirstIndexAsLeader;
-  private long lastCommittedIndex;
+  private volatile long lastCommittedIndex;
 
   /**
    * state, in theory persistent
@@ -118,6 +160,8 @@ public class ReplicatorInstance implements Replicator {
 
   long currentTerm;
   private long votedFor;
+  @Nullable
+  private ReplicatorSnapshotStore snapshotStore;
   private QuorumConfiguration quorumConfig = QuorumConfiguration.EMPTY;
   private long quorumConfigIndex = 0;
 
@@ -125,10 +169,22 @@ public class ReplicatorInstance implements Replicator {
    * state, not persistent
    */
 
-  State myState = State.FOLLOWER;
+  volatile State myState = State.FOLLOWER;
+
+  // Progress of the snapshot currently being received from the leader, if any.
+  private long incomingSnapshotIndex = 0;
+  private long incomingSnapshotNextOffset = 0;
+  // Incremented whenever a snapshot transfer starts or is abandoned, so that the completion of a chunk
+  // write can tell whether the transfer it belongs to is still the current one.
+  private long incomingSnapshotTransfer = 0;
 
   // Election timers, etc.
   private long lastRPC;
+  private long lastLeaderContact = 0;
+
+  // The time at which this follower received the latest AppendEntries after which it had committed
+  // everything the leader had; see getCommitStalenessMillis.
+  private volatile long caughtUpWithLeaderAsOf = Long.MIN_VALUE;
   private long whosLeader = 0;
   @SuppressWarnings("UnusedDeclaration")
   private final Disposable electionChecker;
@@ -228,12 +284,76 @@ public class ReplicatorInstance implements Replicator {
     }
 
     InternalReplicationRequest req = InternalReplicationRequest.toLogData(data);
-    logRequests.put(req);
+    final int budgetedBytes = budgetedBytes(req);
+
+    // Wait for room in the budget, and then in the queue, only while this node remains the leader; once it
+    // is deposed, nothing will make room.
+    while (!pendingLogBytes.tryAcquire(budgetedBytes,
+        REPLICATOR_LOG_REQUEST_LEADERSHIP_RECHECK_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+      if (!isLeader()) {
+        logger.debug("lost leadership while waiting to logData");
+        return null;
+      }
+    }
+
+    try {
+      while (!logRequests.offer(req,
+          REPLICATOR_LOG_REQUEST_LEADERSHIP_RECHECK_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+        if (!isLeader()) {
+          logger.debug("lost leadership while waiting to logData");
+          pendingLogBytes.release(budgetedBytes);
+          return null;
+        }
+      }
+    } catch (InterruptedException e) {
+      pendingLogBytes.release(budgetedBytes);
+      throw e;
+    }
+
+    // If this node was deposed before the request was queued, becomeFollower may already have emptied the queue.
+    if (!isLeader() && logRequests.remove(req)) {
+      failLogRequest(req);
+      return req.logReceiptFuture;
+    }
+    wakeQueueConsumer();
 
     // TODO return the durable notification future?
     return req.logReceiptFuture;
   }
 
+  @Override
+  public ListenableFuture<Boolean> compactLog(long snapshotIndex) {
+    SettableFuture<Boolean> compactFuture = SettableFuture.create();
+
+    fiber.execute(() -> {
+      if (snapshotIndex > lastCommittedIndex) {
+        compactFuture.setException(new IllegalArgumentException("ReplicatorInstance#compactLog: index "
+            + snapshotIndex + " is not committed"));
+        return;
+      }
+
+      if (snapshotIndex <= log.getSnapshotIndex()) {
+        compactFuture.set(true);
+        return;
+      }
+
+      final long snapshotTerm = log.getLogTerm(snapshotIndex);
+      C5Futures.addCallback(log.compactLog(snapshotIndex, snapshotTerm, quorumConfig),
+          compactFuture::set,
+          compactFuture::setException,
+          fiber);
+
+      // Catch-up readers may no longer be able to read the entries they need.
+      for (long peer : new ArrayList<>(catchUpReaders.keySet())) {
+        if (catchUpReaders.get(peer).nextIndex() <= snapshotIndex) {
+          closeCatchUpReader(peer);
+        }
+      }
+    });
+
+    return compactFuture;
+  }
+
   @Override
   public long getId() {
     return myId;
@@ -244,6 +364,64 @@ public class ReplicatorInstance implements Replicator {
     return myState == State.LEADER;
   }
 
+  @Override
+  public boolean holdsLeaderLease() {
+    return isLeader() && committedInCurrentTerm && clock.currentTimeMillis() < leaderLeaseExpiryMillis;
+  }
+
+  @Override
+  public ListenableFuture<Long> confirmLeadership() {
+    SettableFuture<Long> confirmFuture = SettableFuture.create();
+
+    fiber.execute(() -> {
+      if (!isLeader()) {
+        confirmFuture.setException(new IllegalStateException("ReplicatorInstance#confirmLeadership: not the leader"));
+        return;
+      }
+
+      final LeadershipConfirmation confirmation = new LeadershipConfirmation(appendSequence, confirmFuture);
+      pendingLeadershipConfirmations.add(confirmation);
+      checkLeadershipConfirmations();
+
+      fiber.schedule(() -> {
+        if (pendingLeadershipConfirmations.remove(confirmation)) {
+          confirmFuture.setException(new TimeoutException("ReplicatorInstance#confirmLeadership: no majority answered"));
+        }
+      }, REPLICATOR_APPEND_RPC_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+
+      // Requests which arrive together share one round of AppendEntries.
+      if (!confirmFuture.isDone() && !leadershipConfirmationRoundScheduled) {
+        leadershipConfirmationRoundScheduled = true;
+        fiber.execute(() -> {
+          leadershipConfirmationRoundScheduled = false;
+          if (queueConsumer != null) {
+            runQueueConsumer();
+          }
+        });
+      }
+    });
+
+    return confirmFuture;
+  }
+
+  @Override
+  public long getCommitStalenessMillis() {
+    if (isLeader()) {
+      return holdsLeaderLease() ? 0 : Long.MAX_VALUE;
+    }
+
+    final long caughtUpAsOf = caughtUpWithLeaderAsOf;
+    if (caughtUpAsOf == Long.MIN_VALUE) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, clock.currentTimeMillis() - caughtUpAsOf);
+  }
+
+  @Override
+  public long getLastCommittedIndex() {
+    return lastCommittedIndex;
+  }
+
   @Override
   public void start() {
     logger.debug("started {} with election timeout {}", this.quorumId, this.myElectionTimeout);
@@ -283,6 +461,23 @@ public class ReplicatorInstance implements Replicator {
     return incomingChannel;
   }
 
+  /**
+   * Return the number of bytes of log entries currently buffered, across all peers, to catch up
+   * peers which have fallen behind. Safe to call from any thread.
+   */
+  public long getCatchUpBufferedBytes() {
+    return catchUpBufferedBytes.get();
+  }
+
+  /**
+   * Set the store from which to read snapshots to send to peers, and to which to write snapshots
+   * received from the leader. Without one, peers which need entries that have been compacted out
+   * of the log cannot be caught up. This method must be called before start().
+   */
+  public void setSnapshotStore(ReplicatorSnapshotStore snapshotStore) {
+    this.snapshotStore = snapshotStore;
+  }
+
   public void dispose() {
     fiber.dispose();
   }
@@ -353,6 +548,7 @@ public class ReplicatorInstance implements Replicator {
       throws InterruptedException {
     InternalReplicationRequest req = InternalReplicationRequest.toChangeConfig(quorumConfig);
     logRequests.put(req);
+    wakeQueueConsumer();
     return req.logReceiptFuture;
   }
 
@@ -372,6 +568,7 @@ public class ReplicatorInstance implements Replicator {
 
     InternalReplicationRequest req = InternalReplicationRequest.toChangeConfig(quorumConfig);
     if (logRequests.offer(req)) {
+      wakeQueueConsumer();
       return req.logReceiptFuture;
     } else {
       logger.warn("change request could not be submitted because log request queue was full {}", quorumConfig);
@@ -398,6 +595,9 @@ public class ReplicatorInstance implements Replicator {
       } else if (req.isAppendMessage()) {
         doAppendMessage(message);
 
+      } else if (req.isInstallSnapshotMessage()) {
+        doInstallSnapshot(message);
+
       } else {
         logger.warn("got a message of protobuf type I don't know: {}", req);
       }
@@ -417,7 +617,8 @@ public class ReplicatorInstance implements Replicator {
     final boolean wouldVote =
         msg.getTerm() >= currentTerm
             && atLeastAsUpToDateAsLocalLog(msgLastLogTerm, msgLastLogIndex)
-            && !rejectPollFromOldConfiguration(request.from, msgLastLogTerm, msgLastLogIndex);
+            && !rejectPollFromOldConfiguration(request.from, msgLastLogTerm, msgLastLogIndex)
+            && (request.from == myId || !leaderMayHoldLease());
 
     logger.debug("sending pre-election reply to {} wouldVote = {}", message.getRequest().from, wouldVote);
     PreElectionReply m = new PreElectionReply(currentTerm, wouldVote);
@@ -453,8 +654,10 @@ public class ReplicatorInstance implements Replicator {
   private void doRequestVote(Request<RpcWireRequest, RpcReply> message) {
     RequestVote msg = message.getRequest().getRequestVoteMessage();
 
-    // 1. Return if term < currentTerm (sec 5.1)
-    if (msg.getTerm() < currentTerm) {
+    // 1. Return if term < currentTerm (sec 5.1); or disregard the request if the current leader
+    // may still hold its lease, so as not to elect another leader while it might be serving reads.
+    if (msg.getTerm() < currentTerm
+        || (message.getRequest().from != myId && leaderMayHoldLease())) {
       RequestVoteReply m = new RequestVoteReply(currentTerm, false);
       RpcReply reply = new RpcReply(m);
       message.reply(reply);
@@ -526,6 +729,7 @@ public class ReplicatorInstance implements Replicator {
 
     // 4. reset election timeout
     lastRPC = clock.currentTimeMillis();
+    lastLeaderContact = lastRPC;
 
     long theLeader = appendMessage.getLeaderId();
     if (whosLeader != theLeader) {
@@ -544,9 +748,12 @@ public class ReplicatorInstance implements Replicator {
       return;
     }
 
+    final long receivedAt = lastLeaderContact;
+
     if (appendMessage.getEntriesList().isEmpty()) {
       appendReply(request, true);
       long newCommitIndex = Math.min(appendMessage.getCommitIndex(), log.getLastIndex());
+      noteCommitProgress(newCommitIndex, appendMessage.getCommitIndex(), receivedAt);
       setLastCommittedIndex(newCommitIndex);
       return;
     }
@@ -565,6 +772,7 @@ public class ReplicatorInstance implements Replicator {
 
           // 8. Signal the client of the Replicator that it can apply newly committed entries to state machine
           long newCommitIndex = Math.min(appendMessage.getCommitIndex(), log.getLastIndex());
+          noteCommitProgress(newCommitIndex, appendMessage.getCommitIndex(), receivedAt);
           setLastCommittedIndex(newCommitIndex);
         },
         (Throwable t) -> {
@@ -575,12 +783,164 @@ public class ReplicatorInstance implements Replicator {
         }, fiber);
   }
 
+  /**
+   * If this follower is about to commit everything the leader had committed when it sent an AppendEntries
+   * received at the given time, then this follower was up to date as of that time.
+   */
+  @FiberOnly
+  private void noteCommitProgress(long newCommitIndex, long leaderCommitIndex, long receivedAt) {
+    if (Math.max(newCommitIndex, lastCommittedIndex) >= leaderCommitIndex) {
+      caughtUpWithLeaderAsOf = Math.max(caughtUpWithLeaderAsOf, receivedAt);
+    }
+  }
+
   private void appendReply(Request<RpcWireRequest, RpcReply> request, boolean success) {
     AppendEntriesReply m = new AppendEntriesReply(currentTerm, success, 0);
     RpcReply reply = new RpcReply(m);
     request.reply(reply);
   }
 
+  @FiberOnly
+  private void doInstallSnapshot(final Request<RpcWireRequest, RpcReply> request) {
+    final InstallSnapshot msg = request.getRequest().getInstallSnapshotMessage();
+
+    // The same as steps 1 through 4 of AppendEntries
+    if (msg.getTerm() < currentTerm) {
+      installSnapshotReply(request, false, 0);
+      return;
+    }
+
+    if (msg.getTerm() > currentTerm) {
+      setCurrentTerm(msg.getTerm());
+    }
+
+    if (myState != State.FOLLOWER) {
+      becomeFollower();
+    }
+
+    lastRPC = clock.currentTimeMillis();
+    lastLeaderContact = lastRPC;
+
+    long theLeader = msg.getLeaderId();
+    if (whosLeader != theLeader) {
+      acknowledgeNewLeader(theLeader);
+    }
+
+    final long snapshotIndex = msg.getLastIncludedIndex();
+    final long offset = msg.getOffset();
+
+    if (snapshotStore == null) {
+      logger.error("received a snapshot from the leader, but there is no snapshot store to install it");
+      installSnapshotReply(request, false, 0);
+      return;
+    }
+
+    if (offset == 0) {
+      incomingSnapshotIndex = snapshotIndex;
+      incomingSnapshotNextOffset = 0;
+      incomingSnapshotTransfer++;
+    } else if (snapshotIndex != incomingSnapshotIndex || offset != incomingSnapshotNextOffset) {
+      logger.debug("snapshot chunk out of sequence; expected offset {} of snapshot at index {}",
+          incomingSnapshotNextOffset, incomingSnapshotIndex);
+      installSnapshotReply(request, false, snapshotIndex == incomingSnapshotIndex ? incomingSnapshotNextOffset : 0);
+      return;
+    }
+
+    final ByteBuffer data = msg.getData() == null ? ByteBuffer.allocate(0) : msg.getData();
+    final long nextOffset = offset + data.remaining();
+    final long transfer = incomingSnapshotTransfer;
+    final long term = currentTerm;
+
+    C5Futures.addCallback(snapshotStore.writeSnapshotChunk(quorumId, snapshotIndex, offset, data),
+        (result) -> {
+          if (!isCurrentSnapshotChunk(transfer, term, offset)) {
+            logger.debug("discarding snapshot chunk at offset {} of snapshot at index {}; a newer chunk, "
+                + "transfer, or term arrived while it was being written", offset, snapshotIndex);
+            installSnapshotReply(request, false, transfer == incomingSnapshotTransfer ? incomingSnapshotNextOffset : 0);
+            return;
+          }
+          incomingSnapshotNextOffset = nextOffset;
+          if (msg.getDone()) {
+            installReceivedSnapshot(request, msg, transfer);
+          } else {
+            installSnapshotReply(request, true, nextOffset);
+          }
+        },
+        (Throwable t) -> {
+          logger.error("failure writing received snapshot chunk", t);
+          if (transfer == incomingSnapshotTransfer) {
+            abandonIncomingSnapshot();
+          }
+          installSnapshotReply(request, false, 0);
+        }, fiber);
+  }
+
+  /**
+   * Whether a chunk whose write has just completed still continues the current transfer, at the offset the
+   * transfer expects, in the term in which the chunk was received.
+   */
+  @FiberOnly
+  private boolean isCurrentSnapshotChunk(long transfer, long term, long offset) {
+    return transfer == incomingSnapshotTransfer
+        && term == currentTerm
+        && offset == incomingSnapshotNextOffset;
+  }
+
+  @FiberOnly
+  private void abandonIncomingSnapshot() {
+    incomingSnapshotIndex = 0;
+    incomingSnapshotNextOffset = 0;
+    incomingSnapshotTransfer++;
+  }
+
+  /**
+   * Replace the local state with the snapshot just received from the leader, then discard the log
+   * entries the snapshot covers, or the whole log if it does not contain the snapshot's last entry.
+   */
+  @FiberOnly
+  private void installReceivedSnapshot(Request<RpcWireRequest, RpcReply> request,
+                                       InstallSnapshot msg,
+                                       long transfer) {
+    final long snapshotIndex = msg.getLastIncludedIndex();
+    final long snapshotTerm = msg.getLastIncludedTerm();
+    final QuorumConfiguration snapshotConfiguration = QuorumConfiguration.fromProtostuff(msg.getConfiguration());
+
+    C5Futures.addCallback(snapshotStore.installSnapshot(quorumId, snapshotIndex, snapshotTerm),
+        (installed) -> {
+          final ListenableFuture<Boolean> compactFuture =
+              log.compactLog(snapshotIndex, snapshotTerm, snapshotConfiguration);
+          refreshQuorumConfigurationFromLog();
+          if (transfer == incomingSnapshotTransfer) {
+            abandonIncomingSnapshot();
+          }
+
+          // The entries covered by the snapshot are committed, but they have already been applied,
+          // by way of the snapshot, so no commit notices are issued for them.
+          lastCommittedIndex = Math.max(lastCommittedIndex, snapshotIndex);
+
+          C5Futures.addCallback(compactFuture,
+              (result) -> installSnapshotReply(request, true, 0),
+              (Throwable t) -> {
+                // TODO A log failure is probably a fatal error. Quit the instance?
+                logger.error("failure compacting the log to the received snapshot", t);
+                installSnapshotReply(request, false, 0);
+              }, fiber);
+        },
+        (Throwable t) -> {
+          logger.error("failure installing received snapshot", t);
+          if (transfer == incomingSnapshotTransfer) {
+            abandonIncomingSnapshot();
+          }
+          installSnapshotReply(request, false, 0);
+        }, fiber);
+  }
+
+  private void installSnapshotReply(Request<RpcWireRequest, RpcReply> request, boolean success, long nextOffset) {
+    InstallSnapshotReply m = new InstallSnapshotReply(currentTerm, success, nextOffset);
+    RpcReply reply = new RpcReply(m);
+    request.reply(reply);
+  }
+
   @FiberOnly
   private void acknowledgeNewLeader(long theLeader) {
     logger.debug("discovered new leader: {}", theLeader);
@@ -893,6 +1253,13 @@ public class ReplicatorInstance implements Replicator {
   //// Leader timer stuff below
   private Disposable queueConsumer;
 
+  // Set while a wake-up of the queue consumer is waiting to run on the fiber, so that a burst of requests
+  // from other threads results in a single pass over the queue.
+  private final AtomicBoolean queueConsumerWakeupPending = new AtomicBoolean(false);
+
+  // Number of writes of new entries to the leader's own log which have not yet completed.
+  private int localLogWritesInFlight = 0;
+
   @FiberOnly
   private void becomeFollower() {
     boolean wasLeader = myState == State.LEADER;
@@ -910,6 +1277,27 @@ public class ReplicatorInstance implements Replicator {
     }
 
     stopQueueConsumer();
+    closeAllCatchUpReaders();
+    snapshotTransfers.clear();
+
+    // Requests not yet taken from the queue will not be logged in this term; fail them, returning their budget.
+    for (InternalReplicationRequest req = logRequests.poll(); req != null; req = logRequests.poll()) {
+      failLogRequest(req);
+    }
+
+    leaderLeaseExpiryMillis = 0;
+    committedInCurrentTerm = false;
+    for (LeadershipConfirmation confirmation : pendingLeadershipConfirmations) {
+      confirmation.future.setException(
+          new IllegalStateException("ReplicatorInstance#confirmLeadership: no longer the leader"));
+    }
+    pendingLeadershipConfirmations.clear();
+  }
+
+  private void failLogRequest(InternalReplicationRequest req) {
+    pendingLogBytes.release(budgetedBytes(req));
+    req.logReceiptFuture.setException(
+        new IllegalStateException("ReplicatorInstance#logData: no longer the leader"));
   }
 
   @FiberOnly
@@ -931,6 +1319,13 @@ public class ReplicatorInstance implements Replicator {
 
     peersLastAckedIndex.clear();
     peersNextIndex.clear();
+    closeAllCatchUpReaders();
+    snapshotTransfers.clear();
+    replicationWindows.clear();
+    peersLastAnsweredSequence.clear();
+    peersLastAnsweredSendTime.clear();
+    leaderLeaseExpiryMillis = 0;
+    committedInCurrentTerm = false;
 
     for (long peer : allPeersExceptMe()) {
       peersNextIndex.put(peer, myNextLog);
@@ -949,20 +1344,57 @@ public class ReplicatorInstance implements Replicator {
             null, null)
     );
 
+    // Raft section 8: a new leader knows which entries are committed only once it has committed an entry of
+    // its own term, so log one straight away rather than waiting for a client to do so. Until it commits,
+    // an idle leader could neither confirm its leadership nor commit what its predecessor left behind. If the
+    // queue is full, the requests already in it serve the same purpose.
+    logRequests.offer(InternalReplicationRequest.toNoOp());
     startQueueConsumer();
   }
 
   @FiberOnly
   private void startQueueConsumer() {
-    queueConsumer = fiber.scheduleAtFixedRate(() -> {
-      try {
-        consumeQueue();
-        checkOnQuorumChange();
-      } catch (Throwable t) {
-        logger.error("Exception in consumeQueue: ", t);
-        failReplicatorInstance(t);
-      }
-    }, 0, clock.leaderLogRequestsProcessingInterval(), TimeUnit.MILLISECONDS);
+    localLogWritesInFlight = 0;
+    queueConsumer = fiber.scheduleAtFixedRate(this::runQueueConsumer,
+        0, clock.leaderLogRequestsProcessingInterval(), TimeUnit.MILLISECONDS);
+  }
+
+  @FiberOnly
+  private void runQueueConsumer() {
+    try {
+      consumeQueue();
+      checkOnQuorumChange();
+      updateLeaderLease();
+    } catch (Throwable t) {
+      logger.error("Exception in consumeQueue: ", t);
+      failReplicatorInstance(t);
+    }
+  }
+
+  /**
+   * Have the leader consume the log request queue as soon as possible, rather than waiting for the next
+   * run of the fixed-rate queue consumer, which then serves only to send heartbeats (and to pick up
+   * anything a wake-up left behind). May be called from any thread, after adding to the queue.
+   */
+  private void wakeQueueConsumer() {
+    if (queueConsumerWakeupPending.compareAndSet(false, true)) {
+      fiber.execute(this::onQueueConsumerWakeup);
+    }
+  }
+
+  /**
+   * While any of the leader's writes to its own log is in flight, requests are left to accumulate; the
+   * write's completion consumes them all at once. So, under load, requests are batched in proportion to
+   * how long each write takes, while a lone request is sent without delay.
+   */
+  @FiberOnly
+  private void onQueueConsumerWakeup() {
+    queueConsumerWakeupPending.set(false);
+    if (queueConsumer == null || localLogWritesInFlight > 0 || logRequests.isEmpty()) {
+      return;
+    }
+
+    runQueueConsumer();
   }
 
   @FiberOnly
@@ -981,8 +1413,9 @@ public class ReplicatorInstance implements Replicator {
     final long firstIndexInList = log.getLastIndex() + 1;
     final long lastIndexInList = firstIndexInList + reqs.size() - 1;
 
+    final int reqBytes = reqs.stream().mapToInt(ReplicatorInstance::budgetedBytes).sum();
     List<LogEntry> newLogEntries = createLogEntriesFromIntRequests(reqs, firstIndexInList);
-    leaderLogNewEntries(newLogEntries, lastIndexInList);
+    leaderLogNewEntries(newLogEntries, lastIndexInList, reqBytes);
     refreshQuorumConfigurationFromLog();
 
     assert lastIndexInList == log.getLastIndex();
@@ -992,47 +1425,234 @@ public class ReplicatorInstance implements Replicator {
       // for each peer, figure out how many "back messages" should I send:
       final long peerNextIdx = this.peersNextIndex.getOrDefault(peer, firstIndexInList);
 
-      if (peerNextIdx < firstIndexInList) {
-        final long moreCount = firstIndexInList - peerNextIdx;
-        logger.debug("sending {} more log entries to peer {}", moreCount, peer);
-
-        // TODO check moreCount is reasonable, and available in log. Otherwise do alternative peer catch up
-        // TODO alternative peer catchup is by a different process, send message to that then skip sending AppendRpc
-
-        // TODO allow for smaller 'catch up' messages so we don't try to create a 400GB sized message.
-
-        // TODO cache these extra LogEntry objects so we don't recreate too many of them.
-
-        ListenableFuture<List<LogEntry>> peerEntriesFuture = log.getLogEntries(peerNextIdx, firstIndexInList);
-
-        C5Futures.addCallback(peerEntriesFuture,
-            (entriesFromLog) -> {
-              // TODO make sure the lists splice neatly together.
-              assert entriesFromLog.size() == moreCount;
-              if (peerNextIdx != peersNextIndex.get(peer) ||
-                  myState != State.LEADER) {
-                // These were the same when we started checking the log, but they're not now -- that means
-                // things happened while the log was retrieving, so discard this result. This is safe because
-                // the next (or concurrent) run of consumeQueue has better information.
-                return;
-              }
-
-              List<LogEntry> entriesToAppend = new ArrayList<>((int) (newLogEntries.size() + moreCount));
-              entriesToAppend.addAll(entriesFromLog);
-              entriesToAppend.addAll(newLogEntries);
-              sendAppendEntries(peer, peerNextIdx, lastIndexInList, entriesToAppend);
-            },
-            (Throwable t) -> {
-              // TODO is this situation ever recoverable?
-              logger.error("failed to retrieve from log", t);
-              failReplicatorInstance(t);
-            }, fiber);
+      if (peerNextIdx <= log.getSnapshotIndex()) {
+        // The peer needs entries which have been compacted out of the log, so send it the snapshot instead.
+        closeCatchUpReader(peer);
+        sendSnapshotChunk(peer);
+      } else if (!windowFor(peer).hasRoom()) {
+        // The peer already has as much in flight as it may; send it only a heartbeat. Any entries it is
+        // missing will be read back from the log and sent as its acknowledgements make room.
+        snapshotTransfers.remove(peer);
+        sendAppendEntries(peer, peerNextIdx, peerNextIdx - 1, new ArrayList<>());
+      } else if (peerNextIdx < firstIndexInList) {
+        snapshotTransfers.remove(peer);
+        sendCatchUpEntries(peer, catchUpReaderFor(peer, peerNextIdx), newLogEntries);
       } else {
+        snapshotTransfers.remove(peer);
+        closeCatchUpReader(peer);
         sendAppendEntries(peer, peerNextIdx, lastIndexInList, newLogEntries);
       }
     }
   }
 
+  /**
+   * Send the peer the next chunk of the snapshot the log has been compacted to, unless a chunk is
+   * already on its way. Each acknowledged chunk is immediately followed by the next; once the peer
+   * acknowledges the last one, it continues from the entry following the snapshot by way of the
+   * usual AppendEntries.
+   */
+  @FiberOnly
+  private void sendSnapshotChunk(long peer) {
+    if (snapshotStore == null) {
+      logger.error("peer {} needs entries which have been compacted, but there is no snapshot store", peer);
+      return;
+    }
+
+    final long snapshotIndex = log.getSnapshotIndex();
+    SnapshotTransfer transfer = snapshotTransfers.get(peer);
+    if (transfer == null || transfer.snapshotIndex != snapshotIndex) {
+      logger.debug("sending snapshot at index {} to peer {}", snapshotIndex, peer);
+      transfer = new SnapshotTransfer(snapshotIndex, log.getSnapshotTerm());
+      snapshotTransfers.put(peer, transfer);
+    }
+
+    if (transfer.inFlight) {
+      return;
+    }
+
+    final SnapshotTransfer thisTransfer = transfer;
+    final long offset = thisTransfer.nextOffset;
+    final int maxBytes = ReplicatorConstants.REPLICATOR_SNAPSHOT_CHUNK_BYTES;
+    thisTransfer.inFlight = true;
+
+    C5Futures.addCallback(snapshotStore.readSnapshot(quorumId, snapshotIndex, offset, maxBytes),
+        (ByteBuffer data) -> {
+          if (myState != State.LEADER || snapshotTransfers.get(peer) != thisTransfer) {
+            return;
+          }
+
+          final boolean done = data.remaining() < maxBytes;
+          final long nextOffset = offset + data.remaining();
+          // TODO If a configuration entry has been logged since the log was compacted, the configuration
+          // TODO  as of the snapshot is not known here, so the latest one is sent instead. The peer learns
+          // TODO  of that one shortly afterwards anyway, from the entries following the snapshot.
+          InstallSnapshot msg = new InstallSnapshot(currentTerm, myId, thisTransfer.snapshotIndex,
+              thisTransfer.snapshotTerm, quorumConfig.toProtostuff(), offset, data, done);
+
+          RpcRequest request = new RpcRequest(peer, myId, quorumId, msg);
+          AsyncRequest.withOneReply(fiber, sendRpcChannel, request, message -> {
+            thisTransfer.inFlight = false;
+            if (myState != State.LEADER || snapshotTransfers.get(peer) != thisTransfer) {
+              return;
+            }
+
+            final InstallSnapshotReply reply = message.getInstallSnapshotReplyMessage();
+            if (!reply.getSuccess()) {
+              thisTransfer.nextOffset = reply.getNextOffset();
+            } else if (done) {
+              logger.debug("peer {} installed snapshot at index {}", peer, thisTransfer.snapshotIndex);
+              snapshotTransfers.remove(peer);
+              peersNextIndex.put(peer, thisTransfer.snapshotIndex + 1);
+              peersLastAckedIndex.put(peer, thisTransfer.snapshotIndex);
+              checkIfMajorityCanCommit(thisTransfer.snapshotIndex);
+            } else {
+              thisTransfer.nextOffset = nextOffset;
+              sendSnapshotChunk(peer);
+            }
+          }, REPLICATOR_APPEND_RPC_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS, () -> {
+            thisTransfer.inFlight = false;
+            logger.trace("peer {} timed out receiving snapshot", peer);
+          });
+        },
+        (Throwable t) -> {
+          thisTransfer.inFlight = false;
+          logger.error("failed to read snapshot at index {}", snapshotIndex, t);
+        }, fiber);
+  }
+
+
+  /**
+   * Get the catch-up reader for the given peer, creating a new one if there is none, or if the peer's
+   * next index is not the one the existing reader expects (for instance, because the peer rejected an
+   * AppendEntries).
+   */
+  @FiberOnly
+  private PeerCatchUpReader catchUpReaderFor(long peer, long peerNextIdx) {
+    PeerCatchUpReader reader = catchUpReaders.get(peer);
+    if (reader != null && reader.nextIndex() == peerNextIdx) {
+      return reader;
+    }
+
+    closeCatchUpReader(peer);
+    logger.debug("catching up peer {} from index {}", peer, peerNextIdx);
+
+    final PeerCatchUpReader newReader = new PeerCatchUpReader(log, fiber, peerNextIdx,
+        ReplicatorConstants.REPLICATOR_CATCH_UP_BUFFER_BYTES_PER_PEER,
+        ReplicatorConstants.REPLICATOR_CATCH_UP_ENTRIES_PER_READ,
+        catchUpBufferedBytes,
+        () -> onCatchUpEntriesRead(peer),
+        (Throwable t) -> {
+          // TODO is this situation ever recoverable?
+          logger.error("failed to retrieve from log", t);
+          failReplicatorInstance(t);
+        });
+    catchUpReaders.put(peer, newReader);
+    return newReader;
+  }
+
+  @FiberOnly
+  private void onCatchUpEntriesRead(long peer) {
+    final PeerCatchUpReader reader = catchUpReaders.get(peer);
+    if (myState != State.LEADER
+        || reader == null
+        || reader.nextIndex() != peersNextIndex.getOrDefault(peer, 0L)
+        || !windowFor(peer).hasRoom()) {
+      // Things changed while the log was being read; the next run of consumeQueue has better information.
+      return;
+    }
+
+    sendCatchUpEntries(peer, reader, new ArrayList<>());
+  }
+
+  /**
+   * Send the peer the next entries buffered by its catch-up reader, if there are any, and keep the reader
+   * reading ahead. Once the reader has caught the peer up to the entries logged by the current run of
+   * consumeQueue, given by newLogEntries, send those entries too, and close the reader.
+   */
+  @FiberOnly
+  private void sendCatchUpEntries(long peer, PeerCatchUpReader reader, List<LogEntry> newLogEntries) {
+    final long peerNextIdx = reader.nextIndex();
+    final List<LogEntry> entries = reader.take(
+        ReplicatorConstants.REPLICATOR_CATCH_UP_MAXIMUM_ENTRIES_PER_MESSAGE,
+        ReplicatorConstants.REPLICATOR_CATCH_UP_MAXIMUM_MESSAGE_BYTES);
+
+    if (entries.isEmpty()) {
+      reader.readAhead();
+      return;
+    }
+
+    long lastIndexSent = entries.get(entries.size() - 1).getIndex();
+    logger.debug("sending {} more log entries to peer {}", entries.size(), peer);
+
+    if (lastIndexSent + newLogEntries.size() == log.getLastIndex()) {
+      entries.addAll(newLogEntries);
+      lastIndexSent = log.getLastIndex();
+      closeCatchUpReader(peer);
+    } else {
+      reader.readAhead();
+    }
+
+    sendAppendEntries(peer, peerNextIdx, lastIndexSent, entries);
+  }
+
+  /**
+   * Send the peer more of the entries it lacks, if there are any, and if its window has room for them.
+   * Called as soon as the peer acknowledges or rejects entries, rather than waiting for the next run of
+   * consumeQueue, so that a peer which is able to keep up is kept busy.
+   */
+  @FiberOnly
+  private void continueReplicatingTo(long peer) {
+    if (myState != State.LEADER || !windowFor(peer).hasRoom()) {
+      return;
+    }
+
+    final long peerNextIdx = peersNextIndex.getOrDefault(peer, log.getLastIndex() + 1);
+    if (peerNextIdx <= log.getSnapshotIndex() || peerNextIdx > log.getLastIndex()) {
+      // Either the peer needs the snapshot, which consumeQueue will send, or there is nothing to send.
+      return;
+    }
+
+    snapshotTransfers.remove(peer);
+    sendCatchUpEntries(peer, catchUpReaderFor(peer, peerNextIdx), new ArrayList<>());
+  }
+
+  @FiberOnly
+  private PeerReplicationWindow windowFor(long peer) {
+    return replicationWindows.computeIfAbsent(peer, (unused) ->
+        new PeerReplicationWindow(
+            ReplicatorConstants.REPLICATOR_APPEND_WINDOW_MAXIMUM_BATCHES,
+            ReplicatorConstants.REPLICATOR_APPEND_WINDOW_MAXIMUM_BYTES));
+  }
+
+  @FiberOnly
+  private void closeCatchUpReader(long peer) {
+    final PeerCatchUpReader reader = catchUpReaders.remove(peer);
+    if (reader != null) {
+      reader.close();
+    }
+  }
+
+  @FiberOnly
+  private void closeAllCatchUpReaders() {
+    catchUpReaders.values().forEach(PeerCatchUpReader::close);
+    catchUpReaders.clear();
+  }
+
+  /**
+   * State of a transfer of a snapshot to a single peer.
+   */
+  private static class SnapshotTransfer {
+    public final long snapshotIndex;
+    public final long snapshotTerm;
+    public long nextOffset = 0;
+    public boolean inFlight = false;
+
+    private SnapshotTransfer(long snapshotIndex, long snapshotTerm) {
+      this.snapshotIndex = snapshotIndex;
+      this.snapshotTerm = snapshotTerm;
+    }
+  }
+
   @FiberOnly
   private void checkOnQuorumChange() {
 
@@ -1077,27 +1697,47 @@ public class ReplicatorInstance implements Replicator {
     return newLogEntries;
   }
 
+  /**
+   * Log the given entries to the leader's own log, then return the given number of bytes, which those
+   * entries' requests took from the pendingLogBytes budget.
+   */
   @FiberOnly
-  private void leaderLogNewEntries(List<LogEntry> newLogEntries, long lastIndexInList) {
+  private void leaderLogNewEntries(List<LogEntry> newLogEntries, long lastIndexInList, int reqBytes) {
     final ListenableFuture<Boolean> localLogFuture;
 
     if (newLogEntries.isEmpty()) {
       return;
     }
     localLogFuture = log.logEntries(newLogEntries);
+    localLogWritesInFlight++;
 
     // TODO this callback and some others should have timeouts in case the log hangs somehow
     C5Futures.addCallback(localLogFuture,
         (result) -> {
+          localLogWritesInFlight--;
+          pendingLogBytes.release(reqBytes);
           peersLastAckedIndex.put(myId, lastIndexInList);
           checkIfMajorityCanCommit(lastIndexInList);
+
+          if (!logRequests.isEmpty()) {
+            wakeQueueConsumer();
+          }
         },
         (Throwable t) -> {
           logger.error("failed to commit to local log", t);
+          pendingLogBytes.release(reqBytes);
           failReplicatorInstance(t);
         }, fiber);
   }
 
+  /**
+   * Send the given entries, which may be empty, to the peer. A non-empty list of entries is recorded as a
+   * batch in flight in the peer's window. Since messages to the peer arrive in order, a rejection means
+   * the batch (or, for a heartbeat, some batch sent before it) was lost or did not match the peer's log, so
+   * everything in flight is forgotten and the leader immediately resends from the index the peer needs --
+   * provided that index is earlier than the one rejected; otherwise, the next run of consumeQueue retries.
+   * A batch which times out is likewise resent at once, rather than on the next run of consumeQueue.
+   */
   @FiberOnly
   private void sendAppendEntries(long peer, long peerNextIdx, long lastIndexSent, final List<LogEntry> entries) {
 
@@ -1115,35 +1755,155 @@ public class ReplicatorInstance implements Replicator {
     // catch them up so the next RPC wont over-send old junk.
     peersNextIndex.put(peer, lastIndexSent + 1);
 
+    final PeerReplicationWindow window = windowFor(peer);
+    final long epochSent = window.epoch();
+    final PeerReplicationWindow.Batch batch;
+    if (entries.isEmpty()) {
+      batch = null;
+    } else {
+      batch = window.sent(peerNextIdx, lastIndexSent, entriesSize(entries));
+    }
+
     AppendEntries msg = new AppendEntries(
         currentTerm, myId, prevLogIndex, prevLogTerm,
         entries,
         lastCommittedIndex
     );
+    final long sequence = ++appendSequence;
+    final long sendTime = clock.currentTimeMillis();
 
     RpcRequest request = new RpcRequest(peer, myId, quorumId, msg);
     AsyncRequest.withOneReply(fiber, sendRpcChannel, request, message -> {
       logger.trace("got a reply {}", message);
+      if (replicationWindows.get(peer) != window || !isLeader()) {
+        // Sent during an earlier term as leader.
+        return;
+      }
+
+      if (message.getAppendReplyMessage().getTerm() == currentTerm) {
+        // Whether or not the entries matched, the peer still recognizes this leader.
+        onAnswerFromPeer(peer, sequence, sendTime);
+      }
 
       boolean wasSuccessful = message.getAppendReplyMessage().getSuccess();
       if (!wasSuccessful) {
+        if (window.epoch() != epochSent) {
+          // Everything sent along with this message has already been sent again.
+          return;
+        }
+        window.clear();
+
         // This is per Page 7, paragraph 5.  "After a rejection, the leader decrements nextIndex and retries"
         if (message.getAppendReplyMessage().getMyNextLogEntry() != 0) {
           peersNextIndex.put(peer, message.getAppendReplyMessage().getMyNextLogEntry());
         } else {
           peersNextIndex.put(peer, Math.max(peerNextIdx - 1, 1));
         }
+        if (peersNextIndex.get(peer) < peerNextIdx) {
+          continueReplicatingTo(peer);
+        }
       } else {
-        // we have been successfully acked up to this point.
+        // we have been successfully acked up to this point. Because messages arrive in order, that
+        // acknowledges every batch up to this point, too, including any whose replies were lost.
         logger.trace("peer {} acked for {}", peer, lastIndexSent);
-        peersLastAckedIndex.put(peer, lastIndexSent);
+        window.acknowledge(lastIndexSent);
+        peersLastAckedIndex.put(peer, Math.max(lastIndexSent, peersLastAckedIndex.getOrDefault(peer, 0L)));
 
         checkIfMajorityCanCommit(lastIndexSent);
+        continueReplicatingTo(peer);
       }
-    }, REPLICATOR_APPEND_RPC_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS, () ->
-        // Do nothing -> let next timeout handle things.
-        // This timeout exists just so that we can cancel and clean up stuff in jetlang.
-        logger.trace("peer {} timed out", peer));
+    }, REPLICATOR_APPEND_RPC_TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS, () -> {
+      logger.trace("peer {} timed out", peer);
+      if (batch == null || replicationWindows.get(peer) != window || !window.isInFlight(batch)) {
+        // A heartbeat, or a batch which has since been acknowledged or resent; let the next timeout handle things.
+        return;
+      }
+      window.clear();
+      peersNextIndex.put(peer, batch.firstIndex);
+      continueReplicatingTo(peer);
+    });
+  }
+
+  @FiberOnly
+  private void onAnswerFromPeer(long peer, long sequence, long sendTime) {
+    peersLastAnsweredSequence.put(peer, Math.max(sequence, peersLastAnsweredSequence.getOrDefault(peer, 0L)));
+    peersLastAnsweredSendTime.put(peer, Math.max(sendTime, peersLastAnsweredSendTime.getOrDefault(peer, 0L)));
+    updateLeaderLease();
+    checkLeadershipConfirmations();
+  }
+
+  /**
+   * The leader's lease lasts until the leader lease duration has passed since the time by which a majority
+   * had answered it: none of them will help elect another leader before then. The lease is only extended,
+   * never shortened, while this replicator remains the leader.
+   */
+  @FiberOnly
+  private void updateLeaderLease() {
+    final long leaseDuration = clock.leaderLeaseDuration();
+    if (leaseDuration <= 0 || !isLeader() || quorumConfig.isEmpty()) {
+      return;
+    }
+
+    final long leaseStart = answeredByMajority(peersLastAnsweredSendTime, clock.currentTimeMillis());
+    if (leaseStart > 0) {
+      leaderLeaseExpiryMillis = Math.max(leaderLeaseExpiryMillis, leaseStart + leaseDuration);
+    }
+  }
+
+  @FiberOnly
+  private void checkLeadershipConfirmations() {
+    if (pendingLeadershipConfirmations.isEmpty() || quorumConfig.isEmpty() || !committedInCurrentTerm) {
+      return;
+    }
+
+    final long answeredSequence = answeredByMajority(peersLastAnsweredSequence, Long.MAX_VALUE);
+    final Iterator<LeadershipConfirmation> iterator = pendingLeadershipConfirmations.iterator();
+    while (iterator.hasNext()) {
+      final LeadershipConfirmation confirmation = iterator.next();
+      if (confirmation.lastSequenceBeforeRequest < answeredSequence) {
+        confirmation.future.set(lastCommittedIndex);
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Find the greatest value which a majority of the quorum has reached, counting this replicator as
+   * having reached the given value.
+   */
+  private long answeredByMajority(Map<Long, Long> valuesByPeer, long myValue) {
+    final Map<Long, Long> values = new HashMap<>(valuesByPeer);
+    values.put(myId, myValue);
+    return quorumConfig.calculateCommittedIndex(values);
+  }
+
+  /**
+   * Whether this follower has heard from the leader recently enough that the leader may still hold its
+   * lease; if so, it must not help elect another leader.
+   */
+  @FiberOnly
+  private boolean leaderMayHoldLease() {
+    final long leaseDuration = clock.leaderLeaseDuration();
+    return leaseDuration > 0
+        && myState == State.FOLLOWER
+        && lastLeaderContact != 0
+        && clock.currentTimeMillis() < lastLeaderContact + leaseDuration;
+  }
+
+  private static long entriesSize(List<LogEntry> entries) {
+    long size = 0;
+    for (LogEntry entry : entries) {
+      size += PeerCatchUpReader.sizeOf(entry);
+    }
+    return size;
+  }
+
+  /**
+   * The share of the pendingLogBytes budget the request takes; a request larger than the entire budget
+   * takes all of it, so that it can still be submitted once nothing else is pending.
+   */
+  private static int budgetedBytes(InternalReplicationRequest req) {
+    return (int) Math.min(req.dataBytes, REPLICATOR_MAXIMUM_PENDING_LOG_BYTES);
   }
 
   @FiberOnly
@@ -1193,6 +1953,11 @@ public class ReplicatorInstance implements Replicator {
 
     setLastCommittedIndex(newCommitIndex);
     logger.trace("discovered new visible entry {}", lastCommittedIndex);
+
+    if (!committedInCurrentTerm) {
+      committedInCurrentTerm = true;
+      checkLeadershipConfirmations();
+    }
   }
 
   private void setLastCommittedIndex(long newLastCommittedIndex) {
@@ -1270,4 +2035,14 @@ public class ReplicatorInstance implements Replicator {
     quorumConfig = log.getLastConfiguration();
     quorumConfigIndex = log.getLastConfigurationIndex();
   }
+
+  private static class LeadershipConfirmation {
+    public final long lastSequenceBeforeRequest;
+    public final SettableFuture<Long> future;
+
+    private LeadershipConfirmation(long lastSequenceBeforeRequest, SettableFuture<Long> future) {
+      this.lastSequenceBeforeRequest = lastSequenceBeforeRequest;
+      this.future = future;
+    }
+  }
 }
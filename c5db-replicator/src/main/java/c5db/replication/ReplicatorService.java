@@ -17,8 +17,9 @@
 
 package c5db.replication;
 
-import c5db.codec.ProtostuffDecoder;
-import c5db.codec.ProtostuffEncoder;
+import c5db.ReplicatorConstants;
+import c5db.codec.ProtostuffFramedDecoder;
+import c5db.codec.ProtostuffFramedEncoder;
 import c5db.interfaces.C5Module;
 import c5db.interfaces.DiscoveryModule;
 import c5db.interfaces.LogModule;
@@ -32,6 +33,7 @@ import c5db.interfaces.replication.ReplicatorInstanceEvent;
 import c5db.interfaces.replication.ReplicatorLog;
 import c5db.messages.generated.ModuleType;
 import c5db.replication.generated.ReplicationWireMessage;
+import c5db.replication.generated.ReplicationWireMessageBatch;
 import c5db.replication.rpc.RpcRequest;
 import c5db.replication.rpc.RpcWireReply;
 import c5db.replication.rpc.RpcWireRequest;
@@ -44,6 +46,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -59,8 +62,6 @@ import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder;
-import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import org.jetlang.channels.AsyncRequest;
@@ -77,14 +78,22 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * An implementation of ReplicationModule using instances of ReplicatorInstance to handle each quorum.
  * <p>
+ * The routing of RPCs between the instances and other servers is divided among several shards, each with
+ * its own fiber, by quorum ID; see {@link RoutingShard}. The service's own fiber handles only the creation
+ * and removal of instances and the service's life cycle.
+ * <p>
  * TODO consider being symmetric in how we handle sent messages.
  */
 public class ReplicatorService extends AbstractService implements ReplicationModule {
@@ -145,22 +154,23 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
   private final ServerBootstrap serverBootstrap = new ServerBootstrap();
   private final Bootstrap outgoingBootstrap = new Bootstrap();
 
-  // ReplicatorInstances and objects shared among them
-  private final Map<String, ReplicatorInstance> replicatorInstances = new HashMap<>();
+  // Connections to other servers by their node IDs, shared by all the shards. A connection is present
+  // from the time it is begun until its channel closes, so its future may not yet be complete.
+  private final Map<Long, ChannelFuture> connections = new ConcurrentHashMap<>();
+
+  // ReplicatorInstances and objects shared among them. The instances are created and removed on the
+  // service's fiber, but looked up from every shard's fiber.
+  private final Map<String, ReplicatorInstance> replicatorInstances = new ConcurrentHashMap<>();
   private final Persister persister;
-  private final RequestChannel<RpcRequest, RpcWireReply> outgoingRequests = new MemoryRequestChannel<>();
   private final MemoryChannel<ReplicatorInstanceEvent> replicatorEventChannel = new MemoryChannel<>();
   private final MemoryChannel<IndexCommitNotice> indexCommitNotices = new MemoryChannel<>();
 
-  // Connections to other servers by their node IDs
-  private final Map<Long, Channel> connections = new HashMap<>();
+  // Routing of RPCs to and from other servers, divided among shards by quorum ID; populated at module start.
+  private final int numberOfShards;
+  private final List<RoutingShard> shards = new ArrayList<>();
 
-  // Map of message ID -> Request
-  // TODO we need a way to remove these after a while, because if we fail to get a reply we will be unhappy.
-  private final Map<Long, Request<RpcRequest, RpcWireReply>> outstandingRPCs = new HashMap<>();
-
-  // Map of Session -> message ID
-  private final Map<Session, Long> outstandingRPCbySession = new HashMap<>();
+  // Source of the times with which the shards expire RPCs that have gone unanswered
+  private final ReplicatorClock clock;
 
   // Initialized in the module start, by the time any messages or fiber executions trigger, these should be not-null
   private DiscoveryModule discoveryModule = null;
@@ -168,9 +178,6 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
   private Channel listenChannel;
   private Fiber fiber;
 
-  // Sequence number for sent messages
-  private long messageIdGen = 1;
-
   /**
    * ReplicatorService creates and starts fibers; it must be stopped (or failed) in
    * order to dispose them.
@@ -182,22 +189,66 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
                            ModuleServer moduleServer,
                            FiberSupplier fiberSupplier,
                            QuorumFileReaderWriter quorumFileReaderWriter) {
+    this(bossGroup, workerGroup, nodeId, port, moduleServer, fiberSupplier, quorumFileReaderWriter,
+        ReplicatorConstants.REPLICATOR_SERVICE_ROUTING_SHARDS);
+  }
+
+  /**
+   * @param numberOfShards The number of fibers among which to divide the routing of RPCs
+   */
+  public ReplicatorService(EventLoopGroup bossGroup,
+                           EventLoopGroup workerGroup,
+                           long nodeId,
+                           int port,
+                           ModuleServer moduleServer,
+                           FiberSupplier fiberSupplier,
+                           QuorumFileReaderWriter quorumFileReaderWriter,
+                           int numberOfShards) {
+    this(bossGroup, workerGroup, nodeId, port, moduleServer, fiberSupplier, quorumFileReaderWriter,
+        numberOfShards, new DefaultSystemTimeReplicatorClock());
+  }
+
+  /**
+   * @param numberOfShards The number of fibers among which to divide the routing of RPCs
+   * @param clock          The clock by which to time RPCs awaiting replies from other servers
+   */
+  public ReplicatorService(EventLoopGroup bossGroup,
+                           EventLoopGroup workerGroup,
+                           long nodeId,
+                           int port,
+                           ModuleServer moduleServer,
+                           FiberSupplier fiberSupplier,
+                           QuorumFileReaderWriter quorumFileReaderWriter,
+                           int numberOfShards,
+                           ReplicatorClock clock) {
+    assert numberOfShards > 0;
+
     this.bossGroup = bossGroup;
     this.workerGroup = workerGroup;
     this.nodeId = nodeId;
     this.port = port;
     this.moduleServer = moduleServer;
     this.fiberSupplier = fiberSupplier;
+    this.numberOfShards = numberOfShards;
+    this.clock = clock;
 
     this.allChannels = new DefaultChannelGroup(workerGroup.next());
     this.persister = new Persister(quorumFileReaderWriter);
   }
 
+  private RoutingShard shardFor(String quorumId) {
+    return shards.get(Math.floorMod(quorumId.hashCode(), numberOfShards));
+  }
+
+  private RoutingShard shardForMessageId(long messageId) {
+    return shards.get((int) Math.floorMod(messageId, (long) numberOfShards));
+  }
+
   /**
    * *************** Handlers for netty/messages from the wire/TCP ***********************
    */
   @ChannelHandler.Sharable
-  private class MessageHandler extends SimpleChannelInboundHandler<ReplicationWireMessage> {
+  private class MessageHandler extends SimpleChannelInboundHandler<ReplicationWireMessageBatch> {
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
       allChannels.add(ctx.channel());
@@ -206,190 +257,340 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
     }
 
     @Override
-    protected void channelRead0(final ChannelHandlerContext ctx, final ReplicationWireMessage msg) throws Exception {
-      fiber.execute(() -> handleWireInboundMessage(ctx.channel(), msg));
+    protected void channelRead0(final ChannelHandlerContext ctx, final ReplicationWireMessageBatch batch)
+        throws Exception {
+      for (ReplicationWireMessage msg : batch.getMessagesList()) {
+        // A reply goes back to the shard which sent the request; a request, to the shard for its quorum.
+        final RoutingShard shard = msg.getInReply()
+            ? shardForMessageId(msg.getMessageId())
+            : shardFor(msg.getQuorumId());
+        shard.fiber.execute(() -> shard.handleWireInboundMessage(ctx.channel(), msg));
+      }
     }
   }
 
-  @FiberOnly
-  private void handleWireInboundMessage(Channel channel, ReplicationWireMessage msg) {
-    long messageId = msg.getMessageId();
-    if (msg.getReceiverId() != nodeId) {
-      LOG.debug("Got messageId {} for {} but I am {}, ignoring!", messageId, msg.getReceiverId(), nodeId);
-      return;
+  /**
+   * State and handlers for routing the RPCs of the quorums assigned to one shard. Everything here is
+   * confined to the shard's own fiber: the RPCs it is awaiting replies to, and the messages it has
+   * queued to write. The connections to other servers are the service's, shared by every shard. Each shard generates its own message IDs, in
+   * which it encodes its index, so that a reply can be handed straight to the shard which sent the
+   * request.
+   * <p>
+   * Messages bound for another node are not written one at a time; they are collected and written
+   * together, as a single ReplicationWireMessageBatch. Most are written at the end of the fiber's current
+   * turn, so that they wait only for the other messages the same run of tasks produces. Heartbeats, which
+   * nothing is waiting on, are held for up to a flush interval instead, unless other traffic carries them
+   * sooner. With many quorums shared among the same nodes, this turns each quorum's heartbeats into a few
+   * bytes of a shared frame instead of a frame and packet apiece.
+   */
+  private class RoutingShard {
+    private final int shardIndex;
+    private final Fiber fiber;
+    private final RequestChannel<RpcRequest, RpcWireReply> outgoingRequests = new MemoryRequestChannel<>();
+
+    // Map of message ID -> Request
+    private final Map<Long, OutstandingRpc> outstandingRPCs = new HashMap<>();
+
+    // Map of Session -> message ID
+    private final Map<Session, Long> outstandingRPCbySession = new HashMap<>();
+
+    // Messages waiting to be written to each connection at the next flush
+    private final Map<Channel, List<ReplicationWireMessage>> pendingOutgoing = new LinkedHashMap<>();
+    private boolean flushQueued = false;
+    private boolean flushScheduled = false;
+
+    // Sequence number for sent messages
+    private long messageIdGen = 1;
+
+    private RoutingShard(int shardIndex, Fiber fiber) {
+      this.shardIndex = shardIndex;
+      this.fiber = fiber;
+    }
+
+    private void start() {
+      //noinspection Convert2MethodRef
+      outgoingRequests.subscribe(fiber, message -> handleOutgoingMessage(message),
+          // Clean up cancelled requests.
+          message -> handleCancelledSession(message.getSession())
+      );
+      fiber.scheduleWithFixedDelay(this::expireOutstandingRpcs,
+          ReplicatorConstants.REPLICATOR_RPC_EXPIRY_CHECK_INTERVAL_MILLISECONDS,
+          ReplicatorConstants.REPLICATOR_RPC_EXPIRY_CHECK_INTERVAL_MILLISECONDS,
+          TimeUnit.MILLISECONDS);
+      fiber.start();
     }
 
-    if (msg.getInReply()) {
-      Request<RpcRequest, RpcWireReply> request = outstandingRPCs.get(messageId);
-      if (request == null) {
-        LOG.debug("Got a reply message_id {} which we don't track", messageId);
+    private long nextMessageId() {
+      return (messageIdGen++) * numberOfShards + shardIndex;
+    }
+
+    @FiberOnly
+    private void handleWireInboundMessage(Channel channel, ReplicationWireMessage msg) {
+      long messageId = msg.getMessageId();
+      if (msg.getReceiverId() != nodeId) {
+        LOG.debug("Got messageId {} for {} but I am {}, ignoring!", messageId, msg.getReceiverId(), nodeId);
         return;
       }
 
-      outstandingRPCs.remove(messageId);
-      outstandingRPCbySession.remove(request.getSession());
-      request.reply(new RpcWireReply(msg));
-    } else {
-      handleWireRequestMessage(channel, msg);
-    }
-  }
+      if (msg.getInReply()) {
+        OutstandingRpc rpc = outstandingRPCs.get(messageId);
+        if (rpc == null) {
+          LOG.debug("Got a reply message_id {} which we don't track", messageId);
+          return;
+        }
 
-  @FiberOnly
-  private void handleWireRequestMessage(final Channel channel, final ReplicationWireMessage msg) {
-    RpcWireRequest wireRequest = new RpcWireRequest(msg);
-    String quorumId = wireRequest.quorumId;
-
-    ReplicatorInstance replInst = replicatorInstances.get(quorumId);
-    if (replInst == null) {
-      LOG.trace("Instance not found {} for message id {} from {} (normal during region bootstrap)",
-          quorumId,
-          msg.getMessageId(),
-          msg.getSenderId());
-      // TODO send RPC failure to the sender?
-      return;
+        outstandingRPCs.remove(messageId);
+        outstandingRPCbySession.remove(rpc.request.getSession());
+        rpc.request.reply(new RpcWireReply(msg));
+      } else {
+        handleWireRequestMessage(channel, msg);
+      }
     }
 
-    AsyncRequest.withOneReply(fiber, replInst.getIncomingChannel(), wireRequest, reply -> {
-      if (!channel.isOpen()) {
-        // TODO cant signal comms failure, so just drop on the floor. Is there a better thing to do?
+    @FiberOnly
+    private void handleWireRequestMessage(final Channel channel, final ReplicationWireMessage msg) {
+      RpcWireRequest wireRequest = new RpcWireRequest(msg);
+      String quorumId = wireRequest.quorumId;
+
+      ReplicatorInstance replInst = replicatorInstances.get(quorumId);
+      if (replInst == null) {
+        LOG.trace("Instance not found {} for message id {} from {} (normal during region bootstrap)",
+            quorumId,
+            msg.getMessageId(),
+            msg.getSenderId());
+        // TODO send RPC failure to the sender?
         return;
       }
 
-      ReplicationWireMessage b = reply.getWireMessage(
-          msg.getMessageId(),
-          nodeId,
-          msg.getSenderId(),
-          true
-      );
+      AsyncRequest.withOneReply(fiber, replInst.getIncomingChannel(), wireRequest, reply -> {
+        if (!channel.isOpen()) {
+          // TODO cant signal comms failure, so just drop on the floor. Is there a better thing to do?
+          return;
+        }
 
-      channel.writeAndFlush(b);
-    });
-  }
+        ReplicationWireMessage b = reply.getWireMessage(
+            msg.getMessageId(),
+            nodeId,
+            msg.getSenderId(),
+            true
+        );
 
-  /**
-   * ************* Handlers for Request<> from replicator instances ***********************************
-   */
-  @FiberOnly
-  private void handleCancelledSession(Session session) {
-    Long messageId = outstandingRPCbySession.get(session);
-    outstandingRPCbySession.remove(session);
-    if (messageId == null) {
-      return;
+        enqueueOutgoing(channel, b, false);
+      });
+    }
+
+    /**
+     * Queue a message to be written to the given connection with the next batch. Unless the message is
+     * idle traffic, the batch is flushed once the tasks already queued on the fiber have run; otherwise
+     * a flush is scheduled for the end of the flush interval, if none is queued or scheduled yet.
+     */
+    @FiberOnly
+    private void enqueueOutgoing(Channel channel, ReplicationWireMessage wireMessage, boolean idle) {
+      pendingOutgoing.computeIfAbsent(channel, (unused) -> new ArrayList<>()).add(wireMessage);
+
+      if (!idle) {
+        if (!flushQueued) {
+          flushQueued = true;
+          fiber.execute(this::flushOutgoing);
+        }
+      } else if (!flushScheduled) {
+        flushScheduled = true;
+        fiber.schedule(() -> {
+              flushScheduled = false;
+              flushOutgoing();
+            },
+            ReplicatorConstants.REPLICATOR_OUTGOING_FLUSH_INTERVAL_MILLISECONDS, TimeUnit.MILLISECONDS);
+      }
     }
-    LOG.trace("Removing cancelled RPC, message ID {}", messageId);
-    outstandingRPCs.remove(messageId);
-  }
 
-  @FiberOnly
-  private void handleOutgoingMessage(final Request<RpcRequest, RpcWireReply> message) {
-    final RpcRequest request = message.getRequest();
-    final long to = request.to;
+    @FiberOnly
+    private void flushOutgoing() {
+      flushQueued = false;
 
-    if (to == nodeId) {
-      handleLoopBackMessage(message);
-      return;
+      for (Map.Entry<Channel, List<ReplicationWireMessage>> entry : pendingOutgoing.entrySet()) {
+        final Channel channel = entry.getKey();
+        if (!channel.isOpen()) {
+          // TODO cant signal comms failure, so just drop on the floor. The requests will time out.
+          LOG.debug("Dropping {} messages queued for closed channel {}", entry.getValue().size(), channel);
+          continue;
+        }
+
+        LOG.trace("Writing batch of {} messages to {}", entry.getValue().size(), channel);
+        channel.writeAndFlush(new ReplicationWireMessageBatch(entry.getValue()));
+      }
+
+      pendingOutgoing.clear();
     }
 
-    // check to see if we have a connection:
-    Channel channel = connections.get(to);
-    if (channel != null && channel.isOpen()) {
-      sendMessageAsync(message, channel);
-      return;
-    } else if (channel != null) {
-      // stale?
-      LOG.debug("Removing stale !isOpen channel from connections.get() for peer {}", to);
-      connections.remove(to);
+    /**
+     * ************* Handlers for Request<> from replicator instances ***********************************
+     */
+    @FiberOnly
+    private void handleCancelledSession(Session session) {
+      Long messageId = outstandingRPCbySession.get(session);
+      outstandingRPCbySession.remove(session);
+      if (messageId == null) {
+        return;
+      }
+      LOG.trace("Removing cancelled RPC, message ID {}", messageId);
+      outstandingRPCs.remove(messageId);
     }
 
-    NodeInfoRequest nodeInfoRequest = new NodeInfoRequest(to, ModuleType.Replication);
-    AsyncRequest.withOneReply(fiber, discoveryModule.getNodeInfo(), nodeInfoRequest, new Callback<NodeInfoReply>() {
-      @SuppressWarnings("RedundantCast")
-      @FiberOnly
-      @Override
-      public void onMessage(NodeInfoReply nodeInfoReply) {
-        if (!nodeInfoReply.found) {
-          LOG.debug("Can't find the info for the peer {}", to);
-          // TODO signal TCP/transport layer failure in a better way
-          //message.reply(null);
-          return;
+    /**
+     * Forget RPCs which have been awaiting a reply for too long; if a reply never comes, and the requester
+     * never cancels, they would otherwise remain forever.
+     */
+    @FiberOnly
+    private void expireOutstandingRpcs() {
+      final long expiryTime = clock.currentTimeMillis() - ReplicatorConstants.REPLICATOR_RPC_EXPIRY_MILLISECONDS;
+
+      Iterator<Map.Entry<Long, OutstandingRpc>> iterator = outstandingRPCs.entrySet().iterator();
+      while (iterator.hasNext()) {
+        OutstandingRpc rpc = iterator.next().getValue();
+        if (rpc.sentTimeMillis < expiryTime) {
+          LOG.trace("Expiring RPC to {} / {} with no reply", rpc.request.getRequest().to,
+              rpc.request.getRequest().quorumId);
+          outstandingRPCbySession.remove(rpc.request.getSession());
+          iterator.remove();
         }
+      }
+    }
 
-        // what if existing outgoing connection attempt?
-        Channel channel = connections.get(to);
-        if (channel != null && channel.isOpen()) {
-          sendMessageAsync(message, channel);
-          return;
-        } else if (channel != null) {
-          LOG.debug("Removing stale2 !isOpen channel from connections.get() for peer {}", to);
-          connections.remove(to);
+    @FiberOnly
+    private void handleOutgoingMessage(final Request<RpcRequest, RpcWireReply> message) {
+      final RpcRequest request = message.getRequest();
+      final long to = request.to;
+
+      if (to == nodeId) {
+        handleLoopBackMessage(message);
+        return;
+      }
+
+      // check to see if we have a connection:
+      ChannelFuture connection = connections.get(to);
+      if (connection != null && connection.channel().isOpen()) {
+        sendWhenConnected(message, connection);
+        return;
+      } else if (connection != null) {
+        // stale?
+        LOG.debug("Removing stale !isOpen channel from connections.get() for peer {}", to);
+        connections.remove(to, connection);
+      }
+
+      NodeInfoRequest nodeInfoRequest = new NodeInfoRequest(to, ModuleType.Replication);
+      AsyncRequest.withOneReply(fiber, discoveryModule.getNodeInfo(), nodeInfoRequest, new Callback<NodeInfoReply>() {
+        @SuppressWarnings("RedundantCast")
+        @FiberOnly
+        @Override
+        public void onMessage(NodeInfoReply nodeInfoReply) {
+          if (!nodeInfoReply.found) {
+            LOG.debug("Can't find the info for the peer {}", to);
+            // TODO signal TCP/transport layer failure in a better way
+            //message.reply(null);
+            return;
+          }
+
+          // Another shard may have connected, or begun to connect, while the lookup was under way; if not,
+          // connect now. Either way the connection might not be established yet, so defer the write.
+          sendWhenConnected(message, connectionTo(to, nodeInfoReply));
         }
+      });
+    }
 
-        // ok so we connect now:
-        ChannelFuture channelFuture = outgoingBootstrap.connect(nodeInfoReply.addresses.get(0), nodeInfoReply.port);
-        LOG.trace("Connecting to peer {} at address {} port {}", to, nodeInfoReply.addresses.get(0), nodeInfoReply.port);
-
-        // the channel might not be open, so defer the write.
-        connections.put(to, channelFuture.channel());
-        channelFuture.channel().closeFuture().addListener((ChannelFutureListener)
-            future ->
-                fiber.execute(() -> {
-                  // remove only THIS channel. It might have been removed prior so.
-                  connections.remove(to, future.channel());
-                }));
-
-        // funny hack, if the channel future is already open, we execute immediately!
-        channelFuture.addListener((ChannelFutureListener)
-            future -> {
-              if (future.isSuccess()) {
-                sendMessageAsync(message, future.channel());
-              }
-            });
+    private void sendWhenConnected(final Request<RpcRequest, RpcWireReply> message, final ChannelFuture connection) {
+      if (connection.isSuccess()) {
+        sendMessageAsync(message, connection.channel());
+        return;
       }
-    });
-  }
 
-  private void sendMessageAsync(final Request<RpcRequest, RpcWireReply> message, final Channel channel) {
-    fiber.execute(() -> {
-      RpcRequest request = message.getRequest();
-      long to = request.to;
-      long messageId = messageIdGen++;
+      //noinspection RedundantCast
+      connection.addListener((ChannelFutureListener)
+          future -> {
+            if (future.isSuccess()) {
+              sendMessageAsync(message, future.channel());
+            }
+          });
+    }
 
-      outstandingRPCs.put(messageId, message);
-      outstandingRPCbySession.put(message.getSession(), messageId);
+    private void sendMessageAsync(final Request<RpcRequest, RpcWireReply> message, final Channel channel) {
+      fiber.execute(() -> {
+        RpcRequest request = message.getRequest();
+        long to = request.to;
+        long messageId = nextMessageId();
 
-      LOG.trace("Sending message id {} to {} / {}", messageId, to, request.quorumId);
+        outstandingRPCs.put(messageId, new OutstandingRpc(message, clock.currentTimeMillis()));
+        outstandingRPCbySession.put(message.getSession(), messageId);
 
-      ReplicationWireMessage wireMessage = request.getWireMessage(
-          messageId,
-          nodeId,
-          to,
-          false
-      );
+        LOG.trace("Sending message id {} to {} / {}", messageId, to, request.quorumId);
 
-      channel.writeAndFlush(wireMessage);
-    });
-  }
+        ReplicationWireMessage wireMessage = request.getWireMessage(
+            messageId,
+            nodeId,
+            to,
+            false
+        );
+
+        // An AppendEntries carrying no entries is a heartbeat.
+        final boolean idle = request.isAppendMessage() && request.getAppendMessage().getEntriesList().isEmpty();
+        enqueueOutgoing(channel, wireMessage, idle);
+      });
+    }
 
-  private void handleLoopBackMessage(final Request<RpcRequest, RpcWireReply> origMessage) {
-    final long toFrom = nodeId; // I am me.
-    final RpcRequest request = origMessage.getRequest();
-    final String quorumId = request.quorumId;
+    private void handleLoopBackMessage(final Request<RpcRequest, RpcWireReply> origMessage) {
+      final long toFrom = nodeId; // I am me.
+      final RpcRequest request = origMessage.getRequest();
+      final String quorumId = request.quorumId;
 
-    // Funny thing we don't have a direct handle on who sent us this message, so we have to do this. Sok though.
-    final ReplicatorInstance repl = replicatorInstances.get(quorumId);
-    if (repl == null) {
-      // rare failure condition, whereby the replicator died AFTER it send messages.
-      return; // ignore the message.
+      // Funny thing we don't have a direct handle on who sent us this message, so we have to do this. Sok though.
+      final ReplicatorInstance repl = replicatorInstances.get(quorumId);
+      if (repl == null) {
+        // rare failure condition, whereby the replicator died AFTER it send messages.
+        return; // ignore the message.
+      }
+
+      final RpcWireRequest newRequest = new RpcWireRequest(toFrom, quorumId, request.message);
+      AsyncRequest.withOneReply(fiber, repl.getIncomingChannel(), newRequest, msg -> {
+        assert msg.message != null;
+        RpcWireReply newReply = new RpcWireReply(toFrom, toFrom, quorumId, msg.message);
+        origMessage.reply(newReply);
+      });
     }
+  }
 
-    final RpcWireRequest newRequest = new RpcWireRequest(toFrom, quorumId, request.message);
-    AsyncRequest.withOneReply(fiber, repl.getIncomingChannel(), newRequest, msg -> {
-      assert msg.message != null;
-      RpcWireReply newReply = new RpcWireReply(toFrom, toFrom, quorumId, msg.message);
-      origMessage.reply(newReply);
+  /**
+   * Return the connection to the given server, first beginning one if there is none open. This may be
+   * called from any shard's fiber; at most one open connection to each server is kept.
+   */
+  private ChannelFuture connectionTo(long to, NodeInfoReply nodeInfoReply) {
+    return connections.compute(to, (unused, existing) -> {
+      if (existing != null && existing.channel().isOpen()) {
+        return existing;
+      }
+
+      ChannelFuture connection = outgoingBootstrap.connect(nodeInfoReply.addresses.get(0), nodeInfoReply.port);
+      LOG.trace("Connecting to peer {} at address {} port {}", to, nodeInfoReply.addresses.get(0), nodeInfoReply.port);
+
+      //noinspection RedundantCast
+      connection.channel().closeFuture().addListener((ChannelFutureListener)
+          // remove only THIS connection. It might have been removed prior so.
+          future -> connections.remove(to, connection));
+      return connection;
     });
   }
 
+  /**
+   * An RPC sent to another server, awaiting its reply.
+   */
+  private static class OutstandingRpc {
+    public final Request<RpcRequest, RpcWireReply> request;
+    public final long sentTimeMillis;
+
+    private OutstandingRpc(Request<RpcRequest, RpcWireReply> request, long sentTimeMillis) {
+      this.request = request;
+      this.sentTimeMillis = sentTimeMillis;
+    }
+  }
+
 
   /**
    * ********** Service startup/registration and shutdown/termination **************
@@ -403,15 +604,19 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
 
     C5Futures.addCallback(getDependedOnModules(),
         (ignore) -> {
+          for (int shardIndex = 0; shardIndex < numberOfShards; shardIndex++) {
+            RoutingShard shard = new RoutingShard(shardIndex, fiberSupplier.getFiber(this::failModule));
+            shards.add(shard);
+            shard.start();
+          }
+
           ChannelInitializer<SocketChannel> initer = new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) throws Exception {
               ChannelPipeline p = ch.pipeline();
-              p.addLast("frameDecode", new ProtobufVarint32FrameDecoder());
-              p.addLast("pbufDecode", new ProtostuffDecoder<>(ReplicationWireMessage.getSchema()));
-
-              p.addLast("frameEncode", new ProtobufVarint32LengthFieldPrepender());
-              p.addLast("pbufEncoder", new ProtostuffEncoder<ReplicationWireMessage>());
+              p.addLast("frameDecode", new ProtostuffFramedDecoder<>(ReplicationWireMessageBatch.getSchema(),
+                  ReplicatorConstants.REPLICATOR_MAXIMUM_WIRE_FRAME_BYTES));
+              p.addLast("frameEncode", new ProtostuffFramedEncoder<ReplicationWireMessageBatch>());
 
               p.addLast(new MessageHandler());
             }
@@ -422,6 +627,7 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
               .option(ChannelOption.SO_REUSEADDR, true)
               .option(ChannelOption.SO_BACKLOG, 100)
               .childOption(ChannelOption.TCP_NODELAY, true)
+              .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
               .childHandler(initer);
 
           //noinspection RedundantCast
@@ -438,14 +644,9 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
               .channel(NioSocketChannel.class)
               .option(ChannelOption.SO_REUSEADDR, true)
               .option(ChannelOption.TCP_NODELAY, true)
+              .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
               .handler(initer);
 
-          //noinspection Convert2MethodRef
-          outgoingRequests.subscribe(fiber, message -> handleOutgoingMessage(message),
-              // Clean up cancelled requests.
-              message -> handleCancelledSession(message.getSession())
-          );
-
           notifyStarted();
 
         },
@@ -460,6 +661,7 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
     try {
       replicatorInstances.values().forEach(ReplicatorInstance::dispose);
       replicatorInstances.clear();
+      shards.forEach((shard) -> shard.fiber.dispose());
       fiber.dispose();
       if (listenChannel != null) {
         listenChannel.close();
@@ -488,6 +690,7 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
       allChannels.close().addListener(listener);
       replicatorInstances.values().forEach(ReplicatorInstance::dispose);
       replicatorInstances.clear();
+      shards.forEach((shard) -> shard.fiber.dispose());
       fiber.dispose();
       fiber = null;
     });
@@ -551,7 +754,7 @@ public class ReplicatorService extends AbstractService implements ReplicationMod
             log,
             new DefaultSystemTimeReplicatorClock(),
             persister,
-            outgoingRequests,
+            shardFor(quorumId).outgoingRequests,
             replicatorEventChannel,
             indexCommitNotices,
             Replicator.State.FOLLOWER
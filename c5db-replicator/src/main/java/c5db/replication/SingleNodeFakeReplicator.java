@@ -44,6 +44,7 @@ public class SingleNodeFakeReplicator implements Replicator {
   private final Fiber fiber;
 
   private long nextSeqNum = 1;
+  private volatile long lastCommittedIndex = 0;
   private long term = 1;
   private State state = State.FOLLOWER;
 
@@ -76,13 +77,23 @@ public class SingleNodeFakeReplicator implements Replicator {
 
     doLater(() -> {
       receiptFuture.set(new ReplicatorReceipt(term, thisSeqNum));
-      doLater(() ->
-          commitNoticeChannel.publish(new IndexCommitNotice(quorumId, nodeId, thisSeqNum, thisSeqNum, term)));
+      doLater(() -> {
+        lastCommittedIndex = thisSeqNum;
+        commitNoticeChannel.publish(new IndexCommitNotice(quorumId, nodeId, thisSeqNum, thisSeqNum, term));
+      });
     });
 
     return receiptFuture;
   }
 
+  @Override
+  public ListenableFuture<Boolean> compactLog(long snapshotIndex) {
+    // There is no log, so there is nothing to discard.
+    SettableFuture<Boolean> compactFuture = SettableFuture.create();
+    compactFuture.set(true);
+    return compactFuture;
+  }
+
   @Override
   public long getId() {
     return nodeId;
@@ -93,11 +104,46 @@ public class SingleNodeFakeReplicator implements Replicator {
     return state == State.LEADER;
   }
 
+  @Override
+  public boolean holdsLeaderLease() {
+    return isLeader();
+  }
+
+  @Override
+  public long getCommitStalenessMillis() {
+    return isLeader() ? 0 : Long.MAX_VALUE;
+  }
+
+  @Override
+  public long getLastCommittedIndex() {
+    return lastCommittedIndex;
+  }
+
+  @Override
+  public ListenableFuture<Long> confirmLeadership() {
+    SettableFuture<Long> confirmFuture = SettableFuture.create();
+    if (isLeader()) {
+      confirmFuture.set(nextSeqNum - 1);
+    } else {
+      confirmFuture.setException(new IllegalStateException("SingleNodeFakeReplicator#confirmLeadership: not the leader"));
+    }
+    return confirmFuture;
+  }
+
   @Override
   public void start() {
     state = State.LEADER;
-    doLater(() ->
-        stateChannel.publish(state));
+    doLater(() -> {
+      eventChannel.publish(
+          new ReplicatorInstanceEvent(
+              ReplicatorInstanceEvent.EventType.LEADER_ELECTED,
+              this,
+              nodeId,
+              term,
+              System.currentTimeMillis(),
+              null, null));
+      stateChannel.publish(state);
+    });
   }
 
   @Override
@@ -19,6 +19,8 @@ package c5db.replication.rpc;
 
 import c5db.replication.generated.AppendEntries;
 import c5db.replication.generated.AppendEntriesReply;
+import c5db.replication.generated.InstallSnapshot;
+import c5db.replication.generated.InstallSnapshotReply;
 import c5db.replication.generated.PreElectionPoll;
 import c5db.replication.generated.PreElectionReply;
 import c5db.replication.generated.ReplicationWireMessage;
@@ -82,6 +84,14 @@ public class RpcMessage {
       return wireMessage.getPreElectionReply();
     }
 
+    if (wireMessage.getInstallSnapshot() != null) {
+      return wireMessage.getInstallSnapshot();
+    }
+
+    if (wireMessage.getInstallSnapshotReply() != null) {
+      return wireMessage.getInstallSnapshotReply();
+    }
+
     return null;
   }
 
@@ -107,7 +117,9 @@ public class RpcMessage {
         getAppendMessage(),
         getAppendReplyMessage(),
         getPreElectionPollMessage(),
-        getPreElectionReplyMessage()
+        getPreElectionReplyMessage(),
+        getInstallSnapshotMessage(),
+        getInstallSnapshotReplyMessage()
     );
   }
 
@@ -124,6 +136,10 @@ public class RpcMessage {
     return message instanceof PreElectionPoll;
   }
 
+  public boolean isInstallSnapshotMessage() {
+    return message instanceof InstallSnapshot;
+  }
+
   public boolean isAppendReplyMessage() {
     return message instanceof AppendEntriesReply;
   }
@@ -136,6 +152,10 @@ public class RpcMessage {
     return message instanceof PreElectionReply;
   }
 
+  public boolean isInstallSnapshotReplyMessage() {
+    return message instanceof InstallSnapshotReply;
+  }
+
   public AppendEntries getAppendMessage() {
     if (isAppendMessage()) {
       return (AppendEntries) message;
@@ -177,4 +197,18 @@ public class RpcMessage {
     }
     return null;
   }
+
+  public InstallSnapshot getInstallSnapshotMessage() {
+    if (isInstallSnapshotMessage()) {
+      return (InstallSnapshot) message;
+    }
+    return null;
+  }
+
+  public InstallSnapshotReply getInstallSnapshotReplyMessage() {
+    if (isInstallSnapshotReplyMessage()) {
+      return (InstallSnapshotReply) message;
+    }
+    return null;
+  }
 }
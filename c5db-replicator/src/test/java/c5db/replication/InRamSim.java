@@ -73,6 +73,7 @@ public class InRamSim {
     private boolean suspended = true; // field needed because StopWatch doesn't have a way to check its state
     private long lastTimeMillis = 0;
     private long offset;
+    private long leaderLeaseDuration = 0; // leases are off by default, as a stopped clock would never expire them
 
 
     public StoppableClock(long offset, long electionTimeout) {
@@ -102,6 +103,10 @@ public class InRamSim {
       offset += millis;
     }
 
+    public synchronized void setLeaderLeaseDuration(long millis) {
+      leaderLeaseDuration = millis;
+    }
+
     @Override
     public synchronized long currentTimeMillis() {
       if (suspended) {
@@ -125,6 +130,11 @@ public class InRamSim {
     public long leaderLogRequestsProcessingInterval() {
       return 50;
     }
+
+    @Override
+    public synchronized long leaderLeaseDuration() {
+      return leaderLeaseDuration;
+    }
   }
 
   public static class Persister implements ReplicatorInfoPersistence {
@@ -175,6 +185,10 @@ public class InRamSim {
   private final long electionTimeout;
   private final long electionTimeoutOffset;
 
+  private final Random random = new Random();
+  private volatile long linkLatencyMillis = 0;
+  private volatile double appendLossProbability = 0;
+
   /**
    * Set up the simulation (but don't actually start it yet).
    *
@@ -265,8 +279,39 @@ public class InRamSim {
     wireObstructions.add(new WireObstruction(dropIf, dropUntil));
   }
 
+  /**
+   * Simulate a slow, lossy network: from now on, deliver every request and every reply after the given
+   * latency, and drop AppendEntries requests carrying entries, and AppendEntries replies, at random with
+   * the given probability. Requests (and replies) between any two peers are still delivered in order.
+   * Heartbeats are left alone so that lost messages do not simply cause elections.
+   */
+  public void setLinkConditions(long latencyMillis, double appendLossProbability) {
+    this.linkLatencyMillis = latencyMillis;
+    this.appendLossProbability = appendLossProbability;
+  }
+
+  private boolean shouldLoseMessage(RpcMessage message) {
+    if (appendLossProbability == 0 || message.to == message.from) {
+      return false;
+    }
+
+    final boolean lossyMessage = message.isAppendReplyMessage()
+        || (message.isAppendMessage() && !message.getAppendMessage().getEntriesList().isEmpty());
+    synchronized (random) {
+      return lossyMessage && random.nextDouble() < appendLossProbability;
+    }
+  }
+
+  private void afterLinkLatency(Runnable runnable) {
+    if (linkLatencyMillis == 0) {
+      runnable.run();
+    } else {
+      rpcFiber.schedule(runnable, linkLatencyMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
   private boolean shouldDropMessage(RpcMessage message) {
-    boolean dropMessage = false;
+    boolean dropMessage = shouldLoseMessage(message);
 
     synchronized (wireObstructions) {
       Iterator<WireObstruction> iterator = wireObstructions.listIterator();
@@ -332,6 +377,10 @@ public class InRamSim {
   }
 
   private void messageForwarder(final Request<RpcRequest, RpcWireReply> origMsg) {
+    afterLinkLatency(() -> forwardMessage(origMsg));
+  }
+
+  private void forwardMessage(final Request<RpcRequest, RpcWireReply> origMsg) {
 
     final RpcRequest request = origMsg.getRequest();
     final long destination = request.to;
@@ -358,8 +407,10 @@ public class InRamSim {
         LOG.warn("Reply dropped: {}", newReply);
         return;
       }
-      replyChannel.publish(newReply);
-      origMsg.reply(newReply);
+      afterLinkLatency(() -> {
+        replyChannel.publish(newReply);
+        origMsg.reply(newReply);
+      });
     });
   }
 
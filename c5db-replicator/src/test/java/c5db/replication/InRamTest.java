@@ -93,6 +93,8 @@ import static org.hamcrest.core.IsNot.not;
 public class InRamTest {
   private static final int ELECTION_TIMEOUT_MILLIS = 50; // election timeout (milliseconds)
   private static final long OFFSET_STAGGERING_MILLIS = 50; // offset between different peers' clocks
+  private static final long LINK_LATENCY_MILLIS = 5;
+  private static final double APPEND_LOSS_PROBABILITY = 0.2;
 
   @Rule
   public JUnitRuleFiberExceptions fiberExceptionHandler = new JUnitRuleFiberExceptions();
@@ -211,6 +213,18 @@ public class InRamTest {
     allPeers((peer) -> assertThat(peer, willCommitEntriesUpTo(lastIndexLogged())));
   }
 
+  @Test
+  public void allPeersCommitEverythingTheLeaderLogsOverASlowLossyNetwork() throws Exception {
+    havingElectedALeaderAtOrAfter(term(1));
+    sim.setLinkConditions(LINK_LATENCY_MILLIS, APPEND_LOSS_PROBABILITY);
+
+    for (int i = 0; i < 20; i++) {
+      leader().log(someData());
+    }
+
+    allPeers((peer) -> assertThat(peer, willCommitEntriesUpTo(lastIndexLogged())));
+  }
+
   @Test
   public void aFollowerWillStageANewElectionIfItTimesOutWaitingToHearFromTheLeader() throws Exception {
     havingElectedALeaderAtOrAfter(term(1));
@@ -336,10 +350,8 @@ public class InRamTest {
     waitForANewLeader();
     assertThat(leader().currentConfiguration(), equalTo(transitionalConfig));
 
-    // Necessary to log again because the new leader may not commit an entry from a past term (such as
-    // the configuration entry) until it has also committed an entry from its current term.
-    leader().log(someData());
-
+    // The new leader may not commit an entry from a past term (such as the configuration entry) until it has
+    // also committed an entry from its current term; it logs one of its own accord upon its election.
     peers(newPeerIds).forEach((peer) ->
         assertThat(peer, willCommitConfiguration(QuorumConfiguration.of(newPeerIds))));
   }
@@ -461,7 +473,7 @@ public class InRamTest {
     leader().instance.bootstrapQuorum(smallerPeerSetWithNoneInCommonWithInitialSet());
 
     // Verify that quorum is still in a working state
-    assertThat(sim.getLog(leader().id).getLastIndex(), is(equalTo(2L)));
+    assertThat(sim.getLog(leader().id).getLastIndex(), is(equalTo(lastIndexLogged())));
 
     leader().logDataUpToIndex(3);
     allPeers((peer) -> assertThat(peer, willCommitEntriesUpTo(lastIndexLogged())));
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package c5db.replication;
+
+import c5db.interfaces.replication.ReplicatorLog;
+import c5db.log.InRamLog;
+import c5db.replication.generated.LogEntry;
+import com.google.common.collect.Lists;
+import org.jetlang.fibers.Fiber;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+public class PeerCatchUpReaderTest {
+  private static final long LAST_INDEX = 10;
+  private static final long UNLIMITED_BYTES = Long.MAX_VALUE;
+
+  @Rule
+  public JUnitRuleMockery context = new JUnitRuleMockery();
+  private final Fiber fiber = context.mock(Fiber.class);
+
+  private final ReplicatorLog log = new InRamLog();
+  private final AtomicLong totalBufferedBytes = new AtomicLong(0);
+  private final AtomicInteger readsCompleted = new AtomicInteger(0);
+
+  @Before
+  public void runCallbacksImmediatelyAndPopulateLog() {
+    context.checking(new Expectations() {{
+      allowing(fiber).execute(with(any(Runnable.class)));
+      will(new CustomAction("run the runnable immediately") {
+        @Override
+        public Object invoke(Invocation invocation) throws Throwable {
+          ((Runnable) invocation.getParameter(0)).run();
+          return null;
+        }
+      });
+    }});
+
+    final List<LogEntry> entries = new ArrayList<>();
+    for (long index = 1; index <= LAST_INDEX; index++) {
+      entries.add(new LogEntry(1, index, Lists.newArrayList(ByteBuffer.allocate(100)), null));
+    }
+    log.logEntries(entries);
+  }
+
+  @Test
+  public void readsAheadFromTheStartIndexAndReturnsEntriesInOrder() {
+    final PeerCatchUpReader reader = aReader(3, UNLIMITED_BYTES, 4);
+
+    reader.readAhead();
+
+    assertThat(readsCompleted.get(), is(equalTo(1)));
+    assertThat(indexesOf(reader.take(100, UNLIMITED_BYTES)), contains(3L, 4L, 5L, 6L));
+    assertThat(reader.nextIndex(), is(equalTo(7L)));
+  }
+
+  @Test
+  public void continuesReadingSequentiallyFromWhereTheLastReadEnded() {
+    final PeerCatchUpReader reader = aReader(3, UNLIMITED_BYTES, 4);
+
+    reader.readAhead();
+    reader.readAhead();
+    reader.readAhead();
+
+    assertThat(readsCompleted.get(), is(equalTo(2)));
+    assertThat(indexesOf(reader.take(100, UNLIMITED_BYTES)), contains(3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L));
+  }
+
+  @Test
+  public void doesNotReadAheadWhileItHoldsTheMaximumNumberOfBufferedBytes() {
+    final PeerCatchUpReader reader = aReader(1, 1, 2);
+
+    reader.readAhead();
+    reader.readAhead();
+
+    assertThat(readsCompleted.get(), is(equalTo(1)));
+    assertThat(reader.bufferedEntries(), is(equalTo(2)));
+
+    reader.take(100, UNLIMITED_BYTES);
+    reader.readAhead();
+
+    assertThat(readsCompleted.get(), is(equalTo(2)));
+  }
+
+  @Test
+  public void takesNoMoreThanTheRequestedNumberOfEntriesOrBytesButAlwaysAtLeastOneEntry() {
+    final PeerCatchUpReader reader = aReader(1, UNLIMITED_BYTES, 10);
+    reader.readAhead();
+
+    assertThat(indexesOf(reader.take(2, UNLIMITED_BYTES)), contains(1L, 2L));
+    assertThat(indexesOf(reader.take(100, 1)), contains(3L));
+    assertThat(reader.nextIndex(), is(equalTo(4L)));
+  }
+
+  @Test
+  public void keepsTheSharedCounterOfBufferedBytesUpToDateAndReleasesEverythingWhenClosed() {
+    final PeerCatchUpReader reader = aReader(1, UNLIMITED_BYTES, 10);
+    reader.readAhead();
+
+    assertThat(totalBufferedBytes.get(), is(greaterThan(0L)));
+    assertThat(totalBufferedBytes.get(), is(equalTo(reader.bufferedBytes())));
+
+    reader.take(5, UNLIMITED_BYTES);
+    assertThat(totalBufferedBytes.get(), is(equalTo(reader.bufferedBytes())));
+
+    reader.close();
+    assertThat(totalBufferedBytes.get(), is(equalTo(0L)));
+  }
+
+  @Test
+  public void doesNotReadWhenItHasAlreadyReadEveryEntryInTheLog() {
+    final PeerCatchUpReader reader = aReader(LAST_INDEX + 1, UNLIMITED_BYTES, 10);
+
+    reader.readAhead();
+
+    assertThat(readsCompleted.get(), is(equalTo(0)));
+    assertThat(reader.take(100, UNLIMITED_BYTES), is(empty()));
+  }
+
+  private PeerCatchUpReader aReader(long startIndex, long maxBufferedBytes, int maxEntriesPerRead) {
+    return new PeerCatchUpReader(log, fiber, startIndex, maxBufferedBytes, maxEntriesPerRead, totalBufferedBytes,
+        readsCompleted::incrementAndGet,
+        (Throwable t) -> {
+          throw new AssertionError(t);
+        });
+  }
+
+  private static List<Long> indexesOf(List<LogEntry> entries) {
+    return Lists.transform(entries, LogEntry::getIndex);
+  }
+}
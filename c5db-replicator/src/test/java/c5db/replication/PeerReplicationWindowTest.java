@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.replication;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class PeerReplicationWindowTest {
+  private static final int MAX_BATCHES = 3;
+  private static final long MAX_BYTES = 1000;
+
+  private final PeerReplicationWindow window = new PeerReplicationWindow(MAX_BATCHES, MAX_BYTES);
+
+  @Test
+  public void hasNoRoomOnceTheMaximumNumberOfBatchesIsInFlight() {
+    window.sent(1, 1, 10);
+    window.sent(2, 2, 10);
+    assertThat(window.hasRoom(), is(true));
+
+    window.sent(3, 3, 10);
+    assertThat(window.hasRoom(), is(false));
+  }
+
+  @Test
+  public void hasNoRoomOnceTheMaximumNumberOfBytesIsInFlight() {
+    window.sent(1, 5, MAX_BYTES - 1);
+    assertThat(window.hasRoom(), is(true));
+
+    window.sent(6, 6, 1);
+    assertThat(window.hasRoom(), is(false));
+  }
+
+  @Test
+  public void anAcknowledgementReleasesEveryBatchEndingAtOrBeforeTheAcknowledgedIndex() {
+    window.sent(1, 2, 100);
+    window.sent(3, 4, 100);
+    window.sent(5, 6, 100);
+
+    window.acknowledge(4);
+
+    assertThat(window.batchesInFlight(), is(equalTo(1)));
+    assertThat(window.bytesInFlight(), is(equalTo(100L)));
+    assertThat(window.hasRoom(), is(true));
+  }
+
+  @Test
+  public void anAcknowledgementInTheMiddleOfABatchDoesNotReleaseIt() {
+    window.sent(1, 4, 100);
+
+    window.acknowledge(3);
+
+    assertThat(window.batchesInFlight(), is(equalTo(1)));
+  }
+
+  @Test
+  public void assignsIncreasingSequenceNumbersAndRecognizesBatchesStillInFlight() {
+    final PeerReplicationWindow.Batch first = window.sent(1, 1, 10);
+    final PeerReplicationWindow.Batch second = window.sent(2, 2, 10);
+
+    assertThat(second.sequenceNumber, is(equalTo(first.sequenceNumber + 1)));
+
+    window.acknowledge(1);
+
+    assertThat(window.isInFlight(first), is(false));
+    assertThat(window.isInFlight(second), is(true));
+  }
+
+  @Test
+  public void clearingForgetsEveryBatchAndBeginsANewEpoch() {
+    final PeerReplicationWindow.Batch batch = window.sent(1, 1, 10);
+    window.sent(2, 2, 10);
+    window.sent(3, 3, 10);
+    final long epochBeforeClear = window.epoch();
+
+    window.clear();
+
+    assertThat(window.isEmpty(), is(true));
+    assertThat(window.bytesInFlight(), is(equalTo(0L)));
+    assertThat(window.hasRoom(), is(true));
+    assertThat(window.epoch(), is(equalTo(epochBeforeClear + 1)));
+    assertThat(window.isInFlight(batch), is(false));
+  }
+}
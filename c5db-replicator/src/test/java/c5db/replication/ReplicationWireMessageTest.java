@@ -17,18 +17,30 @@
 
 package c5db.replication;
 
+import c5db.codec.ProtostuffFramedDecoder;
+import c5db.codec.ProtostuffFramedEncoder;
+import c5db.replication.generated.AppendEntries;
+import c5db.replication.generated.LogEntry;
 import c5db.replication.generated.ReplicationWireMessage;
+import c5db.replication.generated.ReplicationWireMessageBatch;
 import c5db.replication.generated.RequestVote;
+import com.google.common.collect.Lists;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+import io.protostuff.ByteBufferInput;
 import io.protostuff.LinkBuffer;
 import io.protostuff.LowCopyProtobufOutput;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 
 public class ReplicationWireMessageTest {
@@ -37,7 +49,7 @@ public class ReplicationWireMessageTest {
   public void testSimpleSerialization() throws Exception {
     RequestVote rv = new RequestVote(1, 22222, 34, 22);
     ReplicationWireMessage rwm = new ReplicationWireMessage(
-        1, 1, 0, "quorumId", false, rv, null, null, null, null, null
+        1, 1, 0, "quorumId", false, rv, null, null, null, null, null, null, null
     );
 
     LowCopyProtobufOutput lcpo = new LowCopyProtobufOutput(new LinkBuffer(24));
@@ -53,6 +65,72 @@ public class ReplicationWireMessageTest {
     System.out.println("rwm = " + rwm);
   }
 
+  @Test
+  public void aBatchOfMessagesForSeveralQuorumsSurvivesARoundTrip() throws Exception {
+    List<ReplicationWireMessage> messages = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      AppendEntries heartbeat = new AppendEntries(7, 1, 10 + i, 7, new ArrayList<>(), 9 + i);
+      messages.add(new ReplicationWireMessage(
+          i + 1, 1, 2, "quorumId" + i, false, null, null, heartbeat, null, null, null, null, null));
+    }
+    ReplicationWireMessageBatch batch = new ReplicationWireMessageBatch(messages);
+
+    LowCopyProtobufOutput lcpo = new LowCopyProtobufOutput(new LinkBuffer(24));
+    batch.writeTo(lcpo, batch);
+    List<ByteBuffer> serBufs = lcpo.buffer.finish();
+    logBufsInformation("ReplicationWireMessageBatch", serBufs);
+
+    ByteBuf b = Unpooled.wrappedBuffer(serBufs.toArray(new ByteBuffer[serBufs.size()]));
+    ReplicationWireMessageBatch decoded = ReplicationWireMessageBatch.getSchema().newMessage();
+    ReplicationWireMessageBatch.getSchema().mergeFrom(new ByteBufferInput(b.nioBuffer(), false), decoded);
+
+    assertEquals(3, decoded.getMessagesList().size());
+    for (int i = 0; i < 3; i++) {
+      ReplicationWireMessage message = decoded.getMessagesList().get(i);
+      assertEquals("quorumId" + i, message.getQuorumId());
+      assertEquals(i + 1, message.getMessageId());
+      assertEquals(10 + i, message.getAppendEntries().getPrevLogIndex());
+      assertEquals(9 + i, message.getAppendEntries().getCommitIndex());
+    }
+  }
+
+  @Test
+  public void aBatchSurvivesARoundTripThroughTheFramedCodecEvenWhenTheFrameArrivesInPieces() throws Exception {
+    ByteBuffer data = ByteBuffer.wrap("some data".getBytes(CharsetUtil.UTF_8));
+    List<LogEntry> entries = new ArrayList<>();
+    entries.add(new LogEntry(7, 11, Lists.newArrayList(data.duplicate()), null));
+    AppendEntries appendEntries = new AppendEntries(7, 1, 10, 7, entries, 9);
+    ReplicationWireMessageBatch batch = new ReplicationWireMessageBatch(Lists.newArrayList(
+        new ReplicationWireMessage(1, 1, 2, "quorumId", false, null, null, appendEntries, null, null, null, null, null)));
+
+    EmbeddedChannel encodingChannel = new EmbeddedChannel(new ProtostuffFramedEncoder<ReplicationWireMessageBatch>());
+    encodingChannel.writeOutbound(batch);
+    ByteBuf encoded = (ByteBuf) encodingChannel.readOutbound();
+
+    EmbeddedChannel decodingChannel =
+        new EmbeddedChannel(new ProtostuffFramedDecoder<>(ReplicationWireMessageBatch.getSchema()));
+    decodingChannel.writeInbound(Unpooled.copiedBuffer(encoded.readSlice(encoded.readableBytes() / 2)));
+    assertNull(decodingChannel.readInbound());
+
+    decodingChannel.writeInbound(Unpooled.copiedBuffer(encoded));
+    ReplicationWireMessageBatch decoded = (ReplicationWireMessageBatch) decodingChannel.readInbound();
+    encoded.release();
+
+    AppendEntries decodedAppend = decoded.getMessagesList().get(0).getAppendEntries();
+    assertEquals(9, decodedAppend.getCommitIndex());
+    assertEquals(11, decodedAppend.getEntriesList().get(0).getIndex());
+    assertEquals(data, decodedAppend.getEntriesList().get(0).getDataList().get(0));
+  }
+
+  @Test(expected = CorruptedFrameException.class)
+  public void theFramedDecoderRejectsAnOversizedFrameAsSoonAsItReadsTheLength() throws Exception {
+    EmbeddedChannel decodingChannel =
+        new EmbeddedChannel(new ProtostuffFramedDecoder<>(ReplicationWireMessageBatch.getSchema(), 100));
+
+    // The varint32 encoding of 1000, without any of the frame it announces
+    decodingChannel.writeInbound(Unpooled.wrappedBuffer(new byte[]{(byte) 0xE8, 0x07}));
+  }
+
   void logBufsInformation(String desc, List<ByteBuffer> buffs) {
     System.out.println(desc + ": buffer count = " + buffs.size());
     long size = 0;
@@ -20,15 +20,19 @@ package c5db.replication;
 import c5db.interfaces.replication.IndexCommitNotice;
 import c5db.interfaces.replication.QuorumConfiguration;
 import c5db.interfaces.replication.ReplicatorLog;
+import c5db.interfaces.replication.ReplicatorSnapshotStore;
 import c5db.log.InRamLog;
 import c5db.replication.generated.AppendEntries;
+import c5db.replication.generated.InstallSnapshot;
 import c5db.replication.generated.LogEntry;
 import c5db.replication.rpc.RpcReply;
 import c5db.replication.rpc.RpcWireRequest;
 import c5db.util.ExceptionHandlingBatchExecutor;
 import c5db.util.JUnitRuleFiberExceptions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
+import io.protostuff.Message;
 import org.hamcrest.Matcher;
 import org.hamcrest.Matchers;
 import org.jetlang.channels.AsyncRequest;
@@ -49,6 +53,7 @@ import org.junit.Test;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -69,6 +74,7 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertFalse;
 
 /**
@@ -91,6 +97,7 @@ public class ReplicatorAppendEntriesTest {
 
   // Use this field to express expectations on the replicator's log
   private final ReplicatorLog log = context.mock(ReplicatorLog.class);
+  private final ReplicatorSnapshotStore snapshotStore = context.mock(ReplicatorSnapshotStore.class);
 
   @Rule
   public JUnitRuleFiberExceptions fiberExceptionHandler = new JUnitRuleFiberExceptions();
@@ -116,6 +123,8 @@ public class ReplicatorAppendEntriesTest {
       allowing(log).getLogTerm(with(any(Long.class)));
       allowing(log).getLastConfiguration();
       allowing(log).getLastConfigurationIndex();
+      allowing(log).getSnapshotIndex();
+      allowing(log).getSnapshotTerm();
     }});
   }
 
@@ -274,6 +283,39 @@ public class ReplicatorAppendEntriesTest {
     assertThatReplicatorWillCommitUpToIndex(receivedCommitIndex);
   }
 
+  @Test
+  public void reportsABoundedCommitStalenessOnceItHasCommittedEverythingTheLeaderHas() throws Exception {
+    havingLogged(
+        entries().term(1).indexes(1, 2, 3, 4));
+
+    assertThat(replicatorInstance.getCommitStalenessMillis(), is(equalTo(Long.MAX_VALUE)));
+
+    havingReceived(
+        anAppendEntriesRequest()
+            .withPrevLogTerm(1).withPrevLogIndex(1)
+            .withNoEntries()
+            .withCommitIndex(4));
+
+    assertThatReplicatorWillCommitUpToIndex(4);
+    assertThat(replicatorInstance.getLastCommittedIndex(), is(equalTo(4L)));
+    assertThat(replicatorInstance.getCommitStalenessMillis(), is(lessThan(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void reportsAnUnboundedCommitStalenessIfItHasNotCommittedEverythingTheLeaderHas() throws Exception {
+    havingLogged(
+        entries().term(1).indexes(1, 2));
+
+    havingReceived(
+        anAppendEntriesRequest()
+            .withPrevLogTerm(1).withPrevLogIndex(1)
+            .withNoEntries()
+            .withCommitIndex(5));
+
+    assertThatReplicatorWillCommitUpToIndex(2);
+    assertThat(replicatorInstance.getCommitStalenessMillis(), is(equalTo(Long.MAX_VALUE)));
+  }
+
   @Test
   public void commitsIfItReceivesAnAppendEntriesRequestWithACommitIndexWithinTheEntriesSent() throws Exception {
     final List<LogEntry> receivedEntries = entries().term(1).indexes(1, 2, 3).build();
@@ -378,6 +420,72 @@ public class ReplicatorAppendEntriesTest {
     assertThat(internalLog.getLogEntries(1, 6), resultsIn(aListOfEntriesWithConsecutiveSeqNums(1, 6)));
   }
 
+  @Test
+  public void repliesFalseIfItReceivesAnInstallSnapshotRequestWithAnOldTerm() throws Exception {
+    context.checking(new Expectations() {{
+      never(snapshotStore).writeSnapshotChunk(with(any(String.class)), with(any(Long.class)), with(any(Long.class)),
+          with(any(ByteBuffer.class)));
+    }});
+
+    havingReceived(anInstallSnapshotRequest(CURRENT_TERM - 1, 10, 3));
+
+    assertThat(reply().getInstallSnapshotReplyMessage().getSuccess(), is(false));
+  }
+
+  @Test
+  public void installsASnapshotReceivedFromTheLeaderAndContinuesItsLogFromTheSnapshot() throws Exception {
+    final long snapshotIndex = 10;
+    final long snapshotTerm = 3;
+
+    context.checking(new Expectations() {{
+      oneOf(snapshotStore).writeSnapshotChunk(with(equal(QUORUM_ID)), with(equal(snapshotIndex)), with(equal(0L)),
+          with(any(ByteBuffer.class)));
+      will(returnValue(Futures.immediateFuture(true)));
+
+      oneOf(snapshotStore).installSnapshot(QUORUM_ID, snapshotIndex, snapshotTerm);
+      will(returnValue(Futures.immediateFuture(true)));
+
+      oneOf(log).compactLog(with(equal(snapshotIndex)), with(equal(snapshotTerm)),
+          with(any(QuorumConfiguration.class)));
+    }});
+
+    havingLogged(
+        entries().term(1).indexes(1, 2, 3));
+
+    havingReceived(anInstallSnapshotRequest(CURRENT_TERM, snapshotIndex, snapshotTerm));
+
+    assertThat(reply().getInstallSnapshotReplyMessage().getSuccess(), is(true));
+    assertThat(internalLog.getLastIndex(), is(equalTo(snapshotIndex)));
+    assertThat(internalLog.getLogTerm(snapshotIndex), is(equalTo(snapshotTerm)));
+  }
+
+  @Test
+  public void discardsASnapshotChunkWhoseTransferWasSupersededWhileItWasBeingWritten() throws Exception {
+    final SettableFuture<Boolean> firstChunkWrite = SettableFuture.create();
+
+    context.checking(new Expectations() {{
+      oneOf(snapshotStore).writeSnapshotChunk(with(equal(QUORUM_ID)), with(equal(10L)), with(equal(0L)),
+          with(any(ByteBuffer.class)));
+      will(returnValue(firstChunkWrite));
+
+      oneOf(snapshotStore).writeSnapshotChunk(with(equal(QUORUM_ID)), with(equal(20L)), with(equal(0L)),
+          with(any(ByteBuffer.class)));
+      will(returnValue(Futures.immediateFuture(true)));
+
+      never(snapshotStore).installSnapshot(with(any(String.class)), with(any(Long.class)), with(any(Long.class)));
+    }});
+
+    havingReceived(aSnapshotChunk(10, 0, true));
+    final SettableFuture<RpcReply> firstReply = lastReply;
+
+    havingReceived(aSnapshotChunk(20, 0, false));
+    assertThat(reply().getInstallSnapshotReplyMessage().getSuccess(), is(true));
+
+    firstChunkWrite.set(true);
+    assertThat(firstReply.get(RPC_REPLY_TIMEOUT, TimeUnit.SECONDS).getInstallSnapshotReplyMessage().getSuccess(),
+        is(false));
+  }
+
   private final Channel<IndexCommitNotice> commitNotices = new MemoryChannel<>();
   private final ChannelHistoryMonitor<IndexCommitNotice> commitMonitor =
       new ChannelHistoryMonitor<>(commitNotices, rpcFiber);
@@ -387,7 +495,8 @@ public class ReplicatorAppendEntriesTest {
     ReplicatorClock info = new InRamSim.StoppableClock(0, Integer.MAX_VALUE / 2L);
     ReplicatorLog proxyLog = getReplicatorLogWhichInvokesMock();
 
-    return new ReplicatorInstance(new ThreadFiber(new RunnableExecutorImpl(batchExecutor), null, true),
+    ReplicatorInstance instance = new ReplicatorInstance(
+        new ThreadFiber(new RunnableExecutorImpl(batchExecutor), null, true),
         thisReplicatorId,
         QUORUM_ID,
         proxyLog,
@@ -397,6 +506,8 @@ public class ReplicatorAppendEntriesTest {
         new MemoryChannel<>(),
         commitNotices,
         State.FOLLOWER);
+    instance.setSnapshotStore(snapshotStore);
+    return instance;
   }
 
   private ReplicatorLog getReplicatorLogWhichInvokesMock() {
@@ -427,11 +538,25 @@ public class ReplicatorAppendEntriesTest {
   private SettableFuture<RpcReply> lastReply = null;
 
   private void havingReceived(AppendEntriesMessageBuilder messageBuilder) {
+    havingReceived(messageBuilder.build());
+  }
+
+  private void havingReceived(Message message) {
     lastReply = SettableFuture.create();
-    final RpcWireRequest request = new RpcWireRequest(LEADER_ID, QUORUM_ID, messageBuilder.build());
+    final RpcWireRequest request = new RpcWireRequest(LEADER_ID, QUORUM_ID, message);
     AsyncRequest.withOneReply(rpcFiber, replicatorInstance.getIncomingChannel(), request, lastReply::set);
   }
 
+  private InstallSnapshot anInstallSnapshotRequest(long term, long snapshotIndex, long snapshotTerm) {
+    return new InstallSnapshot(term, LEADER_ID, snapshotIndex, snapshotTerm,
+        aNewConfiguration().toProtostuff(), 0, someData(), true);
+  }
+
+  private InstallSnapshot aSnapshotChunk(long snapshotIndex, long offset, boolean done) {
+    return new InstallSnapshot(CURRENT_TERM, LEADER_ID, snapshotIndex, 3L,
+        aNewConfiguration().toProtostuff(), offset, someData(), done);
+  }
+
   private RpcReply reply() throws Exception {
     return lastReply.get(RPC_REPLY_TIMEOUT, TimeUnit.SECONDS);
   }
@@ -154,6 +154,9 @@ public class ReplicatorElectionTest {
 
       allowing(log).getLogTerm(1L);
       will(returnValue(CURRENT_TERM));
+
+      allowing(log).getSnapshotIndex();
+      will(returnValue(0L));
     }});
   }
 
@@ -29,6 +29,7 @@ import c5db.util.ExceptionHandlingBatchExecutor;
 import c5db.util.JUnitRuleFiberExceptions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.hamcrest.Matcher;
 import org.jetlang.channels.Channel;
 import org.jetlang.channels.MemoryChannel;
@@ -54,6 +55,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static c5db.AsyncChannelAsserts.ChannelHistoryMonitor;
 import static c5db.AsyncChannelAsserts.ChannelListener;
@@ -66,7 +68,9 @@ import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
 
 
 public class ReplicatorLeaderTest {
@@ -83,6 +87,7 @@ public class ReplicatorLeaderTest {
   private static final String QUORUM_ID = "quorumId";
   private static final List<Long> PEER_ID_LIST = ImmutableList.of(1L, 2L, 3L);
   private static final List<ByteBuffer> TEST_DATUM = Lists.newArrayList(someData());
+  private static final long LEADER_LEASE_MILLIS = 500;
 
   private final RequestChannel<RpcRequest, RpcWireReply> sendRpcChannel = new MemoryRequestChannel<>();
 
@@ -103,6 +108,7 @@ public class ReplicatorLeaderTest {
       new ChannelHistoryMonitor<>(commitNotices, rpcFiber);
 
   private final ReplicatorLog log = new InRamLog();
+  private final InRamSim.StoppableClock clock = new InRamSim.StoppableClock(0, 1000);
 
   private ReplicatorInstance replicatorInstance;
   private long lastIndex;
@@ -114,7 +120,7 @@ public class ReplicatorLeaderTest {
     sendRpcChannel.subscribe(rpcFiber, requestLog::publish);
 
     Fiber replicatorFiber = new ThreadFiber(new RunnableExecutorImpl(batchExecutor), "replicatorFiber-Thread", true);
-    InRamSim.StoppableClock clock = new InRamSim.StoppableClock(0, 1000);
+    clock.setLeaderLeaseDuration(LEADER_LEASE_MILLIS);
     clock.startTimeout();
 
     log.logEntries(
@@ -137,6 +143,10 @@ public class ReplicatorLeaderTest {
         State.LEADER);
     replicatorInstance.start();
     rpcFiber.start();
+
+    // Upon its election, the leader logs an entry of its own term
+    lastIndex = 2;
+    expectLeaderToSend(aRequestToPeer(2).withLastEntryLogged());
   }
 
   @After
@@ -218,6 +228,62 @@ public class ReplicatorLeaderTest {
     expectLeaderToCommitUpToIndex(firstRequest.lastEntryIndex());
   }
 
+  @Test
+  public void confirmsItsLeadershipOnlyOnceItHasCommittedAnEntryOfItsOwnTerm() throws Throwable {
+    peer(2).willIgnoreAllRequests();
+    peer(3).willIgnoreAllRequests();
+
+    final ListenableFuture<Long> confirmation = replicatorInstance.confirmLeadership();
+    expectLeaderToSend(anAppendRequest().to(3));
+
+    assertFalse(replicatorInstance.holdsLeaderLease());
+    assertFalse(confirmation.isDone());
+
+    peer(3).willReplyToAllRequestsWith(true);
+    expectLeaderToCommitUpToIndex(lastIndexLogged());
+
+    assertThat(confirmation.get(4, TimeUnit.SECONDS), is(equalTo(lastIndexLogged())));
+  }
+
+  @Test
+  public void confirmsItsLeadershipAndHoldsALeaseWithoutAnyDataHavingBeenLoggedSinceItsElection()
+      throws Throwable {
+    peer(2).willIgnoreAllRequests();
+    peer(3).willReplyToAllRequestsWith(true);
+
+    expectLeaderToCommitUpToIndex(lastIndexLogged());
+
+    assertThat(replicatorInstance.confirmLeadership().get(4, TimeUnit.SECONDS), is(equalTo(lastIndexLogged())));
+    assertThat(replicatorInstance.holdsLeaderLease(), is(true));
+  }
+
+  @Test
+  public void holdsALeaderLeaseOnceAMajorityHasConfirmedItsLeadership() throws Throwable {
+    peer(2).willIgnoreAllRequests();
+    peer(3).willReplyToAllRequestsWith(true);
+
+    leader().logSomeData();
+    expectLeaderToCommitUpToIndex(lastIndexLogged());
+    replicatorInstance.confirmLeadership().get(4, TimeUnit.SECONDS);
+
+    assertThat(replicatorInstance.holdsLeaderLease(), is(true));
+  }
+
+  @Test
+  public void losesItsLeaderLeaseIfAMajorityStopsAnsweringForTheLeaseDuration() throws Throwable {
+    peer(2).willIgnoreAllRequests();
+    peer(3).willReplyToAllRequestsWith(true);
+
+    leader().logSomeData();
+    expectLeaderToCommitUpToIndex(lastIndexLogged());
+    replicatorInstance.confirmLeadership().get(4, TimeUnit.SECONDS);
+
+    peer(3).willIgnoreAllRequests();
+    clock.advanceTime(LEADER_LEASE_MILLIS);
+
+    assertFalse(replicatorInstance.holdsLeaderLease());
+  }
+
   @Test
   public void decrementsTheNextIndexOfAPeerWhenThePeerRepliesFalseWithANextIndexOfZero() throws Throwable {
     final long maxIndexLogged = 5;
@@ -37,6 +37,7 @@ public class C5ServerConstants {
   public static final String START_META = "Start Meta";
   public static final String CREATE_TABLE = "Create Table";
   public static final String SET_META_LEADER = "Set me as Meta Leader";
+  public static final String SCANNER_STATUS = "Scanner Status";
 
   public static final String LOOPBACK_ADDRESS = "127.0.0.1";
   public static final String BROADCAST_ADDRESS = "255.255.255.255";
@@ -50,6 +51,26 @@ public class C5ServerConstants {
   public static final int DEFAULT_REGION_SERVER_PORT_MIN = 8080;
   public static final int REGION_SERVER_PORT_RANGE = 1000;
 
+  // A client connection stops being read while the mutations it has sent but which have not yet been
+  // applied amount to more than the high watermark, and resumes once they fall to the low watermark.
+  public static final long REGION_SERVER_MUTATION_HIGH_WATERMARK_BYTES = 8 * 1024 * 1024;
+  public static final long REGION_SERVER_MUTATION_LOW_WATERMARK_BYTES = 4 * 1024 * 1024;
+
+  // A scanner sends its rows in responses of at most about this many bytes of cell data.
+  public static final int REGION_SERVER_SCAN_BATCH_MAX_BYTES = 2 * 1024 * 1024;
+
+  // A scanner is closed if its client has not asked it for more rows within the lease timeout.
+  public static final int REGION_SERVER_SCANNER_LEASE_TIMEOUT_MILLIS = 60000;
+  public static final int REGION_SERVER_SCANNER_LEASE_CHECK_FREQUENCY_MILLIS = 1000;
+  public static final int REGION_SERVER_MAX_SCANNERS_PER_CONNECTION = 100;
+  public static final int REGION_SERVER_MAX_SCANNERS_PER_REGION = 1000;
+
+  // Mutations submitted to a region one at a time are applied together in batches of at most this many
+  // mutations, or about this many bytes; and are converted from protobufs by a pool with this much queue.
+  public static final int REGION_BATCH_MAX_MUTATIONS = 10000;
+  public static final long REGION_BATCH_MAX_BYTES = 16 * 1024 * 1024;
+  public static final int REGION_MUTATION_CONVERSION_QUEUE_SIZE = 10000;
+
   public static final String CLUSTER_NAME_PROPERTY_NAME = "clusterName";
   public static final String WEB_SERVER_PORT_PROPERTY_NAME = "webServerPort";
   public static final String REGION_SERVER_PORT_PROPERTY_NAME = "regionServerPort";
@@ -23,6 +23,7 @@ import c5db.messages.generated.ModuleType;
 import c5db.regionserver.RegionNotFoundException;
 import org.jetlang.channels.Channel;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
@@ -42,6 +43,16 @@ public interface TabletModule extends C5Module {
 
   public Tablet getTablet(String tabletName) throws RegionNotFoundException;
 
+  /**
+   * Find the tablet responsible for a row of a table.
+   *
+   * @param tableName The bytes of the table's name.
+   * @param row       The row key, or null for the table's first tablet.
+   * @return The tablet whose key range contains the row.
+   * @throws RegionNotFoundException if this node has no such tablet.
+   */
+  public Tablet getTablet(ByteBuffer tableName, ByteBuffer row) throws RegionNotFoundException;
+
   // TODO this interface is not strong enough. Need HRegionInfo etc.
   public void startTablet(List<Long> peers, String tabletName);
 
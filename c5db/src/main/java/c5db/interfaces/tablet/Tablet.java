@@ -16,7 +16,9 @@
  */
 package c5db.interfaces.tablet;
 
+import c5db.client.generated.ReadConsistency;
 import c5db.tablet.Region;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.jetlang.channels.Channel;
@@ -46,11 +48,27 @@ public interface Tablet {
 
   Region getRegion();
 
+  /**
+   * Wait until reads from this tablet's region may be served locally at the requested consistency. LEADER
+   * reads may proceed at once if this node is the leader and holds the leader lease, or else once the quorum
+   * has confirmed its leadership, and in either case once the region has applied the writes committed as of
+   * then. BOUNDED_STALENESS reads may proceed, if this replica's committed state is no more than
+   * maxStalenessMillis behind the leader's, once the region has applied what this replica knows to be
+   * committed, and are otherwise treated as LEADER reads; ANY reads may always proceed at once.
+   *
+   * @param consistency        The consistency the read requires.
+   * @param maxStalenessMillis For BOUNDED_STALENESS, the greatest acceptable staleness; otherwise ignored.
+   * @return a future which will complete when the read may proceed, or else yield an exception if the read
+   * may not be served by this node.
+   */
+  ListenableFuture<Void> confirmReadable(ReadConsistency consistency, long maxStalenessMillis);
+
   void setStateChangeChannel(Channel<TabletStateChange> stateChangeChannel);
 
   enum State {
     Initialized, // Initial state, nothing done yet.
     CreatingReplicator, // Waiting for replication instance to be created
+    Recovering, // Replaying unflushed edits from the log into the region
     Open,   // Ready to service requests.
     Failed,
     Leader,
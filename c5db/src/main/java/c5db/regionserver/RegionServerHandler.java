@@ -17,6 +17,8 @@
 
 package c5db.regionserver;
 
+import c5db.C5ServerConstants;
+import c5db.client.generated.Action;
 import c5db.client.generated.Call;
 import c5db.client.generated.Get;
 import c5db.client.generated.GetRequest;
@@ -26,15 +28,27 @@ import c5db.client.generated.MultiResponse;
 import c5db.client.generated.MutateRequest;
 import c5db.client.generated.MutateResponse;
 import c5db.client.generated.MutationProto;
+import c5db.client.generated.NameBytesPair;
+import c5db.client.generated.ReadConsistency;
 import c5db.client.generated.RegionAction;
 import c5db.client.generated.RegionActionResult;
 import c5db.client.generated.Response;
+import c5db.client.generated.ResultOrException;
 import c5db.client.generated.ScanRequest;
+import c5db.interfaces.tablet.Tablet;
 import c5db.tablet.Region;
+import c5db.util.CheckedRunnable;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.util.StringUtils;
 import org.jetlang.channels.Channel;
 import org.jetlang.channels.MemoryChannel;
 import org.jetlang.fibers.Fiber;
@@ -42,19 +56,33 @@ import org.jetlang.fibers.ThreadFiber;
 import org.mortbay.log.Log;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The main netty handler for the RegionServer functionality. Maps protocol buffer calls to an action against a HRegion
  * and then provides a response to the caller.
+ * <p/>
+ * The handler stops reading from its connection while the client has too many bytes of mutations outstanding, or
+ * while the client is not reading the responses already sent to it. The client's writes then back up in the
+ * socket buffers until the region catches up, which slows the client to the region's pace.
  */
 public class RegionServerHandler extends SimpleChannelInboundHandler<Call> {
   private final RegionServerService regionServerService;
-  private final ScannerManager scanManager = ScannerManager.INSTANCE;
+  private final ScannerManager scanManager;
+
+  private final AtomicLong outstandingMutationBytes = new AtomicLong(0);
+  private boolean pausedForMutations = false;
+  private boolean pausedForWrites = false;
 
   public RegionServerHandler(RegionServerService myService) {
     this.regionServerService = myService;
+    this.scanManager = myService.getScannerManager();
   }
 
   @Override
@@ -75,26 +103,156 @@ public class RegionServerHandler extends SimpleChannelInboundHandler<Call> {
     }
   }
 
+  /**
+   * Each RegionAction is processed by the region(s) serving its rows, and the response is written once all of
+   * them have completed. The request's mutations count towards the client's outstanding mutation bytes until then.
+   */
   private void multi(ChannelHandlerContext ctx, Call call) throws IOException, RegionNotFoundException {
     final MultiRequest request = call.getMulti();
 
-    List<RegionActionResult> regionActionResults = new ArrayList<>();
     if (request == null) {
       throw new IOException("Poorly specified multi. There is no actual get data in the RPC");
     }
+    final List<ListenableFuture<RegionActionResult>> regionActionResults = new ArrayList<>();
     for (RegionAction regionAction : request.getRegionActionList()) {
-      final Region region = regionServerService.getOnlineRegion(regionAction.getRegion());
-      RegionActionResult regionActionResponse = region.processRegionAction(regionAction);
-      regionActionResults.add(regionActionResponse);
+      if (regionAction.getAtomic()) {
+        final Tablet tablet = regionServerService.getOnlineTablet(regionAction.getRegion(), firstRowOf(regionAction));
+        regionActionResults.add(processOnTablet(ctx, tablet, regionAction));
+      } else {
+        regionActionResults.add(processAcrossRegions(ctx, regionAction));
+      }
     }
-    MultiResponse multiResponse = new MultiResponse(regionActionResults);
-    final Response response = new Response(Response.Command.MULTI,
-        call.getCommandId(),
-        null,
-        null,
-        null,
-        multiResponse);
-    ctx.writeAndFlush(response);
+
+    final long mutationBytes = sizeOfMutations(request);
+    onOutstandingMutationBytesChanged(ctx, outstandingMutationBytes.addAndGet(mutationBytes));
+
+    Futures.addCallback(Futures.allAsList(regionActionResults), new FutureCallback<List<RegionActionResult>>() {
+      @Override
+      public void onSuccess(List<RegionActionResult> results) {
+        onOutstandingMutationBytesChanged(ctx, outstandingMutationBytes.addAndGet(-mutationBytes));
+
+        MultiResponse multiResponse = new MultiResponse(results);
+        final Response response = new Response(Response.Command.MULTI,
+            call.getCommandId(),
+            null,
+            null,
+            null,
+            multiResponse);
+        ctx.writeAndFlush(response);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        onOutstandingMutationBytesChanged(ctx, outstandingMutationBytes.addAndGet(-mutationBytes));
+        ctx.fireExceptionCaught(t);
+      }
+    });
+  }
+
+  /**
+   * Process a RegionAction on the tablet's region. If it holds gets, it is processed only once the tablet
+   * confirms its region is readable at LEADER consistency: at once, if it is, or else on the channel's event
+   * loop. A failure, to confirm or to process, becomes the RegionActionResult's exception.
+   */
+  private ListenableFuture<RegionActionResult> processOnTablet(ChannelHandlerContext ctx,
+                                                               Tablet tablet,
+                                                               RegionAction regionAction) {
+    final Region region = tablet.getRegion();
+    final ListenableFuture<RegionActionResult> result;
+    if (!hasGet(regionAction)) {
+      result = region.processRegionAction(regionAction);
+    } else {
+      final ListenableFuture<Void> readable = tablet.confirmReadable(ReadConsistency.LEADER, 0);
+      result = Futures.transform(readable,
+          (AsyncFunction<Void, RegionActionResult>) confirmed -> region.processRegionAction(regionAction),
+          readable.isDone() ? MoreExecutors.sameThreadExecutor() : ctx.executor());
+    }
+    return Futures.withFallback(result, (FutureFallback<RegionActionResult>) t ->
+        Futures.immediateFuture(new RegionActionResult(new ArrayList<>(), buildException(t))));
+  }
+
+  /**
+   * A non-atomic RegionAction may hold actions on rows served by several of the table's tablets, since the
+   * client batches them without knowing where the tablets' boundaries lie. Its actions are grouped by the tablet
+   * serving each row, each group is processed by its tablet's region, and the results are put back in the order
+   * of the actions. An action on a row which no tablet serves fails alone.
+   */
+  private ListenableFuture<RegionActionResult> processAcrossRegions(ChannelHandlerContext ctx,
+                                                                    RegionAction regionAction) {
+    final List<Action> actions = regionAction.getActionList();
+    if (actions == null || actions.isEmpty()) {
+      return Futures.immediateFuture(new RegionActionResult(new ArrayList<>(), null));
+    }
+
+    final ResultOrException[] results = new ResultOrException[actions.size()];
+    final Map<Tablet, List<Integer>> positionsByTablet = new LinkedHashMap<>();
+    for (int position = 0; position < actions.size(); position++) {
+      final Action action = actions.get(position);
+      try {
+        final Tablet tablet = regionServerService.getOnlineTablet(regionAction.getRegion(), rowOf(action));
+        positionsByTablet.computeIfAbsent(tablet, t -> new ArrayList<>()).add(position);
+      } catch (RegionNotFoundException e) {
+        results[position] = new ResultOrException(action.getIndex(), null, buildException(e));
+      }
+    }
+
+    if (positionsByTablet.size() == 1 && positionsByTablet.values().iterator().next().size() == actions.size()) {
+      return processOnTablet(ctx, positionsByTablet.keySet().iterator().next(), regionAction);
+    }
+
+    final List<ListenableFuture<RegionActionResult>> tabletResults = new ArrayList<>();
+    positionsByTablet.forEach((tablet, positions) -> {
+      final List<Action> tabletActions = new ArrayList<>(positions.size());
+      for (int position : positions) {
+        tabletActions.add(actions.get(position));
+      }
+      final ListenableFuture<RegionActionResult> tabletResult =
+          processOnTablet(ctx, tablet, new RegionAction(regionAction.getRegion(), false, tabletActions));
+
+      tabletResults.add(Futures.transform(tabletResult, (Function<RegionActionResult, RegionActionResult>) result -> {
+        final List<ResultOrException> regionResults = result.getResultOrExceptionList();
+        for (int i = 0; i < positions.size(); i++) {
+          final int position = positions.get(i);
+          if (result.getException() != null || regionResults == null || i >= regionResults.size()) {
+            results[position] = new ResultOrException(actions.get(position).getIndex(), null,
+                result.getException());
+          } else {
+            results[position] = regionResults.get(i);
+          }
+        }
+        return result;
+      }));
+    });
+
+    return Futures.transform(Futures.allAsList(tabletResults),
+        (Function<List<RegionActionResult>, RegionActionResult>) tabletResultList ->
+            new RegionActionResult(Arrays.asList(results), null));
+  }
+
+  private static boolean hasGet(RegionAction regionAction) {
+    if (regionAction.getActionList() == null) {
+      return false;
+    }
+    for (Action action : regionAction.getActionList()) {
+      if (action.getGet() != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static ByteBuffer rowOf(Action action) {
+    if (action.getMutation() != null) {
+      return action.getMutation().getRow();
+    } else if (action.getGet() != null) {
+      return action.getGet().getRow();
+    }
+    return null;
+  }
+
+  private static NameBytesPair buildException(Throwable t) {
+    return new NameBytesPair(t.getClass().getName(),
+        ByteBuffer.wrap(Bytes.toBytes(StringUtils.stringifyException(t))));
   }
 
   private void mutate(ChannelHandlerContext ctx, Call call) throws RegionNotFoundException, IOException {
@@ -104,13 +262,29 @@ public class RegionServerHandler extends SimpleChannelInboundHandler<Call> {
       throw new IOException("Poorly specified mutate. There is no actual get data in the RPC");
     }
 
-    final Region region = regionServerService.getOnlineRegion(call.getMutate().getRegion());
-    if (mutateIn.getMutation().getMutateType().equals(MutationProto.MutationType.PUT) &&
+    final Region region = regionServerService.getOnlineRegion(mutateIn.getRegion(), mutateIn.getMutation().getRow());
+    final MutationProto.MutationType mutateType = mutateIn.getMutation().getMutateType();
+    if ((mutateType == MutationProto.MutationType.PUT || mutateType == MutationProto.MutationType.DELETE) &&
         (mutateIn.getCondition() == null || mutateIn.getCondition().getRow() == null)) {
+      final long mutationBytes = sizeOf(mutateIn.getMutation());
+      onOutstandingMutationBytesChanged(ctx, outstandingMutationBytes.addAndGet(mutationBytes));
+
       Futures.addCallback(region.batchMutate(mutateIn.getMutation()), new FutureCallback<Boolean>() {
         @Override
         public void onSuccess(Boolean result) {
-          MutateResponse mutateResponse = new MutateResponse(new c5db.client.generated.Result(), true);
+          respond(true);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          Log.warn(t);
+          respond(false);
+        }
+
+        private void respond(boolean processed) {
+          onOutstandingMutationBytesChanged(ctx, outstandingMutationBytes.addAndGet(-mutationBytes));
+
+          MutateResponse mutateResponse = new MutateResponse(new c5db.client.generated.Result(), processed);
           final Response response = new Response(Response.Command.MUTATE,
               call.getCommandId(),
               null,
@@ -118,15 +292,8 @@ public class RegionServerHandler extends SimpleChannelInboundHandler<Call> {
               null,
               null);
           ctx.writeAndFlush(response);
-
-        }
-
-        @Override
-        public void onFailure(Throwable t) {
-          t.toString();
         }
       });
-      //TODO check success
 
     } else {
       boolean success = region.mutate(mutateIn.getMutation(), mutateIn.getCondition());
@@ -154,32 +321,56 @@ public class RegionServerHandler extends SimpleChannelInboundHandler<Call> {
 
     final long scannerId;
     scannerId = getScannerId(scanIn);
+    if (scanIn.getCloseScanner()) {
+      scanManager.closeScanner(scannerId);
+      return;
+    }
+
     final Integer numberOfRowsToSend = scanIn.getNumberOfRows();
-    Channel<Integer> channel = scanManager.getChannel(scannerId);
-    // New Scanner
-    if (null == channel) {
-      final Fiber fiber = new ThreadFiber();
-      fiber.start();
-      channel = new MemoryChannel<>();
-      Region region = regionServerService.getOnlineRegion(call.getScan().getRegion());
-      final ScanRunnable scanRunnable = new ScanRunnable(ctx, call, scannerId, region);
-      channel.subscribe(fiber, scanRunnable);
-      scanManager.addChannel(scannerId, channel);
+    final Channel<Integer> channel = scanManager.getChannel(scannerId);
+    if (null != channel) {
+      channel.publish(numberOfRowsToSend);
+    } else if (scanIn.getScan() == null) {
+      // The scanner has run out of rows, or been closed, since the client asked it for more
+      Log.debug("Ignoring scan request for scanner which is not open: " + scannerId);
+    } else {
+      // New Scanner
+      final Tablet tablet = regionServerService.getOnlineTablet(scanIn.getRegion(), scanIn.getScan().getStartRow());
+      final Region region = tablet.getRegion();
+      final String regionName = Bytes.toString(call.getScan().getRegion().getValue().array());
+      whenReadable(ctx, tablet, call.getScan().getReadConsistency(), call.getScan().getMaxStalenessMillis(), () -> {
+        final Fiber fiber = new ThreadFiber();
+        final Channel<Integer> newChannel = new MemoryChannel<>();
+        final ScanRunnable scanRunnable = new ScanRunnable(ctx, call, scannerId, region, fiber, scanManager);
+        try {
+          scanManager.addScanner(scannerId, ctx.channel(), regionName, newChannel, scanRunnable, fiber);
+        } catch (IOException e) {
+          scanRunnable.close();
+          throw e;
+        }
+        fiber.start();
+        newChannel.subscribe(fiber, scanRunnable);
+        newChannel.publish(numberOfRowsToSend);
+      });
     }
-    channel.publish(numberOfRowsToSend);
+  }
+
+  private static ByteBuffer firstRowOf(RegionAction regionAction) {
+    for (Action action : regionAction.getActionList()) {
+      if (action.getMutation() != null) {
+        return action.getMutation().getRow();
+      } else if (action.getGet() != null) {
+        return action.getGet().getRow();
+      }
+    }
+    return null;
   }
 
   private long getScannerId(ScanRequest scanIn) {
-    long scannerId;
     if (scanIn.getScannerId() > 0) {
-      scannerId = scanIn.getScannerId();
-    } else {
-      // Make a scanner with an Id not 0
-      do {
-        scannerId = System.currentTimeMillis();
-      } while (scannerId == 0);
+      return scanIn.getScannerId();
     }
-    return scannerId;
+    return scanManager.newScannerId();
   }
 
   private void get(ChannelHandlerContext ctx, Call call) throws IOException, RegionNotFoundException {
@@ -189,21 +380,59 @@ public class RegionServerHandler extends SimpleChannelInboundHandler<Call> {
     }
     final Get getIn = getRequest.getGet();
 
-    final Region region = regionServerService.getOnlineRegion(call.getGet().getRegion());
+    final Tablet tablet = regionServerService.getOnlineTablet(getRequest.getRegion(), getIn.getRow());
+    final Region region = tablet.getRegion();
     if (region == null) {
       throw new IOException("Unable to find region");
     }
 
-    if (getIn.getExistenceOnly()) {
-      final boolean exists = region.exists(getRequest.getGet());
-      final GetResponse getResponse = new GetResponse(new c5db.client.generated.Result(new ArrayList<>(), 0, exists));
+    whenReadable(ctx, tablet, getRequest.getReadConsistency(), getRequest.getMaxStalenessMillis(), () -> {
+      final GetResponse getResponse;
+      if (getIn.getExistenceOnly()) {
+        final boolean exists = region.exists(getRequest.getGet());
+        getResponse = new GetResponse(new c5db.client.generated.Result(new ArrayList<>(), 0, exists));
+      } else {
+        getResponse = new GetResponse(region.get(getRequest.getGet()));
+      }
       final Response response = new Response(Response.Command.GET, call.getCommandId(), getResponse, null, null, null);
       ctx.writeAndFlush(response);
+    });
+  }
+
+  /**
+   * Perform the read once the tablet confirms that its region is safe to read from at the requested
+   * consistency (LEADER if unspecified, with a staleness bound of zero if unspecified): at once, if it is, or
+   * else on the channel's event loop after the quorum has confirmed this node's leadership. A failure to confirm
+   * is passed on to exceptionCaught, as it would be if thrown.
+   */
+  private void whenReadable(ChannelHandlerContext ctx,
+                            Tablet tablet,
+                            ReadConsistency consistency,
+                            Long maxStalenessMillis,
+                            CheckedRunnable<IOException> read) {
+    final ListenableFuture<Void> readable = tablet.confirmReadable(
+        consistency == null ? ReadConsistency.LEADER : consistency,
+        maxStalenessMillis == null ? 0 : maxStalenessMillis);
+    final FutureCallback<Void> callback = new FutureCallback<Void>() {
+      @Override
+      public void onSuccess(Void result) {
+        try {
+          read.run();
+        } catch (IOException e) {
+          ctx.fireExceptionCaught(e);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        ctx.fireExceptionCaught(t);
+      }
+    };
+
+    if (readable.isDone()) {
+      Futures.addCallback(readable, callback);
     } else {
-      final c5db.client.generated.Result getResult = region.get(getRequest.getGet());
-      final GetResponse getResponse = new GetResponse(getResult);
-      final Response response = new Response(Response.Command.GET, call.getCommandId(), getResponse, null, null, null);
-      ctx.writeAndFlush(response);
+      Futures.addCallback(readable, callback, ctx.executor());
     }
   }
 
@@ -212,6 +441,73 @@ public class RegionServerHandler extends SimpleChannelInboundHandler<Call> {
     ctx.flush();
   }
 
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    scanManager.closeScannersOf(ctx.channel());
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    synchronized (this) {
+      pausedForWrites = !ctx.channel().isWritable();
+      updateAutoRead(ctx);
+    }
+    super.channelWritabilityChanged(ctx);
+  }
+
+  private synchronized void onOutstandingMutationBytesChanged(ChannelHandlerContext ctx, long outstandingBytes) {
+    if (!pausedForMutations && outstandingBytes > C5ServerConstants.REGION_SERVER_MUTATION_HIGH_WATERMARK_BYTES) {
+      pausedForMutations = true;
+      updateAutoRead(ctx);
+    } else if (pausedForMutations
+        && outstandingBytes <= C5ServerConstants.REGION_SERVER_MUTATION_LOW_WATERMARK_BYTES) {
+      pausedForMutations = false;
+      updateAutoRead(ctx);
+    }
+  }
+
+  private synchronized void updateAutoRead(ChannelHandlerContext ctx) {
+    ctx.channel().config().setAutoRead(!pausedForMutations && !pausedForWrites);
+  }
+
+  private static long sizeOfMutations(MultiRequest request) {
+    long size = 0;
+    for (RegionAction regionAction : request.getRegionActionList()) {
+      if (regionAction.getActionList() == null) {
+        continue;
+      }
+      for (Action action : regionAction.getActionList()) {
+        if (action.getMutation() != null) {
+          size += sizeOf(action.getMutation());
+        }
+      }
+    }
+    return size;
+  }
+
+  private static long sizeOf(MutationProto mutation) {
+    long size = mutation.getRow() == null ? 0 : mutation.getRow().remaining();
+    if (mutation.getColumnValueList() == null) {
+      return size;
+    }
+    for (MutationProto.ColumnValue columnValue : mutation.getColumnValueList()) {
+      size += columnValue.getFamily().remaining();
+      if (columnValue.getQualifierValueList() == null) {
+        continue;
+      }
+      for (MutationProto.ColumnValue.QualifierValue qualifierValue : columnValue.getQualifierValueList()) {
+        if (qualifierValue.getQualifier() != null) {
+          size += qualifierValue.getQualifier().remaining();
+        }
+        if (qualifierValue.getValue() != null) {
+          size += qualifierValue.getValue().remaining();
+        }
+      }
+    }
+    return size;
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
       throws Exception {
@@ -47,7 +47,6 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
-import org.apache.hadoop.hbase.util.Bytes;
 import org.jetlang.fibers.Fiber;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,6 +67,11 @@ public class RegionServerService extends AbstractService implements RegionServer
   private final int port;
   private final C5Server server;
   private final ServerBootstrap bootstrap = new ServerBootstrap();
+  private final ScannerManager scannerManager = new ScannerManager(
+      C5ServerConstants.REGION_SERVER_SCANNER_LEASE_TIMEOUT_MILLIS,
+      C5ServerConstants.REGION_SERVER_SCANNER_LEASE_CHECK_FREQUENCY_MILLIS,
+      C5ServerConstants.REGION_SERVER_MAX_SCANNERS_PER_CONNECTION,
+      C5ServerConstants.REGION_SERVER_MAX_SCANNERS_PER_REGION);
   private TabletModule tabletModule;
   private Channel listenChannel;
 
@@ -87,6 +91,7 @@ public class RegionServerService extends AbstractService implements RegionServer
   @Override
   protected void doStart() {
     fiber.start();
+    scannerManager.start();
 
     fiber.execute(() -> {
       // we need the tablet module:
@@ -143,6 +148,7 @@ public class RegionServerService extends AbstractService implements RegionServer
       e.printStackTrace();
       notifyFailed(e);
     }
+    scannerManager.stop();
 
     notifyStopped();
   }
@@ -164,23 +170,33 @@ public class RegionServerService extends AbstractService implements RegionServer
 
   @Override
   public String acceptCommand(String commandString) {
+    if (commandString.startsWith(C5ServerConstants.SCANNER_STATUS)) {
+      return "openScanners=" + scannerManager.getOpenScannerCount()
+          + " bufferedBytes=" + scannerManager.getBufferedBytes();
+    }
     return null;
   }
 
-  public Region getOnlineRegion(RegionSpecifier regionSpecifier) throws RegionNotFoundException {
-    ByteBuffer regionSpecifierBuffer = regionSpecifier.getValue();
-    if (regionSpecifierBuffer == null) {
-      throw new RegionNotFoundException("No region specifier specified in the request");
-    }
+  public ScannerManager getScannerManager() {
+    return scannerManager;
+  }
 
-    String stringifiedRegion = Bytes.toString(regionSpecifierBuffer.array());
-    LOG.debug("get online region:" + stringifiedRegion);
+  public Region getOnlineRegion(RegionSpecifier regionSpecifier, ByteBuffer row) throws RegionNotFoundException {
+    return getOnlineTablet(regionSpecifier, row).getRegion();
+  }
 
-    Tablet tablet = tabletModule.getTablet(stringifiedRegion);
-    if (tablet == null) {
-      throw new RegionNotFoundException("Unable to find specified tablet:" + stringifiedRegion);
+  /**
+   * Find the tablet which serves a row of the table named by the region specifier.
+   *
+   * @param row The row the request concerns, or null for the table's first tablet.
+   */
+  public Tablet getOnlineTablet(RegionSpecifier regionSpecifier, ByteBuffer row) throws RegionNotFoundException {
+    ByteBuffer tableName = regionSpecifier.getValue();
+    if (tableName == null) {
+      throw new RegionNotFoundException("No region specifier specified in the request");
     }
-    return tablet.getRegion();
+
+    return tabletModule.getTablet(tableName, row);
   }
 
   public String toString() {
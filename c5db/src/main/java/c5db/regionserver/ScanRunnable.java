@@ -14,106 +14,168 @@
  *  You should have received a copy of the GNU Affero General Public License
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package c5db.regionserver;
 
 
+import c5db.C5ServerConstants;
 import c5db.client.generated.Call;
 import c5db.client.generated.Response;
 import c5db.client.generated.Result;
 import c5db.client.generated.ScanResponse;
 import c5db.tablet.Region;
+import c5db.util.FiberOnly;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.jetlang.core.Callback;
+import org.jetlang.fibers.Fiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Creates a runnable in the background so that the regionserver always has a setup of scanner results
- * ready to send back to the user. It directly sends the data back through netty back to the user.
+ * Streams a scanner's results back to the client through netty, on the scanner's own fiber. Each message
+ * received is a grant of credit from the client for that many more rows; rows are sent, in responses of at
+ * most REGION_SERVER_SCAN_BATCH_MAX_BYTES, for as long as there is credit, and while the client's channel
+ * remains writable. If it stops being writable, the scanner waits for its last response to be written out
+ * before producing more. Once the scanner runs out of rows, it is removed from the ScannerManager.
  */
 public class ScanRunnable implements Callback<Integer> {
+  private static final Logger LOG = LoggerFactory.getLogger(ScanRunnable.class);
+
   private final long scannerId;
   private final Call call;
   private final ChannelHandlerContext ctx;
+  private final Fiber fiber;
+  private final ScannerManager scannerManager;
   private final RegionScanner scanner;
+  private long credit = 0;
+  private boolean waitingForWrite = false;
   private boolean close;
 
   public ScanRunnable(final ChannelHandlerContext ctx,
                       final Call call,
                       final long scannerId,
-                      final Region region) throws IOException {
+                      final Region region,
+                      final Fiber fiber,
+                      final ScannerManager scannerManager) throws IOException {
     super();
     assert (call.getScan() != null);
 
     this.ctx = ctx;
     this.call = call;
     this.scannerId = scannerId;
+    this.fiber = fiber;
+    this.scannerManager = scannerManager;
     this.scanner = region.getScanner(call.getScan().getScan());
     this.close = false;
   }
 
   @Override
+  @FiberOnly
   public void onMessage(Integer numberOfMessagesToSend) {
-    if (this.close) {
+    credit += numberOfMessagesToSend;
+    produce();
+  }
+
+  /**
+   * Close the underlying RegionScanner; the scanner will send nothing more. Closing it again has no effect.
+   */
+  @FiberOnly
+  public void close() {
+    if (close) {
       return;
     }
-    long numberOfMsgsLeft = numberOfMessagesToSend;
-    List<Result> scanResults = new ArrayList<>();
-    List<Integer> cellsPerResult = new ArrayList<>();
-    ByteBuffer previousRow = null;
-    while (!this.close && numberOfMsgsLeft > 0) {
-      int rowsToSend = 0;
-      boolean moreResults;
-      do {
-        List<Cell> rawCells = new ArrayList<>();
-
-        try {
-          // Arguably you should only return numberOfMessages, but I figure it can't hurt that
-          // much to pass them up
-          moreResults = scanner.nextRaw(rawCells);
-          if (!moreResults) {
-            this.scanner.close();
-            this.close = true;
-          }
-        } catch (IOException e) {
-          e.printStackTrace();
-          return;
-        }
+    close = true;
+    try {
+      scanner.close();
+    } catch (IOException e) {
+      LOG.warn("Error closing scanner {}", scannerId, e);
+    }
+  }
 
-        List<c5db.client.generated.Cell> cells = new ArrayList<>();
-        for (Cell cell : rawCells) {
-          ByteBuffer cellBufferRow = ByteBuffer.wrap(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
-          // If we are not the first one and we are a different row than the previous
-          cells.add(ReverseProtobufUtil.toCell(cell));
-
-          if (!(previousRow == null || previousRow.compareTo(cellBufferRow) == 0)) {
-            cellsPerResult.add(cells.size());
-            scanResults.add(new Result(cells, cells.size(), cells.size() > 0));
-            cells = new ArrayList<>();
-          }
-          previousRow = ByteBuffer.wrap(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
-        }
-        // Add the last one
-        if (cells.size() > 0) {
+  @FiberOnly
+  private void produce() {
+    while (!close && !waitingForWrite && credit > 0) {
+      sendBatch();
+    }
+  }
+
+  /**
+   * Read rows from the scanner until credit is exhausted, the scanner is, or the batch is full; and send them.
+   */
+  @FiberOnly
+  private void sendBatch() {
+    final List<Result> scanResults = new ArrayList<>();
+    final List<Integer> cellsPerResult = new ArrayList<>();
+    long batchBytes = 0;
+    boolean moreResults;
+
+    do {
+      final List<Cell> rawCells = new ArrayList<>();
+      try {
+        moreResults = scanner.nextRaw(rawCells);
+      } catch (IOException e) {
+        LOG.error("Error reading from scanner {}", scannerId, e);
+        close();
+        scannerManager.closeScanner(scannerId);
+        ctx.fireExceptionCaught(e);
+        return;
+      }
+
+      // Cells are grouped into one Result per row
+      List<c5db.client.generated.Cell> cells = new ArrayList<>();
+      Cell previousCell = null;
+      for (Cell cell : rawCells) {
+        if (previousCell != null && !CellUtil.matchingRow(previousCell, cell)) {
           cellsPerResult.add(cells.size());
-          scanResults.add(new Result(cells, cells.size(), cells.size() > 0));
+          scanResults.add(new Result(cells, cells.size(), true));
+          cells = new ArrayList<>();
         }
-        rowsToSend++;
-        // Our super advanced scanning algorithm. Could be greatly improved
-      } while (moreResults && rowsToSend < 100 && numberOfMessagesToSend - rowsToSend > 0);
-      ScanResponse scanResponse = new ScanResponse(cellsPerResult, scannerId, moreResults, 0, scanResults);
-      Response response = new Response(Response.Command.SCAN, call.getCommandId(), null, null, scanResponse, null);
-      ctx.writeAndFlush(response);
-      numberOfMsgsLeft -= rowsToSend;
+        cells.add(ReverseProtobufUtil.toCell(cell));
+        batchBytes += sizeOf(cell);
+        previousCell = cell;
+      }
+      if (cells.size() > 0) {
+        cellsPerResult.add(cells.size());
+        scanResults.add(new Result(cells, cells.size(), true));
+      }
+      credit--;
+    } while (moreResults
+        && credit > 0
+        && batchBytes < C5ServerConstants.REGION_SERVER_SCAN_BATCH_MAX_BYTES);
+
+    if (!moreResults) {
+      close();
+      scannerManager.closeScanner(scannerId);
     }
-  }
 
-}
+    final ScanResponse scanResponse = new ScanResponse(cellsPerResult, scannerId, moreResults, 0, scanResults);
+    final Response response = new Response(Response.Command.SCAN, call.getCommandId(), null, null, scanResponse, null);
+    final long bytes = batchBytes;
+    scannerManager.bufferedBytesChanged(bytes);
+    final ChannelFuture written = ctx.writeAndFlush(response);
 
+    waitingForWrite = !close && credit > 0 && !ctx.channel().isWritable();
+    final boolean resumeWhenWritten = waitingForWrite;
+    written.addListener((ChannelFutureListener) future -> {
+      scannerManager.bufferedBytesChanged(-bytes);
+      if (resumeWhenWritten) {
+        fiber.execute(() -> {
+          waitingForWrite = false;
+          produce();
+        });
+      }
+    });
+  }
 
+  private static long sizeOf(Cell cell) {
+    return cell.getRowLength() + cell.getFamilyLength() + cell.getQualifierLength() + cell.getValueLength();
+  }
+}
@@ -14,29 +14,209 @@
  *  You should have received a copy of the GNU Affero General Public License
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package c5db.regionserver;
 
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import org.apache.hadoop.hbase.regionserver.LeaseException;
+import org.apache.hadoop.hbase.regionserver.Leases;
 import org.jetlang.channels.Channel;
+import org.jetlang.fibers.Fiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A JVM wide mapping from scannerIds to netty channels so that a user can access the scanner channels.
+ * A region server's registry of open scanners, mapping scannerIds to the channels on which their scanners
+ * receive credit. Each scanner holds a lease which is renewed whenever its client asks it for more rows; a
+ * scanner is closed when its lease expires, when its client closes it or its connection, or when it runs
+ * out of rows. The number of scanners open at once is limited per connection and per region.
  */
-public enum ScannerManager {
-  INSTANCE;
+public class ScannerManager {
+  private static final Logger LOG = LoggerFactory.getLogger(ScannerManager.class);
+
+  private final ConcurrentHashMap<Long, OpenScanner> scannerMap = new ConcurrentHashMap<>();
+  private final Multiset<io.netty.channel.Channel> scannersPerConnection = ConcurrentHashMultiset.create();
+  private final Multiset<String> scannersPerRegion = ConcurrentHashMultiset.create();
+  private final AtomicLong bufferedBytes = new AtomicLong(0);
+  // Clients keep the scanners of every server they talk to in one registry, so each server starts its ids
+  // from a random point to keep them apart.
+  private final AtomicLong lastScannerId = new AtomicLong(ThreadLocalRandom.current().nextLong() >>> 1);
+  private final Leases leases;
+  private final int leaseTimeoutMillis;
+  private final int maxScannersPerConnection;
+  private final int maxScannersPerRegion;
+
+  public ScannerManager(int leaseTimeoutMillis,
+                        int leaseCheckFrequencyMillis,
+                        int maxScannersPerConnection,
+                        int maxScannersPerRegion) {
+    this.leases = new Leases(leaseCheckFrequencyMillis);
+    this.leaseTimeoutMillis = leaseTimeoutMillis;
+    this.maxScannersPerConnection = maxScannersPerConnection;
+    this.maxScannersPerRegion = maxScannersPerRegion;
+  }
 
-  private ConcurrentHashMap<Long, Channel<Integer>> scannerMap = new ConcurrentHashMap<>();
+  public void start() {
+    leases.setName("ScannerLeases");
+    leases.start();
+  }
+
+  /**
+   * Stop expiring leases, and close every open scanner.
+   */
+  public void stop() {
+    leases.close();
+    for (Long scannerId : new ArrayList<>(scannerMap.keySet())) {
+      closeScanner(scannerId);
+    }
+  }
 
-  ScannerManager() {
+  /**
+   * @return a positive scannerId which no other scanner opened by this server has been given.
+   */
+  public long newScannerId() {
+    return lastScannerId.incrementAndGet();
   }
 
+  /**
+   * Look up the credit channel of a scanner, renewing its lease.
+   *
+   * @return the channel, or null if there is no open scanner with the given id.
+   */
   public Channel<Integer> getChannel(long scannerId) {
-    return scannerMap.get(scannerId);
+    final OpenScanner scanner = scannerMap.get(scannerId);
+    if (scanner == null) {
+      return null;
+    }
+
+    try {
+      leases.renewLease(leaseName(scannerId));
+    } catch (LeaseException e) {
+      // The lease expired just now, and the scanner is being closed
+      return null;
+    }
+    return scanner.channel;
+  }
+
+  /**
+   * Register a newly opened scanner, or else throw if its connection or region already has as many open
+   * scanners as are allowed.
+   *
+   * @param scannerId    The id by which the client will refer to the scanner.
+   * @param connection   The client connection which opened the scanner.
+   * @param regionName   The region being scanned.
+   * @param channel      The channel on which the scanner receives credit.
+   * @param scanRunnable The scanner itself.
+   * @param fiber        The fiber on which the scanner runs; it will be disposed when the scanner is closed.
+   */
+  public synchronized void addScanner(long scannerId,
+                                      io.netty.channel.Channel connection,
+                                      String regionName,
+                                      Channel<Integer> channel,
+                                      ScanRunnable scanRunnable,
+                                      Fiber fiber) throws IOException {
+    if (scannersPerConnection.count(connection) >= maxScannersPerConnection) {
+      throw new IOException("Too many open scanners on this connection: " + maxScannersPerConnection);
+    }
+    if (scannersPerRegion.count(regionName) >= maxScannersPerRegion) {
+      throw new IOException("Too many open scanners on region " + regionName + ": " + maxScannersPerRegion);
+    }
+    if (scannerMap.containsKey(scannerId)) {
+      throw new IOException("Scanner already open: " + scannerId);
+    }
+
+    leases.createLease(leaseName(scannerId), leaseTimeoutMillis, () -> {
+      LOG.info("Scanner {} lease expired", scannerId);
+      closeScanner(scannerId);
+    });
+    scannerMap.put(scannerId, new OpenScanner(connection, regionName, channel, scanRunnable, fiber));
+    scannersPerConnection.add(connection);
+    scannersPerRegion.add(regionName);
+  }
+
+  /**
+   * Close a scanner and release everything it holds. Closing a scanner which is not open has no effect.
+   */
+  public void closeScanner(long scannerId) {
+    final OpenScanner scanner;
+    synchronized (this) {
+      scanner = scannerMap.remove(scannerId);
+      if (scanner == null) {
+        return;
+      }
+      scannersPerConnection.remove(scanner.connection);
+      scannersPerRegion.remove(scanner.regionName);
+    }
+
+    try {
+      leases.cancelLease(leaseName(scannerId));
+    } catch (LeaseException ignore) {
+      // The lease has already expired
+    }
+
+    scanner.fiber.execute(() -> {
+      scanner.scanRunnable.close();
+      scanner.fiber.dispose();
+    });
+  }
+
+  /**
+   * Close every scanner opened by the given connection, as when the connection itself closes.
+   */
+  public void closeScannersOf(io.netty.channel.Channel connection) {
+    final List<Long> scannerIds = new ArrayList<>();
+    scannerMap.forEach((scannerId, scanner) -> {
+      if (scanner.connection == connection) {
+        scannerIds.add(scannerId);
+      }
+    });
+    scannerIds.forEach(this::closeScanner);
   }
 
-  public void addChannel(long scannerId, Channel<Integer> channel) {
-    scannerMap.put(scannerId, channel);
+  public int getOpenScannerCount() {
+    return scannerMap.size();
+  }
+
+  /**
+   * @return the number of bytes of cell data which scanners have written to their connections, but which have
+   * not yet been sent.
+   */
+  public long getBufferedBytes() {
+    return bufferedBytes.get();
+  }
+
+  void bufferedBytesChanged(long delta) {
+    bufferedBytes.addAndGet(delta);
+  }
+
+  private static String leaseName(long scannerId) {
+    return "scanner-" + scannerId;
+  }
+
+  private static class OpenScanner {
+    private final io.netty.channel.Channel connection;
+    private final String regionName;
+    private final Channel<Integer> channel;
+    private final ScanRunnable scanRunnable;
+    private final Fiber fiber;
+
+    private OpenScanner(io.netty.channel.Channel connection,
+                        String regionName,
+                        Channel<Integer> channel,
+                        ScanRunnable scanRunnable,
+                        Fiber fiber) {
+      this.connection = connection;
+      this.regionName = regionName;
+      this.channel = channel;
+      this.scanRunnable = scanRunnable;
+      this.fiber = fiber;
+    }
   }
 }
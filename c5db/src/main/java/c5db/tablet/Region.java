@@ -30,9 +30,11 @@ import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Our interface to a region.
@@ -58,7 +60,25 @@ public interface Region {
 
   RegionScanner getScanner(Scan scan) throws IOException;
 
-  RegionActionResult processRegionAction(RegionAction regionAction);
+  /**
+   * @return a future which will return the result of the actions: at once for an atomic RegionAction, or else
+   * once its puts and deletes have been applied together with the other mutations batched for this region.
+   */
+  ListenableFuture<RegionActionResult> processRegionAction(RegionAction regionAction);
+
+  /**
+   * @return a future which completes once every write this region had logged at the time of the call has
+   * been applied and is visible to reads.
+   */
+  ListenableFuture<Void> awaitLoggedWrites();
+
+  /**
+   * Apply edits recovered from the log to the region's memstore, without logging them again.
+   *
+   * @param edits Edits, in the order they were logged.
+   * @throws IOException if any edit could not be applied.
+   */
+  void replay(List<WALEdit> edits) throws IOException;
 
   /**
    * Constructor arguments basically.
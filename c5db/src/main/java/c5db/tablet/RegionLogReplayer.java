@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet;
+
+import c5db.generated.OLogContentType;
+import c5db.interfaces.log.Reader;
+import c5db.interfaces.replication.IndexCommitNotice;
+import c5db.interfaces.replication.ReplicatorLog;
+import c5db.log.OLogEntry;
+import c5db.log.OLogRawDataContent;
+import c5db.log.WalEditCodec;
+import c5db.replication.generated.LogEntry;
+import c5db.util.CheckedSupplier;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static c5db.interfaces.log.SequentialEntryIterable.SequentialEntryIterator;
+
+/**
+ * Replays the edits logged for a region by {@link c5db.log.OLogShim} back into the region's memstore, so that
+ * edits which had not been flushed to store files when the region was last open are not lost.
+ * <p>
+ * Edits whose sequence id is no greater than the greatest sequence id found in the region's store files are
+ * skipped, since they have already been flushed. The tail of the log may hold entries which never reached a
+ * majority of the quorum, and which a new leader will write over, so an edit is applied only once a commit
+ * notice from the replicator covers its entry; if the notice is for another term than the entry's, the entry
+ * and those after it have been superseded, and are discarded.
+ * <p>
+ * Log entries are read and decoded on a thread of their own, while the decoded edits are applied to the region,
+ * in batches, by the given executor, which must run its tasks one at a time, in the order submitted. A leader
+ * commits the entries of earlier terms only together with one of its own, so the replay of the log completes
+ * without waiting for the entries not yet known to be committed; those are applied later, by the same executor,
+ * as their commit notices arrive.
+ * <p>
+ * Once it has caught up with the log as it was when the replay began, the replayer goes on following the log: the
+ * entries covered by each further commit notice are read back from the replicator's log and applied in turn, so
+ * that a follower's region keeps up with what its quorum commits. The exception is the entries of any term in
+ * which this node has led the quorum since the replay began, which its region applied itself as it logged them.
+ */
+public class RegionLogReplayer {
+  private static final Logger LOG = LoggerFactory.getLogger(RegionLogReplayer.class);
+
+  public static final int DEFAULT_BATCH_CELLS = 10000;
+
+  /**
+   * The greatest number of decoded batches which may wait to be applied.
+   */
+  private static final int BATCHES_IN_FLIGHT = 4;
+
+  /**
+   * The greatest number of entries read back from the log at a time while following it.
+   */
+  private static final int FOLLOW_ENTRIES_PER_READ = 1000;
+  private static final long FOLLOW_READ_TIMEOUT_SECONDS = 30;
+
+  private static final Batch END_OF_LOG = new Batch(Collections.emptyList(), null);
+
+  private final String regionName;
+  private final int batchCells;
+  private final Executor executor;
+
+  private final Queue<IndexCommitNotice> commitNotices = new ConcurrentLinkedQueue<>();
+  private final Set<Long> termsLed = ConcurrentHashMap.newKeySet();
+  private final SettableFuture<Void> caughtUp = SettableFuture.create();
+
+  // Guarded by itself, together with the updates of appliedIndex and failure.
+  private final Queue<AppliedWaiter> appliedWaiters = new PriorityQueue<>();
+
+  // Only accessed by tasks run by the executor.
+  private final Deque<LoggedEdit> deferred = new ArrayDeque<>();
+  private ReplicatorLog log;
+  private Region region;
+  private boolean logRead = false;
+
+  private volatile Throwable failure;
+  private volatile long appliedIndex;
+  private volatile long editsApplied;
+  private volatile long cellsApplied;
+
+  public RegionLogReplayer(String regionName,
+                           int batchCells,
+                           Executor executor) {
+    this.regionName = regionName;
+    this.batchCells = batchCells;
+    this.executor = executor;
+  }
+
+  /**
+   * Replay every unflushed edit in the region's log which is known to be committed, and defer the others until
+   * commit notices for them are received. Afterwards, follow the log, reading entries committed later back from
+   * the given replicator log.
+   *
+   * @return a future which will return the number of edits applied by the time the whole log had been read, or
+   * else yield an IOException if the log can't be read or decoded, or an edit can't be applied.
+   */
+  public ListenableFuture<Long> replay(Reader<OLogEntry> reader,
+                                       ReplicatorLog log,
+                                       Region region,
+                                       long maxFlushedSequenceId) {
+    final ListenableFutureTask<Long> replayTask = ListenableFutureTask.create(() -> {
+      try {
+        this.log = log;
+        return replayLog(reader, region, maxFlushedSequenceId);
+      } catch (IOException | RuntimeException e) {
+        fail(e);
+        throw e;
+      }
+    });
+
+    try {
+      executor.execute(replayTask);
+    } catch (RejectedExecutionException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    return replayTask;
+  }
+
+  /**
+   * Accept a commit notice from the region's replicator, and apply whichever deferred edits it covers. Every
+   * notice the replicator issues from its start must be passed on, in order.
+   */
+  public void commit(IndexCommitNotice notice) {
+    if (failure != null) {
+      return;
+    }
+    commitNotices.add(notice);
+
+    try {
+      executor.execute(() -> {
+        if (failure != null) {
+          return;
+        }
+        try {
+          applyCommitted();
+        } catch (IOException | RuntimeException e) {
+          LOG.error("Error applying the replayed edits of region " + regionName, e);
+          fail(e);
+        }
+      });
+    } catch (RejectedExecutionException ignored) {
+      // The replay has been abandoned.
+    }
+  }
+
+  /**
+   * Note that this node leads the quorum in the given term, so that its region applies the edits of that term
+   * itself, as it logs them. Must be called before any commit notice for an entry of that term is passed on.
+   */
+  public void leading(long term) {
+    termsLed.add(term);
+  }
+
+  /**
+   * @return a future which will complete once the whole log has been read, and each of its entries either
+   * applied or discarded; or else yield an exception if an edit can't be applied.
+   */
+  public ListenableFuture<Void> whenCaughtUp() {
+    return caughtUp;
+  }
+
+  /**
+   * @return a future which will complete once every committed edit through the given index has been applied;
+   * or else yield an exception if an edit can't be applied.
+   */
+  public ListenableFuture<Void> whenApplied(long index) {
+    synchronized (appliedWaiters) {
+      if (failure == null && appliedIndex < index) {
+        final AppliedWaiter waiter = new AppliedWaiter(index);
+        appliedWaiters.add(waiter);
+        return waiter.future;
+      }
+    }
+
+    final Throwable failure = this.failure;
+    return failure == null ? Futures.immediateFuture(null) : Futures.immediateFailedFuture(failure);
+  }
+
+  /**
+   * @return The index of the last log entry through which the replay has applied every committed edit.
+   */
+  public long getAppliedIndex() {
+    return appliedIndex;
+  }
+
+  public long getEditsApplied() {
+    return editsApplied;
+  }
+
+  public long getCellsApplied() {
+    return cellsApplied;
+  }
+
+  private long replayLog(Reader<OLogEntry> reader, Region region, long maxFlushedSequenceId) throws IOException {
+    this.region = region;
+    final BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(BATCHES_IN_FLIGHT);
+    final ExecutorService decoder = Executors.newSingleThreadExecutor(
+        runnable -> new Thread(runnable, "replay-decoder-" + regionName));
+
+    try {
+      decoder.execute(() -> decodeInto(reader, maxFlushedSequenceId, batches));
+
+      for (Batch batch = takeBatch(batches); batch != END_OF_LOG; batch = takeBatch(batches)) {
+        if (batch.error != null) {
+          throw batch.error;
+        }
+        batch.loggedEdits.forEach(this::defer);
+        applyCommitted();
+      }
+    } finally {
+      decoder.shutdownNow();
+    }
+
+    logRead = true;
+    applyCommitted();
+
+    LOG.info("Replayed {} edits ({} cells) of region {}; {} log entries await commit",
+        editsApplied, cellsApplied, regionName, deferred.size());
+    return editsApplied;
+  }
+
+  /**
+   * An entry may be read again at an index already read, if the log was truncated and written over from there;
+   * the later reading supersedes the earlier ones.
+   */
+  private void defer(LoggedEdit loggedEdit) {
+    while (!deferred.isEmpty() && deferred.peekLast().index >= loggedEdit.index) {
+      deferred.pollLast();
+    }
+    deferred.add(loggedEdit);
+  }
+
+  /**
+   * Apply, in batches, the deferred edits covered by the commit notices received so far. An entry preceding
+   * the first notice was committed before the replicator started.
+   */
+  private void applyCommitted() throws IOException {
+    List<WALEdit> edits = new ArrayList<>();
+    int cells = 0;
+    long throughIndex = appliedIndex;
+
+    while (!deferred.isEmpty() && !commitNotices.isEmpty()) {
+      final IndexCommitNotice notice = commitNotices.peek();
+      final LoggedEdit next = deferred.peek();
+      if (next.index > notice.lastIndex) {
+        commitNotices.poll();
+        continue;
+      }
+
+      if (next.index >= notice.firstIndex && next.term != notice.term) {
+        LOG.warn("Discarding {} log entries of region {} from index {}, superseded by term {}",
+            deferred.size(), regionName, next.index, notice.term);
+        deferred.clear();
+        break;
+      }
+
+      deferred.poll();
+      throughIndex = next.index;
+      if (next.edit != null && !termsLed.contains(next.term)) {
+        edits.add(next.edit);
+        cells += next.edit.size();
+      }
+      if (cells >= batchCells) {
+        apply(edits, cells, throughIndex);
+        edits = new ArrayList<>();
+        cells = 0;
+      }
+    }
+    apply(edits, cells, throughIndex);
+
+    if (logRead && deferred.isEmpty()) {
+      caughtUp.set(null);
+      followCommitted();
+    }
+  }
+
+  /**
+   * Apply the entries covered by the commit notices received since the replay caught up, reading them back
+   * from the log, unless they are of a term in which this node led.
+   */
+  private void followCommitted() throws IOException {
+    for (IndexCommitNotice notice = commitNotices.poll(); notice != null; notice = commitNotices.poll()) {
+      if (notice.lastIndex <= appliedIndex) {
+        continue;
+      }
+      if (termsLed.contains(notice.term)) {
+        advanceAppliedIndex(notice.lastIndex);
+        continue;
+      }
+
+      for (long start = appliedIndex + 1; start <= notice.lastIndex; start = appliedIndex + 1) {
+        final long end = Math.min(notice.lastIndex + 1, start + FOLLOW_ENTRIES_PER_READ);
+        final List<WALEdit> edits = new ArrayList<>();
+        int cells = 0;
+
+        for (LogEntry entry : readLog(start, end)) {
+          final WALEdit edit = decodeUnflushedEdit(OLogEntry.fromProtostuff(entry), 0);
+          if (edit != null) {
+            edits.add(edit);
+            cells += edit.size();
+          }
+        }
+        apply(edits, cells, end - 1);
+      }
+    }
+  }
+
+  private List<LogEntry> readLog(long start, long end) throws IOException {
+    final List<LogEntry> entries;
+    try {
+      entries = log.getLogEntries(start, end).get(FOLLOW_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while following log", e);
+    } catch (ExecutionException | TimeoutException e) {
+      throw new IOException("Unable to read entries " + start + " to " + end + " of the log", e);
+    }
+
+    if (entries.size() != end - start) {
+      throw new IOException("Read " + entries.size() + " entries from " + start + " to " + end + " of the log");
+    }
+    return entries;
+  }
+
+  private void apply(List<WALEdit> edits, int cells, long throughIndex) throws IOException {
+    if (!edits.isEmpty()) {
+      region.replay(edits);
+      editsApplied += edits.size();
+      cellsApplied += cells;
+      LOG.debug("Replayed {} edits ({} cells) of region {}", editsApplied, cellsApplied, regionName);
+    }
+    advanceAppliedIndex(throughIndex);
+  }
+
+  private void advanceAppliedIndex(long index) {
+    final List<SettableFuture<Void>> applied = new ArrayList<>();
+    synchronized (appliedWaiters) {
+      appliedIndex = index;
+      while (!appliedWaiters.isEmpty() && appliedWaiters.peek().index <= index) {
+        applied.add(appliedWaiters.poll().future);
+      }
+    }
+    applied.forEach(future -> future.set(null));
+  }
+
+  private void fail(Throwable t) {
+    deferred.clear();
+    final List<SettableFuture<Void>> waiting = new ArrayList<>();
+    synchronized (appliedWaiters) {
+      failure = t;
+      while (!appliedWaiters.isEmpty()) {
+        waiting.add(appliedWaiters.poll().future);
+      }
+    }
+    caughtUp.setException(t);
+    waiting.forEach(future -> future.setException(t));
+  }
+
+  private void decodeInto(Reader<OLogEntry> reader, long maxFlushedSequenceId, BlockingQueue<Batch> batches) {
+    try {
+      List<LoggedEdit> loggedEdits = new ArrayList<>();
+      int cells = 0;
+
+      for (CheckedSupplier<SequentialEntryIterator<OLogEntry>, IOException> logSupplier : reader.getLogList()) {
+        try (SequentialEntryIterator<OLogEntry> iterator = logSupplier.get()) {
+          while (iterator.hasNext()) {
+            final OLogEntry entry = iterator.next();
+            final WALEdit edit = decodeUnflushedEdit(entry, maxFlushedSequenceId);
+
+            // An entry with nothing to apply is kept all the same, so that it is known once it commits.
+            loggedEdits.add(new LoggedEdit(entry.getSeqNum(), entry.getElectionTerm(), edit));
+            if (edit != null) {
+              cells += edit.size();
+            }
+            if (cells >= batchCells) {
+              batches.put(new Batch(loggedEdits, null));
+              loggedEdits = new ArrayList<>();
+              cells = 0;
+            }
+          }
+        }
+      }
+
+      if (!loggedEdits.isEmpty()) {
+        batches.put(new Batch(loggedEdits, null));
+      }
+      batches.put(END_OF_LOG);
+
+    } catch (IOException | RuntimeException e) {
+      final IOException error = e instanceof IOException ? (IOException) e : new IOException(e);
+      try {
+        batches.put(new Batch(Collections.emptyList(), error));
+      } catch (InterruptedException ignored) {
+        // The replay has been abandoned.
+      }
+    } catch (InterruptedException ignored) {
+      // The replay has been abandoned.
+    }
+  }
+
+  /**
+   * @return The edit held by the entry, or null if it holds none, or one which has already been flushed.
+   */
+  private static WALEdit decodeUnflushedEdit(OLogEntry entry, long maxFlushedSequenceId) throws IOException {
+    if (entry.getContent().getType() != OLogContentType.DATA) {
+      return null;
+    }
+    // A leader logs an entry without data on its election
+    final List<ByteBuffer> rawData = ((OLogRawDataContent) entry.getContent()).getRawData();
+    if (rawData.isEmpty()) {
+      return null;
+    }
+
+    final WalEditCodec.DecodedWalEdit decoded = WalEditCodec.decode(rawData);
+    if (decoded.sequenceId != 0 && decoded.sequenceId <= maxFlushedSequenceId) {
+      return null;
+    }
+    return decoded.edit;
+  }
+
+  private static Batch takeBatch(BlockingQueue<Batch> batches) throws IOException {
+    try {
+      return batches.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while replaying log", e);
+    }
+  }
+
+  private static final class LoggedEdit {
+    private final long index;
+    private final long term;
+    private final WALEdit edit;
+
+    private LoggedEdit(long index, long term, WALEdit edit) {
+      this.index = index;
+      this.term = term;
+      this.edit = edit;
+    }
+  }
+
+  private static final class AppliedWaiter implements Comparable<AppliedWaiter> {
+    private final long index;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    private AppliedWaiter(long index) {
+      this.index = index;
+    }
+
+    @Override
+    public int compareTo(AppliedWaiter other) {
+      return Long.compare(index, other.index);
+    }
+  }
+
+  private static final class Batch {
+    private final List<LoggedEdit> loggedEdits;
+    private final IOException error;
+
+    private Batch(List<LoggedEdit> loggedEdits, IOException error) {
+      this.loggedEdits = loggedEdits;
+      this.error = error;
+    }
+  }
+}
@@ -18,21 +18,30 @@
 package c5db.tablet;
 
 import c5db.C5ServerConstants;
+import c5db.client.generated.ReadConsistency;
+import c5db.interfaces.C5Module;
 import c5db.interfaces.C5Server;
+import c5db.interfaces.LogModule;
 import c5db.interfaces.ReplicationModule;
+import c5db.interfaces.log.Reader;
 import c5db.interfaces.replication.Replicator;
 import c5db.interfaces.replication.ReplicatorInstanceEvent;
 import c5db.interfaces.tablet.TabletStateChange;
+import c5db.log.OLogEntry;
 import c5db.log.OLogShim;
+import c5db.messages.generated.ModuleType;
 import c5db.tablet.tabletCreationBehaviors.MetaTabletLeaderBehavior;
 import c5db.tablet.tabletCreationBehaviors.RootTabletLeaderBehavior;
 import c5db.util.C5Futures;
 import c5db.util.FiberOnly;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.jetlang.channels.Channel;
+import org.jetlang.channels.ChannelSubscription;
 import org.jetlang.channels.MemoryChannel;
 import org.jetlang.channels.Subscriber;
 import org.jetlang.fibers.Fiber;
@@ -43,12 +52,16 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A tablet, backed by a replicator that keeps values replicated across multiple servers.
  */
 public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
   private static final Logger LOG = LoggerFactory.getLogger(ReplicatedTablet.class);
+  private static final long REPLAY_THREAD_KEEP_ALIVE_SECONDS = 60;
   private final C5Server server;
   private long leader;
 
@@ -75,6 +88,8 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
   // Finals
   private final Fiber tabletFiber;
   private final Fiber shimFiber = new ThreadFiber();
+  private final ThreadPoolExecutor replayExecutor;
+  private final RegionLogReplayer replayer;
   private final ReplicationModule replicationModule;
   private final Region.Creator regionCreator;
 
@@ -82,6 +97,9 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
   private State tabletState;
 
   private Region region;
+  private volatile Replicator replicator;
+  // The latest replicator state reported while recovering, to be acted upon once recovery is complete.
+  private Replicator.State replicatorStateDuringRecovery;
 
   public void setStateChangeChannel(Channel<TabletStateChange> stateChangeChannel) {
     this.stateChangeChannel = stateChangeChannel;
@@ -108,6 +126,14 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
     this.regionCreator = regionCreator;
 
     this.tabletState = State.Initialized;
+
+    this.replayExecutor = new ThreadPoolExecutor(1, 1, REPLAY_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        runnable -> new Thread(runnable, "replay-" + regionInfo.getRegionNameAsString()));
+    this.replayExecutor.allowCoreThreadTimeOut(true);
+    this.replayer = new RegionLogReplayer(regionInfo.getRegionNameAsString(),
+        RegionLogReplayer.DEFAULT_BATCH_CELLS,
+        replayExecutor);
   }
 
   @Override
@@ -131,24 +157,84 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
 
   private void replicatorCreated(Replicator replicator) {
     assert tabletState == State.CreatingReplicator;
+    this.replicator = replicator;
 
     Subscriber<Replicator.State> replicatorStateChannel = replicator.getStateChannel();
     replicatorStateChannel.subscribe(tabletFiber, this::tabletStateCallback);
     Subscriber<ReplicatorInstanceEvent> replicatorEventChannel = replicator.getEventChannel();
     replicatorEventChannel.subscribe(tabletFiber, this::tabletStateChangeCallback);
+    // The replay needs every commit notice the replicator issues, so subscribe before starting it.
+    final String quorumId = replicator.getQuorumId();
+    final long nodeId = replicator.getId();
+    replicator.getCommitNoticeChannel().subscribe(
+        new ChannelSubscription<>(tabletFiber, replayer::commit,
+            (notice) ->
+                notice.nodeId == nodeId
+                    && notice.quorumId.equals(quorumId)));
     replicator.start();
 
     // TODO this ThreadFiber is a workaround until issue 252 is fixed; at which point shim can use tabletFiber.
     OLogShim shim = new OLogShim(replicator, shimFiber);
     try {
       region = regionCreator.getHRegion(basePath, regionInfo, tableDescriptor, shim, conf);
-      setTabletState(State.Open);
     } catch (IOException e) {
       setTabletState(State.Failed);
       LOG.error("Settings tablet state to failed, we got an IOError opening the region:" + e.toString());
+      return;
     }
 
+    // On opening, the region sets the log's sequence number to one more than the greatest found in its store files.
+    recoverUnflushedEdits(Math.max(0, shim.getSequenceNumber() - 1));
+  }
+
+  /**
+   * Replay the edits in this tablet's log which had not been flushed when the region was last open, on a thread
+   * of its own; the tablet remains in the Recovering state until the whole log has been read, and the edits
+   * known to be committed applied. The rest are applied as they commit.
+   */
+  @FiberOnly
+  private void recoverUnflushedEdits(long maxFlushedSequenceId) {
+    setTabletState(State.Recovering);
+
+    ListenableFuture<C5Module> logModuleFuture = server.getModule(ModuleType.Log);
+    C5Futures.addCallback(logModuleFuture,
+        (logModule) -> {
+          @SuppressWarnings("unchecked")
+          final LogModule<OLogEntry> log = (LogModule<OLogEntry>) logModule;
+          final Reader<OLogEntry> reader = log.getLogReader(replicator.getQuorumId());
+          C5Futures.addCallback(log.getReplicatorLog(replicator.getQuorumId()),
+              (replicatorLog) ->
+                  C5Futures.addCallback(replayer.replay(reader, replicatorLog, region, maxFlushedSequenceId),
+                      this::recoveryComplete,
+                      this::recoveryFailed,
+                      tabletFiber),
+              this::recoveryFailed,
+              tabletFiber);
+        },
+        this::recoveryFailed,
+        tabletFiber);
+  }
+
+  @FiberOnly
+  private void recoveryComplete(long editsReplayed) {
+    assert tabletState == State.Recovering;
+    setTabletState(State.Open);
+
+    C5Futures.addCallback(replayer.whenCaughtUp(),
+        (caughtUp) -> LOG.info("Applied every committed edit in the log of region {}", regionInfo),
+        this::recoveryFailed,
+        tabletFiber);
+
+    if (replicatorStateDuringRecovery != null) {
+      tabletStateCallback(replicatorStateDuringRecovery);
+      replicatorStateDuringRecovery = null;
+    }
+  }
 
+  @FiberOnly
+  private void recoveryFailed(Throwable t) {
+    LOG.error("Settings tablet state to failed, error replaying the log of region " + regionInfo, t);
+    setTabletStateFailed(t);
   }
 
   private void tabletStateChangeCallback(ReplicatorInstanceEvent replicatorInstanceEvent) {
@@ -157,6 +243,10 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
         break;
       case LEADER_ELECTED:
         this.leader = replicatorInstanceEvent.newLeader;
+        if (replicatorInstanceEvent.newLeader == replicator.getId()) {
+          // The region applies the edits of this term itself, as it logs them, so the replay passes them over.
+          replayer.leading(replicatorInstanceEvent.leaderElectedTerm);
+        }
         break;
       case ELECTION_TIMEOUT:
         break;
@@ -169,6 +259,11 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
   }
 
   private void tabletStateCallback(Replicator.State state) {
+    if (tabletState == State.Recovering) {
+      replicatorStateDuringRecovery = state;
+      return;
+    }
+
     switch (state) {
       case INIT:
         break;
@@ -236,6 +331,7 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
   public void dispose() {
     this.tabletFiber.dispose();
     shimFiber.dispose();
+    replayExecutor.shutdownNow();
   }
 
   @Override
@@ -262,4 +358,38 @@ public class ReplicatedTablet implements c5db.interfaces.tablet.Tablet {
   public Region getRegion() {
     return region;
   }
+
+  @Override
+  public ListenableFuture<Void> confirmReadable(ReadConsistency consistency, long maxStalenessMillis) {
+    final Replicator replicator = this.replicator;
+    if (replicator == null) {
+      return Futures.immediateFailedFuture(new IllegalStateException("ReplicatedTablet#confirmReadable: no replicator"));
+    }
+
+    if (consistency == ReadConsistency.ANY) {
+      return Futures.immediateFuture(null);
+    }
+
+    // A follower's region applies the entries the replicator commits shortly after they commit, so a read
+    // within the staleness bound waits only for the region to apply what the replica knows to be committed.
+    if (consistency == ReadConsistency.BOUNDED_STALENESS
+        && replicator.getCommitStalenessMillis() <= maxStalenessMillis) {
+      return replayer.whenApplied(replicator.getLastCommittedIndex());
+    }
+
+    // The region makes each of its writes visible only some time after the write commits, so the read
+    // also waits for those the region has logged but not yet applied. A leader has committed every entry
+    // of earlier terms, so the read waits too for the replay to apply those it has yet to.
+    if (replicator.holdsLeaderLease()) {
+      return awaitAppliedWrites(replicator.getLastCommittedIndex());
+    }
+
+    return Futures.transform(replicator.confirmLeadership(),
+        (AsyncFunction<Long, Void>) this::awaitAppliedWrites);
+  }
+
+  private ListenableFuture<Void> awaitAppliedWrites(long commitIndex) {
+    return Futures.transform(replayer.whenApplied(commitIndex),
+        (AsyncFunction<Void, Void>) applied -> region.awaitLoggedWrites());
+  }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet;
+
+import c5db.interfaces.tablet.Tablet;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An index of tablets by table and row key range, so that the tablet responsible for a given row of a given
+ * table can be found in logarithmic time. Tables are identified by the bytes of their names, so that a request's
+ * region specifier may be used directly as a key. Safe for concurrent use.
+ */
+public class TabletIndex {
+  private final Map<ByteBuffer, ConcurrentNavigableMap<byte[], Tablet>> tabletsByTable = new ConcurrentHashMap<>();
+
+  /**
+   * Add a tablet to the index, replacing any tablet of the same table with the same start key.
+   */
+  public void add(Tablet tablet) {
+    final HRegionInfo regionInfo = tablet.getRegionInfo();
+    tabletsByTable
+        .computeIfAbsent(tableKey(regionInfo), table -> new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR))
+        .put(regionInfo.getStartKey(), tablet);
+  }
+
+  /**
+   * Remove a tablet from the index; has no effect if another tablet has since taken its place.
+   */
+  public void remove(Tablet tablet) {
+    final HRegionInfo regionInfo = tablet.getRegionInfo();
+    final ConcurrentNavigableMap<byte[], Tablet> tablets = tabletsByTable.get(tableKey(regionInfo));
+    if (tablets != null) {
+      tablets.remove(regionInfo.getStartKey(), tablet);
+    }
+  }
+
+  /**
+   * Find the tablet of a table whose key range contains a row.
+   *
+   * @param tableName The bytes of the table's name.
+   * @param row       The row key; if null or empty, the table's first tablet is returned.
+   * @return The tablet, or null if none is known.
+   */
+  public Tablet getTablet(ByteBuffer tableName, byte[] row) {
+    final ConcurrentNavigableMap<byte[], Tablet> tablets = tabletsByTable.get(tableName);
+    if (tablets == null || tablets.isEmpty()) {
+      return null;
+    }
+
+    if (row == null || row.length == 0) {
+      return tablets.firstEntry().getValue();
+    }
+
+    final Map.Entry<byte[], Tablet> entry = tablets.floorEntry(row);
+    if (entry == null) {
+      return null;
+    }
+
+    final Tablet tablet = entry.getValue();
+    final byte[] endKey = tablet.getRegionInfo().getEndKey();
+    if (endKey.length == 0 || Bytes.compareTo(row, endKey) < 0) {
+      return tablet;
+    }
+    return null;
+  }
+
+  public int size() {
+    int size = 0;
+    for (ConcurrentNavigableMap<byte[], Tablet> tablets : tabletsByTable.values()) {
+      size += tablets.size();
+    }
+    return size;
+  }
+
+  private static ByteBuffer tableKey(HRegionInfo regionInfo) {
+    return ByteBuffer.wrap(regionInfo.getTable().getName());
+  }
+}
@@ -51,6 +51,7 @@ public class TabletRegistry {
   private final Region.Creator regionCreator;
 
   private final Map<String, Tablet> tablets = new HashMap<>();
+  private final TabletIndex tabletIndex = new TabletIndex();
   private final Channel<TabletStateChange> commonStateChangeChannel;
   private final ReplicationModule replicationModule;
   private final C5Server c5server;
@@ -103,6 +104,7 @@ public class TabletRegistry {
         tablet.start();
         tablet.setStateChangeChannel(commonStateChangeChannel);
         tablets.put(quorum, tablet);
+        tabletIndex.add(tablet);
       } catch (IOException | DeserializationException e) {
         LOG.error("Unable to start quorum, due to config error: " + quorum, e);
       }
@@ -143,10 +145,19 @@ public class TabletRegistry {
     newTablet.setStateChangeChannel(commonStateChangeChannel);
     newTablet.start();
     tablets.put(quorumName, newTablet);
+    tabletIndex.add(newTablet);
     return newTablet;
   }
 
   Map<String, Tablet> getTablets() {
     return tablets;
   }
+
+  /**
+   * @return an index of the started tablets by table and row, which unlike the registry itself may be
+   * read from any thread.
+   */
+  TabletIndex getTabletIndex() {
+    return tabletIndex;
+  }
 }
@@ -63,12 +63,12 @@ import org.slf4j.LoggerFactory;
 import sun.misc.BASE64Decoder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 
 
@@ -103,31 +103,33 @@ public class TabletService extends AbstractService implements TabletModule {
 
   @Override
   public Tablet getTablet(String tabletName) throws RegionNotFoundException {
-    Tablet tablet = getRegionWithJustTableName(tabletName);
-    if (tablet != null) {
-      return tablet;
-    } else {
-      throw new RegionNotFoundException("Unable to find specified tablet:" + tabletName);
-    }
+    return getTablet(ByteBuffer.wrap(Bytes.toBytes(tabletName)), null);
   }
 
-  // TODO remove
-  private Tablet getRegionWithJustTableName(String tableName) {
-    // Always return the first region which matches
-    if (tabletRegistry == null) {
-      return null;
+  @Override
+  public Tablet getTablet(ByteBuffer tableName, ByteBuffer row) throws RegionNotFoundException {
+    final TabletRegistry registry = tabletRegistry;
+    final Tablet tablet = registry == null ? null
+        : registry.getTabletIndex().getTablet(tableName, row == null ? null : Bytes.getBytes(row));
+    if (tablet == null) {
+      throw new RegionNotFoundException("Unable to find tablet of table " + Bytes.toStringBinary(tableName)
+          + " for row " + (row == null ? "" : Bytes.toStringBinary(row)));
     }
-    Optional<String> maybeFoundRegion = tabletRegistry
-        .getTablets()
-        .keySet()
-        .stream()
-        .filter(s -> s.startsWith(tableName))
-        .findFirst();
-    if (maybeFoundRegion.isPresent()) {
-      return tabletRegistry.getTablets().get(maybeFoundRegion.get());
-    } else {
-      LOG.error("Region not found: " + tableName);
-      return null;
+    return tablet;
+  }
+
+  @FiberOnly
+  private void onTabletStateChange(TabletStateChange stateChange) {
+    switch (stateChange.state) {
+      case Open:
+      case Leader:
+        tabletRegistry.getTabletIndex().add(stateChange.tablet);
+        break;
+      case Failed:
+        tabletRegistry.getTabletIndex().remove(stateChange.tablet);
+        break;
+      default:
+        break;
     }
   }
 
@@ -169,6 +171,7 @@ public class TabletService extends AbstractService implements TabletModule {
                   return new HRegionBridge(hregion);
                 }
             );
+            tabletStateChangeChannel.subscribe(fiber, TabletService.this::onTabletStateChange);
             try {
               startBootstrap();
               notifyStarted();
@@ -17,6 +17,7 @@
 
 package c5db.tablet.hregionbridge;
 
+import c5db.C5ServerConstants;
 import c5db.client.generated.Action;
 import c5db.client.generated.Condition;
 import c5db.client.generated.Get;
@@ -28,8 +29,17 @@ import c5db.client.generated.Result;
 import c5db.client.generated.ResultOrException;
 import c5db.regionserver.ReverseProtobufUtil;
 import c5db.tablet.Region;
+import c5db.util.CheckedSupplier;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.filter.ByteArrayComparable;
@@ -38,26 +48,24 @@ import org.apache.hadoop.hbase.regionserver.HRegionInterface;
 import org.apache.hadoop.hbase.regionserver.MultiRowMutationProcessor;
 import org.apache.hadoop.hbase.regionserver.OperationStatus;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.util.StringUtils;
-import org.jetlang.channels.MemoryChannel;
-import org.jetlang.fibers.Fiber;
-import org.jetlang.fibers.PoolFiberFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Bridge between the (complex) HRegion and the rest of c5.
@@ -67,83 +75,70 @@ import java.util.stream.Collectors;
  */
 public class HRegionBridge implements Region {
   private static final Logger LOG = LoggerFactory.getLogger(HRegionBridge.class);
-  LinkedTransferQueue<Map.Entry<SettableFuture<Boolean>, MutationProto>> batchExecutor = new LinkedTransferQueue<>();
-  private HRegionInterface theRegion;
-  int processors = Runtime.getRuntime().availableProcessors();
-  PoolFiberFactory poolFiberFactory = new PoolFiberFactory(Executors.newFixedThreadPool(processors * 2));
-  Fiber batcher = poolFiberFactory.create();
-  MemoryChannel<Map.Entry<SettableFuture<Boolean>, MutationProto>> memoryChannel = new MemoryChannel<>();
-
-  public HRegionBridge(final HRegionInterface theRegion) {
-    this.theRegion = theRegion;
-    batcher.start();
-    batcher.scheduleAtFixedRate(() -> {
-      long begin = System.currentTimeMillis();
-      if (batchExecutor.size() == 0) {
-        return;
-      }
-      ArrayList<Map.Entry<SettableFuture<Boolean>, MutationProto>> arrayList = new ArrayList<>(10000);
-      batchExecutor.drainTo(arrayList, 10000);
-      batchMutateHelper(arrayList);
-      long time = System.currentTimeMillis() - begin;
-      if (time > 100) {
-        LOG.error("batchMutate took longer than 100ms:" + time + " ms");
-      }
-    }, 0l, 1l, TimeUnit.MILLISECONDS);
-
-  }
 
+  private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
 
-  private void batchMutateHelper(List<Map.Entry<SettableFuture<Boolean>, MutationProto>> message) {
+  // Shared by every region: converts submitted mutations from protobufs, running them on the submitting
+  // thread once its queue is full.
+  private static final ExecutorService CONVERSION_EXECUTOR = new ThreadPoolExecutor(PROCESSORS, PROCESSORS,
+      0L, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(C5ServerConstants.REGION_MUTATION_CONVERSION_QUEUE_SIZE),
+      daemonThreadFactory("mutation-conversion"),
+      new ThreadPoolExecutor.CallerRunsPolicy());
 
-    List<Put> puts = message.parallelStream()
-        .map(entry -> {
-          try {
-            return ReverseProtobufUtil.toPut(entry.getValue());
-          } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-          }
-        })
-        .collect(Collectors.toList());
+  // Shared by every region: applies batches of mutations; each region has at most one batch in progress.
+  private static final ExecutorService BATCH_EXECUTOR =
+      Executors.newCachedThreadPool(daemonThreadFactory("mutation-batch"));
 
-    OperationStatus[] mutationResult = null;
-    try {
-      mutationResult = theRegion.batchMutate(puts.toArray(new Mutation[puts.size()]));
-    } catch (IOException e) {
-      crash(e);
-    }
-
-    Arrays.stream(mutationResult).parallel().forEach(operationStatus -> {
-      switch (operationStatus.getOperationStatusCode()) {
-        case SUCCESS:
-          break;
-        default:
-          crash("error! writing", operationStatus);
-          break;
-      }
-    });
+  private HRegionInterface theRegion;
+  private final WritesInFlight writesInFlight = new WritesInFlight();
+  private final MutationBatcher batcher;
 
-    message.parallelStream().forEach(f -> f.getKey().set(true));
+  public HRegionBridge(final HRegionInterface theRegion) {
+    this.theRegion = theRegion;
+    this.batcher = new MutationBatcher(theRegion,
+        writesInFlight,
+        CONVERSION_EXECUTOR,
+        BATCH_EXECUTOR,
+        C5ServerConstants.REGION_BATCH_MAX_MUTATIONS,
+        C5ServerConstants.REGION_BATCH_MAX_BYTES);
   }
 
-  private void crash(String s, OperationStatus operationStatus) {
-    LOG.error(s, operationStatus);
-    System.exit(0);
+  /**
+   * Apply a put or delete, batched together with others submitted to this region at around the same time.
+   */
+  @Override
+  public ListenableFuture<Boolean> batchMutate(MutationProto mutateProto) throws IOException {
+    return batcher.submit(mutateProto);
   }
 
-  private void crash(Throwable t) {
-    LOG.error("crashing due to exception", t);
-    System.exit(0);
+  /**
+   * Every write to the region goes through this bridge, which notes it as in flight before calling into the
+   * region, so before the write is logged; once every write in flight at the time of this call has returned,
+   * so has every write logged before it. The last of them to return completes the future.
+   */
+  @Override
+  public ListenableFuture<Void> awaitLoggedWrites() {
+    return writesInFlight.whenEarlierWritesEnd();
   }
 
-  @Override
-  public ListenableFuture<Boolean> batchMutate(MutationProto mutateProto) throws IOException {
-    SettableFuture<Boolean> future = SettableFuture.create();
-    batchExecutor.put(new TreeMap.SimpleEntry<>(future, mutateProto));
-    return future;
+  private <T> T write(CheckedSupplier<T, IOException> write) throws IOException {
+    final long ticket = writesInFlight.begin();
+    try {
+      return write.get();
+    } finally {
+      writesInFlight.end(ticket);
+    }
   }
 
+  private static ThreadFactory daemonThreadFactory(String name) {
+    final AtomicInteger threadNumber = new AtomicInteger(0);
+    return runnable -> {
+      final Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
 
   @Override
   public boolean mutate(MutationProto mutateProto, Condition condition) throws IOException {
@@ -175,19 +170,22 @@ public class HRegionBridge implements Region {
     final CompareFilter.CompareOp compareOp = CompareFilter.CompareOp.valueOf(condition.getCompareType().name());
     final ByteArrayComparable comparator = ReverseProtobufUtil.toComparator(condition.getComparator());
 
-    success = theRegion.checkAndMutate(row,
+    success = write(() -> theRegion.checkAndMutate(row,
         cf,
         cq,
         compareOp,
         comparator,
         ReverseProtobufUtil.toPut(mutation),
-        true);
+        true));
     return success;
   }
 
   private boolean simplePut(MutationProto mutation) {
     try {
-      theRegion.put(ReverseProtobufUtil.toPut(mutation));
+      write(() -> {
+        theRegion.put(ReverseProtobufUtil.toPut(mutation));
+        return null;
+      });
     } catch (IOException e) {
       LOG.error("error in HRegionBridge#simplePut", e);
       return false;
@@ -205,19 +203,22 @@ public class HRegionBridge implements Region {
     final CompareFilter.CompareOp compareOp = CompareFilter.CompareOp.valueOf(condition.getCompareType().name());
     final ByteArrayComparable comparator = ReverseProtobufUtil.toComparator(condition.getComparator());
 
-    success = theRegion.checkAndMutate(row,
+    success = write(() -> theRegion.checkAndMutate(row,
         cf,
         cq,
         compareOp,
         comparator,
         ReverseProtobufUtil.toDelete(mutation),
-        true);
+        true));
     return success;
   }
 
   private boolean simpleDelete(MutationProto mutation) {
     try {
-      theRegion.delete(ReverseProtobufUtil.toDelete(mutation));
+      write(() -> {
+        theRegion.delete(ReverseProtobufUtil.toDelete(mutation));
+        return null;
+      });
     } catch (IOException e) {
       LOG.error("error in HRegionBridge#simpleDelete", e);
       return false;
@@ -244,14 +245,53 @@ public class HRegionBridge implements Region {
   }
 
   @Override
-  public RegionActionResult processRegionAction(RegionAction regionAction) {
-    RegionActionResult regionActionResult;
+  public ListenableFuture<RegionActionResult> processRegionAction(RegionAction regionAction) {
     if (regionAction.getAtomic()) {
-      regionActionResult = processActionsAtomically(regionAction);
+      return Futures.immediateFuture(processActionsAtomically(regionAction));
     } else {
-      regionActionResult = processActionsInParallel(regionAction);
+      return processActionsInBatches(regionAction);
+    }
+  }
+
+  /**
+   * Replayed cells are grouped into one Put or Delete per run of cells of the same row and kind, and applied
+   * in a single batch, skipping the WAL, since they are already in the log.
+   */
+  @Override
+  public void replay(List<WALEdit> edits) throws IOException {
+    final List<Mutation> mutations = new ArrayList<>();
+    Mutation mutation = null;
+
+    for (WALEdit edit : edits) {
+      for (KeyValue keyValue : edit.getKeyValues()) {
+        final boolean isDelete = CellUtil.isDelete(keyValue);
+        if (mutation == null
+            || (mutation instanceof Delete) != isDelete
+            || !CellUtil.matchingRow(keyValue, mutation.getRow())) {
+          mutation = isDelete ? new Delete(CellUtil.cloneRow(keyValue)) : new Put(CellUtil.cloneRow(keyValue));
+          mutation.setDurability(Durability.SKIP_WAL);
+          mutations.add(mutation);
+        }
+
+        if (isDelete) {
+          ((Delete) mutation).addDeleteMarker(keyValue);
+        } else {
+          ((Put) mutation).add(keyValue);
+        }
+      }
+    }
+
+    if (mutations.isEmpty()) {
+      return;
+    }
+
+    final OperationStatus[] mutationResult = theRegion.batchMutate(mutations.toArray(new Mutation[mutations.size()]));
+    for (OperationStatus operationStatus : mutationResult) {
+      if (operationStatus.getOperationStatusCode() != HConstants.OperationStatusCode.SUCCESS) {
+        throw new IOException("error replaying edits: " + operationStatus.getOperationStatusCode()
+            + " " + operationStatus.getExceptionMsg());
+      }
     }
-    return regionActionResult;
   }
 
   private RegionActionResult processActionsAtomically(RegionAction regionAction) {
@@ -306,7 +346,10 @@ public class HRegionBridge implements Region {
     }
     MultiRowMutationProcessor proc = new MultiRowMutationProcessor(mutations, rowsToLock);
     try {
-      theRegion.processRowsWithLocks(proc);
+      write(() -> {
+        theRegion.processRowsWithLocks(proc);
+        return null;
+      });
     } catch (IOException e) {
       return new RegionActionResult(new ArrayList<>(), buildException(e));
     }
@@ -326,16 +369,43 @@ public class HRegionBridge implements Region {
     return new RegionActionResult(resultOrExceptions, null);
   }
 
-  private RegionActionResult processActionsInParallel(RegionAction regionAction) {
-    ResultOrException[] actionMap = regionAction
-        .getActionList()
-        .parallelStream()
-        .map(this::processAction)
-        .toArray(ResultOrException[]::new);
-    return new RegionActionResult(Arrays.asList(actionMap), null);
+  /**
+   * Gets are served at once, while puts and deletes are submitted, in the order of the actions, to be applied
+   * in batches with the other mutations submitted to this region; the result is complete once they all have been.
+   */
+  private ListenableFuture<RegionActionResult> processActionsInBatches(RegionAction regionAction) {
+    final List<ListenableFuture<ResultOrException>> results = new ArrayList<>();
+    for (Action action : regionAction.getActionList()) {
+      results.add(processAction(action));
+    }
+    return Futures.transform(Futures.allAsList(results),
+        (Function<List<ResultOrException>, RegionActionResult>) resultList ->
+            new RegionActionResult(resultList, null));
+  }
+
+  private ListenableFuture<ResultOrException> processAction(Action action) {
+    final MutationProto mutation = action.getMutation();
+    if (mutation != null && action.getGet() == null
+        && (mutation.getMutateType() == MutationProto.MutationType.PUT
+        || mutation.getMutateType() == MutationProto.MutationType.DELETE)) {
+      final SettableFuture<ResultOrException> result = SettableFuture.create();
+      Futures.addCallback(batcher.submit(mutation), new FutureCallback<Boolean>() {
+        @Override
+        public void onSuccess(Boolean applied) {
+          result.set(new ResultOrException(action.getIndex(), new Result(), null));
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          result.set(new ResultOrException(action.getIndex(), null, buildException(t)));
+        }
+      });
+      return result;
+    }
+    return Futures.immediateFuture(processActionAtOnce(action));
   }
 
-  private ResultOrException processAction(Action action) {
+  private ResultOrException processActionAtOnce(Action action) {
     boolean hasGet = false;
     boolean hasMutation = false;
 
@@ -355,7 +425,11 @@ public class HRegionBridge implements Region {
       Result result = null;
       NameBytesPair nameBytesPair = null;
       try {
-        result = get(action.getGet());
+        if (action.getGet().getExistenceOnly()) {
+          result = new Result(new ArrayList<>(), 0, exists(action.getGet()));
+        } else {
+          result = get(action.getGet());
+        }
       } catch (IOException e) {
         nameBytesPair = buildException(e);
       }
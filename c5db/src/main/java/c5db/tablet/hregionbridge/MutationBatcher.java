@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet.hregionbridge;
+
+import c5db.client.generated.MutationProto;
+import c5db.regionserver.ReverseProtobufUtil;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.regionserver.HRegionInterface;
+import org.apache.hadoop.hbase.regionserver.OperationStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Applies mutations submitted one at a time to a region in batches, using the region's batchMutate.
+ * <p>
+ * A submitted mutation takes its place in the queue at once, and is then converted from its protobuf form on the
+ * conversion executor. A batch is begun, on the batch executor, as soon as the mutation at the head of the queue has
+ * been converted and no batch is in progress; mutations which arrive while a batch is being applied accumulate, and
+ * are applied together in the next batch, up to a limit of number and of bytes per batch. At most one batch is
+ * applied at a time, and a batch never passes over a mutation still being converted, so mutations are applied in
+ * the order they were submitted even though they may be converted in any order.
+ * <p>
+ * Each mutation's future yields true when it has been applied, or else the exception that prevented it from being
+ * applied; the failure of one mutation doesn't affect the others.
+ */
+public class MutationBatcher {
+  private static final Logger LOG = LoggerFactory.getLogger(MutationBatcher.class);
+  private static final long SLOW_BATCH_MILLIS = 100;
+
+  private final HRegionInterface region;
+  private final WritesInFlight writesInFlight;
+  private final Executor conversionExecutor;
+  private final Executor batchExecutor;
+  private final int maxBatchMutations;
+  private final long maxBatchBytes;
+
+  private final ConcurrentLinkedQueue<PendingMutation> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean batchInProgress = new AtomicBoolean(false);
+
+  public MutationBatcher(HRegionInterface region,
+                         WritesInFlight writesInFlight,
+                         Executor conversionExecutor,
+                         Executor batchExecutor,
+                         int maxBatchMutations,
+                         long maxBatchBytes) {
+    this.region = region;
+    this.writesInFlight = writesInFlight;
+    this.conversionExecutor = conversionExecutor;
+    this.batchExecutor = batchExecutor;
+    this.maxBatchMutations = maxBatchMutations;
+    this.maxBatchBytes = maxBatchBytes;
+  }
+
+  public ListenableFuture<Boolean> submit(MutationProto mutationProto) {
+    final PendingMutation pendingMutation = new PendingMutation();
+    pending.add(pendingMutation);
+
+    try {
+      conversionExecutor.execute(() -> {
+        try {
+          pendingMutation.converted(toMutation(mutationProto));
+        } catch (IOException | RuntimeException e) {
+          pendingMutation.failed(e);
+        }
+        scheduleBatch();
+      });
+    } catch (RejectedExecutionException e) {
+      pendingMutation.failed(e);
+      scheduleBatch();
+    }
+
+    return pendingMutation.future;
+  }
+
+  private static Mutation toMutation(MutationProto mutationProto) throws IOException {
+    switch (mutationProto.getMutateType()) {
+      case PUT:
+        return ReverseProtobufUtil.toPut(mutationProto);
+      case DELETE:
+        return ReverseProtobufUtil.toDelete(mutationProto);
+      default:
+        throw new IOException("batchMutate supports put and delete, not " + mutationProto.getMutateType());
+    }
+  }
+
+  private void scheduleBatch() {
+    if (headIsReady() && batchInProgress.compareAndSet(false, true)) {
+      try {
+        batchExecutor.execute(this::applyBatches);
+      } catch (RejectedExecutionException e) {
+        batchInProgress.set(false);
+        failAllPending(e);
+      }
+    }
+  }
+
+  private void applyBatches() {
+    try {
+      for (List<PendingMutation> batch = nextBatch(); !batch.isEmpty(); batch = nextBatch()) {
+        applyBatch(batch);
+      }
+    } finally {
+      batchInProgress.set(false);
+    }
+    // A mutation may have been queued after the last batch was taken, but before batchInProgress was reset.
+    scheduleBatch();
+  }
+
+  /**
+   * Whether the mutation at the head of the queue has finished converting, successfully or not.
+   */
+  private boolean headIsReady() {
+    final PendingMutation head = pending.peek();
+    return head != null && head.isReady();
+  }
+
+  /**
+   * Take the next batch from the head of the queue, stopping at the first mutation not yet converted. Mutations
+   * which failed to convert are dropped; their futures have already failed. Only the thread applying batches
+   * takes from the queue.
+   */
+  private List<PendingMutation> nextBatch() {
+    final List<PendingMutation> batch = new ArrayList<>();
+    long batchBytes = 0;
+
+    while (batch.size() < maxBatchMutations && batchBytes < maxBatchBytes && headIsReady()) {
+      final PendingMutation pendingMutation = pending.poll();
+      if (pendingMutation.mutation == null) {
+        continue;
+      }
+      batch.add(pendingMutation);
+      batchBytes += pendingMutation.mutation.heapSize();
+    }
+    return batch;
+  }
+
+  private void applyBatch(List<PendingMutation> batch) {
+    final long begin = System.currentTimeMillis();
+    final Mutation[] mutations = new Mutation[batch.size()];
+    for (int i = 0; i < mutations.length; i++) {
+      mutations[i] = batch.get(i).mutation;
+    }
+
+    final OperationStatus[] mutationResult;
+    final long ticket = writesInFlight.begin();
+    try {
+      mutationResult = region.batchMutate(mutations);
+    } catch (IOException | RuntimeException e) {
+      LOG.error("error in MutationBatcher#applyBatch", e);
+      batch.forEach(pendingMutation -> pendingMutation.future.setException(e));
+      return;
+    } finally {
+      writesInFlight.end(ticket);
+    }
+
+    for (int i = 0; i < mutationResult.length; i++) {
+      final OperationStatus operationStatus = mutationResult[i];
+      switch (operationStatus.getOperationStatusCode()) {
+        case SUCCESS:
+          batch.get(i).future.set(true);
+          break;
+        default:
+          batch.get(i).future.setException(new IOException("error writing: "
+              + operationStatus.getOperationStatusCode() + " " + operationStatus.getExceptionMsg()));
+          break;
+      }
+    }
+
+    final long time = System.currentTimeMillis() - begin;
+    if (time > SLOW_BATCH_MILLIS) {
+      LOG.warn("batchMutate of {} mutations took {} ms", mutations.length, time);
+    }
+  }
+
+  private void failAllPending(Throwable t) {
+    for (PendingMutation pendingMutation = pending.poll(); pendingMutation != null; pendingMutation = pending.poll()) {
+      pendingMutation.future.setException(t);
+    }
+  }
+
+  private static final class PendingMutation {
+    private final SettableFuture<Boolean> future = SettableFuture.create();
+    private volatile Mutation mutation;
+    private volatile boolean ready;
+
+    private void converted(Mutation mutation) {
+      this.mutation = mutation;
+      ready = true;
+    }
+
+    private void failed(Throwable t) {
+      future.setException(t);
+      ready = true;
+    }
+
+    private boolean isReady() {
+      return ready;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet.hregionbridge;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeSet;
+
+/**
+ * Keeps track of the writes to a region which are in progress, so that a reader may wait for every write begun
+ * before some point to complete, without tying up a thread to do so.
+ * <p>
+ * Each write takes a ticket, in increasing order, before it calls into the region, and hands it back once the
+ * call returns. A barrier records the next ticket to be issued, and completes as soon as no lesser ticket is
+ * still held; the thread handing back the last such ticket completes it.
+ */
+public class WritesInFlight {
+  private long nextTicket = 0;
+  private final TreeSet<Long> heldTickets = new TreeSet<>();
+  private final Queue<Barrier> barriers = new ArrayDeque<>();
+
+  /**
+   * @return The ticket to hand back to {@link #end} once the write completes, successfully or not.
+   */
+  public synchronized long begin() {
+    final long ticket = nextTicket++;
+    heldTickets.add(ticket);
+    return ticket;
+  }
+
+  public void end(long ticket) {
+    final List<SettableFuture<Void>> passed = new ArrayList<>();
+    synchronized (this) {
+      heldTickets.remove(ticket);
+      final long leastHeldTicket = heldTickets.isEmpty() ? nextTicket : heldTickets.first();
+      while (!barriers.isEmpty() && barriers.peek().ticket <= leastHeldTicket) {
+        passed.add(barriers.poll().future);
+      }
+    }
+
+    // Complete the barriers outside the lock, since their listeners may run on this thread.
+    passed.forEach(future -> future.set(null));
+  }
+
+  /**
+   * @return A future which completes once every write begun before the call has ended; at once, if none is
+   * still in progress.
+   */
+  public synchronized ListenableFuture<Void> whenEarlierWritesEnd() {
+    if (heldTickets.isEmpty()) {
+      return Futures.immediateFuture(null);
+    }
+
+    final Barrier barrier = new Barrier(nextTicket);
+    barriers.add(barrier);
+    return barrier.future;
+  }
+
+  private static final class Barrier {
+    private final long ticket;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    private Barrier(long ticket) {
+      this.ticket = ticket;
+    }
+  }
+}
@@ -16,6 +16,7 @@
  */
 package c5db.regionserver;
 
+import c5db.C5ServerConstants;
 import c5db.client.FakeHTable;
 import c5db.client.ProtobufUtil;
 import c5db.client.generated.Action;
@@ -28,10 +29,13 @@ import c5db.client.generated.GetRequest;
 import c5db.client.generated.MultiRequest;
 import c5db.client.generated.MutateRequest;
 import c5db.client.generated.MutationProto;
+import c5db.client.generated.ReadConsistency;
 import c5db.client.generated.RegionAction;
 import c5db.client.generated.RegionActionResult;
 import c5db.client.generated.RegionSpecifier;
 import c5db.client.generated.Response;
+import c5db.client.generated.Result;
+import c5db.client.generated.ResultOrException;
 import c5db.client.generated.Scan;
 import c5db.client.generated.ScanRequest;
 import c5db.interfaces.C5Server;
@@ -40,14 +44,20 @@ import c5db.interfaces.tablet.Tablet;
 import c5db.messages.generated.ModuleType;
 import c5db.tablet.Region;
 import c5db.util.C5FiberFactory;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.SettableFuture;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.nio.NioEventLoopGroup;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeMatcher;
 import org.jetlang.fibers.PoolFiberFactory;
 import org.jmock.Expectations;
 import org.jmock.integration.junit4.JUnitRuleMockery;
@@ -68,6 +78,8 @@ import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 public class RegionServerTest {
+  private static final ByteBuffer TEST_TABLE = ByteBuffer.wrap(Bytes.toBytes("testTable"));
+
   @Rule
   public JUnitRuleMockery context = new JUnitRuleMockery() {{
     setThreadingPolicy(new Synchroniser());
@@ -124,7 +136,7 @@ public class RegionServerTest {
   public void shouldThrowErrorWhenInvalidRegionSpecifierSpecified() throws Exception {
     RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME, null);
     Get get = new Get();
-    GetRequest getRequest = new GetRequest(regionSpecifier, get);
+    GetRequest getRequest = new GetRequest(regionSpecifier, get, ReadConsistency.LEADER, 0);
     regionServerHandler.channelRead0(ctx, new Call(Call.Command.GET, 1, getRequest, null, null, null));
   }
 
@@ -156,15 +168,22 @@ public class RegionServerTest {
     ByteBuffer regionLocation = ByteBuffer.wrap(Bytes.toBytes("testTable"));
     RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
         regionLocation);
-    ScanRequest scanRequest = new ScanRequest(regionSpecifier, new Scan(), 10l, 10, false, 11l);
+    ScanRequest scanRequest = new ScanRequest(regionSpecifier, new Scan(), 10l, 10, false, 11l, ReadConsistency.LEADER, 0);
     RegionScanner regionScanner = context.mock(RegionScanner.class);
+    Channel channel = context.mock(Channel.class);
     context.checking(new Expectations() {{
-      oneOf(tabletModule).getTablet("testTable");
+      allowing(ctx).channel();
+      will(returnValue(channel));
+
+      oneOf(tabletModule).getTablet(with(equal(TEST_TABLE)), with(aNull(ByteBuffer.class)));
       will(returnValue(tablet));
 
       oneOf(tablet).getRegion();
       will(returnValue(region));
 
+      oneOf(tablet).confirmReadable(with(any(ReadConsistency.class)), with(any(Long.class)));
+      will(returnValue(Futures.immediateFuture(null)));
+
       oneOf(region).getScanner(with(any(Scan.class)));
       will(returnValue(regionScanner));
 
@@ -187,16 +206,19 @@ public class RegionServerTest {
 
 
     Get get = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow")), false);
-    GetRequest getRequest = new GetRequest(regionSpecifier, get);
+    GetRequest getRequest = new GetRequest(regionSpecifier, get, ReadConsistency.LEADER, 0);
 
     c5db.client.generated.Result result = new c5db.client.generated.Result();
     context.checking(new Expectations() {{
-      oneOf(tabletModule).getTablet("testTable");
+      oneOf(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
       will(returnValue(tablet));
 
       oneOf(tablet).getRegion();
       will(returnValue(region));
 
+      oneOf(tablet).confirmReadable(with(any(ReadConsistency.class)), with(any(Long.class)));
+      will(returnValue(Futures.immediateFuture(null)));
+
       oneOf(region).get(with(any(Get.class)));
       will(returnValue(result));
 
@@ -207,6 +229,32 @@ public class RegionServerTest {
     regionServerHandler.channelRead0(ctx, new Call(Call.Command.GET, 1, getRequest, null, null, null));
   }
 
+  @Test
+  public void shouldNotServeAGetUnlessTheTabletConfirmsThatItIsReadable() throws Exception {
+    ByteBuffer regionLocation = ByteBuffer.wrap(Bytes.toBytes("testTable"));
+    RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
+        regionLocation);
+
+    Get get = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow")), false);
+    GetRequest getRequest = new GetRequest(regionSpecifier, get, ReadConsistency.LEADER, 0);
+
+    context.checking(new Expectations() {{
+      oneOf(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
+      will(returnValue(tablet));
+
+      oneOf(tablet).getRegion();
+      will(returnValue(region));
+
+      oneOf(tablet).confirmReadable(with(any(ReadConsistency.class)), with(any(Long.class)));
+      will(returnValue(Futures.immediateFailedFuture(new IllegalStateException("not the leader"))));
+
+      never(region).get(with(any(Get.class)));
+      oneOf(ctx).fireExceptionCaught(with(any(IllegalStateException.class)));
+    }});
+
+    regionServerHandler.channelRead0(ctx, new Call(Call.Command.GET, 1, getRequest, null, null, null));
+  }
+
   @Test
   public void shouldBeAbleToHandleExistsTrue() throws Exception {
     ByteBuffer regionLocation = ByteBuffer.wrap(Bytes.toBytes("testTable"));
@@ -214,15 +262,18 @@ public class RegionServerTest {
         regionLocation);
 
     Get get = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow")), true);
-    GetRequest getRequest = new GetRequest(regionSpecifier, get);
+    GetRequest getRequest = new GetRequest(regionSpecifier, get, ReadConsistency.LEADER, 0);
 
     context.checking(new Expectations() {{
-      oneOf(tabletModule).getTablet("testTable");
+      oneOf(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
       will(returnValue(tablet));
 
       oneOf(tablet).getRegion();
       will(returnValue(region));
 
+      oneOf(tablet).confirmReadable(with(any(ReadConsistency.class)), with(any(Long.class)));
+      will(returnValue(Futures.immediateFuture(null)));
+
       oneOf(region).exists(with(any(Get.class)));
       will(returnValue(true));
 
@@ -242,15 +293,18 @@ public class RegionServerTest {
 
 
     Get get = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow")), true);
-    GetRequest getRequest = new GetRequest(regionSpecifier, get);
+    GetRequest getRequest = new GetRequest(regionSpecifier, get, ReadConsistency.LEADER, 0);
 
     context.checking(new Expectations() {{
-      oneOf(tabletModule).getTablet("testTable");
+      oneOf(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
       will(returnValue(tablet));
 
       oneOf(tablet).getRegion();
       will(returnValue(region));
 
+      oneOf(tablet).confirmReadable(with(any(ReadConsistency.class)), with(any(Long.class)));
+      will(returnValue(Futures.immediateFuture(null)));
+
       oneOf(region).exists(with(any(Get.class)));
       will(returnValue(false));
 
@@ -262,6 +316,34 @@ public class RegionServerTest {
   }
 
 
+  @Test
+  public void shouldAskTheTabletWhetherItCanServeAGetAtTheRequestedConsistency() throws Exception {
+    ByteBuffer regionLocation = ByteBuffer.wrap(Bytes.toBytes("testTable"));
+    RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
+        regionLocation);
+
+    Get get = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow")), false);
+    GetRequest getRequest = new GetRequest(regionSpecifier, get, ReadConsistency.BOUNDED_STALENESS, 250);
+
+    context.checking(new Expectations() {{
+      oneOf(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
+      will(returnValue(tablet));
+
+      oneOf(tablet).getRegion();
+      will(returnValue(region));
+
+      oneOf(tablet).confirmReadable(ReadConsistency.BOUNDED_STALENESS, 250L);
+      will(returnValue(Futures.immediateFuture(null)));
+
+      oneOf(region).get(with(any(Get.class)));
+      will(returnValue(new c5db.client.generated.Result()));
+
+      oneOf(ctx).writeAndFlush(with(any(Response.class)));
+    }});
+
+    regionServerHandler.channelRead0(ctx, new Call(Call.Command.GET, 1, getRequest, null, null, null));
+  }
+
   @Test
   public void shouldBeAbleToHandleMutate() throws Exception {
     ByteBuffer regionLocation = ByteBuffer.wrap(Bytes.toBytes("testTable"));
@@ -274,7 +356,7 @@ public class RegionServerTest {
     SettableFuture<Boolean> mutateSuccess = SettableFuture.create();
 
     context.checking(new Expectations() {{
-      oneOf(tabletModule).getTablet("testTable");
+      oneOf(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
       will(returnValue(tablet));
 
       oneOf(tablet).getRegion();
@@ -294,6 +376,51 @@ public class RegionServerTest {
 
   }
 
+  @Test
+  public void shouldStopReadingFromTheClientWhileItsOutstandingMutationsExceedTheHighWatermark() throws Exception {
+    ByteBuffer regionLocation = ByteBuffer.wrap(Bytes.toBytes("testTable"));
+    RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
+        regionLocation);
+
+    byte[] largeValue = new byte[(int) C5ServerConstants.REGION_SERVER_MUTATION_HIGH_WATERMARK_BYTES + 1];
+    Put put = new Put(Bytes.toBytes("fakeRow"));
+    put.add(Bytes.toBytes("cf"), Bytes.toBytes("cq"), largeValue);
+    MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, put);
+    MutateRequest mutateRequest = new MutateRequest(regionSpecifier, mutation, new Condition());
+
+    SettableFuture<Boolean> mutateSuccess = SettableFuture.create();
+    Channel channel = context.mock(Channel.class);
+    ChannelConfig channelConfig = context.mock(ChannelConfig.class);
+
+    context.checking(new Expectations() {{
+      oneOf(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
+      will(returnValue(tablet));
+
+      oneOf(tablet).getRegion();
+      will(returnValue(region));
+
+      oneOf(region).batchMutate(with(any(MutationProto.class)));
+      will(returnValue(mutateSuccess));
+
+      allowing(ctx).channel();
+      will(returnValue(channel));
+
+      allowing(channel).config();
+      will(returnValue(channelConfig));
+
+      oneOf(channelConfig).setAutoRead(false);
+    }});
+    regionServerHandler.channelRead0(ctx, new Call(Call.Command.MUTATE, 1, null, mutateRequest, null, null));
+    context.assertIsSatisfied();
+
+    context.checking(new Expectations() {{
+      oneOf(channelConfig).setAutoRead(true);
+
+      oneOf(ctx).writeAndFlush(with(any(Response.class)));
+    }});
+    mutateSuccess.set(true);
+  }
+
   @Test
   public void shouldBeAbleToHandleMutateWithCondition() throws Exception {
     ByteBuffer regionLocation = ByteBuffer.wrap(Bytes.toBytes("testTable"));
@@ -309,7 +436,7 @@ public class RegionServerTest {
     MutateRequest mutateRequest = new MutateRequest(regionSpecifier, mutation, condition);
 
     context.checking(new Expectations() {{
-      oneOf(tabletModule).getTablet("testTable");
+      oneOf(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
       will(returnValue(tablet));
 
       oneOf(tablet).getRegion();
@@ -344,14 +471,17 @@ public class RegionServerTest {
     MultiRequest multiRequest = new MultiRequest(regionActionList);
 
     context.checking(new Expectations() {{
-      exactly(4).of(tabletModule).getTablet("testTable");
+      exactly(4).of(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
       will(returnValue(tablet));
 
       exactly(4).of(tablet).getRegion();
       will(returnValue(region));
 
+      exactly(2).of(tablet).confirmReadable(with(equal(ReadConsistency.LEADER)), with(equal(0L)));
+      will(returnValue(Futures.immediateFuture(null)));
+
       exactly(4).of(region).processRegionAction(with(any(RegionAction.class)));
-      will(returnValue(new RegionActionResult()));
+      will(returnValue(Futures.immediateFuture(new RegionActionResult())));
 
       oneOf(ctx).writeAndFlush(with(any(Response.class)));
 
@@ -360,4 +490,105 @@ public class RegionServerTest {
     regionServerHandler.channelRead0(ctx, new Call(Call.Command.MULTI, 1, null, null, null, multiRequest));
   }
 
+
+  @Test
+  public void shouldSplitANonAtomicMultiAcrossTheRegionsServingItsRows() throws Exception {
+    RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
+        TEST_TABLE);
+    Tablet otherTablet = context.mock(Tablet.class, "otherTablet");
+    Region otherRegion = context.mock(Region.class, "otherRegion");
+    ByteBuffer row = ByteBuffer.wrap(Bytes.toBytes("aRow"));
+    ByteBuffer otherRow = ByteBuffer.wrap(Bytes.toBytes("zRow"));
+
+    MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, new Put(Bytes.toBytes("aRow")));
+    Get otherGet = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("zRow")), false);
+    Get get = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("aRow")), false);
+    MultiRequest multiRequest = new MultiRequest(Arrays.asList(new RegionAction(regionSpecifier, false,
+        Arrays.asList(new Action(0, mutation, null), new Action(1, null, otherGet), new Action(2, null, get)))));
+
+    context.checking(new Expectations() {{
+      allowing(tabletModule).getTablet(with(equal(TEST_TABLE)), with(equal(row)));
+      will(returnValue(tablet));
+      allowing(tabletModule).getTablet(with(equal(TEST_TABLE)), with(equal(otherRow)));
+      will(returnValue(otherTablet));
+      allowing(tablet).getRegion();
+      will(returnValue(region));
+      allowing(otherTablet).getRegion();
+      will(returnValue(otherRegion));
+
+      oneOf(tablet).confirmReadable(with(equal(ReadConsistency.LEADER)), with(equal(0L)));
+      will(returnValue(Futures.immediateFuture(null)));
+      oneOf(otherTablet).confirmReadable(with(equal(ReadConsistency.LEADER)), with(equal(0L)));
+      will(returnValue(Futures.immediateFuture(null)));
+
+      oneOf(region).processRegionAction(with(any(RegionAction.class)));
+      will(returnValue(Futures.immediateFuture(new RegionActionResult(Arrays.asList(
+          new ResultOrException(0, new Result(), null), new ResultOrException(2, new Result(), null)), null))));
+      oneOf(otherRegion).processRegionAction(with(any(RegionAction.class)));
+      will(returnValue(Futures.immediateFuture(
+          new RegionActionResult(Arrays.asList(new ResultOrException(1, new Result(), null)), null))));
+
+      oneOf(ctx).writeAndFlush(with(responseWithResultIndexes(0, 1, 2)));
+    }});
+
+    regionServerHandler.channelRead0(ctx, new Call(Call.Command.MULTI, 1, null, null, null, multiRequest));
+  }
+
+  @Test
+  public void shouldNotProcessTheGetsOfAMultiUnlessTheTabletConfirmsItIsReadable() throws Exception {
+    RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
+        TEST_TABLE);
+    Get get = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow")), false);
+    MultiRequest multiRequest = new MultiRequest(Arrays.asList(
+        new RegionAction(regionSpecifier, true, Arrays.asList(new Action(0, null, get)))));
+
+    context.checking(new Expectations() {{
+      allowing(tabletModule).getTablet(with(equal(TEST_TABLE)), with(any(ByteBuffer.class)));
+      will(returnValue(tablet));
+      allowing(tablet).getRegion();
+      will(returnValue(region));
+
+      oneOf(tablet).confirmReadable(with(equal(ReadConsistency.LEADER)), with(equal(0L)));
+      will(returnValue(Futures.immediateFailedFuture(new IllegalStateException("not the leader"))));
+
+      never(region).processRegionAction(with(any(RegionAction.class)));
+
+      oneOf(ctx).writeAndFlush(with(responseWithRegionActionException()));
+    }});
+
+    regionServerHandler.channelRead0(ctx, new Call(Call.Command.MULTI, 1, null, null, null, multiRequest));
+  }
+
+  private static Matcher<Response> responseWithRegionActionException() {
+    return new TypeSafeMatcher<Response>() {
+      @Override
+      protected boolean matchesSafely(Response response) {
+        return response.getMulti().getRegionActionResultList().get(0).getException() != null;
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("a multi response whose region action failed");
+      }
+    };
+  }
+
+  private static Matcher<Response> responseWithResultIndexes(Integer... indexes) {
+    return new TypeSafeMatcher<Response>() {
+      @Override
+      protected boolean matchesSafely(Response response) {
+        List<Integer> actual = new ArrayList<>();
+        for (ResultOrException resultOrException :
+            response.getMulti().getRegionActionResultList().get(0).getResultOrExceptionList()) {
+          actual.add(resultOrException.getIndex());
+        }
+        return actual.equals(Arrays.asList(indexes));
+      }
+
+      @Override
+      public void describeTo(Description description) {
+        description.appendText("a multi response with results for actions ").appendValueList("", ", ", "", indexes);
+      }
+    };
+  }
 }
\ No newline at end of file
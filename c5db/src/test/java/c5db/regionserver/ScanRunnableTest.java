@@ -16,16 +16,22 @@
  */
 package c5db.regionserver;
 
+import c5db.C5ServerConstants;
 import c5db.client.generated.Call;
+import c5db.client.generated.ReadConsistency;
 import c5db.client.generated.RegionSpecifier;
 import c5db.client.generated.Response;
 import c5db.client.generated.Scan;
 import c5db.client.generated.ScanRequest;
 import c5db.tablet.Region;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.jetlang.fibers.Fiber;
 import org.jmock.Expectations;
 import org.jmock.integration.junit4.JUnitRuleMockery;
 import org.jmock.lib.concurrent.Synchroniser;
@@ -47,6 +53,13 @@ public class ScanRunnableTest {
   }};
   private final ChannelHandlerContext ctx = context.mock(ChannelHandlerContext.class);
   private final Region region = context.mock(Region.class);
+  private final Fiber fiber = context.mock(Fiber.class);
+  private final ChannelFuture writeFuture = context.mock(ChannelFuture.class);
+  private final ScannerManager scannerManager = new ScannerManager(
+      C5ServerConstants.REGION_SERVER_SCANNER_LEASE_TIMEOUT_MILLIS,
+      C5ServerConstants.REGION_SERVER_SCANNER_LEASE_CHECK_FREQUENCY_MILLIS,
+      C5ServerConstants.REGION_SERVER_MAX_SCANNERS_PER_CONNECTION,
+      C5ServerConstants.REGION_SERVER_MAX_SCANNERS_PER_REGION);
   private ScanRunnable scanRunnable;
 
   public ScanRunnableTest() {
@@ -60,7 +73,7 @@ public class ScanRunnableTest {
     Scan scan = new Scan();
     long scannerId = 1000;
     int numberOfRows = 100;
-    ScanRequest scanRequest = new ScanRequest(regionSpecifier, scan, scannerId, numberOfRows, false, 0);
+    ScanRequest scanRequest = new ScanRequest(regionSpecifier, scan, scannerId, numberOfRows, false, 0, ReadConsistency.LEADER, 0);
     long commandId = 1000;
     Call call = new Call(Call.Command.SCAN, commandId, null, null, scanRequest, null);
     context.checking(new Expectations() {
@@ -71,7 +84,7 @@ public class ScanRunnableTest {
       }
     });
 
-    scanRunnable = new ScanRunnable(ctx, call, scannerId, region);
+    scanRunnable = new ScanRunnable(ctx, call, scannerId, region, fiber, scannerManager);
 
   }
 
@@ -88,6 +101,8 @@ public class ScanRunnableTest {
         oneOf(regionScanner).nextRaw(with(any(List.class)));
         will(addElements(keyValue));
         oneOf(ctx).writeAndFlush(with(any(Response.class)));
+        will(returnValue(writeFuture));
+        oneOf(writeFuture).addListener(with(any(ChannelFutureListener.class)));
       }
     });
 
@@ -113,6 +128,37 @@ public class ScanRunnableTest {
         exactly(3).of(regionScanner).nextRaw(with(any(List.class)));
         will(addElements(kvs.toArray()));
         oneOf(ctx).writeAndFlush(with(any(Response.class)));
+        will(returnValue(writeFuture));
+        oneOf(writeFuture).addListener(with(any(ChannelFutureListener.class)));
+      }
+    });
+
+    scanRunnable.onMessage(3);
+  }
+
+  @Test
+  public void scannerWaitsForItsLastResponseToBeWrittenIfTheChannelIsNotWritable() throws IOException {
+    byte[] row = Bytes.toBytes("row");
+    byte[] cf = Bytes.toBytes("cf");
+    byte[] cq = Bytes.toBytes("cq");
+    byte[] value = new byte[C5ServerConstants.REGION_SERVER_SCAN_BATCH_MAX_BYTES];
+    KeyValue keyValue = new KeyValue(row, cf, cq, value);
+
+    Channel channel = context.mock(Channel.class);
+
+    context.checking(new Expectations() {
+      {
+        oneOf(regionScanner).nextRaw(with(any(List.class)));
+        will(addElements(keyValue));
+        oneOf(ctx).writeAndFlush(with(any(Response.class)));
+        will(returnValue(writeFuture));
+
+        allowing(ctx).channel();
+        will(returnValue(channel));
+        allowing(channel).isWritable();
+        will(returnValue(false));
+
+        oneOf(writeFuture).addListener(with(any(ChannelFutureListener.class)));
       }
     });
 
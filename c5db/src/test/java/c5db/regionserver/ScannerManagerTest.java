@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.regionserver;
+
+import c5db.client.generated.Call;
+import c5db.client.generated.ReadConsistency;
+import c5db.client.generated.RegionSpecifier;
+import c5db.client.generated.Scan;
+import c5db.client.generated.ScanRequest;
+import c5db.tablet.Region;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.jetlang.channels.MemoryChannel;
+import org.jetlang.fibers.Fiber;
+import org.jetlang.fibers.ThreadFiber;
+import org.jmock.Expectations;
+import org.jmock.States;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ScannerManagerTest {
+  private static final long TIMEOUT_MILLIS = 5000;
+  private static final String REGION_NAME = "testRegion";
+
+  private final Synchroniser synchroniser = new Synchroniser();
+  @Rule
+  public JUnitRuleMockery context = new JUnitRuleMockery() {{
+    setThreadingPolicy(synchroniser);
+  }};
+  private final ChannelHandlerContext ctx = context.mock(ChannelHandlerContext.class);
+  private final Channel connection = context.mock(Channel.class);
+  private final Region region = context.mock(Region.class);
+  private final RegionScanner regionScanner = context.mock(RegionScanner.class);
+  private final States scanner = context.states("scanner").startsAs("open");
+
+  private ScannerManager scannerManager;
+
+  @After
+  public void stopScannerManager() {
+    scannerManager.stop();
+  }
+
+  @Test
+  public void closesAScannerWhoseLeaseExpires() throws Exception {
+    scannerManager = new ScannerManager(100, 100, 10, 10);
+    scannerManager.start();
+
+    expectTheScannerToBeClosed();
+    openAScanner(1);
+
+    synchroniser.waitUntil(scanner.is("closed"), TIMEOUT_MILLIS);
+    assertThat(scannerManager.getChannel(1), is(nullValue()));
+  }
+
+  @Test
+  public void closesTheScannersOfAConnection() throws Exception {
+    scannerManager = new ScannerManager(Integer.MAX_VALUE, 1000, 10, 10);
+    scannerManager.start();
+
+    expectTheScannerToBeClosed();
+    openAScanner(1);
+    assertThat(scannerManager.getOpenScannerCount(), is(equalTo(1)));
+
+    scannerManager.closeScannersOf(connection);
+
+    synchroniser.waitUntil(scanner.is("closed"), TIMEOUT_MILLIS);
+    assertThat(scannerManager.getOpenScannerCount(), is(equalTo(0)));
+  }
+
+  @Test(expected = IOException.class)
+  public void refusesToOpenMoreScannersOnAConnectionThanItsLimit() throws Exception {
+    scannerManager = new ScannerManager(Integer.MAX_VALUE, 1000, 1, 10);
+    scannerManager.start();
+
+    context.checking(new Expectations() {{
+      allowing(regionScanner).close();
+    }});
+
+    openAScanner(1);
+    openAScanner(2);
+  }
+
+  @Test
+  public void givesEachNewScannerADistinctPositiveId() throws Exception {
+    scannerManager = new ScannerManager(Integer.MAX_VALUE, 1000, 10, 10);
+
+    final long firstId = scannerManager.newScannerId();
+    final long secondId = scannerManager.newScannerId();
+
+    assertThat(firstId, is(greaterThan(0L)));
+    assertThat(secondId, is(not(equalTo(firstId))));
+  }
+
+  private void expectTheScannerToBeClosed() throws IOException {
+    context.checking(new Expectations() {{
+      oneOf(regionScanner).close();
+      then(scanner.is("closed"));
+    }});
+  }
+
+  private void openAScanner(long scannerId) throws IOException {
+    context.checking(new Expectations() {{
+      oneOf(region).getScanner(with(any(Scan.class)));
+      will(returnValue(regionScanner));
+    }});
+
+    ScanRequest scanRequest = new ScanRequest(new RegionSpecifier(), new Scan(), 0L, 0, false, 0,
+        ReadConsistency.LEADER, 0);
+    Call call = new Call(Call.Command.SCAN, 1, null, null, scanRequest, null);
+    Fiber fiber = new ThreadFiber();
+    ScanRunnable scanRunnable = new ScanRunnable(ctx, call, scannerId, region, fiber, scannerManager);
+
+    scannerManager.addScanner(scannerId, connection, REGION_NAME, new MemoryChannel<>(), scanRunnable, fiber);
+    fiber.start();
+  }
+}
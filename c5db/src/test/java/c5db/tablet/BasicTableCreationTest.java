@@ -23,16 +23,21 @@ import c5db.TestHelpers;
 import c5db.discovery.generated.Availability;
 import c5db.interfaces.C5Server;
 import c5db.interfaces.DiscoveryModule;
+import c5db.interfaces.LogModule;
 import c5db.interfaces.ReplicationModule;
 import c5db.interfaces.discovery.NewNodeVisible;
 import c5db.interfaces.discovery.NodeInfo;
+import c5db.interfaces.log.Reader;
 import c5db.interfaces.replication.Replicator;
 import c5db.interfaces.replication.ReplicatorInstanceEvent;
 import c5db.interfaces.tablet.Tablet;
 import c5db.interfaces.tablet.TabletStateChange;
+import c5db.log.OLogEntry;
 import c5db.messages.generated.ModuleType;
 import c5db.util.C5FiberFactory;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.SettableFuture;
@@ -80,6 +85,9 @@ public class BasicTableCreationTest {
   private final ReplicationModule replicationModule = context.mock(ReplicationModule.class);
   private final ConfigDirectory configDirectory = context.mock(ConfigDirectory.class);
   private final Replicator replicator = context.mock(Replicator.class);
+  @SuppressWarnings("unchecked")
+  private final LogModule<OLogEntry> logModule = context.mock(LogModule.class);
+  private final Reader<OLogEntry> emptyLogReader = ImmutableList::of;
   private final PoolFiberFactory poolFiberFactory = new PoolFiberFactory(Executors.newSingleThreadExecutor());
   private SettableFuture<Replicator> replicatorSettableFuture = SettableFuture.create();
   private TabletService tabletService;
@@ -108,6 +116,12 @@ public class BasicTableCreationTest {
         oneOf(c5Server).getModule(ModuleType.Replication);
         will(returnValue(replicatorModuleFuture));
 
+        allowing(c5Server).getModule(ModuleType.Log);
+        will(returnValue(Futures.immediateFuture(logModule)));
+
+        allowing(logModule).getLogReader(with(any(String.class)));
+        will(returnValue(emptyLogReader));
+
         allowing(c5Server).getConfigDirectory();
         will(returnValue(configDirectory));
         // Emulate a very large quorum
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet;
+
+import c5db.client.ProtobufUtil;
+import c5db.client.generated.MutationProto;
+import c5db.tablet.hregionbridge.HRegionBridge;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput and latency of puts submitted to {@link HRegionBridge#batchMutate}, as applied in
+ * batches to an HRegion on the local filesystem.
+ * <p>
+ * Several client threads each submit puts of a single small cell, keeping up to a fixed number outstanding at
+ * a time, as a region server connection would. The latency of a put is measured from its submission until its
+ * future completes. The region has no write-ahead log, so that the cost of batching and of applying mutations
+ * to the memstore is measured on its own.
+ */
+public class HRegionBridgePerformanceMeasurement {
+  private static final int CLIENT_THREADS = 8;
+  private static final int OUTSTANDING_PUTS_PER_CLIENT = 500;
+  private static final int PUTS_PER_CLIENT = 200000;
+  private static final int VALUE_SIZE = 64;
+  private static final int WARMUP_RUNS = 1;
+
+  private static final byte[] FAMILY = Bytes.toBytes("cf");
+  private static final byte[] QUALIFIER = Bytes.toBytes("cq");
+
+  public static void main(String[] args) throws Exception {
+    final Configuration conf = HBaseConfiguration.create();
+    final java.nio.file.Path rootDir = Files.createTempDirectory("HRegionBridgePerformanceMeasurement");
+    final TableName tableName = TableName.valueOf("benchmark");
+    final HTableDescriptor tableDescriptor = new HTableDescriptor(tableName);
+    tableDescriptor.addFamily(new HColumnDescriptor(FAMILY));
+
+    final HRegion hRegion = HRegion.createHRegion(new HRegionInfo(tableName), new Path(rootDir.toString()),
+        conf, tableDescriptor, null, true, true);
+    final HRegionBridge region = new HRegionBridge(hRegion);
+
+    try {
+      for (int run = 0; run <= WARMUP_RUNS; run++) {
+        measure(region, run == WARMUP_RUNS);
+      }
+    } finally {
+      hRegion.close();
+    }
+  }
+
+  private static void measure(HRegionBridge region, boolean report) throws Exception {
+    final long[] latencyNanos = new long[CLIENT_THREADS * PUTS_PER_CLIENT];
+    final AtomicInteger failures = new AtomicInteger(0);
+    final CountDownLatch done = new CountDownLatch(CLIENT_THREADS * PUTS_PER_CLIENT);
+    final byte[] value = new byte[VALUE_SIZE];
+
+    final long start = System.nanoTime();
+    for (int client = 0; client < CLIENT_THREADS; client++) {
+      final int clientNumber = client;
+      new Thread(() -> {
+        final Semaphore outstanding = new Semaphore(OUTSTANDING_PUTS_PER_CLIENT);
+        try {
+          for (int i = 0; i < PUTS_PER_CLIENT; i++) {
+            final int putNumber = clientNumber * PUTS_PER_CLIENT + i;
+            final Put put = new Put(Bytes.toBytes(putNumber)).add(FAMILY, QUALIFIER, value);
+            final MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, put);
+
+            outstanding.acquire();
+            final long submitted = System.nanoTime();
+            region.batchMutate(mutation).addListener(() -> {
+              latencyNanos[putNumber] = System.nanoTime() - submitted;
+              outstanding.release();
+              done.countDown();
+            }, MoreExecutors.sameThreadExecutor());
+          }
+        } catch (Exception e) {
+          failures.incrementAndGet();
+          e.printStackTrace();
+        }
+      }, "client-" + client).start();
+    }
+
+    done.await();
+    final long elapsedNanos = System.nanoTime() - start;
+
+    if (report) {
+      Arrays.sort(latencyNanos);
+      final int puts = latencyNanos.length;
+      System.out.format("%,d puts from %d clients in %,d ms: %,.0f puts/sec%n",
+          puts, CLIENT_THREADS, elapsedNanos / 1000000, puts / (elapsedNanos / 1e9));
+      System.out.format("latency p50 %,d us, p99 %,d us, max %,d us%n",
+          latencyNanos[puts / 2] / 1000, latencyNanos[(int) (puts * 0.99)] / 1000, latencyNanos[puts - 1] / 1000);
+      if (failures.get() > 0) {
+        System.out.println(failures.get() + " clients failed");
+      }
+    }
+  }
+}
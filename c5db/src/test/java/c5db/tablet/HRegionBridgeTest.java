@@ -29,18 +29,26 @@ import c5db.client.generated.RegionActionResult;
 import c5db.client.generated.RegionSpecifier;
 import c5db.client.generated.Scan;
 import c5db.tablet.hregionbridge.HRegionBridge;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.regionserver.HRegionInterface;
 import org.apache.hadoop.hbase.regionserver.MultiRowMutationProcessor;
+import org.apache.hadoop.hbase.regionserver.OperationStatus;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.hamcrest.core.IsNull;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.action.CustomAction;
 import org.jmock.lib.concurrent.Synchroniser;
 import org.junit.Rule;
 import org.junit.Test;
@@ -236,7 +244,7 @@ public class HRegionBridgeTest {
 
     MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, new Put(Bytes.toBytes("fakeRow")));
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         true,
         Arrays.asList(new Action(0, mutation, null))));
     assertThat(actions.getException(), IsNull.nullValue());
@@ -258,7 +266,7 @@ public class HRegionBridgeTest {
 
     MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, new Put(Bytes.toBytes("fakeRow")));
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         true,
         Arrays.asList(
             new Action(0, mutation, null),
@@ -284,7 +292,7 @@ public class HRegionBridgeTest {
 
     MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.DELETE, new Delete(Bytes.toBytes("fakeRow")));
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         true,
         Arrays.asList(
             new Action(0, mutation, null),
@@ -314,7 +322,7 @@ public class HRegionBridgeTest {
         new Action(0, mutation, null),
         new Action(1, mutation, null),
         new Action(2, badMutation, null));
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         true,regionActions));
     assertThat(actions.getResultOrExceptionList().size(), is(regionActions.size()));
   }
@@ -339,7 +347,7 @@ public class HRegionBridgeTest {
         Arrays.asList(new Action(0, mutation, null),
             new Action(1, mutation, null),
             new Action(2, badMutation, null)));
-    RegionActionResult actions = hRegionBridge.processRegionAction(regionAction);
+    RegionActionResult actions = processRegionAction(regionAction);
     assertThat(actions.getResultOrExceptionList().size(), is(regionAction.getActionList().size()));
   }
 
@@ -353,7 +361,7 @@ public class HRegionBridgeTest {
     Get get = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow2")), false);
     Get exists = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow2")), true);
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         true,
         Arrays.asList(
             new Action(0, mutation, get),
@@ -385,7 +393,7 @@ public class HRegionBridgeTest {
       }
     });
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         true,
         Arrays.asList(
             new Action(0, null, get),
@@ -418,19 +426,22 @@ public class HRegionBridgeTest {
     RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
         regionLocation);
 
+    List<Mutation> batched = new ArrayList<>();
     context.checking(new Expectations() {
       {
-        oneOf(hRegionInterface).put(with(any(Put.class)));
+        atLeast(1).of(hRegionInterface).batchMutate(with(any(Mutation[].class)));
+        will(recordMutationsIn(batched));
       }
     });
 
     MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, new Put(Bytes.toBytes("fakeRow")));
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         false,
         Arrays.asList(new Action(0, mutation, null))));
     assertThat(actions.getException(), IsNull.nullValue());
     assertThat(actions.getResultOrExceptionList().size(), is(1));
+    assertThat(batched.size(), is(1));
   }
 
 
@@ -440,14 +451,16 @@ public class HRegionBridgeTest {
     RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
         regionLocation);
 
+    List<Mutation> batched = new ArrayList<>();
     context.checking(new Expectations() {
       {
-        exactly(3).of(hRegionInterface).put(with(any(Put.class)));
+        atLeast(1).of(hRegionInterface).batchMutate(with(any(Mutation[].class)));
+        will(recordMutationsIn(batched));
       }
     });
 
     MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, new Put(Bytes.toBytes("fakeRow")));
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         false,
         Arrays.asList(
             new Action(0, mutation, null),
@@ -456,6 +469,7 @@ public class HRegionBridgeTest {
     ));
     assertThat(actions.getException(), IsNull.nullValue());
     assertThat(actions.getResultOrExceptionList().size(), is(3));
+    assertThat(batched.size(), is(3));
   }
 
 
@@ -465,17 +479,17 @@ public class HRegionBridgeTest {
     RegionSpecifier regionSpecifier = new RegionSpecifier(RegionSpecifier.RegionSpecifierType.REGION_NAME,
         regionLocation);
 
+    List<Mutation> batched = new ArrayList<>();
     context.checking(new Expectations() {
       {
-        oneOf(hRegionInterface).delete(with(any(Delete.class)));
-        oneOf(hRegionInterface).delete(with(any(Delete.class)));
-        oneOf(hRegionInterface).delete(with(any(Delete.class)));
+        atLeast(1).of(hRegionInterface).batchMutate(with(any(Mutation[].class)));
+        will(recordMutationsIn(batched));
       }
     });
 
     MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.DELETE, new Delete(Bytes.toBytes("fakeRow")));
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         false,
         Arrays.asList(
             new Action(0, mutation, null),
@@ -484,6 +498,7 @@ public class HRegionBridgeTest {
     ));
     assertThat(actions.getException(), IsNull.nullValue());
     assertThat(actions.getResultOrExceptionList().size(), is(3));
+    assertThat(batched.size(), is(3));
   }
 
   @Test
@@ -495,14 +510,15 @@ public class HRegionBridgeTest {
     MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, new Put(Bytes.toBytes("fakeRow")));
     MutationProto mutation2 = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, new Put(Bytes.toBytes("fakeRow2")));
 
+    List<Mutation> batched = new ArrayList<>();
     context.checking(new Expectations() {
       {
-        exactly(3).of(hRegionInterface).put(with(any(Put.class)));
-
+        atLeast(1).of(hRegionInterface).batchMutate(with(any(Mutation[].class)));
+        will(recordMutationsIn(batched));
       }
     });
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         false,
         Arrays.asList(
             new Action(0, mutation, null),
@@ -511,6 +527,7 @@ public class HRegionBridgeTest {
     ));
     assertThat(actions.getException(), IsNull.nullValue());
     assertThat(actions.getResultOrExceptionList().size(), is(3));
+    assertThat(batched.size(), is(3));
   }
 
   @Test
@@ -523,14 +540,15 @@ public class HRegionBridgeTest {
     MutationProto mutation2 = ProtobufUtil.toMutation(MutationProto.MutationType.DELETE, new Delete(Bytes.toBytes("fakeRow2")));
 
 
+    List<Mutation> batched = new ArrayList<>();
     context.checking(new Expectations() {
       {
-        exactly(3).of(hRegionInterface).delete(with(any(Delete.class)));
-
+        atLeast(1).of(hRegionInterface).batchMutate(with(any(Mutation[].class)));
+        will(recordMutationsIn(batched));
       }
     });
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         false,
         Arrays.asList(
             new Action(0, mutation, null),
@@ -539,6 +557,7 @@ public class HRegionBridgeTest {
     ));
     assertThat(actions.getException(), IsNull.nullValue());
     assertThat(actions.getResultOrExceptionList().size(), is(3));
+    assertThat(batched.size(), is(3));
   }
 
   @Test
@@ -551,7 +570,7 @@ public class HRegionBridgeTest {
     Get get = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow2")), false);
     Get exists = ProtobufUtil.toGet(new org.apache.hadoop.hbase.client.Get(Bytes.toBytes("fakeRow2")), true);
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         true,
         Arrays.asList(
             new Action(0, mutation, get),
@@ -574,16 +593,17 @@ public class HRegionBridgeTest {
     Result result = Result.create(new ArrayList<>());
     result.setExists(true);
 
+    List<Mutation> batched = new ArrayList<>();
     context.checking(new Expectations() {
       {
-        oneOf(hRegionInterface).delete(with(any(Delete.class)));
-        oneOf(hRegionInterface).put(with(any(Put.class)));
+        atLeast(1).of(hRegionInterface).batchMutate(with(any(Mutation[].class)));
+        will(recordMutationsIn(batched));
         exactly(2).of(hRegionInterface).get(with(any(org.apache.hadoop.hbase.client.Get.class)));
         will(returnValue(result));
       }
     });
 
-    RegionActionResult actions = hRegionBridge.processRegionAction(new RegionAction(regionSpecifier,
+    RegionActionResult actions = processRegionAction(new RegionAction(regionSpecifier,
         false,
         Arrays.asList(
             new Action(0, null, get),
@@ -594,6 +614,101 @@ public class HRegionBridgeTest {
 
     assertThat(actions.getException(), IsNull.nullValue());
     assertThat(actions.getResultOrExceptionList().size(), is(4));
+    assertThat(batched.size(), is(2));
+    assertThat(batched.get(0) instanceof Put, is(true));
+    assertThat(batched.get(1) instanceof Delete, is(true));
+  }
+
+  @Test
+  public void shouldAwaitLoggedWritesAtOnceWhenNoWriteIsInProgress() throws Exception {
+    assertThat(hRegionBridge.awaitLoggedWrites().isDone(), is(true));
+  }
+
+  @Test
+  public void shouldAwaitLoggedWritesUntilTheWritesInProgressReturn() throws Exception {
+    MutationProto mutation = ProtobufUtil.toMutation(MutationProto.MutationType.PUT, new Put(Bytes.toBytes("fakeRow")));
+    List<ListenableFuture<Void>> awaited = new ArrayList<>();
+
+    context.checking(new Expectations() {
+      {
+        oneOf(hRegionInterface).put(with(any(Put.class)));
+        will(new CustomAction("await logged writes while the put is in progress") {
+          @Override
+          public Object invoke(Invocation invocation) throws Throwable {
+            ListenableFuture<Void> loggedWrites = hRegionBridge.awaitLoggedWrites();
+            assertThat(loggedWrites.isDone(), is(false));
+            awaited.add(loggedWrites);
+            return null;
+          }
+        });
+      }
+    });
+
+    hRegionBridge.mutate(mutation, new Condition());
+
+    assertThat(awaited.size(), is(1));
+    assertThat(awaited.get(0).isDone(), is(true));
+  }
+
+  @Test
+  public void shouldReplayEditsAsOneMutationPerRunOfCellsOfTheSameRowAndKindWithoutLoggingThem() throws Exception {
+    byte[] row1 = Bytes.toBytes("row1");
+    byte[] row2 = Bytes.toBytes("row2");
+    byte[] cf = Bytes.toBytes("cf");
+    byte[] cq = Bytes.toBytes("cq");
+    byte[] cq2 = Bytes.toBytes("cq2");
+    byte[] value = Bytes.toBytes("value");
+
+    WALEdit edit = new WALEdit();
+    edit.add(new KeyValue(row1, cf, cq, 1, value));
+    edit.add(new KeyValue(row1, cf, cq2, 1, value));
+    edit.add(new KeyValue(row1, cf, cq, 2, KeyValue.Type.DeleteColumn));
+    edit.add(new KeyValue(row2, cf, cq, 1, value));
+
+    List<Mutation> replayed = new ArrayList<>();
+    context.checking(new Expectations() {
+      {
+        oneOf(hRegionInterface).batchMutate(with(any(Mutation[].class)));
+        will(new CustomAction("record the mutations") {
+          @Override
+          public Object invoke(Invocation invocation) throws Throwable {
+            Mutation[] mutations = (Mutation[]) invocation.getParameter(0);
+            replayed.addAll(Arrays.asList(mutations));
+            OperationStatus[] statuses = new OperationStatus[mutations.length];
+            Arrays.fill(statuses, new OperationStatus(HConstants.OperationStatusCode.SUCCESS));
+            return statuses;
+          }
+        });
+      }
+    });
+
+    hRegionBridge.replay(Arrays.asList(edit));
+
+    assertThat(replayed.size(), is(3));
+    assertThat(replayed.get(0) instanceof Put, is(true));
+    assertThat(replayed.get(0).size(), is(2));
+    assertThat(replayed.get(1) instanceof Delete, is(true));
+    assertThat(replayed.get(2) instanceof Put, is(true));
+    assertThat(Bytes.equals(replayed.get(2).getRow(), row2), is(true));
+    for (Mutation mutation : replayed) {
+      assertThat(mutation.getDurability(), is(Durability.SKIP_WAL));
+    }
   }
 
-}
\ No newline at end of file
+  private RegionActionResult processRegionAction(RegionAction regionAction) throws Exception {
+    return hRegionBridge.processRegionAction(regionAction).get();
+  }
+
+  private static CustomAction recordMutationsIn(List<Mutation> batched) {
+    return new CustomAction("record the mutations") {
+      @Override
+      public Object invoke(Invocation invocation) throws Throwable {
+        Mutation[] mutations = (Mutation[]) invocation.getParameter(0);
+        batched.addAll(Arrays.asList(mutations));
+        OperationStatus[] statuses = new OperationStatus[mutations.length];
+        Arrays.fill(statuses, new OperationStatus(HConstants.OperationStatusCode.SUCCESS));
+        return statuses;
+      }
+    };
+  }
+}
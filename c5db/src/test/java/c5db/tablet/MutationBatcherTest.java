@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet;
+
+import c5db.client.ProtobufUtil;
+import c5db.client.generated.MutationProto;
+import c5db.tablet.hregionbridge.MutationBatcher;
+import c5db.tablet.hregionbridge.WritesInFlight;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.HRegionInterface;
+import org.apache.hadoop.hbase.regionserver.OperationStatus;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+public class MutationBatcherTest {
+  @Rule
+  public final JUnitRuleMockery context = new JUnitRuleMockery();
+
+  private static final OperationStatus SUCCESS = new OperationStatus(HConstants.OperationStatusCode.SUCCESS);
+  private static final OperationStatus FAILURE = new OperationStatus(HConstants.OperationStatusCode.FAILURE);
+
+  private final HRegionInterface region = context.mock(HRegionInterface.class);
+  private final QueuingExecutor batchExecutor = new QueuingExecutor();
+  private final List<Mutation[]> batches = new ArrayList<>();
+
+  private MutationBatcher batcherWithMaxBatchMutations(int maxBatchMutations) {
+    return new MutationBatcher(region, new WritesInFlight(), MoreExecutors.sameThreadExecutor(), batchExecutor,
+        maxBatchMutations, Long.MAX_VALUE);
+  }
+
+  @Test
+  public void appliesMutationsSubmittedBeforeABatchBeginsTogetherInOneBatch() throws Exception {
+    MutationBatcher batcher = batcherWithMaxBatchMutations(100);
+
+    context.checking(new Expectations() {{
+      oneOf(region).batchMutate(with(any(Mutation[].class)));
+      will(recordBatchAndReturn(SUCCESS, SUCCESS, SUCCESS));
+    }});
+
+    ListenableFuture<Boolean> first = batcher.submit(aPut("row1"));
+    ListenableFuture<Boolean> second = batcher.submit(aDelete("row2"));
+    ListenableFuture<Boolean> third = batcher.submit(aPut("row3"));
+    batchExecutor.runAll();
+
+    assertThat(batches.size(), is(equalTo(1)));
+    assertThat(batches.get(0)[1], is(instanceOf(Delete.class)));
+    assertThat(first.get(), is(true));
+    assertThat(second.get(), is(true));
+    assertThat(third.get(), is(true));
+  }
+
+  @Test
+  public void appliesMutationsInTheOrderSubmittedEvenIfTheyAreConvertedOutOfOrder() throws Exception {
+    QueuingExecutor conversionExecutor = new QueuingExecutor();
+    MutationBatcher batcher =
+        new MutationBatcher(region, new WritesInFlight(), conversionExecutor, batchExecutor, 100, Long.MAX_VALUE);
+
+    context.checking(new Expectations() {{
+      oneOf(region).batchMutate(with(any(Mutation[].class)));
+      will(recordBatchAndReturn(SUCCESS, SUCCESS, SUCCESS));
+    }});
+
+    batcher.submit(aPut("row"));
+    batcher.submit(aDelete("row"));
+    batcher.submit(aPut("row"));
+
+    conversionExecutor.runAllInReverse();
+    assertThat(batchExecutor.hasTasks(), is(true));
+    batchExecutor.runAll();
+
+    assertThat(batches.size(), is(equalTo(1)));
+    assertThat(batches.get(0)[0], is(instanceOf(Put.class)));
+    assertThat(batches.get(0)[1], is(instanceOf(Delete.class)));
+    assertThat(batches.get(0)[2], is(instanceOf(Put.class)));
+  }
+
+  @Test
+  public void splitsBatchesAtTheMaximumNumberOfMutations() throws Exception {
+    MutationBatcher batcher = batcherWithMaxBatchMutations(2);
+
+    context.checking(new Expectations() {{
+      oneOf(region).batchMutate(with(any(Mutation[].class)));
+      will(recordBatchAndReturn(SUCCESS, SUCCESS));
+
+      oneOf(region).batchMutate(with(any(Mutation[].class)));
+      will(recordBatchAndReturn(SUCCESS));
+    }});
+
+    batcher.submit(aPut("row1"));
+    batcher.submit(aPut("row2"));
+    batcher.submit(aPut("row3"));
+    batchExecutor.runAll();
+
+    assertThat(batchSizes(), contains(2, 1));
+  }
+
+  @Test
+  public void failsOnlyTheFuturesOfTheMutationsWhichCouldNotBeApplied() throws Exception {
+    MutationBatcher batcher = batcherWithMaxBatchMutations(100);
+
+    context.checking(new Expectations() {{
+      oneOf(region).batchMutate(with(any(Mutation[].class)));
+      will(recordBatchAndReturn(SUCCESS, FAILURE));
+    }});
+
+    ListenableFuture<Boolean> succeeds = batcher.submit(aPut("row1"));
+    ListenableFuture<Boolean> fails = batcher.submit(aPut("row2"));
+    batchExecutor.runAll();
+
+    assertThat(succeeds.get(), is(true));
+    assertThatFutureFailed(fails);
+  }
+
+  @Test
+  public void failsEveryFutureOfABatchIfTheRegionThrowsAnException() throws Exception {
+    MutationBatcher batcher = batcherWithMaxBatchMutations(100);
+
+    context.checking(new Expectations() {{
+      oneOf(region).batchMutate(with(any(Mutation[].class)));
+      will(throwException(new IOException("region is closing")));
+    }});
+
+    ListenableFuture<Boolean> first = batcher.submit(aPut("row1"));
+    ListenableFuture<Boolean> second = batcher.submit(aPut("row2"));
+    batchExecutor.runAll();
+
+    assertThatFutureFailed(first);
+    assertThatFutureFailed(second);
+  }
+
+  @Test
+  public void failsAMutationOfAnUnsupportedTypeWithoutApplyingIt() throws Exception {
+    MutationBatcher batcher = batcherWithMaxBatchMutations(100);
+
+    context.checking(new Expectations() {{
+      never(region).batchMutate(with(any(Mutation[].class)));
+    }});
+
+    ListenableFuture<Boolean> append = batcher.submit(ProtobufUtil.toMutation(MutationProto.MutationType.APPEND,
+        new Append(Bytes.toBytes("row1")).add(Bytes.toBytes("cf"), Bytes.toBytes("cq"), Bytes.toBytes("value"))));
+    batchExecutor.runAll();
+
+    assertThatFutureFailed(append);
+  }
+
+  private Action recordBatchAndReturn(OperationStatus... statuses) {
+    return new CustomAction("record the batch") {
+      @Override
+      public Object invoke(Invocation invocation) throws Throwable {
+        batches.add((Mutation[]) invocation.getParameter(0));
+        return statuses;
+      }
+    };
+  }
+
+  private List<Integer> batchSizes() {
+    List<Integer> sizes = new ArrayList<>();
+    batches.forEach(batch -> sizes.add(batch.length));
+    return sizes;
+  }
+
+  private static void assertThatFutureFailed(ListenableFuture<Boolean> future) throws InterruptedException {
+    try {
+      future.get();
+      throw new AssertionError("Expected the future to have failed");
+    } catch (ExecutionException expected) {
+      // the mutation failed
+    }
+  }
+
+  private static MutationProto aPut(String row) throws IOException {
+    Put put = new Put(Bytes.toBytes(row));
+    put.add(Bytes.toBytes("cf"), Bytes.toBytes("cq"), Bytes.toBytes("value"));
+    return ProtobufUtil.toMutation(MutationProto.MutationType.PUT, put);
+  }
+
+  private static MutationProto aDelete(String row) throws IOException {
+    return ProtobufUtil.toMutation(MutationProto.MutationType.DELETE, new Delete(Bytes.toBytes(row)));
+  }
+
+  /**
+   * An executor which runs its tasks only when asked, so that mutations may be submitted while a batch is pending.
+   */
+  private static class QueuingExecutor implements Executor {
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+
+    void runAllInReverse() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(tasks.size() - 1).run();
+      }
+    }
+
+    boolean hasTasks() {
+      return !tasks.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet;
+
+import c5db.interfaces.log.Reader;
+import c5db.interfaces.replication.IndexCommitNotice;
+import c5db.interfaces.replication.ReplicatorLog;
+import c5db.log.OLogEntry;
+import c5db.log.OLogRawDataContent;
+import c5db.log.WalEditCodec;
+import c5db.replication.generated.LogEntry;
+import c5db.util.CheckedSupplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static c5db.interfaces.log.SequentialEntryIterable.SequentialEntryIterator;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class RegionLogReplayerTest {
+  @Rule
+  public final JUnitRuleMockery context = new JUnitRuleMockery() {{
+    setThreadingPolicy(new Synchroniser());
+  }};
+
+  private static final String REGION_NAME = "tablename,,1.abcdef.";
+  private static final int CELLS_PER_EDIT = 2;
+  private static final long TERM = 1;
+
+  private final Region region = context.mock(Region.class);
+  private final ReplicatorLog log = context.mock(ReplicatorLog.class);
+
+  @Test(timeout = 3000)
+  public void appliesTheEditsOfEveryLogInBatchesOfTheGivenNumberOfCells() throws Exception {
+    Reader<OLogEntry> reader = aReaderOf(
+        logEntriesWithEditSequenceIds(1, 2, 3),
+        logEntriesWithEditSequenceIds(4, 5));
+    RegionLogReplayer replayer = aReplayerWithBatchCells(2 * CELLS_PER_EDIT);
+    replayer.commit(aCommitNotice(1, 5, TERM));
+
+    context.checking(new Expectations() {{
+      exactly(3).of(region).replay(with(any(List.class)));
+    }});
+
+    long editsReplayed = replayer.replay(reader, log, region, 0).get();
+
+    assertThat(editsReplayed, equalTo(5L));
+    assertThat(replayer.whenCaughtUp().isDone(), is(true));
+  }
+
+  @Test(timeout = 3000)
+  public void skipsEditsWhoseSequenceIdIsNoGreaterThanTheGreatestFlushed() throws Exception {
+    Reader<OLogEntry> reader = aReaderOf(logEntriesWithEditSequenceIds(1, 2, 3, 4, 5));
+    RegionLogReplayer replayer = aReplayerWithBatchCells(100);
+    replayer.commit(aCommitNotice(1, 5, TERM));
+
+    context.checking(new Expectations() {{
+      oneOf(region).replay(with(any(List.class)));
+    }});
+
+    long editsReplayed = replayer.replay(reader, log, region, 3).get();
+
+    assertThat(editsReplayed, equalTo(2L));
+  }
+
+  @Test(timeout = 3000)
+  public void defersTheEditsOfEntriesNotYetKnownToBeCommittedUntilACommitNoticeCoversThem() throws Exception {
+    Reader<OLogEntry> reader = aReaderOf(logEntriesWithEditSequenceIds(1, 2, 3));
+    RegionLogReplayer replayer = aReplayerWithBatchCells(100);
+
+    context.checking(new Expectations() {{
+      never(region).replay(with(any(List.class)));
+    }});
+
+    assertThat(replayer.replay(reader, log, region, 0).get(), equalTo(0L));
+    assertThat(replayer.whenCaughtUp().isDone(), is(false));
+
+    context.checking(new Expectations() {{
+      oneOf(region).replay(with(any(List.class)));
+    }});
+
+    replayer.commit(aCommitNotice(1, 3, TERM));
+
+    assertThat(replayer.getEditsApplied(), equalTo(3L));
+    assertThat(replayer.getAppliedIndex(), equalTo(3L));
+    assertThat(replayer.whenCaughtUp().isDone(), is(true));
+  }
+
+  @Test(timeout = 3000)
+  public void discardsTheEntriesFromTheFirstWhoseCommitNoticeIsForAnotherTerm() throws Exception {
+    Reader<OLogEntry> reader = aReaderOf(logEntriesWithEditSequenceIds(1, 2, 3, 4));
+    RegionLogReplayer replayer = aReplayerWithBatchCells(100);
+
+    context.checking(new Expectations() {{
+      oneOf(region).replay(with(any(List.class)));
+    }});
+
+    replayer.replay(reader, log, region, 0).get();
+    replayer.commit(aCommitNotice(1, 2, TERM));
+
+    assertThat(replayer.getEditsApplied(), equalTo(2L));
+    assertThat(replayer.getAppliedIndex(), equalTo(2L));
+    assertThat(replayer.whenCaughtUp().isDone(), is(false));
+
+    context.checking(new Expectations() {{
+      oneOf(log).getLogEntries(3, 6);
+      will(returnValue(Futures.immediateFuture(toProtostuff(logEntriesWithEditSequenceIds(TERM + 1, 3, 4, 5)))));
+
+      oneOf(region).replay(with(any(List.class)));
+    }});
+
+    replayer.commit(aCommitNotice(3, 5, TERM + 1));
+
+    assertThat(replayer.getEditsApplied(), equalTo(5L));
+    assertThat(replayer.getAppliedIndex(), equalTo(5L));
+    assertThat(replayer.whenCaughtUp().isDone(), is(true));
+  }
+
+  @Test(timeout = 3000)
+  public void catchesUpOnceTheEntryANewLeaderLogsWithoutDataCommitsTheEntriesBeforeIt() throws Exception {
+    List<OLogEntry> entries = logEntriesWithEditSequenceIds(1, 2);
+    entries.add(new OLogEntry(3, TERM + 1, new OLogRawDataContent(new ArrayList<>())));
+    Reader<OLogEntry> reader = aReaderOf(entries);
+    RegionLogReplayer replayer = aReplayerWithBatchCells(100);
+
+    replayer.replay(reader, log, region, 0).get();
+    assertThat(replayer.whenCaughtUp().isDone(), is(false));
+
+    context.checking(new Expectations() {{
+      oneOf(region).replay(with(any(List.class)));
+    }});
+
+    replayer.commit(aCommitNotice(1, 2, TERM));
+    replayer.commit(aCommitNotice(3, 3, TERM + 1));
+
+    assertThat(replayer.getEditsApplied(), equalTo(2L));
+    assertThat(replayer.getAppliedIndex(), equalTo(3L));
+    assertThat(replayer.whenCaughtUp().isDone(), is(true));
+  }
+
+  @Test(timeout = 3000)
+  public void followsTheLogOnceCaughtUpApplyingTheEntriesCoveredByEachCommitNotice() throws Exception {
+    RegionLogReplayer replayer = aReplayerCaughtUpThroughIndex(2);
+    ListenableFuture<Void> applied = replayer.whenApplied(4);
+
+    context.checking(new Expectations() {{
+      oneOf(log).getLogEntries(3, 5);
+      will(returnValue(Futures.immediateFuture(toProtostuff(logEntriesWithEditSequenceIds(3, 4)))));
+
+      oneOf(region).replay(with(any(List.class)));
+    }});
+
+    assertThat(applied.isDone(), is(false));
+    replayer.commit(aCommitNotice(3, 4, TERM));
+
+    assertThat(replayer.getEditsApplied(), equalTo(4L));
+    assertThat(replayer.getAppliedIndex(), equalTo(4L));
+    assertThat(applied.isDone(), is(true));
+  }
+
+  @Test(timeout = 3000)
+  public void passesOverTheEntriesOfATermInWhichThisNodeLed() throws Exception {
+    RegionLogReplayer replayer = aReplayerCaughtUpThroughIndex(2);
+
+    context.checking(new Expectations() {{
+      never(log).getLogEntries(with(any(Long.class)), with(any(Long.class)));
+      never(region).replay(with(any(List.class)));
+    }});
+
+    replayer.leading(TERM + 1);
+    replayer.commit(aCommitNotice(3, 4, TERM + 1));
+
+    assertThat(replayer.getEditsApplied(), equalTo(2L));
+    assertThat(replayer.getAppliedIndex(), equalTo(4L));
+    assertThat(replayer.whenApplied(4).isDone(), is(true));
+  }
+
+  @Test(expected = ExecutionException.class, timeout = 3000)
+  public void failsTheWaitForAnIndexIfTheEntriesCannotBeReadFromTheLog() throws Exception {
+    RegionLogReplayer replayer = aReplayerCaughtUpThroughIndex(2);
+    ListenableFuture<Void> applied = replayer.whenApplied(4);
+
+    context.checking(new Expectations() {{
+      oneOf(log).getLogEntries(3, 5);
+      will(returnValue(Futures.immediateFailedFuture(new IOException("read failed"))));
+    }});
+
+    replayer.commit(aCommitNotice(3, 4, TERM));
+
+    applied.get();
+  }
+
+  @Test(expected = ExecutionException.class, timeout = 3000)
+  public void failsIfAnEditCannotBeApplied() throws Exception {
+    Reader<OLogEntry> reader = aReaderOf(logEntriesWithEditSequenceIds(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+    RegionLogReplayer replayer = aReplayerWithBatchCells(CELLS_PER_EDIT);
+    replayer.commit(aCommitNotice(1, 10, TERM));
+
+    context.checking(new Expectations() {{
+      oneOf(region).replay(with(any(List.class)));
+      will(throwException(new IOException("replay failed")));
+    }});
+
+    replayer.replay(reader, log, region, 0).get();
+  }
+
+  private RegionLogReplayer aReplayerCaughtUpThroughIndex(long index) throws Exception {
+    long[] sequenceIds = new long[(int) index];
+    for (int i = 0; i < index; i++) {
+      sequenceIds[i] = i + 1;
+    }
+    RegionLogReplayer replayer = aReplayerWithBatchCells(100);
+    replayer.commit(aCommitNotice(1, index, TERM));
+
+    context.checking(new Expectations() {{
+      oneOf(region).replay(with(any(List.class)));
+    }});
+
+    replayer.replay(aReaderOf(logEntriesWithEditSequenceIds(sequenceIds)), log, region, 0).get();
+    assertThat(replayer.whenCaughtUp().isDone(), is(true));
+    return replayer;
+  }
+
+  private static RegionLogReplayer aReplayerWithBatchCells(int batchCells) {
+    return new RegionLogReplayer(REGION_NAME, batchCells, MoreExecutors.sameThreadExecutor());
+  }
+
+  private static IndexCommitNotice aCommitNotice(long firstIndex, long lastIndex, long term) {
+    return new IndexCommitNotice(REGION_NAME, 1, firstIndex, lastIndex, term);
+  }
+
+  private List<OLogEntry> logEntriesWithEditSequenceIds(long... sequenceIds) throws IOException {
+    return logEntriesWithEditSequenceIds(TERM, sequenceIds);
+  }
+
+  private List<OLogEntry> logEntriesWithEditSequenceIds(long term, long... sequenceIds) throws IOException {
+    List<OLogEntry> entries = new ArrayList<>();
+    for (long sequenceId : sequenceIds) {
+      WALEdit edit = new WALEdit();
+      for (int i = 0; i < CELLS_PER_EDIT; i++) {
+        edit.add(new KeyValue(Bytes.toBytes("row" + sequenceId), Bytes.toBytes("cf"), Bytes.toBytes("cq" + i),
+            sequenceId, Bytes.toBytes("value")));
+      }
+      entries.add(new OLogEntry(sequenceId, term, new OLogRawDataContent(
+          WalEditCodec.encode(REGION_NAME, sequenceId, edit))));
+    }
+    return entries;
+  }
+
+  private static List<LogEntry> toProtostuff(List<OLogEntry> entries) {
+    List<LogEntry> protostuffEntries = new ArrayList<>();
+    for (OLogEntry entry : entries) {
+      protostuffEntries.add(entry.toProtostuff());
+    }
+    return protostuffEntries;
+  }
+
+  @SafeVarargs
+  private static Reader<OLogEntry> aReaderOf(List<OLogEntry>... logs) {
+    return () -> {
+      ImmutableList.Builder<CheckedSupplier<SequentialEntryIterator<OLogEntry>, IOException>> builder =
+          ImmutableList.builder();
+      for (List<OLogEntry> log : logs) {
+        builder.add(() -> iteratorOver(log));
+      }
+      return builder.build();
+    };
+  }
+
+  private static SequentialEntryIterator<OLogEntry> iteratorOver(List<OLogEntry> entries) {
+    Iterator<OLogEntry> iterator = entries.iterator();
+    return new SequentialEntryIterator<OLogEntry>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public OLogEntry next() {
+        return iterator.next();
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+}
@@ -18,12 +18,22 @@
 package c5db.tablet;
 
 import c5db.AsyncChannelAsserts;
+import c5db.client.generated.ReadConsistency;
 import c5db.interfaces.C5Server;
+import c5db.interfaces.LogModule;
 import c5db.interfaces.ReplicationModule;
+import c5db.interfaces.log.Reader;
+import c5db.interfaces.replication.IndexCommitNotice;
 import c5db.interfaces.replication.Replicator;
 import c5db.interfaces.replication.ReplicatorInstanceEvent;
+import c5db.interfaces.replication.ReplicatorLog;
 import c5db.interfaces.tablet.TabletStateChange;
+import c5db.log.OLogEntry;
+import c5db.log.OLogRawDataContent;
+import c5db.messages.generated.ModuleType;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HRegionInfo;
@@ -44,11 +54,14 @@ import org.junit.Test;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 import static c5db.AsyncChannelAsserts.assertEventually;
 import static c5db.AsyncChannelAsserts.listenTo;
 import static c5db.TabletMatchers.hasMessageWithState;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 
 /**
  * TDD/unit test for tablet.
@@ -61,16 +74,22 @@ public class ReplicatedTabletTest {
 
   private MemoryChannel<Replicator.State> stateChannel;
   private MemoryChannel<ReplicatorInstanceEvent> replicatorEventChannel;
+  private final MemoryChannel<IndexCommitNotice> commitNoticeChannel = new MemoryChannel<>();
 
   final ReplicationModule replicationModule = context.mock(ReplicationModule.class);
   final Replicator replicator = context.mock(Replicator.class);
   final Region.Creator regionCreator = context.mock(Region.Creator.class);
   final Region region = context.mock(Region.class);
   final C5Server server = context.mock(C5Server.class);
+  @SuppressWarnings("unchecked")
+  final LogModule<OLogEntry> logModule = context.mock(LogModule.class);
+  final Reader<OLogEntry> emptyLogReader = ImmutableList::of;
+  final ReplicatorLog replicatorLog = context.mock(ReplicatorLog.class);
 
   final SettableFuture<Replicator> future = SettableFuture.create();
 
   // Value objects for the test.
+  final long nodeId = 1;
   final List<Long> peerList = ImmutableList.of(1L, 2L, 3L);
   final HRegionInfo regionInfo = new HRegionInfo(TableName.valueOf("tablename"));
   final String regionName = regionInfo.getRegionNameAsString();
@@ -146,8 +165,19 @@ public class ReplicatedTabletTest {
       will(returnValue(replicatorEventChannel));
 
       allowing(replicator).getCommitNoticeChannel();
+      will(returnValue(commitNoticeChannel));
 
       allowing(replicator).getId();
+      will(returnValue(nodeId));
+
+      allowing(server).getModule(ModuleType.Log);
+      will(returnValue(Futures.immediateFuture(logModule)));
+
+      allowing(logModule).getLogReader(regionName);
+      will(returnValue(emptyLogReader));
+
+      allowing(logModule).getReplicatorLog(regionName);
+      will(returnValue(Futures.immediateFuture(replicatorLog)));
     }});
   }
 
@@ -163,6 +193,13 @@ public class ReplicatedTabletTest {
     assertEventually(tabletStateChannelListener, hasMessageWithState(c5db.interfaces.tablet.Tablet.State.Open));
   }
 
+  @Test
+  public void replaysItsLogBeforeOpening() throws Throwable {
+    replicatedTablet.start();
+    assertEventually(tabletStateChannelListener, hasMessageWithState(c5db.interfaces.tablet.Tablet.State.Recovering));
+    assertEventually(tabletStateChannelListener, hasMessageWithState(c5db.interfaces.tablet.Tablet.State.Open));
+  }
+
   @Test
   public void shouldRunCallCallbackWhenTabletBecomesTheLeader() throws Throwable {
     replicatedTablet.start();
@@ -171,4 +208,36 @@ public class ReplicatedTabletTest {
     assertEventually(tabletStateChannelListener, hasMessageWithState(c5db.interfaces.tablet.Tablet.State.Leader));
 
   }
-}
\ No newline at end of file
+
+  @Test
+  public void servesAReadRequiringAnyConsistencyAtOnceOnAFollower() throws Throwable {
+    replicatedTablet.start();
+    assertEventually(tabletStateChannelListener, hasMessageWithState(c5db.interfaces.tablet.Tablet.State.Open));
+
+    assertThat(replicatedTablet.confirmReadable(ReadConsistency.ANY, 0).isDone(), is(true));
+  }
+
+  @Test(timeout = 3000)
+  public void servesABoundedStalenessReadOnAFollowerOnceItsRegionHasAppliedWhatItKnowsToBeCommitted()
+      throws Throwable {
+    replicatedTablet.start();
+    assertEventually(tabletStateChannelListener, hasMessageWithState(c5db.interfaces.tablet.Tablet.State.Open));
+
+    context.checking(new Expectations() {{
+      allowing(replicator).getCommitStalenessMillis();
+      will(returnValue(10L));
+      allowing(replicator).getLastCommittedIndex();
+      will(returnValue(1L));
+
+      oneOf(replicatorLog).getLogEntries(1, 2);
+      will(returnValue(Futures.immediateFuture(ImmutableList.of(
+          new OLogEntry(1, 1, new OLogRawDataContent(new ArrayList<>())).toProtostuff()))));
+    }});
+
+    ListenableFuture<Void> readable = replicatedTablet.confirmReadable(ReadConsistency.BOUNDED_STALENESS, 100);
+    assertThat(readable.isDone(), is(false));
+
+    commitNoticeChannel.publish(new IndexCommitNotice(regionName, nodeId, 1, 1, 1));
+    readable.get();
+  }
+}
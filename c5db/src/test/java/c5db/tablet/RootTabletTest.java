@@ -23,12 +23,17 @@ import c5db.client.generated.Condition;
 import c5db.client.generated.Get;
 import c5db.client.generated.MutationProto;
 import c5db.interfaces.C5Server;
+import c5db.interfaces.LogModule;
 import c5db.interfaces.ReplicationModule;
+import c5db.interfaces.log.Reader;
 import c5db.interfaces.replication.Replicator;
 import c5db.interfaces.server.CommandRpcRequest;
 import c5db.interfaces.tablet.TabletStateChange;
+import c5db.log.OLogEntry;
 import c5db.messages.generated.ModuleSubCommand;
+import c5db.messages.generated.ModuleType;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 import io.protostuff.Message;
 import org.apache.hadoop.conf.Configuration;
@@ -78,6 +83,9 @@ public class RootTabletTest {
   private final Region.Creator regionCreator = context.mock(Region.Creator.class);
   private final Region region = context.mock(Region.class);
   private final C5Server server = context.mock(C5Server.class);
+  @SuppressWarnings("unchecked")
+  private final LogModule<OLogEntry> logModule = context.mock(LogModule.class);
+  private final Reader<OLogEntry> emptyLogReader = ImmutableList::of;
   private final SettableFuture<Replicator> future = SettableFuture.create();
 
   // Value objects for the test.
@@ -133,6 +141,12 @@ public class RootTabletTest {
         allowing(replicator).getCommitNoticeChannel();
 
         allowing(replicator).getId();
+
+        allowing(server).getModule(ModuleType.Log);
+        will(returnValue(Futures.immediateFuture(logModule)));
+
+        allowing(logModule).getLogReader(regionName);
+        will(returnValue(emptyLogReader));
       }
     });
   }
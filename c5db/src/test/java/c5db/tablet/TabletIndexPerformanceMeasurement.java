@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet;
+
+import c5db.interfaces.tablet.Tablet;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Compares the cost of finding the tablet for a request using {@link TabletIndex} with that of the
+ * lookup it replaced, which scanned every region name for one beginning with the requested table name.
+ * <p>
+ * A number of tables are each split into many tablets with evenly spaced integer start keys, and the same
+ * sequence of random (table, row) lookups is performed against each structure. Note that the old lookup
+ * did not take the row into account at all; it is measured only to show the cost of its linear scan.
+ */
+public class TabletIndexPerformanceMeasurement {
+  private static final int NUMBER_OF_TABLES = 10;
+  private static final int TABLETS_PER_TABLE = 1000;
+  private static final int NUMBER_OF_LOOKUPS = 100000;
+  private static final int WARMUP_RUNS = 3;
+
+  public static void main(String[] args) {
+    final TabletIndex tabletIndex = new TabletIndex();
+    final Map<String, Tablet> tabletsByRegionName = new TreeMap<>();
+
+    for (int table = 0; table < NUMBER_OF_TABLES; table++) {
+      for (int split = 0; split < TABLETS_PER_TABLE; split++) {
+        final Tablet tablet = tablet(tableName(table), startKey(split), endKey(split));
+        tabletIndex.add(tablet);
+        tabletsByRegionName.put(tablet.getRegionInfo().getRegionNameAsString(), tablet);
+      }
+    }
+
+    final Random random = new Random(0);
+    final int[] tables = new int[NUMBER_OF_LOOKUPS];
+    final byte[][] rows = new byte[NUMBER_OF_LOOKUPS][];
+    for (int i = 0; i < NUMBER_OF_LOOKUPS; i++) {
+      tables[i] = random.nextInt(NUMBER_OF_TABLES);
+      rows[i] = Bytes.toBytes(random.nextInt(TABLETS_PER_TABLE * 100));
+    }
+
+    System.out.println(tabletIndex.size() + " tablets, " + NUMBER_OF_LOOKUPS + " lookups");
+
+    for (int run = 0; run <= WARMUP_RUNS; run++) {
+      final boolean report = run == WARMUP_RUNS;
+
+      long start = System.nanoTime();
+      for (int i = 0; i < NUMBER_OF_LOOKUPS; i++) {
+        if (tabletIndex.getTablet(ByteBuffer.wrap(Bytes.toBytes(tableName(tables[i]))), rows[i]) == null) {
+          throw new AssertionError("No tablet found in index");
+        }
+      }
+      long indexNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < NUMBER_OF_LOOKUPS; i++) {
+        final String tableName = tableName(tables[i]);
+        Optional<String> maybeFoundRegion = tabletsByRegionName
+            .keySet()
+            .stream()
+            .filter(s -> s.startsWith(tableName))
+            .findFirst();
+        if (!maybeFoundRegion.isPresent()) {
+          throw new AssertionError("No tablet found by prefix scan");
+        }
+      }
+      long scanNanos = System.nanoTime() - start;
+
+      if (report) {
+        System.out.format("index:       %,d ns per lookup%n", indexNanos / NUMBER_OF_LOOKUPS);
+        System.out.format("prefix scan: %,d ns per lookup%n", scanNanos / NUMBER_OF_LOOKUPS);
+      }
+    }
+  }
+
+  private static String tableName(int table) {
+    return "table" + table;
+  }
+
+  private static byte[] startKey(int split) {
+    return split == 0 ? new byte[0] : Bytes.toBytes(split * 100);
+  }
+
+  private static byte[] endKey(int split) {
+    return split == TABLETS_PER_TABLE - 1 ? new byte[0] : Bytes.toBytes((split + 1) * 100);
+  }
+
+  private static Tablet tablet(String tableName, byte[] startKey, byte[] endKey) {
+    final HRegionInfo regionInfo = new HRegionInfo(TableName.valueOf(tableName), startKey, endKey);
+    return (Tablet) Proxy.newProxyInstance(Tablet.class.getClassLoader(), new Class<?>[]{Tablet.class},
+        (proxy, method, methodArgs) -> {
+          if (method.getName().equals("getRegionInfo")) {
+            return regionInfo;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        });
+  }
+}
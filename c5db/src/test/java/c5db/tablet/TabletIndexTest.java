@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet;
+
+import c5db.interfaces.tablet.Tablet;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class TabletIndexTest {
+  @Rule
+  public final JUnitRuleMockery context = new JUnitRuleMockery();
+
+  private static final String TABLE = "testTable";
+
+  private final Tablet firstTablet = aTablet(TABLE, "", "b");
+  private final Tablet middleTablet = aTablet(TABLE, "b", "d");
+  private final Tablet lastTablet = aTablet(TABLE, "d", "");
+  private final Tablet otherTableTablet = aTablet(TABLE + "2", "", "");
+
+  private final TabletIndex tabletIndex = new TabletIndex();
+
+  @Before
+  public void addTabletsToIndex() {
+    tabletIndex.add(firstTablet);
+    tabletIndex.add(middleTablet);
+    tabletIndex.add(lastTablet);
+    tabletIndex.add(otherTableTablet);
+  }
+
+  @Test
+  public void findsTheTabletWhoseKeyRangeContainsTheRow() {
+    assertThat(tabletIndex.getTablet(tableName(TABLE), Bytes.toBytes("a")), is(sameInstance(firstTablet)));
+    assertThat(tabletIndex.getTablet(tableName(TABLE), Bytes.toBytes("b")), is(sameInstance(middleTablet)));
+    assertThat(tabletIndex.getTablet(tableName(TABLE), Bytes.toBytes("c")), is(sameInstance(middleTablet)));
+    assertThat(tabletIndex.getTablet(tableName(TABLE), Bytes.toBytes("zzz")), is(sameInstance(lastTablet)));
+  }
+
+  @Test
+  public void findsTheFirstTabletOfTheTableIfNoRowIsGiven() {
+    assertThat(tabletIndex.getTablet(tableName(TABLE), null), is(sameInstance(firstTablet)));
+    assertThat(tabletIndex.getTablet(tableName(TABLE), new byte[0]), is(sameInstance(firstTablet)));
+  }
+
+  @Test
+  public void distinguishesTablesWhoseNamesShareAPrefix() {
+    assertThat(tabletIndex.getTablet(tableName(TABLE + "2"), Bytes.toBytes("c")),
+        is(sameInstance(otherTableTablet)));
+    assertThat(tabletIndex.getTablet(tableName("test"), Bytes.toBytes("c")), is(nullValue()));
+  }
+
+  @Test
+  public void findsNoTabletForARowNotInAnyTabletsKeyRange() {
+    tabletIndex.remove(middleTablet);
+
+    assertThat(tabletIndex.getTablet(tableName(TABLE), Bytes.toBytes("c")), is(nullValue()));
+    assertThat(tabletIndex.getTablet(tableName(TABLE), Bytes.toBytes("d")), is(sameInstance(lastTablet)));
+  }
+
+  private Tablet aTablet(String table, String startKey, String endKey) {
+    final Tablet tablet = context.mock(Tablet.class, table + "[" + startKey + "," + endKey + ")");
+    final HRegionInfo regionInfo = new HRegionInfo(TableName.valueOf(table),
+        Bytes.toBytes(startKey), Bytes.toBytes(endKey));
+
+    context.checking(new Expectations() {{
+      allowing(tablet).getRegionInfo();
+      will(returnValue(regionInfo));
+    }});
+    return tablet;
+  }
+
+  private static ByteBuffer tableName(String table) {
+    return ByteBuffer.wrap(Bytes.toBytes(table));
+  }
+}
@@ -101,6 +101,9 @@ public class TabletRegistryTest {
 
       oneOf(rootTablet).setStateChangeChannel(DO_NOT_CARE_STATE_CHANGE_CHANNEL);
       oneOf(rootTablet).start();
+
+      allowing(rootTablet).getRegionInfo();
+      will(returnValue(rootRegionInfo));
     }});
 
     tabletRegistry = new TabletRegistry(
@@ -24,17 +24,22 @@ import c5db.client.generated.MutationProto;
 import c5db.discovery.generated.Availability;
 import c5db.interfaces.C5Server;
 import c5db.interfaces.DiscoveryModule;
+import c5db.interfaces.LogModule;
 import c5db.interfaces.ReplicationModule;
 import c5db.interfaces.discovery.NewNodeVisible;
 import c5db.interfaces.discovery.NodeInfo;
+import c5db.interfaces.log.Reader;
 import c5db.interfaces.replication.Replicator;
 import c5db.interfaces.tablet.Tablet;
 import c5db.interfaces.tablet.TabletStateChange;
+import c5db.log.OLogEntry;
 import c5db.messages.generated.ModuleType;
 import c5db.util.C5FiberFactory;
 import c5db.util.ExceptionHandlingBatchExecutor;
 import c5db.util.PoolFiberFactoryWithExecutor;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.SettableFuture;
@@ -85,6 +90,7 @@ public class TabletServiceCommandCheckTest {
   private C5Server c5Server;
   private TabletService tabletService;
   private DiscoveryModule discoveryModule;
+  private LogModule<OLogEntry> logModule;
   private ReplicationModule replicationModule;
   private ConfigDirectory config;
   private Path configDirectory;
@@ -114,6 +120,7 @@ public class TabletServiceCommandCheckTest {
     discoveryModule = context.mock(DiscoveryModule.class);
     replicationModule = context.mock(ReplicationModule.class);
     replicator = context.mock(Replicator.class);
+    logModule = aLogModule();
     // Reset the underlying fiber
 
 
@@ -130,12 +137,26 @@ public class TabletServiceCommandCheckTest {
       oneOf(c5Server).getFiberFactory(with(any(Consumer.class)));
       will(returnValue(fiberFactory));
 
+      allowing(c5Server).getModule(with(ModuleType.Log));
+      will(returnValue(Futures.immediateFuture(logModule)));
+
+      allowing(logModule).getLogReader(with(any(String.class)));
+      will(returnValue(emptyLogReader()));
     }});
 
     tabletService = new TabletService(c5Server);
 
   }
 
+  @SuppressWarnings("unchecked")
+  private LogModule<OLogEntry> aLogModule() {
+    return context.mock(LogModule.class);
+  }
+
+  private static Reader<OLogEntry> emptyLogReader() {
+    return ImmutableList::of;
+  }
+
   private String createTableString() {
     TableName tableName = TableName.valueOf(Bytes.toBytes(TEST_TABLE_NAME));
     HTableDescriptor testDesc = new HTableDescriptor(tableName);
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014  Ohm Data
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as
+ *  published by the Free Software Foundation, either version 3 of the
+ *  License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package c5db.tablet;
+
+import c5db.tablet.hregionbridge.WritesInFlight;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class WritesInFlightTest {
+  private final WritesInFlight writesInFlight = new WritesInFlight();
+
+  @Test
+  public void completesABarrierAtOnceIfNoWriteIsInProgress() throws Exception {
+    writesInFlight.end(writesInFlight.begin());
+
+    assertThat(writesInFlight.whenEarlierWritesEnd().isDone(), is(true));
+  }
+
+  @Test
+  public void completesABarrierOnceEveryWriteBegunBeforeItHasEndedInWhateverOrder() throws Exception {
+    long first = writesInFlight.begin();
+    long second = writesInFlight.begin();
+    ListenableFuture<Void> barrier = writesInFlight.whenEarlierWritesEnd();
+
+    writesInFlight.end(second);
+    assertThat(barrier.isDone(), is(false));
+
+    writesInFlight.end(first);
+    assertThat(barrier.isDone(), is(true));
+  }
+
+  @Test
+  public void doesNotWaitForWritesBegunAfterTheBarrier() throws Exception {
+    long earlier = writesInFlight.begin();
+    ListenableFuture<Void> barrier = writesInFlight.whenEarlierWritesEnd();
+    writesInFlight.begin();
+
+    writesInFlight.end(earlier);
+    assertThat(barrier.isDone(), is(true));
+  }
+}